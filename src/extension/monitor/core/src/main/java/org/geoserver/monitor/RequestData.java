@@ -219,6 +219,22 @@ public class RequestData implements Serializable {
      */
     private BoundingBox bbox;
 
+    /**
+     * Estimate of the source pixels read from the coverages (WMS GetMap only)
+     */
+    private long rasterPixelsRead;
+
+    /**
+     * The overviews picked for each coverage read, as layer:overview (WMS GetMap only)
+     */
+    private List<String> rasterOverviews;
+
+    /**
+     * Peak of the tile memory held by the request in the JAI tile cache, only available when the
+     * tile cache is partitioned
+     */
+    private long rasterMemoryPeak;
+
     public long getId() {
         return id;
     }
@@ -518,6 +534,11 @@ public class RequestData implements Serializable {
         clone.setResponseStatus(responseStatus);
         clone.setHttpReferer(httpReferer);
         clone.setBbox(bbox);
+        clone.setRasterPixelsRead(rasterPixelsRead);
+        if (rasterOverviews != null) {
+            clone.setRasterOverviews(new ArrayList<String>(rasterOverviews));
+        }
+        clone.setRasterMemoryPeak(rasterMemoryPeak);
      
         return clone;
     }
@@ -550,6 +571,28 @@ public class RequestData implements Serializable {
     public void setBbox(BoundingBox bbox) {
         this.bbox = bbox;
     }
-    
-    
+
+    public long getRasterPixelsRead() {
+        return rasterPixelsRead;
+    }
+
+    public void setRasterPixelsRead(long rasterPixelsRead) {
+        this.rasterPixelsRead = rasterPixelsRead;
+    }
+
+    public List<String> getRasterOverviews() {
+        return rasterOverviews;
+    }
+
+    public void setRasterOverviews(List<String> rasterOverviews) {
+        this.rasterOverviews = rasterOverviews;
+    }
+
+    public long getRasterMemoryPeak() {
+        return rasterMemoryPeak;
+    }
+
+    public void setRasterMemoryPeak(long rasterMemoryPeak) {
+        this.rasterMemoryPeak = rasterMemoryPeak;
+    }
 }
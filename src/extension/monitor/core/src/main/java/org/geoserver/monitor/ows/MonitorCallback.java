@@ -11,6 +11,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.geoserver.catalog.Catalog;
+import org.geoserver.jai.RasterMemoryAccount;
 import org.geoserver.monitor.Monitor;
 import org.geoserver.monitor.RequestData;
 import org.geoserver.monitor.RequestData.Category;
@@ -107,6 +108,18 @@ public class MonitorCallback implements DispatcherCallback {
     }
     
     public void finished(Request request) {
+        RasterMemoryAccount account = request.getHttpRequest() != null
+                ? (RasterMemoryAccount) request.getHttpRequest()
+                        .getAttribute(RasterMemoryAccount.ATTRIBUTE)
+                : null;
+        if (account != null) {
+            RequestData data = monitor.current();
+            if (data != null) {
+                data.setRasterMemoryPeak(account.getPeak());
+                monitor.update();
+            }
+        }
+
         if (request.getError() != null) {
             RequestData data = monitor.current();
             if (data == null) {
@@ -0,0 +1,54 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.ows.wms;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geoserver.monitor.Monitor;
+import org.geoserver.monitor.RequestData;
+import org.geoserver.wms.GetMapCallbackAdapter;
+import org.geoserver.wms.RasterReadPlan;
+import org.geoserver.wms.RasterReadPlanner;
+import org.geoserver.wms.WMSMapContent;
+
+/**
+ * Collects the rendering statistics gathered by GetMap into the current {@link RequestData}
+ */
+public class MonitorGetMapCallback extends GetMapCallbackAdapter {
+
+    Monitor monitor;
+
+    public MonitorGetMapCallback(Monitor monitor) {
+        this.monitor = monitor;
+    }
+
+    @Override
+    public WMSMapContent beforeRender(WMSMapContent mapContent) {
+        RequestData data = monitor.current();
+        if (data == null || mapContent.getMetadata() == null) {
+            return mapContent;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<RasterReadPlan> plans = (List<RasterReadPlan>) mapContent.getMetadata()
+                .get(RasterReadPlanner.READ_PLANS);
+        if (plans != null) {
+            long pixels = 0;
+            List<String> overviews = new ArrayList<>();
+            synchronized (plans) {
+                for (RasterReadPlan plan : plans) {
+                    pixels += plan.getPixels();
+                    overviews.add(plan.getLayerName() + ":" + plan.getOverview());
+                }
+            }
+            data.setRasterPixelsRead(pixels);
+            data.setRasterOverviews(overviews);
+            monitor.update();
+        }
+
+        return mapContent;
+    }
+}
@@ -0,0 +1,90 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.ows.wms;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.geoserver.monitor.MemoryMonitorDAO;
+import org.geoserver.monitor.Monitor;
+import org.geoserver.monitor.RequestData;
+import org.geoserver.wms.RasterReadPlan;
+import org.geoserver.wms.RasterReadPlanner;
+import org.geoserver.wms.WMSMapContent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MonitorGetMapCallbackTest {
+
+    Monitor monitor;
+
+    MonitorGetMapCallback callback;
+
+    RequestData data;
+
+    @Before
+    public void setUp() {
+        monitor = new Monitor(new MemoryMonitorDAO());
+        callback = new MonitorGetMapCallback(monitor);
+        data = monitor.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (monitor.current() != null) {
+            monitor.complete();
+        }
+    }
+
+    RasterReadPlan plan(String layerName, int overview, long pixels) {
+        RasterReadPlan plan = createMock(RasterReadPlan.class);
+        expect(plan.getLayerName()).andReturn(layerName).anyTimes();
+        expect(plan.getOverview()).andReturn(overview).anyTimes();
+        expect(plan.getPixels()).andReturn(pixels).anyTimes();
+        replay(plan);
+        return plan;
+    }
+
+    @Test
+    public void testRasterReadPlans() {
+        WMSMapContent mapContent = new WMSMapContent();
+        List<RasterReadPlan> plans = RasterReadPlanner.getPlans(mapContent);
+        plans.add(plan("dem", 0, 1000));
+        plans.add(plan("sat", 2, 250));
+
+        assertSame(mapContent, callback.beforeRender(mapContent));
+        assertEquals(1250, data.getRasterPixelsRead());
+        assertEquals(Arrays.asList("dem:0", "sat:2"), data.getRasterOverviews());
+    }
+
+    @Test
+    public void testNoPlans() {
+        WMSMapContent mapContent = new WMSMapContent();
+
+        assertSame(mapContent, callback.beforeRender(mapContent));
+        assertEquals(0, data.getRasterPixelsRead());
+        assertNull(data.getRasterOverviews());
+    }
+
+    @Test
+    public void testNoCurrentRequest() {
+        monitor.complete();
+        WMSMapContent mapContent = new WMSMapContent();
+        RasterReadPlanner.getPlans(mapContent).add(plan("dem", 1, 1000));
+
+        // nothing to collect into, the map content goes through untouched
+        assertSame(mapContent, callback.beforeRender(mapContent));
+        assertEquals(0, data.getRasterPixelsRead());
+        assertNull(data.getRasterOverviews());
+    }
+}
@@ -0,0 +1,62 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.vector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Collects the processed features of a single layer, so that layers can be prepared in parallel,
+ * and then added to the actual {@link VectorTileBuilder} in the requested order
+ */
+class BufferedLayer {
+
+    static class BufferedFeature {
+        final String layerName;
+
+        final String featureId;
+
+        final String geometryName;
+
+        final Geometry geometry;
+
+        final Map<String, Object> properties;
+
+        BufferedFeature(String layerName, String featureId, String geometryName,
+                Geometry geometry, Map<String, Object> properties) {
+            this.layerName = layerName;
+            this.featureId = featureId;
+            this.geometryName = geometryName;
+            this.geometry = geometry;
+            this.properties = properties;
+        }
+    }
+
+    private final List<BufferedFeature> features = new ArrayList<>();
+
+    /**
+     * Collects a feature
+     */
+    void add(String layerName, String featureId, String geometryName, Geometry geometry,
+            Map<String, Object> properties) {
+        features.add(new BufferedFeature(layerName, featureId, geometryName, geometry, properties));
+    }
+
+    /**
+     * Adds all the collected features to the target builder, in the order they were collected
+     */
+    void replay(VectorTileBuilder target) {
+        for (BufferedFeature f : features) {
+            target.addFeature(f.layerName, f.featureId, f.geometryName, f.geometry, f.properties);
+        }
+    }
+
+    int size() {
+        return features.size();
+    }
+}
@@ -0,0 +1,286 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.vector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.MetadataMap;
+import org.geoserver.wms.WMSMapContent;
+import org.geotools.util.logging.Logging;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Puntal;
+
+/**
+ * Thins out the features of a layer before they get encoded in a tile, so that low zoom tiles of
+ * dense layers do not grow to several megabytes. The reduction is configured in the layer
+ * metadata:
+ * <ul>
+ * <li>{@link #MIN_SIZE}: lines and polygons whose extent is smaller than the given number of
+ * pixels are dropped</li>
+ * <li>{@link #POINT_CELL_SIZE}: only one point is kept in each grid cell of the given size, in
+ * pixels</li>
+ * <li>{@link #MAX_FEATURES}: caps the number of features of the layer in a single tile</li>
+ * <li>{@link #PRIORITY_ATTRIBUTE}: the features with the highest values of this attribute win
+ * when points overlap or the cap is hit, otherwise the first ones read win</li>
+ * <li>{@link #MIN_SCALE}: the reduction applies only at scale denominators equal or larger than
+ * this one, that is, at low zoom levels</li>
+ * </ul>
+ * The reducer sits in front of the sink the features would otherwise go to: they are collected and
+ * then handed over to it, in their original order, by {@link #flush()}.
+ */
+class FeatureReducer implements FeatureSink {
+
+    static final Logger LOGGER = Logging.getLogger(FeatureReducer.class);
+
+    /** Minimum size of lines and polygons, in pixels */
+    public static final String MIN_SIZE = "vectorTileMinSize";
+
+    /** Size of the cells used to remove overlapping points, in pixels */
+    public static final String POINT_CELL_SIZE = "vectorTilePointCellSize";
+
+    /** Maximum number of features of the layer in a single tile */
+    public static final String MAX_FEATURES = "vectorTileMaxFeatures";
+
+    /** Attribute used to prioritize features, the higher the value, the higher the priority */
+    public static final String PRIORITY_ATTRIBUTE = "vectorTilePriorityAttribute";
+
+    /** Scale denominator above which the reduction is applied */
+    public static final String MIN_SCALE = "vectorTileReductionMinScale";
+
+    static class ReducedFeature {
+        final long order;
+
+        final String layerName;
+
+        final String featureId;
+
+        final String geometryName;
+
+        final Geometry geometry;
+
+        final Map<String, Object> properties;
+
+        final Object priority;
+
+        /** The feature lost its cell to a more important point */
+        boolean replaced;
+
+        /** The feature was pushed out by the feature cap */
+        boolean capped;
+
+        ReducedFeature(long order, String layerName, String featureId, String geometryName,
+                Geometry geometry, Map<String, Object> properties, Object priority) {
+            this.order = order;
+            this.layerName = layerName;
+            this.featureId = featureId;
+            this.geometryName = geometryName;
+            this.geometry = geometry;
+            this.properties = properties;
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * Sorts features by priority, and then by reading order, the first one being the most
+     * important
+     */
+    static final Comparator<ReducedFeature> IMPORTANCE = (f1, f2) -> {
+        int result = comparePriorities(f2.priority, f1.priority);
+        return result != 0 ? result : Long.compare(f1.order, f2.order);
+    };
+
+    private final FeatureSink target;
+
+    private final double minSize;
+
+    private final double cellSize;
+
+    private final int maxFeatures;
+
+    private final String priorityAttribute;
+
+    private final double pixelSize;
+
+    private final Map<Long, ReducedFeature> cells = new HashMap<>();
+
+    /**
+     * Holds the features kept so far, least important on top. Points that lose their cell are not
+     * removed, which would be a linear scan, but only marked as replaced, and skipped later
+     */
+    private final PriorityQueue<ReducedFeature> kept = new PriorityQueue<>(
+            Collections.reverseOrder(IMPORTANCE));
+
+    /** Number of features in {@link #kept} that have not been replaced */
+    private int live;
+
+    private long read;
+
+    private int tooSmall;
+
+    private int overlapping;
+
+    private int overCap;
+
+    /**
+     * @param target the sink receiving the reduced features
+     * @param minSize the minimum size of lines and polygons, in pixels, or 0 to keep them all
+     * @param cellSize the size of the point cells, in pixels, or 0 to keep all points
+     * @param maxFeatures the maximum number of features, or 0 for no limit
+     * @param priorityAttribute the attribute prioritizing features, or null
+     * @param pixelSize the size of a pixel in the units of the geometries handed to the builder
+     */
+    FeatureReducer(FeatureSink target, double minSize, double cellSize, int maxFeatures,
+            String priorityAttribute, double pixelSize) {
+        this.target = target;
+        this.minSize = minSize;
+        this.cellSize = cellSize;
+        this.maxFeatures = maxFeatures;
+        this.priorityAttribute = priorityAttribute;
+        this.pixelSize = pixelSize;
+    }
+
+    /**
+     * Returns a reducer configured after the layer metadata, or null if no reduction applies to
+     * the layer at the current scale
+     */
+    static FeatureReducer create(LayerInfo layer, WMSMapContent mapContent, double pixelSize,
+            FeatureSink target) {
+        if (layer == null) {
+            return null;
+        }
+        MetadataMap metadata = layer.getMetadata();
+        Double minScale = metadata.get(MIN_SCALE, Double.class);
+        if (minScale != null && mapContent.getScaleDenominator() < minScale) {
+            return null;
+        }
+        Double minSize = metadata.get(MIN_SIZE, Double.class);
+        Double cellSize = metadata.get(POINT_CELL_SIZE, Double.class);
+        Integer maxFeatures = metadata.get(MAX_FEATURES, Integer.class);
+        if ((minSize == null || minSize <= 0) && (cellSize == null || cellSize <= 0)
+                && (maxFeatures == null || maxFeatures <= 0)) {
+            return null;
+        }
+        return new FeatureReducer(target, minSize != null ? minSize : 0,
+                cellSize != null ? cellSize : 0, maxFeatures != null ? maxFeatures : 0,
+                metadata.get(PRIORITY_ATTRIBUTE, String.class), pixelSize);
+    }
+
+    @Override
+    public void addFeature(String layerName, String featureId, String geometryName,
+            Geometry geometry, Map<String, Object> properties) {
+        long order = read++;
+        if (minSize > 0 && !(geometry instanceof Puntal)) {
+            Envelope envelope = geometry.getEnvelopeInternal();
+            if (Math.max(envelope.getWidth(), envelope.getHeight()) < minSize * pixelSize) {
+                tooSmall++;
+                return;
+            }
+        }
+
+        Object priority = priorityAttribute != null ? properties.get(priorityAttribute) : null;
+        ReducedFeature feature = new ReducedFeature(order, layerName, featureId, geometryName,
+                geometry, properties, priority);
+        if (cellSize > 0 && geometry instanceof Point) {
+            Point point = (Point) geometry;
+            double size = cellSize * pixelSize;
+            long cell = (((long) Math.floor(point.getX() / size)) << 32)
+                    ^ (((long) Math.floor(point.getY() / size)) & 0xFFFFFFFFL);
+            ReducedFeature previous = cells.get(cell);
+            if (previous != null) {
+                overlapping++;
+                if (IMPORTANCE.compare(feature, previous) >= 0) {
+                    return;
+                }
+                // the new point beats the one already in the cell
+                if (previous.capped) {
+                    // it was pushed out by the cap already, count it only once
+                    overCap--;
+                } else {
+                    previous.replaced = true;
+                    live--;
+                }
+            }
+            cells.put(cell, feature);
+        }
+
+        kept.add(feature);
+        live++;
+        if (maxFeatures > 0 && live > maxFeatures) {
+            ReducedFeature removed = kept.poll();
+            while (removed.replaced) {
+                removed = kept.poll();
+            }
+            removed.capped = true;
+            live--;
+            overCap++;
+        }
+    }
+
+    /**
+     * Adds the features that survived the reduction to the target sink, in the order they were
+     * received
+     */
+    void flush() {
+        List<ReducedFeature> features = new ArrayList<>(live);
+        for (ReducedFeature f : kept) {
+            if (!f.replaced) {
+                features.add(f);
+            }
+        }
+        features.sort((f1, f2) -> Long.compare(f1.order, f2.order));
+        for (ReducedFeature f : features) {
+            target.addFeature(f.layerName, f.featureId, f.geometryName, f.geometry, f.properties);
+        }
+        if (LOGGER.isLoggable(Level.FINE) && read > 0) {
+            LOGGER.fine(String.format(
+                    "Reduced features from %,d to %,d (%.1f%%): %,d too small, "
+                            + "%,d overlapping points, %,d over the cap",
+                    read, features.size(), 100d * features.size() / read, tooSmall, overlapping,
+                    overCap));
+        }
+    }
+
+    /**
+     * Number of features received
+     */
+    long getRead() {
+        return read;
+    }
+
+    /**
+     * Number of features kept
+     */
+    int getKept() {
+        return live;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static int comparePriorities(Object p1, Object p2) {
+        if (p1 == p2) {
+            return 0;
+        } else if (p1 == null) {
+            return -1;
+        } else if (p2 == null) {
+            return 1;
+        } else if (p1 instanceof Number && p2 instanceof Number) {
+            return Double.compare(((Number) p1).doubleValue(), ((Number) p2).doubleValue());
+        } else if (p1 instanceof Comparable && p1.getClass().isInstance(p2)) {
+            return ((Comparable) p1).compareTo(p2);
+        }
+        return p1.toString().compareTo(p2.toString());
+    }
+}
@@ -0,0 +1,23 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.vector;
+
+import java.util.Map;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Receives the features of a layer once processed by {@link VectorTileMapOutputFormat}, that is,
+ * the {@link VectorTileBuilder} itself, or a step holding them before they get to it
+ */
+@FunctionalInterface
+interface FeatureSink {
+
+    /**
+     * Adds a feature, same as {@link VectorTileBuilder#addFeature}
+     */
+    void addFeature(String layerName, String featureId, String geometryName, Geometry geometry,
+            Map<String, Object> properties);
+}
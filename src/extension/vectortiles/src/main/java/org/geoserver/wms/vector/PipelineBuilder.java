@@ -9,6 +9,7 @@ import static org.geotools.renderer.lite.VectorMapRenderUtils.buildTransform;
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.annotation.Nullable;
@@ -16,6 +17,7 @@ import javax.annotation.Nullable;
 import org.geotools.geometry.jts.Decimator;
 import org.geotools.geometry.jts.GeometryClipper;
 import org.geotools.geometry.jts.JTS;
+import org.geotools.geometry.jts.LiteCoordinateSequence;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.operation.transform.ConcatenatedTransform;
 import org.geotools.referencing.operation.transform.ProjectiveTransform;
@@ -29,10 +31,13 @@ import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
 
 import com.google.common.base.Throwables;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
 import com.vividsolutions.jts.geom.MultiLineString;
 import com.vividsolutions.jts.geom.MultiPoint;
 import com.vividsolutions.jts.geom.MultiPolygon;
@@ -261,6 +266,17 @@ class PipelineBuilder {
         return this;
     }
 
+    /**
+     * Transform from source CRS to screen coordinates, snapping the result to the integer pixel
+     * grid, for formats that would quantize the coordinates anyways. Doing it first reduces the
+     * number of vertices the following steps have to deal with.
+     * @return
+     */
+    public PipelineBuilder transformAndQuantize() {
+        addLast(new QuantizingTransform(context.sourceToScreen));
+        return this;
+    }
+
     /**
      * Simplify the geometry
      * @param isTransformToScreenCoordinates Use screen coordinate space simplification tolerance
@@ -297,7 +313,8 @@ class PipelineBuilder {
 
                 clippingEnvelope = paintArea;
             } else {
-                ReferencedEnvelope renderingArea = context.renderingArea;
+                // copy, the rendering area is shared with the map content
+                ReferencedEnvelope renderingArea = new ReferencedEnvelope(context.renderingArea);
                 renderingArea.expandBy((clipBBOXSizeIncreasePixels+context.queryBuffer) * context.pixelSizeInTargetCRS);
                 clippingEnvelope = renderingArea;
             }
@@ -323,6 +340,116 @@ class PipelineBuilder {
 
     }
 
+    /**
+     * Transforms and quantizes the geometry coordinates in a single pass, through a primitive
+     * buffer reused across features, dropping the consecutive duplicate points and the components
+     * collapsing once snapped to the grid. The output geometries are backed by
+     * {@link LiteCoordinateSequence}, the only allocation is the final coordinate array.
+     */
+    static final class QuantizingTransform extends Pipeline {
+
+        private final MathTransform tx;
+
+        private double[] buffer = new double[256];
+
+        QuantizingTransform(MathTransform tx) {
+            this.tx = tx;
+        }
+
+        @Override
+        protected Geometry _run(Geometry geom) throws Exception {
+            return quantize(geom);
+        }
+
+        private Geometry quantize(Geometry geom) throws TransformException {
+            GeometryFactory gf = geom.getFactory();
+            if (geom instanceof Point) {
+                CoordinateSequence cs = quantize(((Point) geom).getCoordinateSequence(), 1);
+                return cs == null ? null : gf.createPoint(cs);
+            } else if (geom instanceof LinearRing) {
+                CoordinateSequence cs = quantize(((LinearRing) geom).getCoordinateSequence(), 4);
+                return cs == null ? null : gf.createLinearRing(cs);
+            } else if (geom instanceof LineString) {
+                CoordinateSequence cs = quantize(((LineString) geom).getCoordinateSequence(), 2);
+                return cs == null ? null : gf.createLineString(cs);
+            } else if (geom instanceof Polygon) {
+                Polygon polygon = (Polygon) geom;
+                LinearRing shell = (LinearRing) quantize(polygon.getExteriorRing());
+                if (shell == null) {
+                    return null;
+                }
+                List<LinearRing> holes = new ArrayList<>(polygon.getNumInteriorRing());
+                for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                    LinearRing hole = (LinearRing) quantize(polygon.getInteriorRingN(i));
+                    if (hole != null) {
+                        holes.add(hole);
+                    }
+                }
+                return gf.createPolygon(shell, holes.toArray(new LinearRing[holes.size()]));
+            } else if (geom instanceof GeometryCollection) {
+                List<Geometry> components = new ArrayList<>(geom.getNumGeometries());
+                for (int i = 0; i < geom.getNumGeometries(); i++) {
+                    Geometry component = quantize(geom.getGeometryN(i));
+                    if (component != null) {
+                        components.add(component);
+                    }
+                }
+                if (components.isEmpty()) {
+                    return null;
+                }
+                if (geom instanceof MultiPoint) {
+                    return gf.createMultiPoint(components.toArray(new Point[components.size()]));
+                } else if (geom instanceof MultiLineString) {
+                    return gf.createMultiLineString(
+                            components.toArray(new LineString[components.size()]));
+                } else if (geom instanceof MultiPolygon) {
+                    return gf.createMultiPolygon(
+                            components.toArray(new Polygon[components.size()]));
+                }
+                return gf.createGeometryCollection(
+                        components.toArray(new Geometry[components.size()]));
+            }
+            // unknown geometry type, fall back on the generic transformation
+            return JTS.transform(geom, tx);
+        }
+
+        /**
+         * Transforms and snaps a sequence, or returns null if less than <code>minPoints</code>
+         * distinct consecutive points are left
+         */
+        private CoordinateSequence quantize(CoordinateSequence cs, int minPoints)
+                throws TransformException {
+            int n = cs.size();
+            if (n == 0) {
+                return null;
+            }
+            if (buffer.length < n * 2) {
+                buffer = new double[Math.max(n * 2, buffer.length * 2)];
+            }
+            for (int i = 0; i < n; i++) {
+                buffer[i * 2] = cs.getX(i);
+                buffer[i * 2 + 1] = cs.getY(i);
+            }
+            tx.transform(buffer, 0, buffer, 0, n);
+
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                double x = Math.rint(buffer[i * 2]);
+                double y = Math.rint(buffer[i * 2 + 1]);
+                if (k > 0 && x == buffer[k * 2 - 2] && y == buffer[k * 2 - 1]) {
+                    continue;
+                }
+                buffer[k * 2] = x;
+                buffer[k * 2 + 1] = y;
+                k++;
+            }
+            if (k < minPoints) {
+                return null;
+            }
+            return new LiteCoordinateSequence(Arrays.copyOf(buffer, k * 2));
+        }
+    }
+
     private static final class Simplify extends Pipeline {
 
         private final double distanceTolerance;
@@ -10,12 +10,23 @@ import static org.geotools.renderer.lite.VectorMapRenderUtils.getStyleQuery;
 
 import java.awt.Rectangle;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.geoserver.catalog.LayerInfo;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
+import org.geoserver.wms.MapLayerInfo;
 import org.geoserver.wms.MapProducerCapabilities;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
@@ -26,6 +37,7 @@ import org.geotools.data.Query;
 import org.geotools.factory.Hints;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureIterator;
+import org.geotools.filter.function.EnvFunction;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.Layer;
 import org.geotools.renderer.lite.VectorMapRenderUtils;
@@ -37,6 +49,7 @@ import org.opengis.feature.GeometryAttribute;
 import org.opengis.feature.Property;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.feature.type.Name;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
@@ -59,6 +72,10 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
 
     private boolean transformToScreenCoordinates;
 
+    private boolean quantizeScreenCoordinates;
+
+    private ExecutorService executor;
+
     public VectorTileMapOutputFormat(WMS wms, VectorTileBuilderFactory tileBuilderFactory) {
         super(tileBuilderFactory.getMimeType(), tileBuilderFactory.getOutputFormats());
         this.wms = wms;
@@ -88,6 +105,22 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
         this.transformToScreenCoordinates = useScreenCoords;
     }
 
+    /**
+     * Does this format round screen coordinates to integers, in this case the pipeline snaps them
+     * to the pixel grid right after transforming, before clipping and simplifying
+     */
+    public void setQuantizeScreenCoordinates(boolean quantize) {
+        this.quantizeScreenCoordinates = quantize;
+    }
+
+    /**
+     * Sets the executor used to read and process the layers of a tile in parallel. When not set,
+     * layers are processed one after the other
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
     @Override
     public WebMap produceMap(final WMSMapContent mapContent) throws ServiceException, IOException {
         checkNotNull(mapContent);
@@ -105,35 +138,153 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
         VectorTileBuilder vectorTileBuilder;
         vectorTileBuilder = this.tileBuilderFactory.newBuilder(paintArea, renderingArea);
 
-        CoordinateReferenceSystem sourceCrs;
+        List<Layer> layers = new ArrayList<>();
         for (Layer layer : mapContent.layers()) {
-
-            FeatureSource<?, ?> featureSource = layer.getFeatureSource();
-            GeometryDescriptor geometryDescriptor = featureSource.getSchema()
-                    .getGeometryDescriptor();
-            if (null == geometryDescriptor) {
-                continue;
+            if (layer.getFeatureSource().getSchema().getGeometryDescriptor() != null) {
+                layers.add(layer);
             }
+        }
 
-            sourceCrs = geometryDescriptor.getType().getCoordinateReferenceSystem();
-            int buffer = VectorMapRenderUtils.getComputedBuffer(mapContent.getBuffer(), 
-                    VectorMapRenderUtils.getFeatureStyles(layer, paintArea, 
-                        VectorMapRenderUtils.getMapScale(mapContent, renderingArea), 
-                        (FeatureType)featureSource.getSchema()));
-            Pipeline pipeline = getPipeline(mapContent, renderingArea, paintArea, sourceCrs, buffer);
-            
-            Query query = getStyleQuery(layer, mapContent);
-            query.getHints().remove(Hints.SCREENMAP);
-
-            FeatureCollection<?, ?> features = featureSource.getFeatures(query);
-            
-            run(features, pipeline, geometryDescriptor, vectorTileBuilder, layer);
+        if (executor == null || layers.size() < 2) {
+            for (Layer layer : layers) {
+                addLayer(mapContent, layer, renderingArea, paintArea,
+                        vectorTileBuilder::addFeature);
+            }
+        } else {
+            addLayersInParallel(mapContent, layers, renderingArea, paintArea, vectorTileBuilder);
         }
-        
+
         WebMap map = vectorTileBuilder.build(mapContent);
         return map;
     }
 
+    private void addLayer(WMSMapContent mapContent, Layer layer,
+            ReferencedEnvelope renderingArea, Rectangle paintArea, FeatureSink target)
+            throws IOException {
+        FeatureSource<?, ?> featureSource = layer.getFeatureSource();
+        GeometryDescriptor geometryDescriptor = featureSource.getSchema().getGeometryDescriptor();
+
+        CoordinateReferenceSystem sourceCrs = geometryDescriptor.getType()
+                .getCoordinateReferenceSystem();
+        int buffer = VectorMapRenderUtils.getComputedBuffer(mapContent.getBuffer(), 
+                VectorMapRenderUtils.getFeatureStyles(layer, paintArea, 
+                    VectorMapRenderUtils.getMapScale(mapContent, renderingArea), 
+                    (FeatureType)featureSource.getSchema()));
+        Pipeline pipeline = getPipeline(mapContent, renderingArea, paintArea, sourceCrs, buffer);
+        
+        Query query = getStyleQuery(layer, mapContent);
+        query.getHints().remove(Hints.SCREENMAP);
+
+        FeatureCollection<?, ?> features = featureSource.getFeatures(query);
+
+        // screen coordinates are already in pixels, otherwise convert the reduction thresholds
+        double pixelSize = transformToScreenCoordinates ? 1
+                : renderingArea.getWidth() / paintArea.getWidth();
+        FeatureReducer reducer = FeatureReducer.create(getLayerInfo(mapContent, layer),
+                mapContent, pixelSize, target);
+        if (reducer == null) {
+            run(features, pipeline, geometryDescriptor, target, layer);
+        } else {
+            run(features, pipeline, geometryDescriptor, reducer, layer);
+            reducer.flush();
+        }
+    }
+
+    /**
+     * Looks up the configuration of a map layer, matching its feature source against the
+     * qualified name of the requested layers resources
+     */
+    private LayerInfo getLayerInfo(WMSMapContent mapContent, Layer layer) {
+        Name name = layer.getFeatureSource().getName();
+        if (mapContent.getRequest() == null || name == null) {
+            return null;
+        }
+        for (MapLayerInfo mli : mapContent.getRequest().getLayers()) {
+            LayerInfo info = mli.getLayerInfo();
+            if (info != null && info.getResource() != null
+                    && name.equals(info.getResource().getQualifiedName())) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads and processes the layers on the shared executor, each one in its own buffer, and then
+     * adds them to the tile in the original order, so that the result is the same as the sequential
+     * production
+     */
+    private void addLayersInParallel(WMSMapContent mapContent, List<Layer> layers,
+            ReferencedEnvelope renderingArea, Rectangle paintArea,
+            VectorTileBuilder vectorTileBuilder) throws IOException {
+        // in milliseconds
+        int maxRenderingTime = mapContent.getRequest() != null
+                ? wms.getMaxRenderingTime(mapContent.getRequest()) : 0;
+        long deadline = maxRenderingTime > 0 ? System.currentTimeMillis() + maxRenderingTime
+                : Long.MAX_VALUE;
+
+        // the worker threads need the same thread locals as the request one (request, local
+        // workspace and layer, credentials, raster memory account), plus the env variables, which
+        // are not covered by the thread locals transfer
+        final Thread caller = Thread.currentThread();
+        final ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
+        Map<String, Object> localValues = EnvFunction.getLocalValues();
+        final Map<String, Object> env = localValues != null ? new HashMap<>(localValues)
+                : new HashMap<>();
+        List<Future<BufferedLayer>> futures = new ArrayList<>(layers.size());
+        try {
+            for (Layer layer : layers) {
+                futures.add(executor.submit(() -> {
+                    BufferedLayer buffered = new BufferedLayer();
+                    if (Thread.currentThread() == caller) {
+                        // the pool is saturated and the task is running in the request thread
+                        addLayer(mapContent, layer, renderingArea, paintArea, buffered::add);
+                        return buffered;
+                    }
+                    transfer.apply();
+                    EnvFunction.setLocalValues(env);
+                    try {
+                        addLayer(mapContent, layer, renderingArea, paintArea, buffered::add);
+                        return buffered;
+                    } finally {
+                        EnvFunction.clearLocalValues();
+                        transfer.cleanup();
+                    }
+                }));
+            }
+
+            for (Future<BufferedLayer> future : futures) {
+                long residual = deadline - System.currentTimeMillis();
+                if (residual <= 0) {
+                    throw new TimeoutException();
+                }
+                BufferedLayer buffered = deadline == Long.MAX_VALUE ? future.get()
+                        : future.get(residual, TimeUnit.MILLISECONDS);
+                buffered.replay(vectorTileBuilder);
+            }
+        } catch (TimeoutException e) {
+            throw new ServiceException("This request used more time than allowed and has been "
+                    + "forcefully stopped. Max rendering time is " + (maxRenderingTime / 1000.0)
+                    + "s");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Vector tile production interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ServiceException(cause);
+        } finally {
+            // no-op for the completed ones, stops the others in case of failure
+            for (Future<BufferedLayer> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
     protected Pipeline getPipeline(final WMSMapContent mapContent,
             final ReferencedEnvelope renderingArea, final Rectangle paintArea,
             CoordinateReferenceSystem sourceCrs, int buffer) {
@@ -142,8 +293,12 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
             final PipelineBuilder builder = PipelineBuilder.newBuilder(renderingArea, paintArea, sourceCrs,
                     overSamplingFactor, buffer);
             
-            pipeline = builder.preprocess().transform(transformToScreenCoordinates)
-                    .simplify(transformToScreenCoordinates)
+            if (transformToScreenCoordinates && quantizeScreenCoordinates) {
+                builder.preprocess().transformAndQuantize();
+            } else {
+                builder.preprocess().transform(transformToScreenCoordinates);
+            }
+            pipeline = builder.simplify(transformToScreenCoordinates)
                     .clip(clipToMapBounds, transformToScreenCoordinates).collapseCollections()
                     .build();
         } catch (FactoryException e) {
@@ -174,7 +329,7 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
 
     void run(FeatureCollection<?, ?> features, Pipeline pipeline, 
             GeometryDescriptor geometryDescriptor, 
-            VectorTileBuilder vectorTileBuilder, Layer layer){
+            FeatureSink target, Layer layer){
         Stopwatch sw = Stopwatch.createStarted();
         int count = 0;
         int total = 0;
@@ -204,8 +359,7 @@ public class VectorTileMapOutputFormat extends AbstractMapOutputFormat {
 
                 final Map<String, Object> properties = getProperties(feature);
 
-                vectorTileBuilder.addFeature(layerName, featureId, geometryName, finalGeom,
-                        properties);
+                target.addFeature(layerName, featureId, geometryName, finalGeom, properties);
                 count++;
             }
         }
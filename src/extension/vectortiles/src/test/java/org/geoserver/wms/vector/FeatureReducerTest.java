@@ -0,0 +1,136 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.impl.LayerInfoImpl;
+import org.geoserver.wms.WMSMapContent;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class FeatureReducerTest {
+
+    /** Collects the ids of the features it receives */
+    static class CollectingSink implements FeatureSink {
+        List<String> ids = new ArrayList<>();
+
+        @Override
+        public void addFeature(String layerName, String featureId, String geometryName,
+                Geometry geometry, Map<String, Object> properties) {
+            ids.add(featureId);
+        }
+    }
+
+    CollectingSink target;
+
+    @Before
+    public void setup() {
+        target = new CollectingSink();
+    }
+
+    void add(FeatureReducer reducer, String id, String wkt, Object priority) throws Exception {
+        Geometry geom = new WKTReader().read(wkt);
+        reducer.addFeature("layer", id, "geom", geom,
+                Collections.<String, Object> singletonMap("rank", priority));
+    }
+
+    @Test
+    public void testMinSize() throws Exception {
+        // pixels are 0.5 units wide
+        FeatureReducer reducer = new FeatureReducer(target, 2, 0, 0, null, 0.5);
+        add(reducer, "small", "LINESTRING(0 0, 0.5 0.5)", null);
+        add(reducer, "large", "LINESTRING(0 0, 5 5)", null);
+        add(reducer, "point", "POINT(0 0)", null);
+        reducer.flush();
+        assertEquals(3, reducer.getRead());
+        assertEquals(2, reducer.getKept());
+        assertEquals(Arrays.asList("large", "point"), target.ids);
+    }
+
+    @Test
+    public void testPointCells() throws Exception {
+        FeatureReducer reducer = new FeatureReducer(target, 0, 10, 0, "rank", 1);
+        add(reducer, "p1", "POINT(1 1)", 1);
+        add(reducer, "p2", "POINT(2 2)", 5);
+        add(reducer, "p3", "POINT(3 3)", 2);
+        add(reducer, "p4", "POINT(15 15)", 0);
+        add(reducer, "p5", "POINT(-1 -1)", 0);
+        reducer.flush();
+        // the highest rank wins the cell, negative coordinates go in a different cell
+        assertEquals(Arrays.asList("p2", "p4", "p5"), target.ids);
+    }
+
+    @Test
+    public void testCapByPriority() throws Exception {
+        FeatureReducer reducer = new FeatureReducer(target, 0, 0, 2, "rank", 1);
+        add(reducer, "a", "POINT(0 0)", 1);
+        add(reducer, "b", "POINT(10 10)", 3);
+        add(reducer, "c", "POINT(20 20)", null);
+        add(reducer, "d", "POINT(30 30)", 2);
+        reducer.flush();
+        // original order is preserved among the survivors
+        assertEquals(Arrays.asList("b", "d"), target.ids);
+    }
+
+    @Test
+    public void testPointCellsAndCap() throws Exception {
+        FeatureReducer reducer = new FeatureReducer(target, 0, 10, 2, "rank", 1);
+        add(reducer, "a", "POINT(0 0)", 1);
+        add(reducer, "b", "POINT(20 20)", 2);
+        // replaces a in its cell, which must not count against the cap anymore
+        add(reducer, "c", "POINT(1 1)", 3);
+        // pushed out by the cap right away
+        add(reducer, "d", "POINT(40 40)", 0);
+        // takes the cell of d, and pushes out b
+        add(reducer, "e", "POINT(41 41)", 5);
+        reducer.flush();
+        assertEquals(2, reducer.getKept());
+        assertEquals(Arrays.asList("c", "e"), target.ids);
+    }
+
+    @Test
+    public void testCapInReadingOrder() throws Exception {
+        FeatureReducer reducer = new FeatureReducer(target, 0, 0, 2, null, 1);
+        add(reducer, "a", "POINT(0 0)", null);
+        add(reducer, "b", "POINT(10 10)", null);
+        add(reducer, "c", "POINT(20 20)", null);
+        reducer.flush();
+        assertEquals(Arrays.asList("a", "b"), target.ids);
+    }
+
+    @Test
+    public void testCreate() throws Exception {
+        WMSMapContent mapContent = new WMSMapContent() {
+            @Override
+            public double getScaleDenominator() {
+                return 1000;
+            }
+        };
+        LayerInfo layer = new LayerInfoImpl();
+        assertNull(FeatureReducer.create(null, mapContent, 1, target));
+        assertNull(FeatureReducer.create(layer, mapContent, 1, target));
+
+        layer.getMetadata().put(FeatureReducer.MAX_FEATURES, 100);
+        assertNotNull(FeatureReducer.create(layer, mapContent, 1, target));
+
+        // zoomed in past the reduction threshold
+        layer.getMetadata().put(FeatureReducer.MIN_SCALE, 5000d);
+        assertNull(FeatureReducer.create(layer, mapContent, 1, target));
+        mapContent.dispose();
+    }
+}
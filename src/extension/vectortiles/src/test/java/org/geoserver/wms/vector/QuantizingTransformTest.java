@@ -0,0 +1,71 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.AffineTransform;
+
+import org.geoserver.wms.vector.PipelineBuilder.QuantizingTransform;
+import org.geotools.referencing.operation.transform.ProjectiveTransform;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class QuantizingTransformTest {
+
+    QuantizingTransform transform(double scale) {
+        return new QuantizingTransform(
+                ProjectiveTransform.create(AffineTransform.getScaleInstance(scale, scale)));
+    }
+
+    Geometry geom(String wkt) throws Exception {
+        return new WKTReader().read(wkt);
+    }
+
+    @Test
+    public void testSnapAndRemoveDuplicates() throws Exception {
+        Geometry result = transform(10)._run(geom("LINESTRING(0 0, 0.01 0.01, 0.12 0.08, 1 1)"));
+        assertTrue(result.equalsExact(geom("LINESTRING(0 0, 1 1, 10 10)")));
+    }
+
+    @Test
+    public void testCollapsedLine() throws Exception {
+        assertNull(transform(10)._run(geom("LINESTRING(0 0, 0.01 0.01, 0.02 0)")));
+    }
+
+    @Test
+    public void testCollapsedHole() throws Exception {
+        Geometry result = transform(1)._run(
+                geom("POLYGON((0 0, 10 0, 10 10, 0 10, 0 0), (5 5, 5.1 5, 5.1 5.1, 5 5))"));
+        assertTrue(result.equalsExact(geom("POLYGON((0 0, 10 0, 10 10, 0 10, 0 0))")));
+    }
+
+    @Test
+    public void testCollapsedComponent() throws Exception {
+        Geometry result = transform(1)._run(geom("MULTIPOLYGON(((0 0, 10 0, 10 10, 0 0)), "
+                + "((20 20, 20.1 20, 20.1 20.1, 20 20)))"));
+        assertTrue(result instanceof MultiPolygon);
+        assertEquals(1, result.getNumGeometries());
+        assertTrue(result.getGeometryN(0).equalsExact(geom("POLYGON((0 0, 10 0, 10 10, 0 0))")));
+    }
+
+    @Test
+    public void testBufferReuse() throws Exception {
+        QuantizingTransform transform = transform(1);
+        StringBuilder sb = new StringBuilder("LINESTRING(");
+        for (int i = 0; i < 1000; i++) {
+            sb.append(i > 0 ? ", " : "").append(i).append(" ").append(i % 2);
+        }
+        sb.append(")");
+        assertEquals(1000, transform._run(geom(sb.toString())).getNumPoints());
+        // a smaller geometry after a larger one, the stale buffer contents must not leak
+        assertTrue(transform._run(geom("POINT(3.4 4.6)")).equalsExact(geom("POINT(3 5)")));
+    }
+}
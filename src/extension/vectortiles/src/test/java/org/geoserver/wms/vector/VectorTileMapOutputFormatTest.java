@@ -17,6 +17,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.wicket.spring.test.ApplicationContextMock;
 import org.geoserver.catalog.SLDHandler;
@@ -45,6 +47,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.GeometryDescriptor;
@@ -276,6 +279,34 @@ public class VectorTileMapOutputFormatTest {
                 any(Geometry.class), any(Map.class));
     }
 
+    @Test
+    public void testParallelLayers() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            outputFormat.setExecutor(executor);
+            ReferencedEnvelope mapBounds = new ReferencedEnvelope(-90, 90, 0, 180, WGS84);
+            Rectangle renderingArea = new Rectangle(256, 256);
+
+            WMSMapContent mapContent = createMapContent(mapBounds, renderingArea, null,
+                    pointLayer, lineLayer);
+
+            WebMap mockMap = mock(WebMap.class);
+            when(tileBuilderMock.build(same(mapContent))).thenReturn(mockMap);
+
+            assertSame(mockMap, outputFormat.produceMap(mapContent));
+
+            // layers are added in the requested order, regardless of which one completed first
+            InOrder inOrder = inOrder(tileBuilderMock);
+            inOrder.verify(tileBuilderMock, times(3)).addFeature(eq("points"), anyString(),
+                    eq("geom"), any(Geometry.class), any(Map.class));
+            inOrder.verify(tileBuilderMock, times(3)).addFeature(eq("lines"), anyString(),
+                    eq("geom"), any(Geometry.class), any(Map.class));
+            inOrder.verify(tileBuilderMock).build(same(mapContent));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     private WMSMapContent createMapContent(ReferencedEnvelope mapBounds, Rectangle renderingArea, 
             Integer buffer, Layer... layers) throws Exception {
 
@@ -14,7 +14,9 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -23,12 +25,14 @@ import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.ows.HttpErrorCodeException;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.platform.resource.Resource;
 import org.geoserver.platform.resource.Resource.Type;
 import org.geoserver.wms.WMSMapContent;
 import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
 import org.geotools.data.jdbc.JDBCUtils;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.FeatureIterator;
@@ -72,6 +76,12 @@ public abstract class CachedHierarchyRegionatingStrategy implements
 
     static final Set<String> NO_FIDS = Collections.emptySet();
 
+    /**
+     * The deepest level the hierarchy builder goes to, below it features sharing the same
+     * location would end up in tiles smaller than the coordinate precision
+     */
+    static final int MAX_LEVEL = 40;
+
     /**
      * This structure is used to make sure that multiple threads end up using
      * the same table name object, so that we can use it as a synchonization
@@ -80,6 +90,11 @@ public abstract class CachedHierarchyRegionatingStrategy implements
     static CanonicalSet<String> canonicalizer = CanonicalSet
             .newInstance(String.class);
 
+    /**
+     * The background hierarchy builder, looked up once, the strategies are created per request
+     */
+    private static volatile RegionationBuilder builder;
+
     static {
         try {
             // make sure, once and for all, that H2 is around
@@ -188,6 +203,10 @@ public abstract class CachedHierarchyRegionatingStrategy implements
 
     public void clearCache(FeatureTypeInfo cfg){
         try{
+            RegionationBuilder builder = getBuilder();
+            if (builder != null) {
+                builder.cancel(getDatabaseName(cfg));
+            }
             GeoServerResourceLoader loader = gs.getCatalog().getResourceLoader();
             Resource geosearch = loader.get("geosearch");
             if( geosearch.getType() == Type.DIRECTORY ){
@@ -251,9 +270,7 @@ public abstract class CachedHierarchyRegionatingStrategy implements
             synchronized (tableName) {
                 // get a hold to the database that contains the cache (this will
                 // eventually create the db)
-                conn = DriverManager.getConnection("jdbc:h2:file:" + dataDir
-                        + "/geosearch/h2cache_" + tableName, "geoserver",
-                        "geopass");
+                conn = getConnection(dataDir);
 
                 // try to create the table, if it's already there this will fail
                 st = conn.createStatement();
@@ -265,6 +282,10 @@ public abstract class CachedHierarchyRegionatingStrategy implements
                 st.execute("CREATE INDEX IF NOT EXISTS IDX_TILECACHE ON TILECACHE(x, y, z)");
             }
 
+            // have the whole hierarchy built in the background, the tiles it stores will be
+            // picked up by the following requests
+            startHierarchyBuild(dataDir, conn);
+
             return readFeaturesForTile(tile, conn);
         } finally {
             JDBCUtils.close(st);
@@ -272,6 +293,200 @@ public abstract class CachedHierarchyRegionatingStrategy implements
         }
     }
 
+    private Connection getConnection(String dataDir) throws SQLException {
+        return DriverManager.getConnection("jdbc:h2:file:" + dataDir + "/geosearch/h2cache_"
+                + tableName, "geoserver", "geopass");
+    }
+
+    /**
+     * Returns the {@link RegionationBuilder}, or null if there is none around
+     */
+    static RegionationBuilder getBuilder() {
+        RegionationBuilder result = builder;
+        if (result == null || result.isDestroyed()) {
+            // first lookup, or the application context got reloaded
+            result = GeoServerExtensions.bean(RegionationBuilder.class);
+            builder = result;
+        }
+        return result;
+    }
+
+    /**
+     * Starts the background build of the tile hierarchy, unless it has been already built, or
+     * there is no {@link RegionationBuilder} around, or background builds are disabled
+     */
+    void startHierarchyBuild(final String dataDir, Connection conn) throws SQLException {
+        RegionationBuilder builder = getBuilder();
+        if (builder == null || !builder.isEnabled() || builder.getBuild(tableName) != null) {
+            return;
+        }
+        try (Statement st = conn.createStatement();
+                ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES "
+                        + "WHERE TABLE_NAME = 'TILECACHE_BUILT'")) {
+            if (rs.next() && rs.getInt(1) > 0) {
+                // built before a restart, no need to check again
+                builder.markCompleted(tableName, featureType.prefixedName());
+                return;
+            }
+        }
+        builder.submit(tableName, featureType.prefixedName(),
+                build -> buildHierarchy(dataDir, build));
+    }
+
+    /**
+     * Computes the whole tile hierarchy in a single scan of the features, sorted by priority.
+     * Each feature goes into the topmost tile containing its centroid that is not full yet, which
+     * is the same outcome as computing the tiles one by one from the root down, but without
+     * running a query per tile. Full tiles are stored as soon as they fill up, since no other
+     * feature can make it into them, the others at the end of the scan. Tiles already stored by
+     * the requests are left untouched.
+     */
+    void buildHierarchy(String dataDir, RegionationBuilder.Build build) throws Exception {
+        FeatureSource fs = featureType.getFeatureSource(null, null);
+        GeometryDescriptor geom = fs.getSchema().getGeometryDescriptor();
+        CoordinateReferenceSystem nativeCrs = geom.getCoordinateReferenceSystem();
+        ReferencedEnvelope nativeEnvelope = toNativeEnvelope(dataEnvelope, nativeCrs);
+        if (nativeEnvelope == null) {
+            return;
+        }
+        build.total = fs.getCount(Query.ALL);
+
+        // the sorted features might come in a different CRS than the native one
+        MathTransform tx = null;
+        boolean first = true;
+        double[] coords = new double[2];
+
+        Map<String, Set<String>> pending = new HashMap<>();
+        Map<String, Tile> pendingTiles = new HashMap<>();
+        Set<String> full = new HashSet<>();
+        try (Connection conn = getConnection(dataDir)) {
+            FeatureIterator fi = getSortedFeatures(geom, dataEnvelope, nativeEnvelope, conn);
+            try {
+                while (fi.hasNext()) {
+                    if (build.isCancelled()) {
+                        return;
+                    }
+                    SimpleFeature f = (SimpleFeature) fi.next();
+                    build.processed.incrementAndGet();
+                    if (first) {
+                        first = false;
+                        CoordinateReferenceSystem crs = f.getType().getCoordinateReferenceSystem();
+                        if (crs != null && !CRS.equalsIgnoreMetadata(crs, Tile.WGS84)) {
+                            tx = CRS.findMathTransform(crs, Tile.WGS84, true);
+                        }
+                    }
+                    Geometry g = (Geometry) f.getDefaultGeometry();
+                    if (g == null || g.isEmpty()) {
+                        continue;
+                    }
+                    Point p = g.getCentroid();
+                    coords[0] = p.getX();
+                    coords[1] = p.getY();
+                    if (tx != null) {
+                        tx.transform(coords, 0, coords, 0, 1);
+                    }
+                    if (Double.isNaN(coords[0]) || Double.isNaN(coords[1])) {
+                        continue;
+                    }
+
+                    // go down from the root to the first tile that has room for the feature
+                    Tile tile = getRootTile(coords[0], coords[1]);
+                    String key = getTileKey(tile);
+                    while (full.contains(key) && tile.z < MAX_LEVEL) {
+                        tile = getChildTile(tile, coords[0], coords[1]);
+                        key = getTileKey(tile);
+                    }
+                    Set<String> fids = pending.get(key);
+                    if (fids == null) {
+                        fids = new HashSet<>();
+                        pending.put(key, fids);
+                        pendingTiles.put(key, tile);
+                    }
+                    fids.add(f.getID());
+                    if (fids.size() >= featuresPerTile && tile.z < MAX_LEVEL) {
+                        storeIfMissing(tile, fids, conn, build);
+                        pending.remove(key);
+                        pendingTiles.remove(key);
+                        full.add(key);
+                    }
+                }
+            } finally {
+                fi.close();
+            }
+
+            // the tiles that did not fill up, and the empty children marking the end of the
+            // hierarchy, as computeFids would do
+            for (Map.Entry<String, Set<String>> entry : pending.entrySet()) {
+                if (build.isCancelled()) {
+                    return;
+                }
+                Tile tile = pendingTiles.get(entry.getKey());
+                storeIfMissing(tile, entry.getValue(), conn, build);
+                for (Tile child : tile.getChildren()) {
+                    if (!full.contains(getTileKey(child))
+                            && !pending.containsKey(getTileKey(child))) {
+                        storeIfMissing(child, NO_FIDS, conn, build);
+                    }
+                }
+            }
+
+            try (Statement st = conn.createStatement()) {
+                st.execute("CREATE TABLE IF NOT EXISTS TILECACHE_BUILT(built TIMESTAMP)");
+                st.execute("INSERT INTO TILECACHE_BUILT VALUES (CURRENT_TIMESTAMP)");
+            }
+        }
+    }
+
+    private String getTileKey(Tile tile) {
+        return tile.x + "-" + tile.y + "-" + tile.z;
+    }
+
+    /**
+     * Returns the tile the hierarchy of the point starts from, that is, the deepest tile
+     * containing the point that still contains the whole data envelope, or the level 0 one
+     */
+    Tile getRootTile(double x, double y) {
+        double size = Tile.MAX_TILE_WIDTH;
+        Tile tile = new CachedTile(clamp((x - Tile.WORLD_BOUNDS.getMinX()) / size, 1),
+                clamp((y - Tile.WORLD_BOUNDS.getMinY()) / size, 0), 0);
+        while (tile.z < MAX_LEVEL) {
+            Tile child = getChildTile(tile, x, y);
+            if (!child.getEnvelope().contains((BoundingBox) dataEnvelope)) {
+                break;
+            }
+            tile = child;
+        }
+        return tile;
+    }
+
+    /**
+     * Returns the child of the tile containing the point. Points sitting on the max border of
+     * the tile go into the children on that border, as in {@link CachedTile#contains}
+     */
+    Tile getChildTile(Tile tile, double x, double y) {
+        ReferencedEnvelope envelope = tile.getEnvelope();
+        long cx = tile.x * 2 + (x >= envelope.getMedian(0) ? 1 : 0);
+        long cy = tile.y * 2 + (y >= envelope.getMedian(1) ? 1 : 0);
+        return new CachedTile(cx, cy, tile.z + 1);
+    }
+
+    private long clamp(double ordinate, long max) {
+        return Math.max(0, Math.min(max, (long) Math.floor(ordinate)));
+    }
+
+    private void storeIfMissing(Tile tile, Set<String> fids, Connection conn,
+            RegionationBuilder.Build build) throws Exception {
+        String tileKey = tableName + getTileKey(tile);
+        canonicalizer.add(tileKey);
+        tileKey = canonicalizer.get(tileKey);
+        synchronized (tileKey) {
+            if (readCachedTileFids(tile, conn) == null) {
+                storeFids(tile, fids, conn);
+                build.tiles.incrementAndGet();
+            }
+        }
+    }
+
     /**
      * Reads/computes the tile feature set
      * 
@@ -373,35 +588,11 @@ public abstract class CachedHierarchyRegionatingStrategy implements
             CoordinateReferenceSystem nativeCrs = geom
                     .getCoordinateReferenceSystem();
 
-            ReferencedEnvelope nativeTileEnvelope = null;
-
-            if (!CRS.equalsIgnoreMetadata(Tile.WGS84, nativeCrs)) {
-                try {
-                    nativeTileEnvelope = tile.getEnvelope().transform(nativeCrs, true);
-                } catch (ProjectionException pe) {
-                    // the WGS84 envelope of the tile is too big for this project,
-                    // let's intersect it with the declared lat/lon bounds then
-                    LOGGER.log(Level.INFO, "Could not reproject the current tile bounds " 
-                            + tile.getEnvelope() + " to the native SRS, intersecting with " 
-                            + "the layer declared lat/lon bounds and retrying");
-                    
-                    // let's compare against the declared data bounds then
-                    ReferencedEnvelope llEnv = featureType.getLatLonBoundingBox();
-                    Envelope reduced = tile.getEnvelope().intersection(llEnv);
-                    if(reduced.isNull() || reduced.getWidth() == 0 || reduced.getHeight() == 0) {
-                        // no overlap, no party, the tile will be empty
-                        return Collections.emptySet();
-                    }
-                    
-                    // there is some overlap, let's try the reprojection again.
-                    // if even this fails, the user has evidently setup the 
-                    // geographics bounds improperly
-                    ReferencedEnvelope refRed = new ReferencedEnvelope(reduced, 
-                            tile.getEnvelope().getCoordinateReferenceSystem());
-                    nativeTileEnvelope = refRed.transform(nativeCrs, true);
-                }
-            } else {
-                nativeTileEnvelope = tile.getEnvelope();
+            ReferencedEnvelope nativeTileEnvelope = toNativeEnvelope(tile.getEnvelope(),
+                    nativeCrs);
+            if (nativeTileEnvelope == null) {
+                // no overlap, no party, the tile will be empty
+                return Collections.emptySet();
             }
 
             fi = getSortedFeatures(geom, tile.getEnvelope(), nativeTileEnvelope, conn);
@@ -446,6 +637,40 @@ public abstract class CachedHierarchyRegionatingStrategy implements
         return currFids;
     }
 
+    /**
+     * Turns a lat/lon envelope into the native CRS of the data, or returns null if it does not
+     * overlap the declared data bounds
+     */
+    private ReferencedEnvelope toNativeEnvelope(ReferencedEnvelope envelope,
+            CoordinateReferenceSystem nativeCrs) throws Exception {
+        if (CRS.equalsIgnoreMetadata(Tile.WGS84, nativeCrs)) {
+            return envelope;
+        }
+        try {
+            return envelope.transform(nativeCrs, true);
+        } catch (ProjectionException pe) {
+            // the WGS84 envelope of the tile is too big for this project,
+            // let's intersect it with the declared lat/lon bounds then
+            LOGGER.log(Level.INFO, "Could not reproject the current tile bounds " 
+                    + envelope + " to the native SRS, intersecting with " 
+                    + "the layer declared lat/lon bounds and retrying");
+            
+            // let's compare against the declared data bounds then
+            ReferencedEnvelope llEnv = featureType.getLatLonBoundingBox();
+            Envelope reduced = envelope.intersection(llEnv);
+            if(reduced.isNull() || reduced.getWidth() == 0 || reduced.getHeight() == 0) {
+                return null;
+            }
+            
+            // there is some overlap, let's try the reprojection again.
+            // if even this fails, the user has evidently setup the 
+            // geographics bounds improperly
+            ReferencedEnvelope refRed = new ReferencedEnvelope(reduced, 
+                    envelope.getCoordinateReferenceSystem());
+            return refRed.transform(nativeCrs, true);
+        }
+    }
+
     /**
      * Returns all the features in the specified envelope, sorted according to
      * the priority used for regionating. The features returned do not have to
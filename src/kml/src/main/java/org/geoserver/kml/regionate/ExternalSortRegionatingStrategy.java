@@ -140,17 +140,20 @@ public class ExternalSortRegionatingStrategy extends
     public FeatureIterator getSortedFeatures(GeometryDescriptor geom, 
             ReferencedEnvelope latLongEnvelope, ReferencedEnvelope nativeEnvelope, 
             Connection cacheConn) throws Exception {
-        // first of all, let's check if the geometry index table is there
+        // first of all, let's check if the geometry index table is there (the table name
+        // is canonical, the background hierarchy build and the requests share the same lock)
         Statement st = null;
-        try {
-            st = cacheConn.createStatement();
+        synchronized (tableName) {
             try {
-                st.executeQuery("SELECT * FROM FEATUREIDX LIMIT 1");
-            } catch (SQLException e) {
-                buildIndex(cacheConn);
+                st = cacheConn.createStatement();
+                try {
+                    st.executeQuery("SELECT * FROM FEATUREIDX LIMIT 1");
+                } catch (SQLException e) {
+                    buildIndex(cacheConn);
+                }
+            } finally {
+                JDBCUtils.close(st);
             }
-        } finally {
-            JDBCUtils.close(st);
         }
 
         return new IndexFeatureIterator(cacheConn, latLongEnvelope);
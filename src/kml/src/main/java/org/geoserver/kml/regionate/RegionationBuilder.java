@@ -0,0 +1,260 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.kml.regionate;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Builds the regionation tile hierarchies in the background, on a bounded thread pool, so that
+ * the first requests to a regionated layer do not have to compute it tile by tile. Requests keep
+ * on being served while the build is running, and use the tiles it has already stored.
+ * <p>
+ * Builds are tracked by the name of the tile cache database, a build is started at most once
+ * per database, unless it gets cancelled because the layer cache has been cleared.
+ * </p>
+ * <p>
+ * The background builds can be disabled with the {@link #DISABLE_KEY} system property, in that
+ * case the tiles are computed one by one as the requests hit them.
+ * </p>
+ */
+public class RegionationBuilder implements DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(RegionationBuilder.class);
+
+    /**
+     * System property disabling the background builds
+     */
+    public static final String DISABLE_KEY = "org.geoserver.kml.regionation.build.disable";
+
+    static boolean DISABLED = Boolean.getBoolean(DISABLE_KEY);
+
+    public enum State {
+        RUNNING, COMPLETED, FAILED, CANCELLED
+    }
+
+    /**
+     * The work carried out by a build, reporting progress in the build itself
+     */
+    interface BuildTask {
+        void run(Build build) throws Exception;
+    }
+
+    /**
+     * The status of a tile hierarchy build
+     */
+    public static class Build {
+        final String layer;
+
+        final String database;
+
+        final Date started = new Date();
+
+        volatile Date finished;
+
+        volatile State state = State.RUNNING;
+
+        volatile String error;
+
+        volatile long total = -1;
+
+        final AtomicLong processed = new AtomicLong();
+
+        final AtomicInteger tiles = new AtomicInteger();
+
+        Build(String layer, String database) {
+            this.layer = layer;
+            this.database = database;
+        }
+
+        /**
+         * The prefixed name of the layer being regionated
+         */
+        public String getLayer() {
+            return layer;
+        }
+
+        /**
+         * The name of the tile cache database
+         */
+        public String getDatabase() {
+            return database;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public Date getStarted() {
+            return started;
+        }
+
+        public Date getFinished() {
+            return finished;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * The number of features to be processed, or -1 if not known
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * The number of features processed so far
+         */
+        public long getProcessed() {
+            return processed.get();
+        }
+
+        /**
+         * The number of tiles stored so far
+         */
+        public int getTiles() {
+            return tiles.get();
+        }
+
+        /**
+         * The fraction of the features processed, between 0 and 1, or -1 if the total is not known
+         */
+        public double getProgress() {
+            if (state == State.COMPLETED) {
+                return 1;
+            }
+            return total > 0 ? Math.min(1d, (double) processed.get() / total) : -1;
+        }
+
+        boolean isCancelled() {
+            return state == State.CANCELLED;
+        }
+    }
+
+    private final ConcurrentMap<String, Build> builds = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor;
+
+    private volatile boolean destroyed;
+
+    public RegionationBuilder(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "KMLRegionation-" + count.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), factory);
+    }
+
+    /**
+     * Returns true if the hierarchies can be built in the background
+     */
+    public boolean isEnabled() {
+        return !DISABLED && !destroyed;
+    }
+
+    /**
+     * Returns true if the builder has been shut down along with the application context
+     */
+    boolean isDestroyed() {
+        return destroyed;
+    }
+
+    /**
+     * Records that the hierarchy of the given database was found complete, for example by a
+     * build that ran before a restart, so that it's not looked up again
+     */
+    void markCompleted(String database, String layer) {
+        Build build = new Build(layer, database);
+        build.state = State.COMPLETED;
+        build.finished = build.started;
+        builds.putIfAbsent(database, build);
+    }
+
+    /**
+     * Starts a build for the given database, unless one has already been started
+     *
+     * @return true if the build has been started by this call
+     */
+    boolean submit(String database, String layer, BuildTask task) {
+        Build build = new Build(layer, database);
+        if (builds.putIfAbsent(database, build) != null) {
+            return false;
+        }
+        executor.execute(() -> {
+            try {
+                task.run(build);
+                if (!build.isCancelled()) {
+                    build.state = State.COMPLETED;
+                }
+            } catch (Exception e) {
+                if (!build.isCancelled()) {
+                    LOGGER.log(Level.SEVERE, "Failed to build the regionation hierarchy of "
+                            + layer, e);
+                    build.error = e.getMessage();
+                    build.state = State.FAILED;
+                }
+            } finally {
+                build.finished = new Date();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Cancels the build of the given database, if any, and allows a new one to be started
+     */
+    public void cancel(String database) {
+        Build build = builds.remove(database);
+        if (build != null && build.state == State.RUNNING) {
+            build.state = State.CANCELLED;
+        }
+    }
+
+    /**
+     * Returns the status of the builds started so far
+     */
+    public List<Build> getBuilds() {
+        return new ArrayList<>(builds.values());
+    }
+
+    /**
+     * Returns the status of the build of the given database, or null if there is none
+     */
+    public Build getBuild(String database) {
+        return builds.get(database);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        destroyed = true;
+        for (Build build : builds.values()) {
+            if (build.state == State.RUNNING) {
+                build.state = State.CANCELLED;
+            }
+        }
+        executor.shutdownNow();
+    }
+}
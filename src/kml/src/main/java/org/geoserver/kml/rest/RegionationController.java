@@ -0,0 +1,54 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.kml.rest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.kml.regionate.RegionationBuilder;
+import org.geoserver.kml.regionate.RegionationBuilder.Build;
+import org.geoserver.rest.RestBaseController;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Reports the progress of the KML regionation hierarchy builds
+ */
+@RestController
+@RequestMapping(path = RestBaseController.ROOT_PATH + "/services/kml/regionation", produces = {
+        MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE })
+public class RegionationController extends RestBaseController {
+
+    private final RegionationBuilder builder;
+
+    public RegionationController(RegionationBuilder builder) {
+        this.builder = builder;
+    }
+
+    @GetMapping
+    public Map<String, List<Map<String, Object>>> buildsGet() {
+        List<Map<String, Object>> builds = new ArrayList<>();
+        for (Build build : builder.getBuilds()) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("layer", build.getLayer());
+            map.put("database", build.getDatabase());
+            map.put("state", build.getState().name());
+            map.put("started", build.getStarted());
+            map.put("finished", build.getFinished());
+            map.put("total", build.getTotal());
+            map.put("processed", build.getProcessed());
+            map.put("tiles", build.getTiles());
+            map.put("progress", build.getProgress());
+            map.put("error", build.getError());
+            builds.add(map);
+        }
+        return Collections.singletonMap("builds", builds);
+    }
+}
@@ -16,6 +16,10 @@ import java.util.logging.Level;
 import org.apache.commons.io.FileUtils;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.data.test.MockData;
+import org.geoserver.kml.regionate.RegionationBuilder;
+import org.geoserver.kml.regionate.RegionationBuilder.Build;
+import org.geoserver.kml.regionate.RegionationBuilder.State;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geotools.util.logging.Logging;
 import org.junit.After;
 import org.junit.Before;
@@ -24,6 +28,9 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
 public class GeoSearchKMLTest extends RegionatingTestSupport {
     
     @Before 
@@ -34,7 +41,13 @@ public class GeoSearchKMLTest extends RegionatingTestSupport {
     }
     
     @After
-    public void cleanupRegionationDatabases() throws IOException {
+    public void cleanupRegionationDatabases() throws Exception {
+        // let the background builds release the databases, and forget about them
+        RegionationBuilder builder = GeoServerExtensions.bean(RegionationBuilder.class);
+        for (Build build : builder.getBuilds()) {
+            waitForBuild(build.getDatabase());
+            builder.cancel(build.getDatabase());
+        }
         File dir = getDataDirectory().findOrCreateDir("geosearch");
         FileUtils.deleteDirectory(dir);
     }
@@ -56,6 +69,51 @@ public class GeoSearchKMLTest extends RegionatingTestSupport {
         assertXpathEvaluatesTo("self", "//kml:Placemark/atom:link/@rel", document);
     }
     
+    Build waitForBuild(String database) throws InterruptedException {
+        RegionationBuilder builder = GeoServerExtensions.bean(RegionationBuilder.class);
+        Build build = builder.getBuild(database);
+        for (int i = 0; i < 100 && build != null && build.getState() == State.RUNNING; i++) {
+            Thread.sleep(100);
+        }
+        return build;
+    }
+
+    /**
+     * Test that the first request to a regionated layer starts the build of the whole hierarchy
+     */
+    @Test
+    public void testHierarchyBuild() throws Exception {
+        final String path = 
+            "wms?request=getmap&service=wms&version=1.1.1" + 
+            "&format=" + KMLMapOutputFormat.MIME_TYPE + 
+            "&layers=" + TILE_TESTS.getPrefix() + ":" + TILE_TESTS.getLocalPart() + 
+            "&styles=&height=1024&width=1024&srs=EPSG:4326" +
+            "&format_options=regionateBy:external-sorting;regionateAttr:z";
+
+        FeatureTypeInfo fti = getFeatureTypeInfo(TILE_TESTS);
+        fti.getMetadata().put("kml.regionateFeatureLimit", 2);
+        getCatalog().save(fti);
+
+        Document west = getAsDOM(path + "&bbox=-180,-90,0,90");
+        assertEquals(2, west.getDocumentElement().getElementsByTagName("Placemark").getLength());
+
+        Build build = waitForBuild("sf_Tiles_z");
+        assertEquals(State.COMPLETED, build.getState());
+        assertEquals("sf:Tiles", build.getLayer());
+        assertEquals(8, build.getProcessed());
+        assertTrue(build.getTiles() > 0);
+
+        // the east side has not been requested yet, it's now served out of the built hierarchy
+        Document east = getAsDOM(path + "&bbox=0,-90,180,90");
+        assertEquals(2, east.getDocumentElement().getElementsByTagName("Placemark").getLength());
+
+        JSONObject json = (JSONObject) getAsJSON("rest/services/kml/regionation.json");
+        JSONArray builds = json.getJSONArray("builds");
+        assertEquals(1, builds.size());
+        assertEquals("sf:Tiles", builds.getJSONObject(0).getString("layer"));
+        assertEquals("COMPLETED", builds.getJSONObject(0).getString("state"));
+    }
+
     /**
      * Test that requests regionated by data actually return stuff.
      */
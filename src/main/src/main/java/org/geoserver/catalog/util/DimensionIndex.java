@@ -0,0 +1,275 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.geotools.util.DateRange;
+import org.geotools.util.NumberRange;
+import org.geotools.util.Range;
+
+/**
+ * An immutable, sorted index of the time or elevation domain of a raster, as advertised by the
+ * reader metadata. Each entry is stored as a pair of primitive extrema (milliseconds since the
+ * epoch for times, which doubles represent exactly), sorted by start and then by end, so that
+ * containment, range window and nearest neighbor lookups can be answered by binary search
+ * instead of scanning a set of {@link Date} and {@link DateRange} objects.
+ */
+public class DimensionIndex {
+
+    private final boolean time;
+
+    private final double[] mins;
+
+    private final double[] maxs;
+
+    /** The running maximum of {@link #maxs}, used to skip the ranges ending before a value */
+    private final double[] runningMaxs;
+
+    /** All the distinct entry extrema, sorted */
+    private final double[] extrema;
+
+    private final boolean ranges;
+
+    private DimensionIndex(boolean time, double[] mins, double[] maxs) {
+        this.time = time;
+        this.mins = mins;
+        this.maxs = maxs;
+        this.runningMaxs = new double[maxs.length];
+        boolean ranges = false;
+        for (int i = 0; i < maxs.length; i++) {
+            runningMaxs[i] = i == 0 ? maxs[i] : Math.max(maxs[i], runningMaxs[i - 1]);
+            ranges |= mins[i] != maxs[i];
+        }
+        this.ranges = ranges;
+
+        double[] all = new double[mins.length * 2];
+        System.arraycopy(mins, 0, all, 0, mins.length);
+        System.arraycopy(maxs, 0, all, mins.length, maxs.length);
+        Arrays.sort(all);
+        int k = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (k == 0 || all[k - 1] != all[i]) {
+                all[k++] = all[i];
+            }
+        }
+        this.extrema = Arrays.copyOf(all, k);
+    }
+
+    /**
+     * Builds an index out of a collection of {@link Date} and {@link DateRange} objects
+     */
+    public static DimensionIndex buildTimeIndex(Collection<?> values) {
+        return build(true, values);
+    }
+
+    /**
+     * Builds an index out of a collection of {@link Number} and {@link NumberRange} objects
+     */
+    public static DimensionIndex buildElevationIndex(Collection<?> values) {
+        return build(false, values);
+    }
+
+    private static DimensionIndex build(boolean time, Collection<?> values) {
+        List<double[]> entries = new ArrayList<>(values.size());
+        for (Object value : values) {
+            if (value instanceof Range) {
+                Range range = (Range) value;
+                entries.add(new double[] { toDouble(range.getMinValue()),
+                        toDouble(range.getMaxValue()) });
+            } else if (value != null) {
+                double d = toDouble(value);
+                entries.add(new double[] { d, d });
+            }
+        }
+        entries.sort(Comparator.<double[]> comparingDouble(e -> e[0])
+                .thenComparingDouble(e -> e[1]));
+
+        double[] mins = new double[entries.size()];
+        double[] maxs = new double[entries.size()];
+        int k = 0;
+        for (double[] entry : entries) {
+            if (k == 0 || mins[k - 1] != entry[0] || maxs[k - 1] != entry[1]) {
+                mins[k] = entry[0];
+                maxs[k] = entry[1];
+                k++;
+            }
+        }
+        return new DimensionIndex(time, Arrays.copyOf(mins, k), Arrays.copyOf(maxs, k));
+    }
+
+    static double toDouble(Object value) {
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        throw new IllegalArgumentException("Unsupported dimension value " + value);
+    }
+
+    public int size() {
+        return mins.length;
+    }
+
+    public boolean isEmpty() {
+        return mins.length == 0;
+    }
+
+    /**
+     * True if at least one of the entries is a range
+     */
+    public boolean hasRanges() {
+        return ranges;
+    }
+
+    public double getMin(int i) {
+        return mins[i];
+    }
+
+    public double getMax(int i) {
+        return maxs[i];
+    }
+
+    /**
+     * Returns the position of the first entry whose start is greater or equal than the given value
+     * (or {@link #size()}, if there is none)
+     */
+    public int ceilingIndex(double value) {
+        return lowerBound(mins, 0, mins.length, value);
+    }
+
+    /**
+     * True if any of the entries is equal to, or contains, the given value
+     */
+    public boolean contains(double value) {
+        // only entries starting before or at value can contain it, and among them
+        // the ones before the first running maximum reaching value all end before it
+        int end = upperBound(mins, value);
+        int start = lowerBound(runningMaxs, 0, end, value);
+        for (int i = start; i < end; i++) {
+            if (maxs[i] >= value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the positions of the entries intersecting the [min, max] interval, in order
+     */
+    public int[] getIntersecting(double min, double max) {
+        int end = upperBound(mins, max);
+        int start = lowerBound(runningMaxs, 0, end, min);
+        int[] result = new int[end - start];
+        int k = 0;
+        for (int i = start; i < end; i++) {
+            if (maxs[i] >= min) {
+                result[k++] = i;
+            }
+        }
+        return k == result.length ? result : Arrays.copyOf(result, k);
+    }
+
+    /**
+     * Returns the largest entry extremum lower or equal than the given value, or {@link Double#NaN}
+     * if there is none
+     */
+    public double floorExtremum(double value) {
+        int idx = upperBound(extrema, value) - 1;
+        return idx >= 0 ? extrema[idx] : Double.NaN;
+    }
+
+    /**
+     * Returns the smallest entry extremum strictly greater than the given value, or
+     * {@link Double#NaN} if there is none
+     */
+    public double higherExtremum(double value) {
+        int idx = upperBound(extrema, value);
+        return idx < extrema.length ? extrema[idx] : Double.NaN;
+    }
+
+    /**
+     * Returns the domain as a sorted set of {@link Date}/{@link DateRange} objects for times, or
+     * {@link Double}/{@link NumberRange} objects for elevations, the same way
+     * {@link ReaderDimensionsAccessor} used to expose it
+     */
+    public TreeSet<Object> toDomain(Comparator<Object> comparator) {
+        TreeSet<Object> result = new TreeSet<>(comparator);
+        for (int i = 0; i < mins.length; i++) {
+            result.add(toObject(i));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the domain entries intersecting the [min, max] interval, see
+     * {@link #toDomain(Comparator)}
+     */
+    public TreeSet<Object> toDomain(Comparator<Object> comparator, double min, double max) {
+        TreeSet<Object> result = new TreeSet<>(comparator);
+        for (int i : getIntersecting(min, max)) {
+            result.add(toObject(i));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the i-th entry as a {@link Date}/{@link DateRange} for times, or a
+     * {@link Double}/{@link NumberRange} for elevations
+     */
+    public Object toObject(int i) {
+        double min = mins[i];
+        double max = maxs[i];
+        if (time) {
+            if (min == max) {
+                return new Date((long) min);
+            }
+            return new DateRange(new Date((long) min), new Date((long) max));
+        } else {
+            if (min == max) {
+                return min;
+            }
+            return new NumberRange<Double>(Double.class, min, max);
+        }
+    }
+
+    /**
+     * First position in [from, to) whose value is greater or equal than the given one
+     */
+    private static int lowerBound(double[] values, int from, int to, double value) {
+        int low = from, high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * First position whose value is strictly greater than the given one
+     */
+    private static int upperBound(double[] values, double value) {
+        int low = 0, high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
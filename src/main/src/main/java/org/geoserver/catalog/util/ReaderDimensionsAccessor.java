@@ -11,16 +11,21 @@ import static org.geotools.coverage.grid.io.GridCoverage2DReader.HAS_TIME_DOMAIN
 import static org.geotools.coverage.grid.io.GridCoverage2DReader.TIME_DOMAIN;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeSet;
@@ -43,6 +48,7 @@ import org.geotools.util.Converters;
 import org.geotools.util.DateRange;
 import org.geotools.util.NumberRange;
 import org.geotools.util.Range;
+import org.geotools.util.SoftValueHashMap;
 import org.geotools.util.Utilities;
 import org.geotools.util.logging.Logging;
 import org.opengis.filter.FilterFactory;
@@ -75,7 +81,7 @@ public class ReaderDimensionsAccessor {
         public int compare(Object o1, Object o2) {
             // the domain can be a mix of dates and ranges
             if(o1 instanceof Date) {
-                if(o1 instanceof DateRange) {
+                if(o2 instanceof DateRange) {
                     return ((Date) o1).compareTo(((DateRange) o2).getMinValue());
                 } else {
                     return ((Date) o1).compareTo((Date) o2);
@@ -117,6 +123,19 @@ public class ReaderDimensionsAccessor {
         
     };
 
+    /**
+     * Parsed domains, keyed by a digest of the metadata value they have been built from. The
+     * readers handed out by the resource pool are often wrappers created on the fly, and do not
+     * know the layer they serve, so the domain is the only stable key. The digest changes whenever
+     * the domain does, and avoids keeping the potentially huge domain strings in memory, while
+     * hashing them is still way cheaper than parsing them again
+     */
+    private static final Map<String, DimensionIndex> TIME_INDEXES = Collections
+            .synchronizedMap(new SoftValueHashMap<String, DimensionIndex>(16));
+
+    private static final Map<String, DimensionIndex> ELEVATION_INDEXES = Collections
+            .synchronizedMap(new SoftValueHashMap<String, DimensionIndex>(16));
+
     private final GridCoverage2DReader reader;
 
     private final List<String> metadataNames= new ArrayList<String>();
@@ -152,21 +171,53 @@ public class ReaderDimensionsAccessor {
         if (!hasTime()) {
             Collections.emptySet();
         }
-        final SimpleDateFormat df = getTimeFormat();
+        return getTimeIndex().toDomain(TEMPORAL_COMPARATOR);
+    }
+
+    /**
+     * Returns the time domain of the raster as a sorted, primitive index, parsing it only if it
+     * changed since the last call
+     *
+     * @throws IOException
+     */
+    public DimensionIndex getTimeIndex() throws IOException {
         String domain = reader.getMetadataValue(TIME_DOMAIN);
-        String[] timeInstants = domain.split("\\s*,\\s*");
-        TreeSet<Object> values = new TreeSet<Object>(TEMPORAL_COMPARATOR);
-        for (String tp : timeInstants) {
-            try {
-                values.add(parseTimeOrRange(df, tp));
-            } catch (ParseException e) {
-                LOGGER.log(Level.WARNING, e.getMessage(), e);
+        if (domain == null) {
+            return DimensionIndex.buildTimeIndex(Collections.emptyList());
+        }
+        String key = getDomainKey(domain);
+        DimensionIndex index = TIME_INDEXES.get(key);
+        if (index == null) {
+            final SimpleDateFormat df = getTimeFormat();
+            String[] timeInstants = domain.split("\\s*,\\s*");
+            List<Object> values = new ArrayList<Object>(timeInstants.length);
+            for (String tp : timeInstants) {
+                try {
+                    values.add(parseTimeOrRange(df, tp));
+                } catch (ParseException e) {
+                    LOGGER.log(Level.WARNING, e.getMessage(), e);
+                }
             }
+            index = DimensionIndex.buildTimeIndex(values);
+            TIME_INDEXES.put(key, index);
         }
+        return index;
+    }
 
-        return values;
+    /**
+     * Returns a fixed size key identifying the domain metadata value
+     */
+    static String getDomainKey(String domain) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] digest = md.digest(domain.getBytes(StandardCharsets.UTF_8));
+            return domain.length() + ":" + Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is available on all Java platforms
+            throw new IllegalStateException(e);
+        }
     }
-    
+
     /**
      * Returns the set of time values supported by the raster, sorted by time, in the
      * specified range.
@@ -189,20 +240,8 @@ public class ReaderDimensionsAccessor {
         
         // if we got here, the optimization did not work, do the normal path
         if(result == null) {
-            result = new TreeSet<Object>();
-            TreeSet<Object> fullDomain = getElevationDomain();
-
-            for (Object o : fullDomain) {
-                if(o instanceof Date) {
-                    if(range.contains((Date) o)) {
-                        result.add(o);
-                    }
-                } else if(o instanceof DateRange) {
-                    if(range.intersects((DateRange) o)) {
-                        result.add(o);
-                    }
-                }
-            }
+            result = getTimeIndex().toDomain(TEMPORAL_COMPARATOR,
+                    range.getMinValue().getTime(), range.getMaxValue().getTime());
         }
         
         return result;
@@ -329,21 +368,39 @@ public class ReaderDimensionsAccessor {
         if (!hasElevation()) {
             return null;
         }
-        // parse the values from the reader, they are exposed as strings...
-        String[] elevationValues = reader.getMetadataValue(ELEVATION_DOMAIN).split(",");
-        TreeSet<Object> elevations = new TreeSet<Object>(ELEVATION_COMPARATOR);
-        for (String val : elevationValues) {
-            try {
-                elevations.add(parseNumberOrRange(val));
-            } catch (Exception e) {
-                LOGGER.log(Level.WARNING, e.getMessage(), e);
+        return getElevationIndex().toDomain(ELEVATION_COMPARATOR);
+    }
+
+    /**
+     * Returns the elevation domain of the raster as a sorted, primitive index, parsing it only if
+     * it changed since the last call
+     *
+     * @throws IOException
+     */
+    public DimensionIndex getElevationIndex() throws IOException {
+        String domain = reader.getMetadataValue(ELEVATION_DOMAIN);
+        if (domain == null) {
+            return DimensionIndex.buildElevationIndex(Collections.emptyList());
+        }
+        String key = getDomainKey(domain);
+        DimensionIndex index = ELEVATION_INDEXES.get(key);
+        if (index == null) {
+            // parse the values from the reader, they are exposed as strings...
+            String[] elevationValues = domain.split(",");
+            List<Object> elevations = new ArrayList<Object>(elevationValues.length);
+            for (String val : elevationValues) {
+                try {
+                    elevations.add(parseNumberOrRange(val));
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, e.getMessage(), e);
+                }
             }
+            index = DimensionIndex.buildElevationIndex(elevations);
+            ELEVATION_INDEXES.put(key, index);
         }
-
-        return elevations;
+        return index;
     }
-    
-    
+
     /**
      * Returns the set of elevation values supported by the raster, sorted from smaller to bigger, in the
      * specified range.
@@ -366,20 +423,8 @@ public class ReaderDimensionsAccessor {
         
         // if we got here, the optimization did not work, do the normal path
         if(result == null) {
-            result = new TreeSet<Object>();
-            TreeSet<Object> fullDomain = getElevationDomain();
-
-            for (Object o : fullDomain) {
-                if(o instanceof Double) {
-                    if(range.contains((Number) o)) {
-                        result.add(o);
-                    }
-                } else if(o instanceof NumberRange) {
-                    if(range.intersects((NumberRange) o)) {
-                        result.add(o);
-                    }
-                }
-            }
+            result = getElevationIndex().toDomain(ELEVATION_COMPARATOR,
+                    range.getMinimum(), range.getMaximum());
         }
         
         return result;
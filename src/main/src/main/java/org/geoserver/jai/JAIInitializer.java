@@ -6,6 +6,7 @@
 package org.geoserver.jai;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -106,10 +107,24 @@ public class JAIInitializer implements GeoServerInitializer {
         }
         
         // Setting up Cache Capacity
+        long jaiMemory = (long) (jai.getMemoryCapacity() * Runtime.getRuntime().maxMemory());
         TileCache jaiCache = jaiDef.getTileCache();
+        Map<String, Double> partitions = PartitionedTileCache.getConfiguredPartitions();
+        if (partitions != null && !(jaiCache instanceof PartitionedTileCache)) {
+            // give each service its own share of the tile cache
+            jaiCache.flush();
+            jaiCache = new PartitionedTileCache(partitions, jaiMemory,
+                    PartitionedTileCache.getFactory(jaiCache));
+            jaiDef.setTileCache(jaiCache);
+        }
+        if (jaiCache instanceof PartitionedTileCache
+                && !(jaiDef.getTileScheduler() instanceof RasterMemoryTileScheduler)) {
+            // charge the tiles computed by the scheduler threads to the requests
+            jaiDef.setTileScheduler(new RasterMemoryTileScheduler(jaiDef.getTileScheduler(),
+                    (PartitionedTileCache) jaiCache));
+        }
         jai.setTileCache( jaiCache );
         
-        long jaiMemory = (long) (jai.getMemoryCapacity() * Runtime.getRuntime().maxMemory());
         jaiCache.setMemoryCapacity(jaiMemory);
         
         // Setting up Cache Threshold
@@ -0,0 +1,511 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+import java.util.Vector;
+import java.util.WeakHashMap;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.media.jai.CachedTile;
+import javax.media.jai.JAI;
+import javax.media.jai.RenderedOp;
+import javax.media.jai.TileCache;
+
+import org.geotools.util.logging.Logging;
+
+import com.sun.media.jai.util.CacheDiagnostics;
+
+/**
+ * A {@link TileCache} split in partitions, one per configured service plus a default one, each
+ * one with its own share of the memory capacity, so that a large request against a service cannot
+ * evict the tiles of the others.
+ * <p>
+ * Tiles are routed to the partition of the service handling the request that computes them, and
+ * charged to its {@link RasterMemoryAccount}. The account is found in the {@link #ACCOUNT} thread
+ * local, or, for tiles computed by the JAI tile scheduler threads, in the images bound to it by
+ * {@link RasterMemoryTileScheduler}. A tile that would take a request beyond its memory limit
+ * fails the request. The charges are released as the tiles leave the partitions, the partitions
+ * report their evictions as cache diagnostics, and tiles that get garbage collected anyways are
+ * released as well.
+ * </p>
+ * The partitions are configured with the {@link #PARTITIONS_KEY} system variable, e.g.,
+ * {@code -Dorg.geoserver.jai.partitions=WMS:0.5,WCS:0.3}, each service getting the specified
+ * fraction of the memory capacity, and the default partition getting what is left.
+ */
+public class PartitionedTileCache implements TileCache {
+
+    static final Logger LOGGER = Logging.getLogger(PartitionedTileCache.class);
+
+    /**
+     * The system variable enabling and configuring the partitions
+     */
+    public static final String PARTITIONS_KEY = "org.geoserver.jai.partitions";
+
+    /**
+     * The system variable setting the max tile memory, in bytes, that a single request can hold
+     */
+    public static final String REQUEST_LIMIT_KEY = "org.geoserver.jai.requestMemoryLimit";
+
+    /**
+     * The partition used for tiles not associated to any of the configured services
+     */
+    public static final String DEFAULT_PARTITION = "DEFAULT";
+
+    /**
+     * The account of the current request
+     */
+    public static final ThreadLocal<RasterMemoryAccount> ACCOUNT = new ThreadLocal<>();
+
+    /**
+     * The {@link CachedTile#getAction()} values reporting a tile removal, same in the JAI and
+     * jai-ext tile caches: removal, flush, memory control, garbage collection
+     */
+    static final int[] REMOVAL_ACTIONS = { 1, 2, 3, 7 };
+
+    /**
+     * The charge of a cached tile, weakly referencing the tile so that it can be released if the
+     * tile is garbage collected without the partition reporting it
+     */
+    static class TileCharge extends WeakReference<Raster> {
+        final int hash;
+
+        final RasterMemoryAccount account;
+
+        final long bytes;
+
+        TileCharge(Raster tile, RasterMemoryAccount account, long bytes,
+                ReferenceQueue<Raster> queue) {
+            super(tile, queue);
+            this.hash = System.identityHashCode(tile);
+            this.account = account;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            Raster tile = get();
+            return tile != null && obj instanceof TileCharge && ((TileCharge) obj).get() == tile;
+        }
+    }
+
+    private final Map<String, Double> shares;
+
+    private final Map<String, TileCache> partitions = new LinkedHashMap<>();
+
+    private final Map<RenderedImage, TileCache> ownerPartitions = Collections
+            .synchronizedMap(new WeakHashMap<>());
+
+    private final Map<RenderedImage, RasterMemoryAccount> ownerAccounts = Collections
+            .synchronizedMap(new WeakHashMap<>());
+
+    private final Map<TileCharge, TileCharge> charges = new HashMap<>();
+
+    private final ReferenceQueue<Raster> collected = new ReferenceQueue<>();
+
+    private final Observer evictions = (cache, tile) -> {
+        if (tile instanceof CachedTile && isRemoval(((CachedTile) tile).getAction())) {
+            release(((CachedTile) tile).getTile());
+        }
+    };
+
+    private long memoryCapacity;
+
+    private float memoryThreshold;
+
+    /**
+     * Builds the partitions with the JAI default tile cache implementation
+     *
+     * @param shares the fraction of the memory capacity allotted to each service
+     * @param memoryCapacity the overall memory capacity
+     */
+    public PartitionedTileCache(Map<String, Double> shares, long memoryCapacity) {
+        this(shares, memoryCapacity, () -> JAI.createTileCache());
+    }
+
+    /**
+     * @param shares the fraction of the memory capacity allotted to each service
+     * @param memoryCapacity the overall memory capacity
+     * @param factory builds the tile cache of each partition
+     */
+    public PartitionedTileCache(Map<String, Double> shares, long memoryCapacity,
+            Supplier<TileCache> factory) {
+        this.shares = new LinkedHashMap<>(shares);
+        double total = 0;
+        for (Double share : shares.values()) {
+            total += share;
+        }
+        this.shares.put(DEFAULT_PARTITION, Math.max(0, 1 - total));
+        for (Map.Entry<String, Double> entry : this.shares.entrySet()) {
+            TileCache partition = factory.get();
+            partition.setMemoryCapacity((long) (memoryCapacity * entry.getValue()));
+            observe(partition);
+            partitions.put(entry.getKey(), partition);
+        }
+        this.memoryCapacity = memoryCapacity;
+        this.memoryThreshold = partitions.get(DEFAULT_PARTITION).getMemoryThreshold();
+    }
+
+    /**
+     * Returns a factory building tile caches of the same class as the given one, so that the
+     * partitions use the configured tile cache implementation
+     */
+    public static Supplier<TileCache> getFactory(TileCache prototype) {
+        Class<? extends TileCache> type = prototype.getClass();
+        return () -> {
+            try {
+                return type.newInstance();
+            } catch (InstantiationException | IllegalAccessException e) {
+                LOGGER.log(Level.WARNING, "Could not create a " + type.getName()
+                        + " tile cache partition, using the JAI default implementation", e);
+                return JAI.createTileCache();
+            }
+        };
+    }
+
+    private void observe(TileCache partition) {
+        if (partition instanceof CacheDiagnostics && partition instanceof Observable) {
+            ((Observable) partition).addObserver(evictions);
+            ((CacheDiagnostics) partition).enableDiagnostics();
+        } else {
+            LOGGER.warning("The " + partition.getClass().getName() + " tile cache does not "
+                    + "report evictions, the requests memory will be released only as the "
+                    + "evicted tiles get garbage collected");
+        }
+    }
+
+    static boolean isRemoval(int action) {
+        for (int removal : REMOVAL_ACTIONS) {
+            if (action == removal) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses the partitions from the {@link #PARTITIONS_KEY} system variable, returns null if the
+     * variable is not set
+     */
+    public static Map<String, Double> getConfiguredPartitions() {
+        String spec = System.getProperty(PARTITIONS_KEY);
+        if (spec == null || spec.trim().isEmpty()) {
+            return null;
+        }
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (String entry : spec.split(",")) {
+            String[] kv = entry.split(":");
+            try {
+                if (kv.length != 2) {
+                    throw new IllegalArgumentException("Expected service:share");
+                }
+                double share = Double.parseDouble(kv[1].trim());
+                if (share < 0 || share > 1) {
+                    throw new IllegalArgumentException("The share must be between 0 and 1");
+                }
+                result.put(kv[0].trim().toUpperCase(), share);
+            } catch (IllegalArgumentException e) {
+                LOGGER.log(Level.WARNING, "Skipping invalid tile cache partition '" + entry
+                        + "' in " + PARTITIONS_KEY + ": " + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the max tile memory a single request can hold, as configured by the
+     * {@link #REQUEST_LIMIT_KEY} system variable, or 0 if unlimited
+     */
+    public static long getRequestMemoryLimit() {
+        return Long.getLong(REQUEST_LIMIT_KEY, 0);
+    }
+
+    /**
+     * Returns the partitions, by service
+     */
+    Map<String, TileCache> getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Binds the image, and the images it's computed from, to the account, so that their tiles get
+     * charged to it even when computed outside of the request thread
+     */
+    void bind(RenderedImage image, RasterMemoryAccount account) {
+        bind(image, account, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private void bind(RenderedImage image, RasterMemoryAccount account,
+            Set<RenderedImage> visited) {
+        if (image instanceof RenderedOp) {
+            // the tiles are cached against the rendering, if it has not been created yet
+            // its sources are not being computed either
+            image = ((RenderedOp) image).getCurrentRendering();
+        }
+        if (image == null || !visited.add(image) || ownerAccounts.get(image) == account) {
+            return;
+        }
+        ownerAccounts.put(image, account);
+        Vector<RenderedImage> sources = image.getSources();
+        if (sources != null) {
+            for (RenderedImage source : sources) {
+                bind(source, account, visited);
+            }
+        }
+    }
+
+    TileCache getPartition(RenderedImage owner) {
+        TileCache partition = ownerPartitions.get(owner);
+        if (partition == null) {
+            RasterMemoryAccount account = getAccount(owner);
+            if (account != null) {
+                partition = partitions.get(account.getService());
+            }
+            if (partition == null) {
+                partition = partitions.get(DEFAULT_PARTITION);
+            }
+        }
+        return partition;
+    }
+
+    RasterMemoryAccount getAccount(RenderedImage owner) {
+        RasterMemoryAccount account = ACCOUNT.get();
+        if (account == null) {
+            account = ownerAccounts.get(owner);
+        }
+        return account != null && !account.isClosed() ? account : null;
+    }
+
+    static long getTileSize(Raster data) {
+        DataBuffer db = data.getDataBuffer();
+        return (long) db.getSize() * db.getNumBanks()
+                * DataBuffer.getDataTypeSize(db.getDataType()) / 8;
+    }
+
+    @Override
+    public void add(RenderedImage owner, int tileX, int tileY, Raster data) {
+        add(owner, tileX, tileY, data, null);
+    }
+
+    @Override
+    public void add(RenderedImage owner, int tileX, int tileY, Raster data,
+            Object tileCacheMetric) {
+        TileCache partition = getPartition(owner);
+        ownerPartitions.put(owner, partition);
+        RasterMemoryAccount account = getAccount(owner);
+        // a tile already in the cache is not replaced, only touched
+        if (account != null && partition.getTile(owner, tileX, tileY) == null) {
+            ownerAccounts.put(owner, account);
+            charge(account, data);
+        }
+        partition.add(owner, tileX, tileY, data, tileCacheMetric);
+    }
+
+    @Override
+    public void addTiles(RenderedImage owner, Point[] tileIndices, Raster[] tiles,
+            Object tileCacheMetric) {
+        // go one by one, so that we can stop once the limit is reached
+        for (int i = 0; i < tileIndices.length; i++) {
+            add(owner, tileIndices[i].x, tileIndices[i].y, tiles[i], tileCacheMetric);
+        }
+    }
+
+    /**
+     * Charges the tile to the account, failing the request if it would go beyond its limit
+     */
+    private void charge(RasterMemoryAccount account, Raster tile) {
+        releaseCollected();
+        synchronized (charges) {
+            if (charges.containsKey(new TileCharge(tile, null, 0, null))) {
+                // the same tile cached again
+                return;
+            }
+            TileCharge charge = new TileCharge(tile, account, getTileSize(tile), collected);
+            if (!account.charge(charge.bytes)) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("Request went beyond its raster memory limit of "
+                            + account.getLimit() + " bytes");
+                }
+                throw account.getLimitException();
+            }
+            charges.put(charge, charge);
+        }
+    }
+
+    /**
+     * Releases the charge of a tile that left the cache, if any
+     */
+    private void release(Raster tile) {
+        if (tile == null) {
+            return;
+        }
+        TileCharge charge;
+        synchronized (charges) {
+            charge = charges.remove(new TileCharge(tile, null, 0, null));
+        }
+        if (charge != null) {
+            charge.account.release(charge.bytes);
+        }
+    }
+
+    /**
+     * Releases the charges of the tiles that got garbage collected
+     */
+    private void releaseCollected() {
+        Reference<? extends Raster> reference;
+        while ((reference = collected.poll()) != null) {
+            TileCharge charge;
+            synchronized (charges) {
+                charge = charges.remove(reference);
+            }
+            if (charge != null) {
+                charge.account.release(charge.bytes);
+            }
+        }
+    }
+
+    @Override
+    public void remove(RenderedImage owner, int tileX, int tileY) {
+        TileCache partition = getPartition(owner);
+        Raster tile = partition.getTile(owner, tileX, tileY);
+        partition.remove(owner, tileX, tileY);
+        release(tile);
+    }
+
+    @Override
+    public Raster getTile(RenderedImage owner, int tileX, int tileY) {
+        return getPartition(owner).getTile(owner, tileX, tileY);
+    }
+
+    @Override
+    public Raster[] getTiles(RenderedImage owner) {
+        return getPartition(owner).getTiles(owner);
+    }
+
+    @Override
+    public Raster[] getTiles(RenderedImage owner, Point[] tileIndices) {
+        return getPartition(owner).getTiles(owner, tileIndices);
+    }
+
+    @Override
+    public void removeTiles(RenderedImage owner) {
+        TileCache partition = getPartition(owner);
+        Raster[] tiles = partition.getTiles(owner);
+        ownerAccounts.remove(owner);
+        ownerPartitions.remove(owner);
+        partition.removeTiles(owner);
+        if (tiles != null) {
+            for (Raster tile : tiles) {
+                release(tile);
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+        for (TileCache partition : partitions.values()) {
+            partition.flush();
+        }
+        ownerPartitions.clear();
+        ownerAccounts.clear();
+        List<TileCharge> released;
+        synchronized (charges) {
+            released = new ArrayList<>(charges.keySet());
+            charges.clear();
+        }
+        for (TileCharge charge : released) {
+            charge.account.release(charge.bytes);
+        }
+    }
+
+    @Override
+    public void memoryControl() {
+        for (TileCache partition : partitions.values()) {
+            partition.memoryControl();
+        }
+        releaseCollected();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void setTileCapacity(int tileCapacity) {
+        // deprecated in JAI and ignored by its own implementation
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public int getTileCapacity() {
+        return 0;
+    }
+
+    @Override
+    public void setMemoryCapacity(long memoryCapacity) {
+        this.memoryCapacity = memoryCapacity;
+        for (Map.Entry<String, TileCache> entry : partitions.entrySet()) {
+            entry.getValue()
+                    .setMemoryCapacity((long) (memoryCapacity * shares.get(entry.getKey())));
+        }
+    }
+
+    @Override
+    public long getMemoryCapacity() {
+        return memoryCapacity;
+    }
+
+    @Override
+    public void setMemoryThreshold(float memoryThreshold) {
+        this.memoryThreshold = memoryThreshold;
+        for (TileCache partition : partitions.values()) {
+            partition.setMemoryThreshold(memoryThreshold);
+        }
+    }
+
+    @Override
+    public float getMemoryThreshold() {
+        return memoryThreshold;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void setTileComparator(Comparator comparator) {
+        for (TileCache partition : partitions.values()) {
+            partition.setTileComparator(comparator);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Comparator getTileComparator() {
+        return partitions.get(DEFAULT_PARTITION).getTileComparator();
+    }
+
+}
@@ -0,0 +1,126 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import org.geoserver.platform.ServiceException;
+
+/**
+ * Keeps track of the tile memory a single request is holding in the {@link PartitionedTileCache}.
+ * The cache charges each tile it stores to the account of the request that computed it, and
+ * releases the charge when the tile leaves the cache, be it removed, evicted or garbage collected,
+ * so the account reflects the memory held at any given time, not the memory streamed through.
+ */
+public class RasterMemoryAccount {
+
+    /**
+     * The HTTP request attribute the account is stored into, for later consumption by the
+     * monitoring subsystem
+     */
+    public static final String ATTRIBUTE = RasterMemoryAccount.class.getName();
+
+    private final String service;
+
+    private final long limit;
+
+    private long current;
+
+    private long peak;
+
+    private boolean exceeded;
+
+    private boolean closed;
+
+    /**
+     * @param service the service the request belongs to, used to pick the cache partition
+     * @param limit the max amount of tile memory the request can hold, zero or negative means no
+     *        limit
+     */
+    public RasterMemoryAccount(String service, long limit) {
+        this.service = service;
+        this.limit = limit;
+    }
+
+    /**
+     * Charges the tile memory to the account
+     *
+     * @return false if the charge would go beyond the limit, in that case the account is not
+     *         charged, the tile should not be cached, and the account is marked as exceeded
+     */
+    public synchronized boolean charge(long bytes) {
+        if (limit > 0 && current + bytes > limit) {
+            exceeded = true;
+            return false;
+        }
+        current += bytes;
+        peak = Math.max(peak, current);
+        return true;
+    }
+
+    /**
+     * Releases the memory of a tile that left the cache
+     */
+    public synchronized void release(long bytes) {
+        current = Math.max(0, current - bytes);
+    }
+
+    /**
+     * Marks the request as finished, tiles computed afterwards for the images it created are not
+     * charged to it anymore
+     */
+    public synchronized void close() {
+        closed = true;
+    }
+
+    /**
+     * Returns true if the request is finished
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * The service the request belongs to
+     */
+    public String getService() {
+        return service;
+    }
+
+    /**
+     * The max amount of tile memory the request can hold, zero or negative if unlimited
+     */
+    public long getLimit() {
+        return limit;
+    }
+
+    /**
+     * The tile memory currently held by the request
+     */
+    public synchronized long getCurrent() {
+        return current;
+    }
+
+    /**
+     * The max amount of tile memory held by the request at any given time
+     */
+    public synchronized long getPeak() {
+        return peak;
+    }
+
+    /**
+     * Returns true if the request tried to go beyond its memory limit
+     */
+    public synchronized boolean isExceeded() {
+        return exceeded;
+    }
+
+    /**
+     * Builds the exception reporting the request went beyond its memory limit
+     */
+    ServiceException getLimitException() {
+        return new ServiceException("This request used more raster memory than allowed, the "
+                + "max raster memory per request is " + limit
+                + " bytes. Try reducing the area or resolution of the request.");
+    }
+}
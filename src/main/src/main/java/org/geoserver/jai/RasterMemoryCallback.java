@@ -0,0 +1,65 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import javax.media.jai.JAI;
+
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.Response;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+import org.geoserver.platform.ServiceException;
+
+/**
+ * Sets up a {@link RasterMemoryAccount} for each OWS request when the {@link PartitionedTileCache}
+ * is in use. The cache fails the request as soon as a tile takes it beyond its limit, the checks
+ * performed here catch the cases where the failure got swallowed by the code computing the tiles
+ */
+public class RasterMemoryCallback extends AbstractDispatcherCallback {
+
+    @Override
+    public Service serviceDispatched(Request request, Service service) throws ServiceException {
+        if (JAI.getDefaultInstance().getTileCache() instanceof PartitionedTileCache) {
+            RasterMemoryAccount account = new RasterMemoryAccount(
+                    service.getId().toUpperCase(), PartitionedTileCache.getRequestMemoryLimit());
+            PartitionedTileCache.ACCOUNT.set(account);
+            if (request.getHttpRequest() != null) {
+                request.getHttpRequest().setAttribute(RasterMemoryAccount.ATTRIBUTE, account);
+            }
+        }
+        return service;
+    }
+
+    @Override
+    public Object operationExecuted(Request request, Operation operation, Object result) {
+        checkLimit();
+        return result;
+    }
+
+    @Override
+    public Response responseDispatched(Request request, Operation operation, Object result,
+            Response response) {
+        checkLimit();
+        return response;
+    }
+
+    private void checkLimit() {
+        RasterMemoryAccount account = PartitionedTileCache.ACCOUNT.get();
+        if (account != null && account.isExceeded()) {
+            throw account.getLimitException();
+        }
+    }
+
+    @Override
+    public void finished(Request request) {
+        RasterMemoryAccount account = PartitionedTileCache.ACCOUNT.get();
+        if (account != null) {
+            // the images created by the request might be reused later, stop charging them
+            account.close();
+        }
+        PartitionedTileCache.ACCOUNT.remove();
+    }
+}
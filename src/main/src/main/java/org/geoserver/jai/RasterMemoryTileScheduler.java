@@ -0,0 +1,116 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import java.awt.Point;
+import java.awt.image.Raster;
+
+import javax.media.jai.OpImage;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.TileComputationListener;
+import javax.media.jai.TileRequest;
+import javax.media.jai.TileScheduler;
+
+/**
+ * Wraps the JAI {@link TileScheduler} so that the images whose tiles are scheduled during a
+ * request get bound to its {@link RasterMemoryAccount}: the tiles are then computed by the
+ * scheduler threads, which do not see the request thread locals, yet they still get charged to the
+ * request by the {@link PartitionedTileCache}
+ */
+public class RasterMemoryTileScheduler implements TileScheduler {
+
+    private final TileScheduler delegate;
+
+    private final PartitionedTileCache cache;
+
+    public RasterMemoryTileScheduler(TileScheduler delegate, PartitionedTileCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    /**
+     * The wrapped scheduler
+     */
+    public TileScheduler getDelegate() {
+        return delegate;
+    }
+
+    private void bind(PlanarImage target) {
+        RasterMemoryAccount account = PartitionedTileCache.ACCOUNT.get();
+        if (account != null && target != null) {
+            cache.bind(target, account);
+        }
+    }
+
+    @Override
+    public Raster scheduleTile(OpImage target, int tileX, int tileY) {
+        bind(target);
+        return delegate.scheduleTile(target, tileX, tileY);
+    }
+
+    @Override
+    public Raster[] scheduleTiles(OpImage target, Point[] tileIndices) {
+        bind(target);
+        return delegate.scheduleTiles(target, tileIndices);
+    }
+
+    @Override
+    public TileRequest scheduleTiles(PlanarImage target, Point[] tileIndices,
+            TileComputationListener[] tileListeners) {
+        bind(target);
+        return delegate.scheduleTiles(target, tileIndices, tileListeners);
+    }
+
+    @Override
+    public void cancelTiles(TileRequest request, Point[] tileIndices) {
+        delegate.cancelTiles(request, tileIndices);
+    }
+
+    @Override
+    public void prefetchTiles(PlanarImage target, Point[] tileIndices) {
+        bind(target);
+        delegate.prefetchTiles(target, tileIndices);
+    }
+
+    @Override
+    public void setParallelism(int parallelism) {
+        delegate.setParallelism(parallelism);
+    }
+
+    @Override
+    public int getParallelism() {
+        return delegate.getParallelism();
+    }
+
+    @Override
+    public void setPrefetchParallelism(int parallelism) {
+        delegate.setPrefetchParallelism(parallelism);
+    }
+
+    @Override
+    public int getPrefetchParallelism() {
+        return delegate.getPrefetchParallelism();
+    }
+
+    @Override
+    public void setPriority(int priority) {
+        delegate.setPriority(priority);
+    }
+
+    @Override
+    public int getPriority() {
+        return delegate.getPriority();
+    }
+
+    @Override
+    public void setPrefetchPriority(int priority) {
+        delegate.setPrefetchPriority(priority);
+    }
+
+    @Override
+    public int getPrefetchPriority() {
+        return delegate.getPrefetchPriority();
+    }
+}
@@ -5,6 +5,7 @@
 package org.geoserver.catalog.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import java.io.IOException;
 import java.text.ParseException;
@@ -19,6 +20,7 @@ import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeSet;
 
+import org.geoserver.catalog.util.DimensionIndex;
 import org.geoserver.catalog.util.ReaderDimensionsAccessor;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
@@ -100,6 +102,36 @@ public class ReaderDimensionAccessorTest {
         assertEquals(20, thirdEntry.getMaximum(), 0d);
     }
 
+    @Test
+    public void testTimeIndexCached() throws IOException, ParseException {
+        MockDimensionReader reader = new MockDimensionReader();
+        reader.metadata.put(GridCoverage2DReader.HAS_TIME_DOMAIN, "true");
+        reader.metadata.put(GridCoverage2DReader.TIME_DOMAIN, "2016-02-23T06:00:00.000Z,2016-02-23T03:00:00.000Z,2016-02-23T09:00:00.000Z");
+        DimensionIndex index = new ReaderDimensionsAccessor(reader).getTimeIndex();
+        assertEquals(3, index.size());
+        // same domain, even from a different accessor, returns the same index
+        assertSame(index, new ReaderDimensionsAccessor(reader).getTimeIndex());
+        
+        // range queries on non structured readers
+        ReaderDimensionsAccessor accessor = new ReaderDimensionsAccessor(reader);
+        DateRange range = new DateRange(accessor.getTimeFormat().parse("2016-02-23T05:00:00.000Z"),
+                accessor.getTimeFormat().parse("2016-02-23T10:00:00.000Z"));
+        TreeSet<Object> domain = accessor.getTimeDomain(range, 10);
+        assertEquals(2, domain.size());
+        assertEquals(accessor.getTimeFormat().parse("2016-02-23T06:00:00.000Z"), domain.first());
+    }
+    
+    @Test
+    public void testElevationRangeQuery() throws IOException {
+        MockDimensionReader reader = new MockDimensionReader();
+        reader.metadata.put(GridCoverage2DReader.HAS_ELEVATION_DOMAIN, "true");
+        reader.metadata.put(GridCoverage2DReader.ELEVATION_DOMAIN, "0/0/0,10,15/20/1");
+        ReaderDimensionsAccessor accessor = new ReaderDimensionsAccessor(reader);
+        TreeSet<Object> domain = accessor.getElevationDomain(new NumberRange<Double>(Double.class, 12d, 16d), 10);
+        assertEquals(1, domain.size());
+        assertEquals(new NumberRange<Double>(Double.class, 15d, 20d), domain.first());
+    }
+
     private static SimpleDateFormat DF = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss");
 
     static {
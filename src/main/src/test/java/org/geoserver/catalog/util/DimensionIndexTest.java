@@ -0,0 +1,98 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.geotools.util.DateRange;
+import org.geotools.util.NumberRange;
+import org.junit.Test;
+
+public class DimensionIndexTest {
+
+    @Test
+    public void testInstants() {
+        DimensionIndex index = DimensionIndex.buildTimeIndex(
+                Arrays.asList(new Date(30), new Date(10), new Date(20), new Date(10)));
+        assertEquals(3, index.size());
+        assertFalse(index.hasRanges());
+        assertEquals(10, index.getMin(0), 0d);
+        assertEquals(30, index.getMax(2), 0d);
+
+        assertTrue(index.contains(20));
+        assertFalse(index.contains(25));
+        assertEquals(1, index.ceilingIndex(15));
+        assertEquals(3, index.ceilingIndex(35));
+        assertEquals(new Date(20), index.toObject(1));
+    }
+
+    @Test
+    public void testOverlappingRanges() {
+        // a long range followed by shorter ones, the running maximum must keep it in sight
+        DimensionIndex index = DimensionIndex.buildElevationIndex(Arrays.asList(
+                new NumberRange<Double>(Double.class, 0d, 100d), 
+                new NumberRange<Double>(Double.class, 10d, 20d), 
+                150d));
+        assertTrue(index.hasRanges());
+        assertTrue(index.contains(50));
+        assertTrue(index.contains(150));
+        assertFalse(index.contains(120));
+
+        assertArrayEquals(new int[] { 0, 1 }, index.getIntersecting(15, 16));
+        assertArrayEquals(new int[] { 0 }, index.getIntersecting(30, 120));
+        assertArrayEquals(new int[] { 0, 2 }, index.getIntersecting(90, 200));
+        assertArrayEquals(new int[0], index.getIntersecting(101, 149));
+    }
+
+    @Test
+    public void testExtrema() {
+        DimensionIndex index = DimensionIndex.buildTimeIndex(Arrays.asList(
+                new DateRange(new Date(10), new Date(20)), new Date(40)));
+        assertEquals(20, index.floorExtremum(30), 0d);
+        assertEquals(40, index.higherExtremum(30), 0d);
+        assertEquals(10, index.floorExtremum(10), 0d);
+        assertTrue(Double.isNaN(index.floorExtremum(5)));
+        assertTrue(Double.isNaN(index.higherExtremum(40)));
+    }
+
+    @Test
+    public void testToObject() {
+        DimensionIndex index = DimensionIndex.buildTimeIndex(Arrays.asList(
+                new Date(40), new DateRange(new Date(10), new Date(20))));
+        Object first = index.toObject(0);
+        assertEquals(new DateRange(new Date(10), new Date(20)), first);
+        assertEquals(new Date(40), index.toObject(1));
+    }
+
+    @Test
+    public void testEmpty() {
+        DimensionIndex index = DimensionIndex.buildElevationIndex(Arrays.asList());
+        assertTrue(index.isEmpty());
+        assertFalse(index.contains(0));
+        assertEquals(0, index.getIntersecting(0, 10).length);
+        assertTrue(Double.isNaN(index.floorExtremum(0)));
+    }
+
+    @Test
+    public void testDomainKey() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append(i > 0 ? "," : "").append(i);
+        }
+        String domain = sb.toString();
+        String key = ReaderDimensionsAccessor.getDomainKey(domain);
+        // the key does not grow with the domain
+        assertTrue(key.length() < 64);
+        assertEquals(key, ReaderDimensionsAccessor.getDomainKey(new String(domain)));
+        assertNotEquals(key, ReaderDimensionsAccessor.getDomainKey(domain + ",10000"));
+    }
+}
@@ -0,0 +1,169 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.geoserver.platform.ServiceException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PartitionedTileCacheTest {
+
+    PartitionedTileCache cache;
+
+    @Before
+    public void setup() {
+        Map<String, Double> shares = new LinkedHashMap<>();
+        shares.put("WMS", 0.5);
+        shares.put("WCS", 0.3);
+        cache = new PartitionedTileCache(shares, 10 * 1024 * 1024);
+    }
+
+    @After
+    public void cleanup() {
+        PartitionedTileCache.ACCOUNT.remove();
+    }
+
+    @Test
+    public void testCapacities() {
+        assertEquals(5 * 1024 * 1024, cache.getPartitions().get("WMS").getMemoryCapacity());
+        assertEquals(3 * 1024 * 1024, cache.getPartitions().get("WCS").getMemoryCapacity());
+        assertEquals(2 * 1024 * 1024, cache.getPartitions()
+                .get(PartitionedTileCache.DEFAULT_PARTITION).getMemoryCapacity(), 1);
+
+        cache.setMemoryCapacity(20 * 1024 * 1024);
+        assertEquals(10 * 1024 * 1024, cache.getPartitions().get("WMS").getMemoryCapacity());
+    }
+
+    @Test
+    public void testRouting() {
+        BufferedImage wmsImage = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage otherImage = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+        Raster tile = wmsImage.getData();
+
+        RasterMemoryAccount account = new RasterMemoryAccount("WMS", 0);
+        PartitionedTileCache.ACCOUNT.set(account);
+        cache.add(wmsImage, 0, 0, tile);
+        PartitionedTileCache.ACCOUNT.remove();
+        cache.add(otherImage, 0, 0, tile);
+
+        // tiles are found in the partition of the request that created them
+        assertNotNull(cache.getPartitions().get("WMS").getTile(wmsImage, 0, 0));
+        assertNull(cache.getPartitions().get("WCS").getTile(wmsImage, 0, 0));
+        assertNotNull(cache.getPartitions().get(PartitionedTileCache.DEFAULT_PARTITION)
+                .getTile(otherImage, 0, 0));
+        assertNotNull(cache.getTile(wmsImage, 0, 0));
+        assertNotNull(cache.getTile(otherImage, 0, 0));
+
+        // and charged to the request
+        assertEquals(64 * 64 * 4, account.getCurrent());
+        cache.removeTiles(wmsImage);
+        assertEquals(0, account.getCurrent());
+        assertEquals(64 * 64 * 4, account.getPeak());
+        assertNull(cache.getTile(wmsImage, 0, 0));
+    }
+
+    @Test
+    public void testRequestLimit() {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_BYTE_GRAY);
+
+        RasterMemoryAccount account = new RasterMemoryAccount("WCS", 64 * 64 + 10);
+        PartitionedTileCache.ACCOUNT.set(account);
+        cache.add(image, 0, 0, image.getData());
+        assertFalse(account.isExceeded());
+        try {
+            cache.add(image, 1, 0, image.getData());
+            fail("Should have failed, the request went beyond its limit");
+        } catch (ServiceException e) {
+            assertTrue(e.getMessage().contains(String.valueOf(64 * 64 + 10)));
+        }
+        assertTrue(account.isExceeded());
+
+        // the second tile did not get cached
+        assertNotNull(cache.getTile(image, 0, 0));
+        assertNull(cache.getTile(image, 1, 0));
+        assertEquals(64 * 64, account.getPeak());
+    }
+
+    @Test
+    public void testStreamBeyondLimit() {
+        // the WCS partition holds 30 tiles, the request can hold 40, but streams 100
+        int tileSize = 64 * 64;
+        cache = new PartitionedTileCache(Collections.singletonMap("WCS", 0.3),
+                100 * tileSize);
+        RasterMemoryAccount account = new RasterMemoryAccount("WCS", 40 * tileSize);
+        PartitionedTileCache.ACCOUNT.set(account);
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_BYTE_GRAY);
+        for (int i = 0; i < 100; i++) {
+            cache.add(image, i, 0, image.getData());
+        }
+
+        // the evicted tiles have been released
+        assertFalse(account.isExceeded());
+        assertTrue(account.getCurrent() <= 30 * tileSize);
+        assertTrue(account.getPeak() <= 31 * tileSize);
+        cache.flush();
+        assertEquals(0, account.getCurrent());
+    }
+
+    @Test
+    public void testAddTwice() {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_BYTE_GRAY);
+        Raster tile = image.getData();
+
+        RasterMemoryAccount account = new RasterMemoryAccount("WMS", 0);
+        PartitionedTileCache.ACCOUNT.set(account);
+        cache.add(image, 0, 0, tile);
+        cache.add(image, 0, 0, tile);
+        cache.add(image, 0, 0, image.getData());
+        assertEquals(64 * 64, account.getCurrent());
+        cache.remove(image, 0, 0);
+        assertEquals(0, account.getCurrent());
+    }
+
+    @Test
+    public void testBoundImages() {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_BYTE_GRAY);
+
+        // tiles computed outside of the request thread are charged to the image request
+        RasterMemoryAccount account = new RasterMemoryAccount("WMS", 0);
+        cache.bind(image, account);
+        cache.add(image, 0, 0, image.getData());
+        assertEquals(64 * 64, account.getCurrent());
+        assertNotNull(cache.getPartitions().get("WMS").getTile(image, 0, 0));
+
+        // until the request is finished
+        account.close();
+        cache.add(image, 1, 0, image.getData());
+        assertEquals(64 * 64, account.getCurrent());
+    }
+
+    @Test
+    public void testParsePartitions() {
+        System.setProperty(PartitionedTileCache.PARTITIONS_KEY, "wms:0.4, WCS:abc,WPS:0.1");
+        try {
+            Map<String, Double> partitions = PartitionedTileCache.getConfiguredPartitions();
+            assertEquals(2, partitions.size());
+            assertEquals(0.4, partitions.get("WMS"), 0d);
+            assertEquals(0.1, partitions.get("WPS"), 0d);
+        } finally {
+            System.clearProperty(PartitionedTileCache.PARTITIONS_KEY);
+        }
+        assertNull(PartitionedTileCache.getConfiguredPartitions());
+    }
+}
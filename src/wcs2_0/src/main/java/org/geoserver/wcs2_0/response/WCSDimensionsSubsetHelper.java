@@ -18,7 +18,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -31,6 +30,7 @@ import org.eclipse.emf.common.util.EList;
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.DimensionInfo;
 import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.util.DimensionIndex;
 import org.geoserver.catalog.util.ReaderDimensionsAccessor;
 import org.geoserver.wcs2_0.GetCoverage;
 import org.geoserver.wcs2_0.GridCoverageRequest;
@@ -485,126 +485,38 @@ public class WCSDimensionsSubsetHelper {
      * @throws IOException
      */
     private DateRange interpolateTime(DateRange timeSubset, ReaderDimensionsAccessor accessor) throws IOException {
-        TreeSet<Object> domain = accessor.getTimeDomain();
-        Date slicePoint = timeSubset.getMinValue();
-        if(!domainContainsPoint(slicePoint, domain)) {
-            // look for the closest time
-            Date previous = null;
-            Date newSlicePoint = null;
-            // for NN matching we don't need the ranges, NN against their extrema will be fine
-            TreeSet<Date> domainDates = getDomainDates(domain);
-            for (Date curr : domainDates) {
-                if(curr.compareTo(slicePoint) > 0) {
-                    if(previous == null) {
-                        newSlicePoint = curr;
-                        break;
-                    } else {
-                        long diffPrevious = slicePoint.getTime() - previous.getTime();
-                        long diffCurr = curr.getTime() - slicePoint.getTime();
-                        if(diffCurr > diffPrevious) {
-                            newSlicePoint = curr;
-                            break;
-                        } else {
-                            newSlicePoint = previous;
-                            break;
-                        }
-                    }
-                } else {
-                    previous = curr;
-                }
-            }
-
-            if(newSlicePoint == null) {
-                newSlicePoint = previous;
-            }
+        DimensionIndex domain = accessor.getTimeIndex();
+        long slicePoint = timeSubset.getMinValue().getTime();
+        if (!domain.isEmpty() && !domain.contains(slicePoint)) {
+            // look for the closest time, for NN matching we don't need the ranges, 
+            // NN against their extrema will be fine
+            double previous = domain.floorExtremum(slicePoint);
+            double next = domain.higherExtremum(slicePoint);
+            Date newSlicePoint = new Date((long) getNearestExtremum(slicePoint, previous, next));
             timeSubset = new DateRange(newSlicePoint, newSlicePoint);
         }
         return timeSubset;
     }
 
     /**
-     * Get the domain set as a set of dates.
-     * @param domain
-     *
+     * Picks between the domain extrema surrounding a slice point, either of them can be NaN if
+     * the slice point is outside of the domain
      */
-    private TreeSet<Date> getDomainDates(TreeSet<Object> domain) {
-        TreeSet<Date> results = new TreeSet<Date>();
-        for (Object item : domain) {
-            if(item instanceof Date) {
-                Date date = (Date) item;
-                results.add(date);
-            } else if(item instanceof DateRange) {
-                DateRange range = (DateRange) item;
-                results.add(range.getMinValue());
-                results.add(range.getMaxValue());
-            }
+    private double getNearestExtremum(double slicePoint, double previous, double next) {
+        if (Double.isNaN(previous)) {
+            return next;
+        } else if (Double.isNaN(next)) {
+            return previous;
         }
-        return results;
+        double diffPrevious = slicePoint - previous;
+        double diffNext = next - slicePoint;
+        return diffNext > diffPrevious ? next : previous;
     }
 
     public WCSEnvelope getRequestedEnvelope() {
         return requestedEnvelope;
     }
 
-    /**
-     * Check whether the provided domain contains the specified slicePoint.
-     * 
-     * @param slicePoint the point to be checked (a Date or a Number)
-     * @param domain the domain to be scan for containment.
-     *
-     */
-    private boolean domainContainsPoint(final Object slicePoint, final TreeSet<Object> domain) {
-        // cannot use this...
-        //        if(domain.contains(slicePoint)) {
-        //            return true;
-        //        }
-        
-        // check date ranges for containment
-        if (slicePoint instanceof Date) {
-            Date sliceDate = (Date) slicePoint;
-            for (Object curr : domain) {
-                if(curr instanceof Date) {
-                    Date date = (Date) curr;
-                    int result = date.compareTo(sliceDate);
-                    if(result > 0) {
-                        return false;
-                    } else if(result == 0) {
-                        return true;
-                    }
-                } else if(curr instanceof DateRange) {
-                    DateRange range = (DateRange) curr;
-                    if(range.contains(sliceDate)) {
-                        return true;
-                    } else if(range.getMaxValue().compareTo(sliceDate) < 0) {
-                        return false;
-                    }
-                }
-            }
-        } else if (slicePoint instanceof Number) {
-            //TODO: Should we check for other data types?
-            Number sliceNumber = (Number) slicePoint;
-            for (Object curr : domain) {
-                if(curr instanceof Number) {
-                    Double num = (Double) curr;
-                    int result = num.compareTo((Double)sliceNumber);
-                    if( result > 0) {
-                        return false;
-                    } else if(result == 0) {
-                        return true;
-                    }
-                } else if(curr instanceof NumberRange) {
-                    NumberRange range = (NumberRange) curr;
-                    if(range.contains(sliceNumber)) {
-                        return true;
-                    } else if(range.getMaxValue().compareTo(sliceNumber) < 0) {
-                        return false;
-                    }
-                }
-            }
-        }
-        return false;
-    }
-
     /**
      * Parses a number range out of the dimension subsetting directives
      * @param accessor
@@ -683,37 +595,14 @@ public class WCSDimensionsSubsetHelper {
      * @throws IOException
      */
     private NumberRange interpolateElevation(NumberRange elevationSubset, ReaderDimensionsAccessor accessor) throws IOException {
-        TreeSet<Object> domain = accessor.getElevationDomain();
-        Double slicePoint = elevationSubset.getMinimum();
-        if (!domainContainsPoint(slicePoint, domain)) {
-            // look for the closest elevation
-            Double previous = null;
-            Double newSlicePoint = null;
-            // for NN matching we don't need the range, NN against their extrema will be fine
-            TreeSet<Double> domainDates = PARSER.getDomainNumber(domain);
-            for (Double curr : domainDates) {
-                if (curr.compareTo(slicePoint) > 0) {
-                    if (previous == null) {
-                        newSlicePoint = curr;
-                        break;
-                    } else {
-                        double diffPrevious = slicePoint - previous;
-                        double diffCurr = curr - slicePoint;
-                        if (diffCurr > diffPrevious) {
-                            newSlicePoint = curr;
-                            break;
-                        } else {
-                            newSlicePoint = previous;
-                            break;
-                        }
-                    }
-                } else {
-                    previous = curr;
-                }
-            }
-            if (newSlicePoint == null) {
-                newSlicePoint = previous;
-            }
+        DimensionIndex domain = accessor.getElevationIndex();
+        double slicePoint = elevationSubset.getMinimum();
+        if (!domain.isEmpty() && !domain.contains(slicePoint)) {
+            // look for the closest elevation, for NN matching we don't need the range, 
+            // NN against their extrema will be fine
+            double previous = domain.floorExtremum(slicePoint);
+            double next = domain.higherExtremum(slicePoint);
+            Double newSlicePoint = getNearestExtremum(slicePoint, previous, next);
             elevationSubset = new NumberRange<Double>(Double.class, newSlicePoint, newSlicePoint);
         }
         return elevationSubset;
@@ -0,0 +1,355 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CoverageStoreInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourcePool;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.wfs.request.TransactionRequest;
+import org.geoserver.wfs.request.TransactionResponse;
+import org.geotools.data.DataAccess;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.factory.Hints;
+import org.geotools.util.logging.Logging;
+import org.opengis.coverage.grid.GridCoverageReader;
+import org.opengis.feature.type.FeatureType;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Caches the feature counts used to compute numberMatched in WFS 2.0 responses, so that paging
+ * through the results of a complex filter does not run the same count query over and over.
+ * <p>
+ * Counts are associated to a generation of the feature type, which is increased every time a WFS
+ * transaction touches the type, and again once the transaction is over, so that no count computed
+ * against uncommitted changes survives it. The generation is also increased when the feature
+ * type, its layer or its store are modified or removed in the catalog, as the layer definition
+ * filter and the store connection are applied inside the feature source, out of sight of the
+ * cache key. Changes made to the data outside of GeoServer are picked up once the cached counts
+ * expire.
+ * </p>
+ * <p>
+ * In asynchronous mode a count missing from the cache is reported as unknown right away, and is
+ * computed in the background for the benefit of the following identical requests.
+ * </p>
+ * The cache is enabled by the {@link #NUMBER_MATCHED_CACHE} flag in the {@link WFSInfo} metadata,
+ * the asynchronous mode by {@link #NUMBER_MATCHED_ASYNC}.
+ */
+public class CountCache implements TransactionListener, TransactionCallback, CatalogListener,
+        DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(CountCache.class);
+
+    /** The {@link WFSInfo} metadata key enabling the count cache */
+    public static final String NUMBER_MATCHED_CACHE = "numberMatchedCache";
+
+    /** The {@link WFSInfo} metadata key enabling the background computation of counts */
+    public static final String NUMBER_MATCHED_ASYNC = "numberMatchedAsync";
+
+    static final int DEFAULT_SIZE = 1000;
+
+    static final int DEFAULT_TTL = 600;
+
+    /** Extended property of the transaction request collecting the types it touched */
+    static final String AFFECTED_TYPES = "COUNT_CACHE_AFFECTED_TYPES";
+
+    static class Entry {
+        final long generation;
+
+        final long created = System.currentTimeMillis();
+
+        final int count;
+
+        Entry(long generation, int count) {
+            this.generation = generation;
+            this.count = count;
+        }
+    }
+
+    private final int maxEntries = Integer.valueOf(System.getProperty(
+            "org.geoserver.wfs.countCache.size", String.valueOf(DEFAULT_SIZE)));
+
+    private final long ttl = TimeUnit.SECONDS.toMillis(Integer.valueOf(System.getProperty(
+            "org.geoserver.wfs.countCache.ttl", String.valueOf(DEFAULT_TTL))));
+
+    private final Map<List<Object>, Entry> counts = Collections
+            .synchronizedMap(new LinkedHashMap<List<Object>, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest) {
+                    return size() > maxEntries;
+                }
+            });
+
+    private final Map<QName, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    private final Set<List<Object>> pending = ConcurrentHashMap.newKeySet();
+
+    private final ThreadPoolExecutor executor;
+
+    private final Catalog catalog;
+
+    public CountCache(Catalog catalog, int threads) {
+        this.catalog = catalog;
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "WFSCount-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(maxEntries > 0 ? maxEntries : 1), factory);
+        this.executor.allowCoreThreadTimeOut(true);
+
+        if (catalog != null) {
+            catalog.addListener(this);
+            catalog.getResourcePool().addListener(new ResourcePool.Listener() {
+
+                public void disposed(FeatureTypeInfo featureType, FeatureType ft) {
+                    invalidate(featureType);
+                }
+
+                public void disposed(CoverageStoreInfo coverageStore, GridCoverageReader gcr) {
+                }
+
+                public void disposed(DataStoreInfo dataStore, DataAccess da) {
+                    invalidate(dataStore);
+                }
+            });
+        }
+    }
+
+    /**
+     * For testing only
+     */
+    CountCache(int threads) {
+        this(null, threads);
+    }
+
+    /**
+     * Returns the number of features matched by the query, from the cache if possible
+     *
+     * @param typeName the name of the feature type
+     * @param source the source to run the count against
+     * @param query the count query
+     * @param async if true, a count missing from the cache is computed in the background and -1
+     *        is returned instead
+     */
+    public int getCount(QName typeName, FeatureSource source, Query query, boolean async)
+            throws IOException {
+        List<Object> key = getKey(typeName, query);
+        long generation = getGeneration(typeName).get();
+        Entry entry = counts.get(key);
+        if (entry != null && entry.generation == generation
+                && System.currentTimeMillis() - entry.created < ttl) {
+            return entry.count;
+        }
+
+        if (!async) {
+            return count(key, typeName, generation, source, query);
+        }
+        if (pending.add(key)) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        count(key, typeName, generation, source, query);
+                    } catch (Exception e) {
+                        LOGGER.log(Level.WARNING, "Failed to count the features of " + typeName,
+                                e);
+                    } finally {
+                        pending.remove(key);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // too many counts in progress, the next request will try again
+                pending.remove(key);
+            }
+        }
+        return -1;
+    }
+
+    private int count(List<Object> key, QName typeName, long generation, FeatureSource source,
+            Query query) throws IOException {
+        // make sure we get a count by getting a feature collection,
+        // FeatureSource.getCount(...) can return -1
+        int count = source.getFeatures(query).size();
+        // don't store counts that might have been computed against data being changed
+        if (count >= 0 && getGeneration(typeName).get() == generation) {
+            counts.put(key, new Entry(generation, count));
+        }
+        return count;
+    }
+
+    /**
+     * The count depends on the filter and the other query bits that can change the features
+     * returned, as well as on the user, as the data security can filter the features
+     */
+    private List<Object> getKey(QName typeName, Query query) {
+        Authentication user = SecurityContextHolder.getContext().getAuthentication();
+        Object viewParams = query.getHints() != null
+                ? query.getHints().get(Hints.VIRTUAL_TABLE_PARAMETERS) : null;
+        return Arrays.asList(typeName, query.getFilter(), viewParams, query.getVersion(),
+                query.getJoins(), user != null ? user.getName() : null);
+    }
+
+    private AtomicLong getGeneration(QName typeName) {
+        return generations.computeIfAbsent(typeName, n -> new AtomicLong());
+    }
+
+    /**
+     * Drops all the cached counts of the given type
+     */
+    public void invalidate(QName typeName) {
+        getGeneration(typeName).incrementAndGet();
+    }
+
+    /**
+     * Drops all the cached counts of the given feature type
+     */
+    void invalidate(FeatureTypeInfo featureType) {
+        if (featureType.getNamespace() != null) {
+            invalidate(new QName(featureType.getNamespace().getURI(), featureType.getName()));
+        }
+    }
+
+    /**
+     * Drops all the cached counts of the feature types of the given store
+     */
+    void invalidate(DataStoreInfo store) {
+        if (catalog != null) {
+            for (FeatureTypeInfo featureType : catalog.getFeatureTypesByDataStore(store)) {
+                invalidate(featureType);
+            }
+        }
+    }
+
+    /**
+     * Drops all the cached counts
+     */
+    public void clear() {
+        for (AtomicLong generation : generations.values()) {
+            generation.incrementAndGet();
+        }
+        counts.clear();
+    }
+
+    private void handleChange(Object source) {
+        if (source instanceof FeatureTypeInfo) {
+            invalidate((FeatureTypeInfo) source);
+        } else if (source instanceof LayerInfo) {
+            if (((LayerInfo) source).getResource() instanceof FeatureTypeInfo) {
+                invalidate((FeatureTypeInfo) ((LayerInfo) source).getResource());
+            }
+        } else if (source instanceof DataStoreInfo) {
+            invalidate((DataStoreInfo) source);
+        }
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) {
+        // new types have no counts yet
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) {
+        // a renamed type would leave the counts behind under the old name
+        handleChange(event.getSource());
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        handleChange(event.getSource());
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        handleChange(event.getSource());
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        QName typeName = event.getLayerName();
+        if (typeName == null) {
+            return;
+        }
+        invalidate(typeName);
+        TransactionRequest request = event.getTransactionRequest();
+        if (request != null && request.getExtendedProperties() != null) {
+            Map<Object, Object> properties = request.getExtendedProperties();
+            Set<QName> affected = (Set<QName>) properties.get(AFFECTED_TYPES);
+            if (affected == null) {
+                affected = new HashSet<>();
+                properties.put(AFFECTED_TYPES, affected);
+            }
+            affected.add(typeName);
+        }
+    }
+
+    @Override
+    public TransactionRequest beforeTransaction(TransactionRequest request) throws WFSException {
+        return request;
+    }
+
+    @Override
+    public void beforeCommit(TransactionRequest request) throws WFSException {
+        // nothing to do
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void afterTransaction(TransactionRequest request, TransactionResponse result,
+            boolean committed) {
+        // counts computed while the transaction was running may have seen its changes, or not
+        Map<Object, Object> properties = request.getExtendedProperties();
+        Set<QName> affected = properties != null ? (Set<QName>) properties.get(AFFECTED_TYPES)
+                : null;
+        if (affected != null) {
+            for (QName typeName : affected) {
+                invalidate(typeName);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        executor.shutdownNow();
+    }
+}
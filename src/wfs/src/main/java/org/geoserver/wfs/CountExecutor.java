@@ -7,6 +7,8 @@ package org.geoserver.wfs;
 
 import java.io.IOException;
 
+import javax.xml.namespace.QName;
+
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
 
@@ -27,11 +29,29 @@ class CountExecutor {
 
     int providedCount = COUNT_UNSET;
 
+    CountCache cache;
+
+    QName typeName;
+
+    boolean async;
+
     public CountExecutor(FeatureSource source, Query query) {
         this.source = source;
         this.query = query;
     }
 
+    /**
+     * Runs the count through the cache, optionally returning -1 while the count is computed in
+     * the background
+     */
+    public CountExecutor(FeatureSource source, Query query, CountCache cache, QName typeName,
+            boolean async) {
+        this(source, query);
+        this.cache = cache;
+        this.typeName = typeName;
+        this.async = async;
+    }
+
     public CountExecutor(int providedCount) {
         this.providedCount = providedCount;
     }
@@ -39,6 +59,8 @@ class CountExecutor {
     public int getCount() throws IOException {
         if(providedCount != COUNT_UNSET) {
             return providedCount;
+        } else if (cache != null) {
+            return cache.getCount(typeName, source, query, async);
         } else {
             // make sure we get a count by getting a feature colleciton
             // FeatureSource.getCount(...) can return -1
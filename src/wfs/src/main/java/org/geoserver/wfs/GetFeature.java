@@ -33,11 +33,14 @@ import org.geoserver.wfs.request.RequestObject;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Join;
+import org.geotools.data.store.MaxFeaturesFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.factory.Hints;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
 import org.geotools.feature.NameImpl;
 import org.geotools.feature.SchemaException;
+import org.geotools.feature.collection.MaxSimpleFeatureCollection;
 import org.geotools.filter.FilterCapabilities;
 import org.geotools.filter.expression.AbstractExpressionVisitor;
 import org.geotools.filter.v2_0.FES;
@@ -112,6 +115,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -368,7 +373,24 @@ public class GetFeature {
             // See GEOS-5085.
             totalOffset = 0;
         }
-        int offset = totalOffset;
+
+        // keyset pagination, following pages are read seeking past the sort key of the last
+        // feature returned, instead of skipping over an ever growing number of features
+        boolean keyset = isKeysetPagination(request, queries);
+        KeysetCursor cursor = getKeysetCursor(request, keyset);
+        if (cursor != null) {
+            totalOffset = (int) Math.min(cursor.getIndex(), Integer.MAX_VALUE);
+        } else {
+            keyset &= totalOffset > -1;
+        }
+        KeysetCursor nextCursor = null;
+        int offset = cursor != null ? cursor.getSkip() : totalOffset;
+
+        // numberMatched counts can be cached, and optionally computed in the background
+        CountCache countCache = isEnabled(CountCache.NUMBER_MATCHED_CACHE)
+                ? GeoServerExtensions.bean(CountCache.class) : null;
+        boolean asyncCount = !request.isResultTypeHits()
+                && isEnabled(CountCache.NUMBER_MATCHED_ASYNC);
         
         // feature collection size, we may need to calculate it
         // optimization: WFS 1.0 does not require count unless we have multiple query elements
@@ -376,6 +398,16 @@ public class GetFeature {
         boolean calculateSize = !(("1.0".equals(request.getVersion()) || "1.0.0".equals(request.getVersion())) && 
             (queries.size() == 1 || maxFeatures == Integer.MAX_VALUE));
 
+        // the sizes of the queries can be computed concurrently, they are reconciled with
+        // maxFeatures in request order once all the queries have been set up
+        final QueryExecutor parallel = queries.size() > 1
+                && isEnabled(QueryExecutor.PARALLEL_QUERIES)
+                        ? GeoServerExtensions.bean(QueryExecutor.class) : null;
+        boolean parallelSizes = parallel != null && calculateSize && offset <= 0;
+        List<Future<Integer>> pendingSizes = new ArrayList<>();
+        List<Integer> pendingMaxFeatures = new ArrayList<>();
+        List<CountExecutor> pendingTotals = new ArrayList<>();
+
         List results = new ArrayList();
         final List<CountExecutor> totalCountExecutors = new ArrayList<CountExecutor>();
         try {
@@ -553,6 +585,10 @@ public class GetFeature {
                 }
                 FeatureSource<? extends FeatureType, ? extends Feature> source = 
                     primaryMeta.getFeatureSource(null, hints);
+                if (joins != null && JoiningFeatureSource.isJoinNeeded(source, metas)) {
+                    // the store cannot run the join, perform it in GeoServer instead
+                    source = JoiningFeatureSource.wrap(source, joins, metas);
+                }
 
                 // handle local maximum
                 int queryMaxFeatures = maxFeatures - count;
@@ -561,7 +597,19 @@ public class GetFeature {
                     queryMaxFeatures = metaMaxFeatures;
                 }
                 Map<String, String> viewParam = viewParams != null ? viewParams.get(i) : null;
-                org.geotools.data.Query gtQuery = toDataQuery(query, filter, offset,
+                // probed on the first page only, cursors are issued only if there are no nulls
+                if (keyset && cursor == null && hasNullKeys(query, filter, source, request,
+                        allPropNames.get(0), viewParam, joins, primaryTypeName, primaryAlias)) {
+                    // null sort keys cannot be sought past, their position depends on the
+                    // store, page by offset instead
+                    keyset = false;
+                }
+                Filter dataFilter = filter;
+                if (cursor != null) {
+                    Filter seek = cursor.toFilter(filterFactory, query.getSortBy());
+                    dataFilter = filter != null ? filterFactory.and(filter, seek) : seek;
+                }
+                org.geotools.data.Query gtQuery = toDataQuery(query, dataFilter, offset,
                         queryMaxFeatures, source, request, allPropNames.get(0), viewParam,
                             joins, primaryTypeName, primaryAlias);
 
@@ -602,7 +650,13 @@ public class GetFeature {
                 }
 
                 int size = 0;
-                if (calculateSize) {
+                if (parallelSizes) {
+                    // size and count stay at zero for now, so the following queries get set up
+                    // with the full maxFeatures, the results are trimmed after the loop
+                    FeatureCollection<? extends FeatureType, ? extends Feature> sized = features;
+                    pendingSizes.add(parallel.submit(() -> sized.size()));
+                    pendingMaxFeatures.add(queryMaxFeatures);
+                } else if (calculateSize) {
                     size = features.size();
                 }
                 
@@ -614,16 +668,31 @@ public class GetFeature {
                 // calculated above
                 isNumberMatchedSkipped = meta.getSkipNumberMatched() && !request.isResultTypeHits();
                 if (!isNumberMatchedSkipped) {
-                    if (calculateSize
+                    if (!parallelSizes && calculateSize
                             && (queryMaxFeatures == Integer.MAX_VALUE || size < queryMaxFeatures)
-                            && offset <= 0) {
+                            && offset <= 0 && cursor == null) {
                         totalCountExecutors.add(new CountExecutor(size));
                     } else {
                         org.geotools.data.Query qTotal = toDataQuery(query, filter, 0,
                                 Integer.MAX_VALUE, source, request, allPropNames.get(0), viewParam,
                                 joins, primaryTypeName, primaryAlias);
-                        totalCountExecutors.add(new CountExecutor(source, qTotal));
+                        CountExecutor total;
+                        if (countCache != null) {
+                            QName countName = new QName(meta.getNamespace().getURI(),
+                                    meta.getName());
+                            total = new CountExecutor(source, qTotal, countCache, countName,
+                                    asyncCount);
+                        } else {
+                            total = new CountExecutor(source, qTotal);
+                        }
+                        if (parallelSizes) {
+                            pendingTotals.add(total);
+                        } else {
+                            totalCountExecutors.add(total);
+                        }
                     }
+                } else if (parallelSizes) {
+                    pendingTotals.add(null);
                 }
                 
                 //if offset is present we need to check the size of this returned feature collection
@@ -636,7 +705,7 @@ public class GetFeature {
                     else {
                         //no features might have been because of the offset that was specified, check 
                         // the size of the same query but with no offset
-                        org.geotools.data.Query q2 = toDataQuery(query, filter, 0,
+                        org.geotools.data.Query q2 = toDataQuery(query, dataFilter, 0,
                                 queryMaxFeatures, source, request, allPropNames.get(0),
                                 viewParam, joins, primaryTypeName, primaryAlias);
                         
@@ -675,6 +744,11 @@ public class GetFeature {
                 //encoding if it was a lock request. may be after ensuring the lock
                 //succeed?
                 results.add(features);
+
+                if (keyset && count > 0 && count >= maxFeatures) {
+                    nextCursor = KeysetCursor.after(source, gtQuery, query.getSortBy(),
+                            totalOffset, cursor);
+                }
                 }
                 catch(WFSException e) {
                     //intercept and set locator to query handle if one was set, or if it simply set
@@ -686,7 +760,35 @@ public class GetFeature {
                     throw e;
                 }
             }
-            
+
+            if (parallelSizes) {
+                for (int i = 0; i < pendingSizes.size(); i++) {
+                    int remaining = maxFeatures - count;
+                    if (remaining <= 0) {
+                        // the previous queries already filled up the response, the remaining
+                        // sizes get cancelled below
+                        results.subList(i, results.size()).clear();
+                        break;
+                    }
+                    int size = getResult(request, pendingSizes.get(i));
+                    int queryMaxFeatures = Math.min(pendingMaxFeatures.get(i), remaining);
+                    if (size > queryMaxFeatures) {
+                        results.set(i, limit((FeatureCollection) results.get(i), queryMaxFeatures));
+                        size = queryMaxFeatures;
+                    }
+                    count += size;
+
+                    CountExecutor total = pendingTotals.get(i);
+                    isNumberMatchedSkipped = total == null;
+                    if (total != null) {
+                        if (queryMaxFeatures == Integer.MAX_VALUE || size < queryMaxFeatures) {
+                            totalCountExecutors.add(new CountExecutor(size));
+                        } else {
+                            totalCountExecutors.add(total);
+                        }
+                    }
+                }
+            }
             
             // total count represents the total count of the features matched for this query in cases
             // where the client has limited the result set size, so we compute it lazily
@@ -706,9 +808,18 @@ public class GetFeature {
                     
                     @Override
                     public Object loadObject() throws Exception {
+                        // run the count queries concurrently if possible
+                        List<Future<Integer>> counts = null;
+                        if (parallel != null && totalCountExecutors.size() > 1) {
+                            counts = new ArrayList<>();
+                            for (CountExecutor q : totalCountExecutors) {
+                                counts.add(parallel.submit(q::getCount));
+                            }
+                        }
                         long totalCount = 0;
-                        for (CountExecutor q : totalCountExecutors) {
-                            int result = q.getCount();
+                        for (int i = 0; i < totalCountExecutors.size(); i++) {
+                            int result = counts != null ? getResult(request, counts.get(i))
+                                    : totalCountExecutors.get(i).getCount();
                             // if the count is unknown for one, we don't know the total, period
                             if(result == -1) {
                                 totalCount = -1;
@@ -726,9 +837,111 @@ public class GetFeature {
             throw new WFSException(request, "Error occurred getting features", e, request.getHandle());
         } catch (SchemaException e) {
             throw new WFSException(request, "Error occurred getting features", e, request.getHandle());
+        } finally {
+            // don't leave size queries running on the shared pool if the response is already
+            // full, or the request failed
+            for (Future<Integer> size : pendingSizes) {
+                if (!size.isDone()) {
+                    size.cancel(true);
+                }
+            }
         }
         
-        return buildResults(request, totalOffset, maxFeatures, count, totalCount, results, lockId, getFeatureById);
+        return buildResults(request, totalOffset, maxFeatures, count, totalCount, results, lockId,
+                getFeatureById, nextCursor);
+    }
+
+    /**
+     * Limits the features returned by a collection
+     */
+    FeatureCollection limit(FeatureCollection features, int maxFeatures) {
+        if (features instanceof SimpleFeatureCollection) {
+            return new MaxSimpleFeatureCollection((SimpleFeatureCollection) features, 0,
+                    maxFeatures);
+        }
+        return new MaxFeaturesFeatureCollection(features, maxFeatures);
+    }
+
+    /**
+     * Waits for the result of a task run by the {@link QueryExecutor}
+     */
+    <T> T getResult(GetFeatureRequest request, Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WFSException(request, "Interrupted while getting features", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new WFSException(request, "Error occurred getting features", cause);
+        }
+    }
+
+    /**
+     * Keyset pagination is used when enabled in the service, for single type queries sorted on
+     * attributes
+     */
+    boolean isKeysetPagination(GetFeatureRequest request, List<Query> queries) {
+        if (!isEnabled(KeysetCursor.KEYSET_PAGINATION) || request.getVersion() == null
+                || !request.getVersion().startsWith("2") || request.isResultTypeHits()
+                || queries.size() != 1) {
+            return false;
+        }
+        Query query = queries.get(0);
+        return query.getTypeNames().size() == 1 && KeysetCursor.isSupported(query.getSortBy());
+    }
+
+    /**
+     * Returns true if any of the features matched by the filter has a null value in the sort
+     * attributes. The store is only probed if the schema allows null sort values
+     */
+    boolean hasNullKeys(Query query, Filter filter,
+            FeatureSource<? extends FeatureType, ? extends Feature> source,
+            GetFeatureRequest request, List<PropertyName> props, Map<String, String> viewParams,
+            List<Join> joins, QName primaryTypeName, String primaryAlias) throws IOException {
+        Filter nullKeys = KeysetCursor.getNullKeyFilter(filterFactory, query.getSortBy(),
+                source.getSchema());
+        if (nullKeys == null) {
+            return false;
+        }
+        Filter probeFilter = filter != null ? filterFactory.and(filter, nullKeys) : nullKeys;
+        org.geotools.data.Query probe = toDataQuery(query, probeFilter, -1, 1, source, request,
+                props, viewParams, joins, primaryTypeName, primaryAlias);
+        probe.setSortBy(null);
+        try (FeatureIterator<? extends Feature> it = source.getFeatures(probe).features()) {
+            return it.hasNext();
+        }
+    }
+
+    /**
+     * Checks a boolean flag in the service metadata
+     */
+    boolean isEnabled(String key) {
+        return wfs.getMetadata() != null
+                && Boolean.TRUE.equals(wfs.getMetadata().get(key, Boolean.class));
+    }
+
+    /**
+     * Returns the cursor the request is following, if any
+     */
+    KeysetCursor getKeysetCursor(GetFeatureRequest request, boolean keyset) {
+        Request dr = Dispatcher.REQUEST.get();
+        Object cursor = dr != null && dr.getKvp() != null ? dr.getKvp().get(KeysetCursor.CURSOR)
+                : null;
+        if (cursor == null || "".equals(cursor)) {
+            return null;
+        }
+        if (!keyset) {
+            throw new WFSException(request, "The cursor parameter can only be used with "
+                    + "keyset pagination, on a single type query sorted by attributes",
+                    ServiceException.INVALID_PARAMETER_VALUE).locator("cursor");
+        }
+        return KeysetCursor.decode(String.valueOf(cursor));
     }
 
     private Filter toFeatureIdFilter(List<FeatureId> lockedFeatures) {
@@ -854,6 +1067,8 @@ public class GetFeature {
                 //generate kvp map from request object
                 kvp = buildKvpFromRequest(request);
             }
+            // the links point to different positions, the cursor does not apply to them as is
+            kvp.remove(KeysetCursor.CURSOR);
             
             // WFS 2.0 specific, must have a next and should point to the first result
             if (request.isResultTypeHits() && (request.getVersion() == null || request.getVersion().startsWith("2"))) {
@@ -891,6 +1106,32 @@ public class GetFeature {
         return result;
     }
 
+    /**
+     * Builds the results with {@link #buildResults(GetFeatureRequest, int, int, int, BigInteger,
+     * List, String, boolean)}, then points the next link to the cursor instead of the start index,
+     * if a cursor is provided
+     */
+    protected FeatureCollectionResponse buildResults(GetFeatureRequest request, int offset,
+            int maxFeatures, int count, BigInteger total, List results, String lockId,
+            boolean getFeatureById, KeysetCursor nextCursor) {
+        FeatureCollectionResponse result = buildResults(request, offset, maxFeatures, count, total,
+                results, lockId, getFeatureById);
+        if (nextCursor != null && result.getNext() != null) {
+            Request req = Dispatcher.REQUEST.get();
+            Map<String, String> kvp;
+            if (req.isGet()) {
+                kvp = new KvpMap(req.getRawKvp());
+            } else {
+                kvp = buildKvpFromRequest(request);
+            }
+            kvp.remove("STARTINDEX");
+            kvp.put(KeysetCursor.CURSOR, nextCursor.encode());
+            kvp.put("count", String.valueOf(maxFeatures));
+            result.setNext(buildURL(request.getBaseUrl(), "wfs", kvp, URLType.SERVICE));
+        }
+        return result;
+    }
+
     KvpMap buildKvpFromRequest(GetFeatureRequest request) {
         
         // FILTER_LANGUAGE
@@ -57,13 +57,31 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
      * logger
      */
     static Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.geoserver.wfs");
+    /**
+     * Default number of features written to the store in a single batch
+     */
+    static final int DEFAULT_BATCH_SIZE = 1000;
+
     private FilterFactory filterFactory;
 
+    private int batchSize = Integer.valueOf(System.getProperty(
+            "org.geoserver.wfs.insert.batchSize", String.valueOf(DEFAULT_BATCH_SIZE)));
+
     public InsertElementHandler(GeoServer gs, FilterFactory filterFactory) {
         super(gs);
         this.filterFactory = filterFactory;
     }
 
+    /**
+     * Sets the number of features of the same type written to the store in a single batch, along
+     * with their pre and post insert events. Defaults to the
+     * <code>org.geoserver.wfs.insert.batchSize</code> system property, or
+     * {@value #DEFAULT_BATCH_SIZE}
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
     public void checkValidity(TransactionElement element, Map<QName, FeatureTypeInfo> featureTypeInfos)
         throws WFSTransactionException {
         if (!getInfo().getServiceLevel().getOps().contains( WFSInfo.Operation.TRANSACTION_INSERT)) {
@@ -81,16 +99,23 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
         long inserted = response.getTotalInserted().longValue();
 
         try {
-            // group features by their schema
-            HashMap /* <SimpleFeatureType,FeatureCollection> */ schema2features = new HashMap();
+            // group features by their schema, writing them out in batches as they fill up,
+            // so that the working set does not grow with the size of the insert
+            Map<SimpleFeatureType, ListFeatureCollection> schema2features = new HashMap<>();
+
+            // JD: change from set fo list because if inserting
+            // features into different feature stores, they could very well
+            // get given the same id
+            // JD: change from list to map so that the map can later be
+            // processed and we can report the fids back in the same order
+            // as they were supplied
+            Map<String, LinkedList<FeatureId>> schema2fids = new HashMap<>();
 
-            
             List featureList = insert.getFeatures();
             for (Iterator f = featureList.iterator(); f.hasNext();) {
                 SimpleFeature feature = (SimpleFeature) f.next();
                 SimpleFeatureType schema = feature.getFeatureType();
-                ListFeatureCollection collection =
-                    (ListFeatureCollection) schema2features.get(schema);
+                ListFeatureCollection collection = schema2features.get(schema);
 
                 if (collection == null) {
                     collection = new ListFeatureCollection(schema);
@@ -112,90 +137,16 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
                 }
 
                 collection.add(feature);
-            }
-
-            // JD: change from set fo list because if inserting
-            // features into different feature stores, they could very well
-            // get given the same id
-            // JD: change from list to map so that the map can later be
-            // processed and we can report the fids back in the same order
-            // as they were supplied
-            Map<String, List<FeatureId>> schema2fids = new HashMap<String, List<FeatureId>>();
-
-            for (Iterator c = schema2features.values().iterator(); c.hasNext();) {
-                SimpleFeatureCollection collection = (SimpleFeatureCollection) c.next();
-                SimpleFeatureType schema = collection.getSchema();
-
-                final QName elementName = new QName(schema.getName().getNamespaceURI(), schema.getTypeName());
-                SimpleFeatureStore store;
-                store = DataUtilities.simple((FeatureStore) featureStores.get(elementName));
-
-                if (store == null) {
-                    throw new WFSException(request, "Could not locate FeatureStore for '" + elementName
-                        + "'");
+                if (batchSize > 0 && collection.size() >= batchSize) {
+                    insertBatch(collection, insert, request, featureStores, listener,
+                            schema2fids);
+                    schema2features.remove(schema);
                 }
+            }
 
-                if (collection != null) {
-                    // if we really need to, make sure we are inserting coordinates that do
-                    // match the CRS area of validity
-                    if(getInfo().isCiteCompliant()) {
-                        checkFeatureCoordinatesRange(collection);
-                    }
-                    
-                    // reprojection
-                    final GeometryDescriptor defaultGeometry = store.getSchema().getGeometryDescriptor();
-                    if(defaultGeometry != null) {
-                        CoordinateReferenceSystem target = defaultGeometry.getCoordinateReferenceSystem();
-                        if (target != null /* && !CRS.equalsIgnoreMetadata(collection.getSchema().getCoordinateReferenceSystem(), target) */) {
-                            collection = new ReprojectingFeatureCollection(collection, target);
-                        }
-                    }
-                    
-                    // Need to use the namespace here for the
-                    // lookup, due to our weird
-                    // prefixed internal typenames. see
-                    // https://osgeo-org.atlassian.net/browse/GEOS-143
-
-                    // Once we get our datastores making features
-                    // with the correct namespaces
-                    // we can do something like this:
-                    // FeatureTypeInfo typeInfo =
-                    // catalog.getFeatureTypeInfo(schema.getTypeName(),
-                    // schema.getNamespace());
-                    // until then (when geos-144 is resolved) we're
-                    // stuck with:
-                    // QName qName = (QName) typeNames.get( i );
-                    // FeatureTypeInfo typeInfo =
-                    // catalog.featureType( qName.getPrefix(),
-                    // qName.getLocalPart() );
-
-                    // this is possible with the insert hack above.
-                    LOGGER.finer("Use featureValidation to check contents of insert");
-
-                    // featureValidation(
-                    // typeInfo.getDataStore().getId(), schema,
-                    // collection );
-                    List<FeatureId> fids = schema2fids.get(schema.getTypeName());
-
-                    if (fids == null) {
-                        fids = new LinkedList<FeatureId>();
-                        schema2fids.put(schema.getTypeName(), fids);
-                    }
-
-                    //fire pre insert event
-                    TransactionEvent event = new TransactionEvent(TransactionEventType.PRE_INSERT,
-                            request, elementName, collection);
-                    event.setSource(Insert.WFS11.unadapt(insert));
-                    
-                    listener.dataStoreChange( event );
-                    fids.addAll(store.addFeatures(collection));
-                    
-                    //fire post insert event
-                    SimpleFeatureCollection features = store.getFeatures(filterFactory.id(new HashSet<FeatureId>(fids)));
-                    event = new TransactionEvent(TransactionEventType.POST_INSERT, request, 
-                        elementName, features, Insert.WFS11.unadapt(insert));
-                    listener.dataStoreChange( event );
-                }
+            // write out the leftovers
+            for (ListFeatureCollection collection : schema2features.values()) {
+                insertBatch(collection, insert, request, featureStores, listener, schema2fids);
             }
 
             // report back fids, we need to keep the same order the
@@ -205,7 +156,7 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
                 SimpleFeatureType schema = feature.getFeatureType();
 
                 // get the next fid
-                LinkedList<FeatureId> fids = (LinkedList<FeatureId>) schema2fids.get(schema.getTypeName());
+                LinkedList<FeatureId> fids = schema2fids.get(schema.getTypeName());
                 FeatureId fid = fids.removeFirst();
 
                 response.addInsertedFeature(insert.getHandle(), fid);
@@ -222,6 +173,86 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
         response.setTotalInserted(BigInteger.valueOf(inserted));
     }
 
+    /**
+     * Writes a batch of features sharing the same schema in the target store, firing the pre and
+     * post insert events for it, and collecting the generated fids
+     */
+    void insertBatch(SimpleFeatureCollection collection, Insert insert,
+            TransactionRequest request, Map featureStores, TransactionListener listener,
+            Map<String, LinkedList<FeatureId>> schema2fids) throws Exception {
+        SimpleFeatureType schema = collection.getSchema();
+
+        final QName elementName = new QName(schema.getName().getNamespaceURI(), schema.getTypeName());
+        SimpleFeatureStore store;
+        store = DataUtilities.simple((FeatureStore) featureStores.get(elementName));
+
+        if (store == null) {
+            throw new WFSException(request, "Could not locate FeatureStore for '" + elementName
+                + "'");
+        }
+
+        // if we really need to, make sure we are inserting coordinates that do
+        // match the CRS area of validity
+        if(getInfo().isCiteCompliant()) {
+            checkFeatureCoordinatesRange(collection);
+        }
+        
+        // reprojection
+        final GeometryDescriptor defaultGeometry = store.getSchema().getGeometryDescriptor();
+        if(defaultGeometry != null) {
+            CoordinateReferenceSystem target = defaultGeometry.getCoordinateReferenceSystem();
+            if (target != null /* && !CRS.equalsIgnoreMetadata(collection.getSchema().getCoordinateReferenceSystem(), target) */) {
+                collection = new ReprojectingFeatureCollection(collection, target);
+            }
+        }
+        
+        // Need to use the namespace here for the
+        // lookup, due to our weird
+        // prefixed internal typenames. see
+        // https://osgeo-org.atlassian.net/browse/GEOS-143
+
+        // Once we get our datastores making features
+        // with the correct namespaces
+        // we can do something like this:
+        // FeatureTypeInfo typeInfo =
+        // catalog.getFeatureTypeInfo(schema.getTypeName(),
+        // schema.getNamespace());
+        // until then (when geos-144 is resolved) we're
+        // stuck with:
+        // QName qName = (QName) typeNames.get( i );
+        // FeatureTypeInfo typeInfo =
+        // catalog.featureType( qName.getPrefix(),
+        // qName.getLocalPart() );
+
+        // this is possible with the insert hack above.
+        LOGGER.finer("Use featureValidation to check contents of insert");
+
+        // featureValidation(
+        // typeInfo.getDataStore().getId(), schema,
+        // collection );
+        LinkedList<FeatureId> fids = schema2fids.get(schema.getTypeName());
+
+        if (fids == null) {
+            fids = new LinkedList<FeatureId>();
+            schema2fids.put(schema.getTypeName(), fids);
+        }
+
+        //fire pre insert event
+        TransactionEvent event = new TransactionEvent(TransactionEventType.PRE_INSERT,
+                request, elementName, collection);
+        event.setSource(Insert.WFS11.unadapt(insert));
+        
+        listener.dataStoreChange( event );
+        List<FeatureId> batchFids = store.addFeatures(collection);
+        fids.addAll(batchFids);
+        
+        //fire post insert event, only for the features of this batch
+        SimpleFeatureCollection features = store.getFeatures(filterFactory.id(new HashSet<FeatureId>(batchFids)));
+        event = new TransactionEvent(TransactionEventType.POST_INSERT, request, 
+            elementName, features, Insert.WFS11.unadapt(insert));
+        listener.dataStoreChange( event );
+    }
+
     
     /**
      * Checks that all features coordinates are within the expected coordinate range
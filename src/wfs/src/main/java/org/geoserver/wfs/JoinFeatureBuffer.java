@@ -0,0 +1,204 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Holds the features of the build side of a server side join, addressing them by position.
+ * Features are kept in memory until their estimated size exceeds the memory budget, at which
+ * point they are all moved to a temporary file, and read back from it on demand.
+ */
+class JoinFeatureBuffer implements Closeable {
+
+    /** The default memory budget, in bytes */
+    static final long DEFAULT_MEMORY_BUDGET = 64 * 1024 * 1024;
+
+    private static long MEMORY_BUDGET = Long.valueOf(System.getProperty(
+            "org.geoserver.wfs.join.memoryBudget", String.valueOf(DEFAULT_MEMORY_BUDGET)));
+
+    /**
+     * Allows to programmatically set the memory budget of each join build side, in bytes
+     */
+    public static void setMemoryBudget(long memoryBudget) {
+        MEMORY_BUDGET = memoryBudget;
+    }
+
+    private final SimpleFeatureType schema;
+
+    private final long budget = MEMORY_BUDGET;
+
+    private List<SimpleFeature> features = new ArrayList<>();
+
+    private long memory;
+
+    private int size;
+
+    private File file;
+
+    private DataOutputStream out;
+
+    private RandomAccessFile in;
+
+    private long position;
+
+    private long[] offsets;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    public JoinFeatureBuffer(SimpleFeatureType schema) {
+        this.schema = schema;
+    }
+
+    /**
+     * Adds a feature, returning its position in the buffer
+     */
+    public int add(SimpleFeature feature) throws IOException {
+        if (file == null) {
+            features.add(feature);
+            memory += estimateSize(feature);
+            if (memory > budget) {
+                spill();
+            }
+        } else {
+            write(feature, size);
+        }
+        return size++;
+    }
+
+    public SimpleFeature get(int index) throws IOException {
+        if (file == null) {
+            return features.get(index);
+        }
+        if (out != null) {
+            out.close();
+            out = null;
+            in = new RandomAccessFile(file, "r");
+        }
+        in.seek(offsets[index]);
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return read(data);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if the features have been moved to disk
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    private void spill() throws IOException {
+        file = File.createTempFile("join", ".features");
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        offsets = new long[Math.max(16, features.size() * 2)];
+        for (int i = 0; i < features.size(); i++) {
+            write(features.get(i), i);
+        }
+        features = null;
+    }
+
+    private void write(SimpleFeature feature, int index) throws IOException {
+        Object[] values = feature.getAttributes().toArray();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] instanceof Geometry && ((Geometry) values[i]).getUserData() != null) {
+                // the user data usually holds the CRS, which is restored from the schema
+                Geometry copy = (Geometry) ((Geometry) values[i]).clone();
+                copy.setUserData(null);
+                values[i] = copy;
+            }
+        }
+        bytes.reset();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(feature.getID());
+            oos.writeObject(values);
+        }
+
+        if (index >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[index] = position;
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+        position += 4 + bytes.size();
+    }
+
+    private SimpleFeature read(byte[] data) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            String id = (String) ois.readObject();
+            Object[] values = (Object[]) ois.readObject();
+            for (int i = 0; i < values.length; i++) {
+                AttributeDescriptor descriptor = schema.getDescriptor(i);
+                if (values[i] instanceof Geometry && descriptor instanceof GeometryDescriptor) {
+                    ((Geometry) values[i]).setUserData(
+                            ((GeometryDescriptor) descriptor).getCoordinateReferenceSystem());
+                }
+            }
+            return SimpleFeatureBuilder.build(schema, values, id);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Failed to read back a joined feature", e);
+        }
+    }
+
+    /**
+     * A rough estimate of the memory used by a feature
+     */
+    static long estimateSize(SimpleFeature feature) {
+        long size = 64;
+        for (Object value : feature.getAttributes()) {
+            if (value instanceof Geometry) {
+                size += 64 + 40L * ((Geometry) value).getNumPoints();
+            } else if (value instanceof CharSequence) {
+                size += 40 + 2L * ((CharSequence) value).length();
+            } else {
+                size += 16;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (out != null) {
+                out.close();
+            }
+            if (in != null) {
+                in.close();
+            }
+        } finally {
+            out = null;
+            in = null;
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+}
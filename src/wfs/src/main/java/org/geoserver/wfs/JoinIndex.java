@@ -0,0 +1,341 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.data.Join;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.filter.AttributeExpressionImpl;
+import org.geotools.filter.visitor.DefaultFilterVisitor;
+import org.geotools.filter.visitor.DuplicatingFilterVisitor;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.spatial.BBOX;
+import org.opengis.filter.spatial.BinarySpatialOperator;
+import org.opengis.filter.spatial.Contains;
+import org.opengis.filter.spatial.Crosses;
+import org.opengis.filter.spatial.DWithin;
+import org.opengis.filter.spatial.Equals;
+import org.opengis.filter.spatial.Intersects;
+import org.opengis.filter.spatial.Overlaps;
+import org.opengis.filter.spatial.Touches;
+import org.opengis.filter.spatial.Within;
+import org.opengis.feature.simple.SimpleFeature;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * The build side of a server side join: holds the features of a joined type and looks up the ones
+ * matching a primary feature.
+ * <p>
+ * Equality join conditions are resolved with a hash lookup, spatial ones with a STRtree of the
+ * joined geometries envelopes, anything else by scanning all the joined features. The candidates
+ * are then checked against the full join filter.
+ * </p>
+ */
+class JoinIndex implements Closeable {
+
+    /** A primary feature paired with a joined one, the object join filters are evaluated on */
+    static class JoinTuple {
+        SimpleFeature primary;
+
+        SimpleFeature secondary;
+
+        JoinTuple(SimpleFeature primary, SimpleFeature secondary) {
+            this.primary = primary;
+            this.secondary = secondary;
+        }
+    }
+
+    /** A property of either the primary or the joined feature of a {@link JoinTuple} */
+    static class JoinPropertyName extends AttributeExpressionImpl {
+        final boolean secondary;
+
+        JoinPropertyName(String name, boolean secondary) {
+            super(name);
+            this.secondary = secondary;
+        }
+
+        @Override
+        public Object evaluate(Object obj) {
+            return evaluate(obj, null);
+        }
+
+        @Override
+        public <T> T evaluate(Object obj, Class<T> target) {
+            if (obj instanceof JoinTuple) {
+                JoinTuple tuple = (JoinTuple) obj;
+                obj = secondary ? tuple.secondary : tuple.primary;
+                if (obj == null) {
+                    return null;
+                }
+            }
+            return super.evaluate(obj, target);
+        }
+    }
+
+    private final String name;
+
+    private final Join.Type type;
+
+    private final Filter filter;
+
+    private final JoinFeatureBuffer features;
+
+    private List<Expression> primaryKeys = new ArrayList<>();
+
+    private List<Expression> secondaryKeys = new ArrayList<>();
+
+    private Map<Object, List<Integer>> hash;
+
+    private Expression primaryGeometry;
+
+    private Expression secondaryGeometry;
+
+    private double distance;
+
+    private STRtree tree;
+
+    public JoinIndex(Join join, SimpleFeatureCollection joined) throws IOException {
+        this.name = join.getAlias() != null ? join.getAlias() : join.getTypeName();
+        this.type = join.getType();
+        Filter joinFilter = join.getJoinFilter() != null ? join.getJoinFilter() : Filter.INCLUDE;
+        this.filter = (Filter) joinFilter.accept(new SideRewriter(name), null);
+        analyze();
+
+        this.features = new JoinFeatureBuffer(joined.getSchema());
+        boolean success = false;
+        try (SimpleFeatureIterator it = joined.features()) {
+            JoinTuple tuple = new JoinTuple(null, null);
+            while (it.hasNext()) {
+                SimpleFeature feature = it.next();
+                int index = features.add(feature);
+                tuple.secondary = feature;
+                if (hash != null) {
+                    Object key = getKey(secondaryKeys, tuple);
+                    if (key != null) {
+                        hash.computeIfAbsent(key, k -> new ArrayList<>(1)).add(index);
+                    }
+                } else if (tree != null) {
+                    Geometry g = secondaryGeometry.evaluate(tuple, Geometry.class);
+                    if (g != null && !g.isEmpty()) {
+                        tree.insert(g.getEnvelopeInternal(), index);
+                    }
+                }
+            }
+            if (tree != null) {
+                tree.build();
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                features.close();
+            }
+        }
+    }
+
+    /**
+     * Looks for conditions that can drive a lookup: equalities first, spatial predicates second
+     */
+    private void analyze() {
+        List<Filter> conditions = filter instanceof And ? ((And) filter).getChildren()
+                : Collections.singletonList(filter);
+        for (Filter condition : conditions) {
+            if (condition instanceof PropertyIsEqualTo
+                    && ((PropertyIsEqualTo) condition).isMatchingCase()) {
+                PropertyIsEqualTo equal = (PropertyIsEqualTo) condition;
+                addKey(equal.getExpression1(), equal.getExpression2());
+            }
+        }
+        if (!primaryKeys.isEmpty()) {
+            hash = new HashMap<>();
+            return;
+        }
+
+        for (Filter condition : conditions) {
+            if (isIndexable(condition)) {
+                BinarySpatialOperator op = (BinarySpatialOperator) condition;
+                Boolean side1 = getSide(op.getExpression1());
+                Boolean side2 = getSide(op.getExpression2());
+                if (side1 != null && side2 != null && !side1.equals(side2)) {
+                    primaryGeometry = side1 ? op.getExpression2() : op.getExpression1();
+                    secondaryGeometry = side1 ? op.getExpression1() : op.getExpression2();
+                    distance = op instanceof DWithin ? ((DWithin) op).getDistance() : 0;
+                    tree = new STRtree();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void addKey(Expression e1, Expression e2) {
+        Boolean side1 = getSide(e1);
+        Boolean side2 = getSide(e2);
+        if (side1 != null && side2 != null && !side1.equals(side2)) {
+            primaryKeys.add(side1 ? e2 : e1);
+            secondaryKeys.add(side1 ? e1 : e2);
+        }
+    }
+
+    /**
+     * Spatial predicates that can only hold if the two envelopes intersect (after expanding by the
+     * distance, for {@link DWithin})
+     */
+    private boolean isIndexable(Filter condition) {
+        return condition instanceof Intersects || condition instanceof Contains
+                || condition instanceof Within || condition instanceof Overlaps
+                || condition instanceof Touches || condition instanceof Crosses
+                || condition instanceof Equals || condition instanceof BBOX
+                || condition instanceof DWithin;
+    }
+
+    /**
+     * Returns true if the expression uses only joined properties, false if it uses only primary
+     * ones, null otherwise
+     */
+    private Boolean getSide(Expression expression) {
+        boolean[] sides = new boolean[2];
+        expression.accept(new DefaultFilterVisitor() {
+            @Override
+            public Object visit(PropertyName name, Object data) {
+                if (name instanceof JoinPropertyName) {
+                    sides[((JoinPropertyName) name).secondary ? 1 : 0] = true;
+                }
+                return data;
+            }
+        }, null);
+        return sides[0] == sides[1] ? null : sides[1];
+    }
+
+    private Object getKey(List<Expression> keys, JoinTuple tuple) {
+        if (keys.size() == 1) {
+            return normalize(keys.get(0).evaluate(tuple));
+        }
+        Object[] values = new Object[keys.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = normalize(keys.get(i).evaluate(tuple));
+            if (values[i] == null) {
+                return null;
+            }
+        }
+        return Arrays.asList(values);
+    }
+
+    /**
+     * Makes equal the key values the join filter would consider equal, e.g., numbers of different
+     * types. Values hashed together are still checked against the join filter
+     */
+    static Object normalize(Object value) {
+        if (value instanceof Number || value instanceof String) {
+            if ((value instanceof Double && !Double.isFinite((Double) value))
+                    || (value instanceof Float && !Float.isFinite((Float) value))) {
+                return value;
+            }
+            try {
+                return new BigDecimal(value.toString().trim()).stripTrailingZeros();
+            } catch (NumberFormatException e) {
+                return value;
+            }
+        } else if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        return value;
+    }
+
+    /**
+     * The name of the joined type attribute in the joined features
+     */
+    public String getName() {
+        return name;
+    }
+
+    public Join.Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the joined features matching the primary one, in the order they were read
+     */
+    public List<SimpleFeature> getMatches(SimpleFeature primary) throws IOException {
+        JoinTuple tuple = new JoinTuple(primary, null);
+        List<Integer> candidates = null;
+        if (hash != null) {
+            Object key = getKey(primaryKeys, tuple);
+            candidates = key != null ? hash.get(key) : null;
+            if (candidates == null) {
+                return Collections.emptyList();
+            }
+        } else if (tree != null) {
+            Geometry g = primaryGeometry.evaluate(tuple, Geometry.class);
+            if (g == null || g.isEmpty()) {
+                return Collections.emptyList();
+            }
+            Envelope envelope = new Envelope(g.getEnvelopeInternal());
+            if (distance > 0) {
+                envelope.expandBy(distance);
+            }
+            @SuppressWarnings("unchecked")
+            List<Integer> hits = tree.query(envelope);
+            candidates = new ArrayList<>(hits);
+            Collections.sort(candidates);
+        }
+
+        List<SimpleFeature> matches = new ArrayList<>();
+        int count = candidates != null ? candidates.size() : features.size();
+        for (int i = 0; i < count; i++) {
+            SimpleFeature candidate = features.get(candidates != null ? candidates.get(i) : i);
+            tuple.secondary = candidate;
+            if (filter.evaluate(tuple)) {
+                matches.add(candidate);
+            }
+        }
+        return matches;
+    }
+
+    @Override
+    public void close() throws IOException {
+        features.close();
+    }
+
+    /**
+     * Turns the <code>alias.attribute</code> property names of join filters into properties of
+     * either side of a {@link JoinTuple}
+     */
+    static class SideRewriter extends DuplicatingFilterVisitor {
+        String name;
+
+        SideRewriter(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Object visit(PropertyName expression, Object extraData) {
+            String n = expression.getPropertyName();
+            int idx = n.indexOf('.');
+            boolean secondary = false;
+            if (idx >= 0) {
+                secondary = n.substring(0, idx).equals(name);
+                n = n.substring(idx + 1);
+            }
+            return new JoinPropertyName(n, secondary);
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.geotools.data.Join;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.feature.collection.AbstractFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.filter.visitor.DefaultFilterVisitor;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Joins the primary features with the ones of the joined types, the same way a store supporting
+ * joins would: each joined feature has the attributes of the primary one, plus one attribute per
+ * joined type holding the matching feature.
+ * <p>
+ * The joined types are read and indexed when an iterator is opened, then the primary features are
+ * streamed, and the tuples built on the fly, preserving the primary features order. The joined
+ * features hold the properties requested by the join, plus the ones needed to evaluate the join
+ * condition.
+ * </p>
+ */
+class JoiningFeatureCollection extends AbstractFeatureCollection {
+
+    SimpleFeatureCollection primary;
+
+    List<Join> joins;
+
+    Map<String, SimpleFeatureSource> joined;
+
+    CoordinateReferenceSystem reproject;
+
+    int offset;
+
+    int maxFeatures;
+
+    /** The tuple count, computed on first request, -1 until then */
+    int count = -1;
+
+    /** The tuple bounds, computed along with the count */
+    ReferencedEnvelope bounds;
+
+    public JoiningFeatureCollection(SimpleFeatureCollection primary, List<Join> joins,
+            Map<String, SimpleFeatureSource> joined, CoordinateReferenceSystem reproject,
+            int offset, int maxFeatures) {
+        super(buildSchema(primary.getSchema(), joins));
+        this.primary = primary;
+        this.joins = joins;
+        this.joined = joined;
+        this.reproject = reproject;
+        this.offset = offset;
+        this.maxFeatures = maxFeatures;
+    }
+
+    static SimpleFeatureType buildSchema(SimpleFeatureType primary, List<Join> joins) {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.init(primary);
+        for (Join join : joins) {
+            tb.add(getName(join), SimpleFeature.class);
+        }
+        return tb.buildFeatureType();
+    }
+
+    static String getName(Join join) {
+        return join.getAlias() != null ? join.getAlias() : join.getTypeName();
+    }
+
+    /**
+     * Returns the properties to read from the joined type, that is, the ones requested by the join
+     * and the ones used by the join condition, or {@link Query#ALL_NAMES} if the join does not
+     * restrict them
+     */
+    static String[] getJoinedProperties(Join join) {
+        List<PropertyName> properties = join.getProperties();
+        if (properties == null) {
+            return Query.ALL_NAMES;
+        }
+        Set<String> names = new LinkedHashSet<>();
+        for (PropertyName property : properties) {
+            names.add(property.getPropertyName());
+        }
+        if (join.getJoinFilter() != null) {
+            // same convention as JoinIndex, the joined type properties are prefixed by its name
+            String prefix = getName(join) + ".";
+            join.getJoinFilter().accept(new DefaultFilterVisitor() {
+                @Override
+                public Object visit(PropertyName expression, Object data) {
+                    String name = expression.getPropertyName();
+                    if (name.startsWith(prefix)) {
+                        names.add(name.substring(prefix.length()));
+                    }
+                    return data;
+                }
+            }, null);
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    @Override
+    protected Iterator openIterator() {
+        List<JoinIndex> indexes = new ArrayList<>();
+        try {
+            for (Join join : joins) {
+                SimpleFeatureSource source = joined.get(getName(join));
+                Query query = new Query(source.getSchema().getTypeName(),
+                        join.getFilter() != null ? join.getFilter() : Filter.INCLUDE,
+                        getJoinedProperties(join));
+                query.setCoordinateSystemReproject(reproject);
+                indexes.add(new JoinIndex(join, source.getFeatures(query)));
+            }
+            return new JoinIterator(primary.features(), indexes, schema, offset, maxFeatures);
+        } catch (IOException | RuntimeException e) {
+            for (JoinIndex index : indexes) {
+                try {
+                    index.close();
+                } catch (IOException ignore) {
+                    // we are already failing
+                }
+            }
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new RuntimeException("Failed to build the join indexes", e);
+        }
+    }
+
+    @Override
+    protected void closeIterator(Iterator close) {
+        ((JoinIterator) close).close();
+    }
+
+    @Override
+    public int size() {
+        computeSizeAndBounds();
+        return count;
+    }
+
+    @Override
+    public ReferencedEnvelope getBounds() {
+        computeSizeAndBounds();
+        return bounds;
+    }
+
+    /**
+     * Counting the tuples or computing their bounds requires running the whole join, so both are
+     * computed in a single pass and kept, as a hits request with numberMatched would otherwise
+     * run it more than once
+     */
+    private synchronized void computeSizeAndBounds() {
+        if (count >= 0) {
+            return;
+        }
+        int size = 0;
+        ReferencedEnvelope envelope = new ReferencedEnvelope(
+                schema.getCoordinateReferenceSystem());
+        try (SimpleFeatureIterator it = features()) {
+            while (it.hasNext()) {
+                SimpleFeature f = it.next();
+                envelope.include(f.getBounds());
+                size++;
+            }
+        }
+        this.bounds = envelope;
+        this.count = size;
+    }
+
+    /**
+     * Streams the primary features, emitting a tuple for each combination of matching joined
+     * features
+     */
+    static class JoinIterator implements Iterator<SimpleFeature>, Closeable {
+        SimpleFeatureIterator primary;
+
+        List<JoinIndex> indexes;
+
+        SimpleFeatureType schema;
+
+        int skip;
+
+        int remaining;
+
+        Deque<SimpleFeature> tuples = new ArrayDeque<>();
+
+        public JoinIterator(SimpleFeatureIterator primary, List<JoinIndex> indexes,
+                SimpleFeatureType schema, int offset, int maxFeatures) {
+            this.primary = primary;
+            this.indexes = indexes;
+            this.schema = schema;
+            this.skip = offset;
+            this.remaining = maxFeatures;
+        }
+
+        public boolean hasNext() {
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                while (tuples.isEmpty() && primary.hasNext()) {
+                    join(primary.next());
+                    while (skip > 0 && !tuples.isEmpty()) {
+                        tuples.removeFirst();
+                        skip--;
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to join features", e);
+            }
+            return !tuples.isEmpty();
+        }
+
+        public SimpleFeature next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            remaining--;
+            return tuples.removeFirst();
+        }
+
+        private void join(SimpleFeature feature) throws IOException {
+            List<List<SimpleFeature>> matches = new ArrayList<>(indexes.size());
+            for (JoinIndex index : indexes) {
+                List<SimpleFeature> found = index.getMatches(feature);
+                if (found.isEmpty()) {
+                    if (index.getType() == Join.Type.INNER) {
+                        return;
+                    }
+                    found = Collections.singletonList(null);
+                }
+                matches.add(found);
+            }
+
+            // one tuple per combination of the matching features
+            int attributes = feature.getAttributeCount();
+            int[] positions = new int[matches.size()];
+            while (true) {
+                Object[] values = new Object[schema.getAttributeCount()];
+                for (int i = 0; i < attributes; i++) {
+                    values[i] = feature.getAttribute(i);
+                }
+                for (int i = 0; i < positions.length; i++) {
+                    values[attributes + i] = matches.get(i).get(positions[i]);
+                }
+                tuples.add(SimpleFeatureBuilder.build(schema, values, feature.getID()));
+
+                int i = positions.length - 1;
+                while (i >= 0 && ++positions[i] == matches.get(i).size()) {
+                    positions[i] = 0;
+                    i--;
+                }
+                if (i < 0) {
+                    return;
+                }
+            }
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("Removal is not supported");
+        }
+
+        public void close() {
+            primary.close();
+            // close all the indexes, even if one fails, so that no spill file is left around
+            IOException failure = null;
+            for (JoinIndex index : indexes) {
+                try {
+                    index.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw new RuntimeException("Failed to release the join indexes", failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.security.decorators.DecoratingSimpleFeatureSource;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Join;
+import org.geotools.data.Query;
+import org.geotools.data.QueryCapabilities;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.Feature;
+import org.opengis.feature.type.AttributeDescriptor;
+
+/**
+ * Runs WFS joins inside GeoServer, for stores that cannot join natively, or when the joined types
+ * come from different stores. Queries without joins are passed down to the wrapped source.
+ * <p>
+ * The primary type is read with the query filter, sorting and reprojection, the joined types with
+ * the join local filters, and the tuples are built by {@link JoiningFeatureCollection}. Paging
+ * applies to the tuples, so it's performed after the join.
+ * </p>
+ */
+public class JoiningFeatureSource extends DecoratingSimpleFeatureSource {
+
+    Map<String, SimpleFeatureSource> joined;
+
+    /**
+     * @param delegate the primary feature source
+     * @param joined the feature sources of the joined types, keyed by join alias (or type name,
+     *        if the join has no alias)
+     */
+    public JoiningFeatureSource(SimpleFeatureSource delegate,
+            Map<String, SimpleFeatureSource> joined) {
+        super(delegate);
+        this.joined = joined;
+    }
+
+    /**
+     * Returns true if the join cannot be delegated to the primary type store
+     *
+     * @param source the primary type feature source
+     * @param featureTypes the joined types, primary one first
+     */
+    public static boolean isJoinNeeded(FeatureSource<?, ?> source,
+            List<FeatureTypeInfo> featureTypes) {
+        String storeId = featureTypes.get(0).getStore().getId();
+        for (int i = 1; i < featureTypes.size(); i++) {
+            if (!Objects.equals(storeId, featureTypes.get(i).getStore().getId())) {
+                return true;
+            }
+        }
+        QueryCapabilities capabilities = source.getQueryCapabilities();
+        return capabilities == null || !capabilities.isJoiningSupported();
+    }
+
+    /**
+     * Wraps the primary feature source so that it runs the joins
+     *
+     * @param source the primary type feature source
+     * @param joins the joins, in the same order as the joined types
+     * @param featureTypes the joined types, primary one first
+     */
+    public static JoiningFeatureSource wrap(FeatureSource<?, ?> source, List<Join> joins,
+            List<FeatureTypeInfo> featureTypes) throws IOException {
+        Map<String, SimpleFeatureSource> joined = new HashMap<>();
+        for (int i = 0; i < joins.size(); i++) {
+            FeatureSource<?, ?> fs = featureTypes.get(i + 1).getFeatureSource(null, null);
+            joined.put(JoiningFeatureCollection.getName(joins.get(i)), DataUtilities.simple(fs));
+        }
+        return new JoiningFeatureSource(DataUtilities.simple(source), joined);
+    }
+
+    @Override
+    public SimpleFeatureCollection getFeatures(Query query) throws IOException {
+        if (query.getJoins() == null || query.getJoins().isEmpty()) {
+            return delegate.getFeatures(query);
+        }
+
+        Query primary = new Query(query.getTypeName(), query.getFilter(),
+                getPrimaryProperties(query));
+        primary.setSortBy(query.getSortBy());
+        primary.setHints(query.getHints());
+        primary.setHandle(query.getHandle());
+        primary.setVersion(query.getVersion());
+        primary.setCoordinateSystem(query.getCoordinateSystem());
+        primary.setCoordinateSystemReproject(query.getCoordinateSystemReproject());
+
+        int offset = query.getStartIndex() != null ? query.getStartIndex() : 0;
+        return new JoiningFeatureCollection(delegate.getFeatures(primary),
+                new ArrayList<>(query.getJoins()), joined, query.getCoordinateSystemReproject(),
+                offset, query.getMaxFeatures());
+    }
+
+    /**
+     * The attributes holding the joined features are not part of the primary type
+     */
+    private String[] getPrimaryProperties(Query query) {
+        if (!query.retrieveAllProperties()) {
+            return query.getPropertyNames();
+        }
+        List<String> names = new ArrayList<>();
+        for (AttributeDescriptor ad : delegate.getSchema().getAttributeDescriptors()) {
+            if (!Feature.class.isAssignableFrom(ad.getType().getBinding())) {
+                names.add(ad.getLocalName());
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    @Override
+    public int getCount(Query query) throws IOException {
+        if (query.getJoins() == null || query.getJoins().isEmpty()) {
+            return delegate.getCount(query);
+        }
+        // no fast way to count the tuples
+        return -1;
+    }
+
+    @Override
+    public ReferencedEnvelope getBounds(Query query) throws IOException {
+        if (query.getJoins() == null || query.getJoins().isEmpty()) {
+            return delegate.getBounds(query);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,367 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.feature.FeatureIterator;
+import org.opengis.feature.Feature;
+import org.opengis.feature.type.FeatureType;
+import org.opengis.feature.type.PropertyDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+
+/**
+ * An opaque pagination cursor, used instead of the start index in the next links of paged
+ * GetFeature responses when keyset pagination is enabled. The cursor holds the sort key of the last
+ * feature returned, and the following page is read with a seek predicate on the sort key instead
+ * of an offset, so that deep pages do not get slower and slower on large tables.
+ * <p>
+ * Feature ids cannot be range compared in OGC filters, so the sort key is not made unique by
+ * appending the id to it. Features sharing the last sort key are accounted for by a skip count
+ * instead, which is the number of such features already returned. Null sort keys cannot be
+ * sought past either, so the first page probes the store for them, and falls back on offset
+ * paging if any is found. A cursor is only issued when there is none, following pages rely on
+ * that instead of probing again.
+ * </p>
+ */
+public class KeysetCursor {
+
+    /** The {@link WFSInfo} metadata key enabling keyset pagination */
+    static final String KEYSET_PAGINATION = "keysetPagination";
+
+    /** The KVP parameter carrying the cursor */
+    static final String CURSOR = "CURSOR";
+
+    private static final byte INTEGER = 'I';
+
+    private static final byte DOUBLE = 'F';
+
+    private static final byte DECIMAL = 'B';
+
+    private static final byte BOOLEAN = 'Z';
+
+    private static final byte DATE = 'D';
+
+    private static final byte TIMESTAMP = 'T';
+
+    private static final byte STRING = 'S';
+
+    private final long index;
+
+    private final int skip;
+
+    private final List<Object> key;
+
+    KeysetCursor(long index, int skip, List<Object> key) {
+        this.index = index;
+        this.skip = skip;
+        this.key = key;
+    }
+
+    /**
+     * The position of the first feature of the page, as it would be expressed by a start index
+     */
+    long getIndex() {
+        return index;
+    }
+
+    /**
+     * The number of features matching the seek predicate to be skipped
+     */
+    int getSkip() {
+        return skip;
+    }
+
+    /**
+     * The sort key values of the last feature of the previous page
+     */
+    List<Object> getKey() {
+        return key;
+    }
+
+    /**
+     * Returns true if the sort can be used for keyset pagination, that is, if it only uses
+     * attributes
+     */
+    static boolean isSupported(List<SortBy> sortBy) {
+        if (sortBy == null || sortBy.isEmpty()) {
+            return false;
+        }
+        for (SortBy sb : sortBy) {
+            PropertyName name = sb.getPropertyName();
+            if (name == null || name.getPropertyName() == null
+                    || name.getPropertyName().contains("/")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a filter matching the features having a null value in any of the sort attributes,
+     * or null if the schema does not allow nulls in any of them. Null keys sort first or last
+     * depending on the store, so the seek predicate cannot account for them, and keyset
+     * pagination cannot be used on features having them
+     */
+    static Filter getNullKeyFilter(FilterFactory2 ff, List<SortBy> sortBy, FeatureType schema) {
+        List<Filter> nulls = new ArrayList<>();
+        for (SortBy sb : sortBy) {
+            String name = sb.getPropertyName().getPropertyName();
+            PropertyDescriptor pd = schema.getDescriptor(name.substring(name.indexOf(':') + 1));
+            if (pd == null || pd.isNillable()) {
+                nulls.add(ff.isNull(sb.getPropertyName()));
+            }
+        }
+        if (nulls.isEmpty()) {
+            return null;
+        }
+        return nulls.size() == 1 ? nulls.get(0) : ff.or(nulls);
+    }
+
+    /**
+     * Builds the seek predicate selecting the features sorted after the cursor key, including the
+     * ones sharing the same key, that need to be skipped
+     */
+    Filter toFilter(FilterFactory2 ff, List<SortBy> sortBy) {
+        if (sortBy.size() != key.size()) {
+            throw new WFSException("The cursor does not match the sort of the request",
+                    "InvalidParameterValue", "cursor");
+        }
+        List<Filter> alternatives = new ArrayList<>();
+        for (int i = 0; i < sortBy.size(); i++) {
+            List<Filter> terms = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                terms.add(ff.equals(sortBy.get(j).getPropertyName(), ff.literal(key.get(j))));
+            }
+            boolean last = i == sortBy.size() - 1;
+            terms.add(compare(ff, sortBy.get(i), ff.literal(key.get(i)), last));
+            alternatives.add(terms.size() == 1 ? terms.get(0) : ff.and(terms));
+        }
+        if (alternatives.size() == 1) {
+            return alternatives.get(0);
+        }
+        // the leading range on the first attribute allows the use of an index on it
+        return ff.and(compare(ff, sortBy.get(0), ff.literal(key.get(0)), true),
+                ff.or(alternatives));
+    }
+
+    private Filter compare(FilterFactory2 ff, SortBy sortBy, Literal value, boolean inclusive) {
+        PropertyName name = sortBy.getPropertyName();
+        if (sortBy.getSortOrder() == SortOrder.DESCENDING) {
+            return inclusive ? ff.lessOrEqual(name, value) : ff.less(name, value);
+        } else {
+            return inclusive ? ff.greaterOrEqual(name, value) : ff.greater(name, value);
+        }
+    }
+
+    /**
+     * Computes the cursor pointing after the given page, reading only the sort attributes of it
+     *
+     * @param source the source the page has been read from
+     * @param pageQuery the query used to read the page
+     * @param sortBy the sort of the request
+     * @param pageIndex the position of the first feature of the page
+     * @param followed the cursor used to read the page, if any
+     * @return the cursor, or null if the page is empty or the last sort key contains nulls
+     */
+    static KeysetCursor after(FeatureSource<? extends FeatureType, ? extends Feature> source,
+            Query pageQuery, List<SortBy> sortBy, long pageIndex, KeysetCursor followed)
+            throws IOException {
+        Query keyQuery = new Query(pageQuery);
+        String[] names = new String[sortBy.size()];
+        for (int i = 0; i < names.length; i++) {
+            String name = sortBy.get(i).getPropertyName().getPropertyName();
+            names[i] = name.substring(name.indexOf(':') + 1);
+        }
+        keyQuery.setPropertyNames(names);
+
+        List<Object> last = null;
+        int run = 0;
+        int read = 0;
+        try (FeatureIterator<? extends Feature> it = source.getFeatures(keyQuery).features()) {
+            while (it.hasNext()) {
+                Feature f = it.next();
+                List<Object> key = new ArrayList<>(sortBy.size());
+                for (SortBy sb : sortBy) {
+                    key.add(sb.getPropertyName().evaluate(f));
+                }
+                read++;
+                if (key.equals(last)) {
+                    run++;
+                } else {
+                    last = key;
+                    run = 1;
+                }
+            }
+        }
+        if (last == null || last.contains(null)) {
+            return null;
+        }
+
+        int skip = run;
+        // the whole page shares the key the page started from, skip past all of it
+        if (run == read && followed != null
+                && Arrays.equals(encodeKey(last), encodeKey(followed.key))) {
+            skip += followed.skip;
+        }
+        return new KeysetCursor(pageIndex + read, skip, last);
+    }
+
+    /**
+     * Encodes the cursor in a URL safe string
+     */
+    String encode() {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeLong(index);
+            out.writeInt(skip);
+            out.write(encodeKey(key));
+            out.flush();
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bos.toByteArray());
+        } catch (IOException e) {
+            // cannot happen, we are writing in memory
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Parses a cursor encoded by {@link #encode()}
+     *
+     * @throws WFSException if the cursor is not valid
+     */
+    static KeysetCursor decode(String cursor) {
+        try {
+            byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            long index = in.readLong();
+            int skip = in.readInt();
+            int size = in.readInt();
+            if (index < 0 || skip < 0 || size <= 0 || size > bytes.length) {
+                throw new IOException("Invalid cursor header");
+            }
+            List<Object> key = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                byte type = in.readByte();
+                switch (type) {
+                case INTEGER:
+                    key.add(in.readLong());
+                    break;
+                case DOUBLE:
+                    key.add(in.readDouble());
+                    break;
+                case DECIMAL:
+                    key.add(new BigDecimal(readString(in, bytes.length)));
+                    break;
+                case BOOLEAN:
+                    key.add(in.readBoolean());
+                    break;
+                case DATE:
+                    key.add(new Date(in.readLong()));
+                    break;
+                case TIMESTAMP:
+                    Timestamp timestamp = new Timestamp(in.readLong());
+                    timestamp.setNanos(in.readInt());
+                    key.add(timestamp);
+                    break;
+                case STRING:
+                    key.add(readString(in, bytes.length));
+                    break;
+                default:
+                    throw new IOException("Unknown value type " + type);
+                }
+            }
+            return new KeysetCursor(index, skip, key);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new WFSException("Invalid cursor: " + cursor, e, "InvalidParameterValue",
+                    "cursor");
+        }
+    }
+
+    private static byte[] encodeKey(List<Object> key) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeInt(key.size());
+            for (Object value : key) {
+                if (value instanceof Byte || value instanceof Short || value instanceof Integer
+                        || value instanceof Long) {
+                    out.writeByte(INTEGER);
+                    out.writeLong(((Number) value).longValue());
+                } else if (value instanceof Float || value instanceof Double) {
+                    out.writeByte(DOUBLE);
+                    out.writeDouble(((Number) value).doubleValue());
+                } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+                    out.writeByte(DECIMAL);
+                    writeString(out, value.toString());
+                } else if (value instanceof Boolean) {
+                    out.writeByte(BOOLEAN);
+                    out.writeBoolean((Boolean) value);
+                } else if (value instanceof Timestamp) {
+                    // keep the sub millisecond part, or the seek would return the ties again
+                    out.writeByte(TIMESTAMP);
+                    out.writeLong(((Timestamp) value).getTime());
+                    out.writeInt(((Timestamp) value).getNanos());
+                } else if (value instanceof Date) {
+                    out.writeByte(DATE);
+                    out.writeLong(((Date) value).getTime());
+                } else {
+                    out.writeByte(STRING);
+                    writeString(out, String.valueOf(value));
+                }
+            }
+            out.flush();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            // cannot happen, we are writing in memory
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes the string as length prefixed UTF-8, {@link DataOutputStream#writeUTF(String)} is
+     * limited to 64KB and sort keys can be long text values
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}
+     *
+     * @param max the size of the whole cursor, to reject bogus lengths
+     */
+    private static String readString(DataInputStream in, int max) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > max) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
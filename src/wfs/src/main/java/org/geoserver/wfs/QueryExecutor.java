@@ -0,0 +1,73 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Runs the independent parts of GetFeature requests with multiple queries concurrently, that is,
+ * the feature counts of each query, which would otherwise hit the stores one after the other.
+ * <p>
+ * The thread locals of the request (security context, local workspace, dispatcher request) are
+ * transferred to the worker threads. When the pool is saturated the tasks are run by the request
+ * thread itself, so the amount of concurrent work stays bounded.
+ * </p>
+ * Parallel execution is enabled by the {@link #PARALLEL_QUERIES} flag in the {@link WFSInfo}
+ * metadata.
+ */
+public class QueryExecutor implements DisposableBean {
+
+    /** The {@link WFSInfo} metadata key enabling the parallel execution of the queries */
+    public static final String PARALLEL_QUERIES = "parallelQueries";
+
+    private final ThreadPoolExecutor executor;
+
+    public QueryExecutor(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "WFSQuery-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * 4), factory,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Submits a task to be run on behalf of the current request
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        final Thread caller = Thread.currentThread();
+        final ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
+        return executor.submit(() -> {
+            if (Thread.currentThread() == caller) {
+                // run by the request thread, the thread locals are already there
+                return task.call();
+            }
+            transfer.apply();
+            try {
+                return task.call();
+            } finally {
+                transfer.cleanup();
+            }
+        });
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        executor.shutdownNow();
+    }
+}
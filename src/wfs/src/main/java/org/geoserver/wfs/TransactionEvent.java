@@ -100,6 +100,13 @@ public class TransactionEvent {
     public TransactionType getRequest() {
         return TransactionRequest.WFS11.unadapt(request);
     }
+
+    /**
+     * Returns the transaction request this event is part of, regardless of the WFS version
+     */
+    public TransactionRequest getTransactionRequest() {
+        return request;
+    }
     
     /**
      * Returns the current GeoTools Data {@link Transaction} associated with this event. May be {@code null}
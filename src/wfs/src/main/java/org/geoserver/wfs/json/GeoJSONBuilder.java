@@ -5,6 +5,7 @@
  */
 package org.geoserver.wfs.json;
 
+import java.io.IOException;
 import java.io.Writer;
 import java.util.Calendar;
 import java.util.List;
@@ -29,7 +30,9 @@ import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.geom.impl.CoordinateArraySequence;
 
 import net.sf.json.JSONException;
+import net.sf.json.JSONString;
 import net.sf.json.util.JSONBuilder;
+import net.sf.json.util.JSONUtils;
 
 
 /**
@@ -49,6 +52,29 @@ public class GeoJSONBuilder extends JSONBuilder {
 
     private int numDecimals = 6;
 
+    /** Powers of ten used to scale the coordinates, indexed by the number of decimals */
+    private static final long[] SCALES = new long[16];
+    static {
+        SCALES[0] = 1;
+        for (int i = 1; i < SCALES.length; i++) {
+            SCALES[i] = SCALES[i - 1] * 10;
+        }
+    }
+
+    /** The longest number the fixed precision formatting can output */
+    private static final int MAX_NUMBER_LENGTH = 40;
+
+    /**
+     * An empty value, used to have the builder write the separators before writing the
+     * coordinates directly in the output
+     */
+    private static final JSONString RAW_VALUE = () -> "";
+
+    /** Reused to format the coordinates without going through the generic number formatting */
+    private final char[] buffer = new char[8192];
+
+    private int length;
+
     public GeoJSONBuilder(Writer w) {
         super(w);
     }
@@ -140,45 +166,134 @@ public class GeoJSONBuilder extends JSONBuilder {
      */
     private JSONBuilder writeCoordinates(CoordinateSequence coords)
         throws JSONException {
-        this.array();
+        startRaw();
+        append('[');
         
         // guess the dimension of the coordinate sequence
         int dim = CoordinateSequences.coordinateDimension(coords);
 
         final int coordCount = coords.size();
         for (int i = 0; i < coordCount; i++) {
+            if (i > 0) {
+                append(',');
+            }
             if(dim > 2) {
-                writeCoordinate(coords.getX(i), coords.getY(i), coords.getOrdinate(i, 2));
+                appendCoordinate(coords.getX(i), coords.getY(i), coords.getOrdinate(i, 2));
             } else {
-                writeCoordinate(coords.getX(i), coords.getY(i));
+                appendCoordinate(coords.getX(i), coords.getY(i), Double.NaN);
             }
         }
 
-        return this.endArray();
+        append(']');
+        return endRaw();
     }
 
-    private JSONBuilder writeCoordinate(double x, double y) {
-        return writeCoordinate(x, y, Double.NaN);
-    }
-    
     private JSONBuilder writeCoordinate(double x, double y, double z) {
-        this.array();
+        startRaw();
+        appendCoordinate(x, y, z);
+        return endRaw();
+    }
+
+    private void appendCoordinate(double x, double y, double z) {
+        append('[');
         if(axisOrder==CRS.AxisOrder.NORTH_EAST){
-            roundedValue(y);
-            roundedValue(x);
+            appendNumber(y);
+            append(',');
+            appendNumber(x);
         } else {
-            roundedValue(x);
-            roundedValue(y);
+            appendNumber(x);
+            append(',');
+            appendNumber(y);
         }
         if(!Double.isNaN(z)) {
-            roundedValue(z);
+            append(',');
+            appendNumber(z);
         }
+        append(']');
+    }
 
-        return this.endArray();
+    /**
+     * Lets the builder write the separator for a new value, the value itself is then written
+     * directly in the output by the append methods, and completed by {@link #endRaw()}
+     */
+    private void startRaw() {
+        super.value(RAW_VALUE);
+        length = 0;
     }
 
-    private void roundedValue(double value) {
-        super.value(RoundingUtil.round(value, numDecimals));
+    private JSONBuilder endRaw() {
+        flushBuffer();
+        return this;
+    }
+
+    private void flushBuffer() {
+        try {
+            writer.write(buffer, 0, length);
+            length = 0;
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
+    private void append(char c) {
+        if (length == buffer.length) {
+            flushBuffer();
+        }
+        buffer[length++] = c;
+    }
+
+    /**
+     * Writes the value rounded to the number of decimals, like {@link RoundingUtil} would, but
+     * without the allocations and the generic formatting of the JSON builder. Trailing zeroes are
+     * dropped, and so is the decimal separator for integral values.
+     */
+    private void appendNumber(double value) {
+        if (numDecimals < 0 || numDecimals >= SCALES.length || Double.isNaN(value)
+                || Double.isInfinite(value) || Math.ulp(value) * SCALES[numDecimals] > 1d) {
+            // cannot be represented with a fixed number of decimals, use the generic formatting
+            String formatted = JSONUtils.numberToString(RoundingUtil.round(value, numDecimals));
+            for (int i = 0; i < formatted.length(); i++) {
+                append(formatted.charAt(i));
+            }
+            return;
+        }
+        if (buffer.length - length < MAX_NUMBER_LENGTH) {
+            flushBuffer();
+        }
+
+        long scale = SCALES[numDecimals];
+        long units = (long) Math.floor(value * scale + 0.5);
+        if (units < 0) {
+            buffer[length++] = '-';
+            units = -units;
+        }
+        appendDigits(units / scale, 0);
+        long fraction = units % scale;
+        if (fraction != 0) {
+            int digits = numDecimals;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                digits--;
+            }
+            buffer[length++] = '.';
+            appendDigits(fraction, digits);
+        }
+    }
+
+    /**
+     * Appends a positive number, padding it with leading zeroes up to the given number of digits
+     */
+    private void appendDigits(long value, int minDigits) {
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        digits = Math.max(digits, minDigits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
     }
     
     /**
@@ -188,19 +303,27 @@ public class GeoJSONBuilder extends JSONBuilder {
      */
     protected JSONBuilder writeBoundingBox(Envelope env) {
         this.key("bbox");
-        this.array();
+        startRaw();
+        append('[');
         if(axisOrder==CRS.AxisOrder.NORTH_EAST) {
-            roundedValue(env.getMinY());
-            roundedValue(env.getMinX());
-            roundedValue(env.getMaxY());
-            roundedValue(env.getMaxX());
+            appendNumber(env.getMinY());
+            append(',');
+            appendNumber(env.getMinX());
+            append(',');
+            appendNumber(env.getMaxY());
+            append(',');
+            appendNumber(env.getMaxX());
         } else {
-            roundedValue(env.getMinX());
-            roundedValue(env.getMinY());
-            roundedValue(env.getMaxX());
-            roundedValue(env.getMaxY());
+            appendNumber(env.getMinX());
+            append(',');
+            appendNumber(env.getMinY());
+            append(',');
+            appendNumber(env.getMaxX());
+            append(',');
+            appendNumber(env.getMaxY());
         }
-        return this.endArray();
+        append(']');
+        return endRaw();
     }
 
     /**
@@ -5,8 +5,6 @@
  */
 package org.geoserver.wfs.response;
 
-import com.google.common.escape.Escaper;
-import com.google.common.escape.Escapers;
 import org.eclipse.xsd.XSDElementDeclaration;
 import org.eclipse.xsd.impl.XSDElementDeclarationImpl;
 import org.geoserver.config.GeoServer;
@@ -32,12 +30,12 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.NumberFormat;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.Locale;
-import java.util.regex.Pattern;
 
 /**
  * WFS output format for a GetFeature operation in which the outputFormat is "csv".
@@ -50,8 +48,6 @@ import java.util.regex.Pattern;
  */
 public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
 
-    static final Pattern CSV_ESCAPES = Pattern.compile("[\"\n,\r]");
-
     public CSVOutputFormat(GeoServer gs) {
         //this is the name of your output format, it is the string
         // that will be used when requesting the format in a 
@@ -109,7 +105,7 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
             w.write("FID,");
             for ( int i = 0; i < ft.getAttributeCount(); i++ ) {
                 AttributeDescriptor ad = ft.getDescriptor( i );
-                w.write( prepCSVField(ad.getLocalName()) );
+                writeCSVField(ad.getLocalName(), w);
                    
                 if ( i < ft.getAttributeCount()-1 ) {
                    w.write( "," );
@@ -134,7 +130,7 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
                         XSDElementDeclarationImpl xsdEl = (XSDElementDeclarationImpl) xsd;
                         elName = xsdEl.getQName();
                     }
-                    w.write(prepCSVField(elName));
+                    writeCSVField(elName, w);
                     i++;
                 }
             }
@@ -156,15 +152,14 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
             while( i.hasNext() ) {                
                 Feature f = i.next();
                 // dump fid
-                w.write(prepCSVField(f.getIdentifier().getID()));
+                writeCSVField(f.getIdentifier().getID(), w);
                 w.write(",");
                 if (f instanceof SimpleFeature) {
                     // dump attributes
                     for ( int j = 0; j < ((SimpleFeature) f).getAttributeCount(); j++ ) {
                         Object att = ((SimpleFeature) f).getAttribute( j );
                         if ( att != null ) {
-                            String value = formatters[j].format(att);
-                            w.write( value );
+                            formatters[j].write(att, w);
                         }
                         if ( j < ((SimpleFeature) f).getAttributeCount()-1 ) {
                             w.write(",");    
@@ -201,7 +196,7 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
 
                         if (att != null) {
                             String value = formatToString(att, coordFormatter);
-                            w.write(prepCSVField(value));
+                            writeCSVField(value, w);
                         }     
                     }
                 }
@@ -247,26 +242,59 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
     }
 
     private interface AttrFormatter {
-        String format(Object att);
+        void write(Object att, Writer w) throws IOException;
     }
 
     private static class NumberFormatter implements AttrFormatter {
         private final NumberFormat coordFormatter;
 
+        /** Reused to write integral values, one formatter is created for each request */
+        private final char[] digits = new char[20];
+
         public NumberFormatter(NumberFormat coordFormatter) {
             this.coordFormatter = coordFormatter;
         }
 
         @Override
-        public String format(Object att) {
-            return coordFormatter.format(att);
+        public void write(Object att, Writer w) throws IOException {
+            if (att instanceof Integer || att instanceof Long || att instanceof Short
+                    || att instanceof Byte) {
+                writeLong(((Number) att).longValue(), w);
+            } else {
+                w.write(coordFormatter.format(att));
+            }
+        }
+
+        /**
+         * Writes the digits straight from the value, integral values need neither rounding nor
+         * grouping, so the number format would just be overhead
+         */
+        private void writeLong(long value, Writer w) throws IOException {
+            if (value == Long.MIN_VALUE) {
+                // cannot be negated
+                w.write(Long.toString(value));
+                return;
+            }
+            int pos = digits.length;
+            boolean negative = value < 0;
+            if (negative) {
+                value = -value;
+            }
+            do {
+                digits[--pos] = (char) ('0' + value % 10);
+                value /= 10;
+            } while (value > 0);
+            if (negative) {
+                digits[--pos] = '-';
+            }
+            w.write(digits, pos, digits.length - pos);
         }
     }
 
     private static class JUDateFormatter implements AttrFormatter {
         @Override
-        public String format(Object att) {
-            return prepCSVField(DateUtil.serializeDateTime((Date) att));
+        public void write(Object att, Writer w) throws IOException {
+            writeCSVField(DateUtil.serializeDateTime((Date) att), w);
         }
     }
 
@@ -274,8 +302,8 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
 
     private static class SQLDateFormatter implements AttrFormatter {
         @Override
-        public String format(Object att) {
-            return prepCSVField(DateUtil.serializeSqlDate((java.sql.Date) att));
+        public void write(Object att, Writer w) throws IOException {
+            writeCSVField(DateUtil.serializeSqlDate((java.sql.Date) att), w);
         }
     }
 
@@ -283,8 +311,8 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
 
     private static class SQLTimeFormatter implements AttrFormatter {
         @Override
-        public String format(Object att) {
-            return prepCSVField(DateUtil.serializeSqlTime((java.sql.Time) att));
+        public void write(Object att, Writer w) throws IOException {
+            writeCSVField(DateUtil.serializeSqlTime((java.sql.Time) att), w);
         }
     }
 
@@ -292,8 +320,8 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
 
     private static class DefaultFormatter implements AttrFormatter {
         @Override
-        public String format(Object att) {
-            return prepCSVField(att.toString());
+        public void write(Object att, Writer w) throws IOException {
+            writeCSVField(att.toString(), w);
         }
     }
 
@@ -320,27 +348,38 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
         return value;
     }
 
-    private static Escaper escaper =  Escapers.builder().addEscape('"', "\"\"").build();
-
     /*
      * The CSV "spec" explains that fields with certain properties must be
      * delimited by double quotes, and also that double quotes within fields
-     * must be escaped.  This method takes a field and returns one that
-     * obeys the CSV spec.
-     */    
-    private static String prepCSVField(String field){
-    	// "embedded double-quote characters must be represented by a pair of double-quote characters."
-        String mod = escaper.escape(field);
+     * must be escaped.  This method writes out a field obeying the CSV spec,
+     * scanning it once and copying it as is in the common case where no
+     * escaping is needed.
+     */
+    static void writeCSVField(String field, Writer w) throws IOException {
+        final int length = field.length();
+        boolean quote = false;
+        for (int i = 0; i < length && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == '"' || c == ',' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            w.write(field);
+            return;
+        }
 
-    	/*
-    	 * Enclose string in double quotes if it contains double quotes, commas, or newlines
-    	 */
-        if (CSV_ESCAPES.matcher(mod).find()) {
-            mod = "\"" + mod + "\"";
-    	}
-    	
-		return mod;
-    	
+        // enclose in double quotes, and represent embedded double-quote characters
+        // by a pair of double-quote characters
+        w.write('"');
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (field.charAt(i) == '"') {
+                w.write(field, start, i + 1 - start);
+                w.write('"');
+                start = i + 1;
+            }
+        }
+        w.write(field, start, length - start);
+        w.write('"');
     }
     
     @Override
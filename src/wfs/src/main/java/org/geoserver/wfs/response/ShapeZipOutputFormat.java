@@ -20,6 +20,7 @@ import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
@@ -28,6 +29,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.SimpleTimeZone;
 import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
@@ -98,6 +100,7 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
     private GeoServerResourceLoader resourceLoader;
     private long maxShpSize = Long.getLong("GS_SHP_MAX_SIZE", Integer.MAX_VALUE);
     private long maxDbfSize = Long.getLong("GS_DBF_MAX_SIZE", Integer.MAX_VALUE);
+    private boolean streaming = Boolean.getBoolean("GS_SHAPEZIP_STREAMING");
     
     /**
      * @deprecated use {@link #ShapeZipOutputFormat(GeoServer)}
@@ -189,6 +192,15 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         //We might get multiple featurecollections in our response (multiple queries?) so we need to
         //write out multiple shapefile sets, one for each query response.
         final File tempDir = IOUtils.createTempDirectory("shpziptemp");
+        final ZipOutputStream zipOut = new ZipOutputStream(output);
+        final FilenameFilter filter = new FilenameFilter() {
+        
+            public boolean accept(File dir, String name) {
+                name = name.toLowerCase();
+                return name.endsWith(".shp") || name.endsWith(".shx") || name.endsWith(".dbf")
+                       || name.endsWith(".prj") || name.endsWith(".cst") || name.endsWith(".txt");
+            }
+        };
         ShapefileDumper dumper = new ShapefileDumper(tempDir) {
 
             @Override
@@ -207,7 +219,9 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
                 } catch (FactoryException e) {
                     throw new IOException("Failed to write out the ESRI style prj file", e);
                 }
-
+                if (streaming) {
+                    zipShapefile(tempDir, fileName, zipOut, filter);
+                }
             }
         };
         dumper.setMaxDbfSize(maxDbfSize);
@@ -233,16 +247,7 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
             // dump the request
             createRequestDump(tempDir, request, collections.get(0));
             
-            // zip all the files produced
-            final FilenameFilter filter = new FilenameFilter() {
-            
-                public boolean accept(File dir, String name) {
-                    name = name.toLowerCase();
-                    return name.endsWith(".shp") || name.endsWith(".shx") || name.endsWith(".dbf")
-                           || name.endsWith(".prj") || name.endsWith(".cst") || name.endsWith(".txt");
-                }
-            };
-            ZipOutputStream zipOut = new ZipOutputStream(output);
+            // zip all the files produced (or the ones left, when streaming)
             IOUtils.zipDirectory(tempDir, zipOut, filter);
             zipOut.finish();
 
@@ -259,6 +264,34 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         }
     }
 
+    /**
+     * Moves the files of a shapefile that has just been completed into the zip, sending them to
+     * the client right away, and freeing the disk space they were using
+     */
+    private void zipShapefile(File tempDir, String fileName, ZipOutputStream zipOut,
+            FilenameFilter filter) throws IOException {
+        final String prefix = fileName + ".";
+        File[] files = tempDir.listFiles(new FilenameFilter() {
+
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && filter.accept(dir, name);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            zipOut.putNextEntry(new ZipEntry(file.getName()));
+            FileUtils.copyFile(file, zipOut);
+            zipOut.closeEntry();
+            if (!file.delete()) {
+                LOGGER.warning("Could not delete the zipped file " + file.getAbsolutePath());
+            }
+        }
+        zipOut.flush();
+    }
+
     /**
      * Dumps the request
      * @param simpleFeatureCollection
@@ -474,6 +507,20 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
     public void setMaxDbfSize(long maxDbfSize) {
         this.maxDbfSize = maxDbfSize;
     }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Enables the streaming mode, in which each shapefile is zipped into the response and removed
+     * from the temporary directory as soon as it is complete, instead of zipping them all at the
+     * end. The download starts earlier and the disk usage is bounded by the largest shapefile, but
+     * errors occurring after the first shapefile cannot be reported as a service exception anymore
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
     
     
     static class FileNameSource {
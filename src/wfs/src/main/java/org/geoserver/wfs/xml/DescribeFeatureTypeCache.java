@@ -0,0 +1,218 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CoverageStoreInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourcePool;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.SettingsInfo;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.wfs.WFSInfo;
+import org.geotools.data.DataAccess;
+import org.opengis.coverage.grid.GridCoverageReader;
+import org.opengis.feature.type.FeatureType;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Caches the encoded DescribeFeatureType schemas, so that repeated schema requests do not build
+ * the XSD schema over and over, and do not contend on the locks protecting the shared GML
+ * schemas while doing so.
+ * <p>
+ * Entries are invalidated per feature type when the type, or its cached feature type in the
+ * resource pool, changes, and altogether when namespaces, workspaces, stores or the service
+ * configuration change.
+ * </p>
+ * The cache is enabled by the {@link #DESCRIBE_FEATURE_TYPE_CACHE} flag in the {@link WFSInfo}
+ * metadata.
+ */
+public class DescribeFeatureTypeCache {
+
+    /** The {@link WFSInfo} metadata key enabling the schema cache */
+    public static final String DESCRIBE_FEATURE_TYPE_CACHE = "describeFeatureTypeCache";
+
+    static final int DEFAULT_SIZE = 100;
+
+    private final int maxEntries = Integer.valueOf(System.getProperty(
+            "org.geoserver.wfs.schemaCache.size", String.valueOf(DEFAULT_SIZE)));
+
+    private final Map<List<Object>, byte[]> schemas = Collections
+            .synchronizedMap(new LinkedHashMap<List<Object>, byte[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<Object>, byte[]> eldest) {
+                    return size() > maxEntries;
+                }
+            });
+
+    private final GeoServer gs;
+
+    public DescribeFeatureTypeCache(GeoServer gs) {
+        this.gs = gs;
+        Catalog catalog = gs.getCatalog();
+        catalog.addListener(new CatalogListener() {
+
+            public void handleAddEvent(CatalogAddEvent event) {
+                // new types are not in the cache yet
+            }
+
+            public void handleModifyEvent(CatalogModifyEvent event) {
+                handleChange(event.getSource());
+            }
+
+            public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+            }
+
+            public void handleRemoveEvent(CatalogRemoveEvent event) {
+                handleChange(event.getSource());
+            }
+
+            public void reloaded() {
+                clear();
+            }
+        });
+        catalog.getResourcePool().addListener(new ResourcePool.Listener() {
+
+            public void disposed(FeatureTypeInfo featureType, FeatureType ft) {
+                invalidate(featureType);
+            }
+
+            public void disposed(CoverageStoreInfo coverageStore, GridCoverageReader gcr) {
+            }
+
+            public void disposed(DataStoreInfo dataStore, DataAccess da) {
+                clear();
+            }
+        });
+        gs.addListener(new ConfigurationListenerAdapter() {
+
+            @Override
+            public void handleGlobalChange(GeoServerInfo global, List<String> propertyNames,
+                    List<Object> oldValues, List<Object> newValues) {
+                clear();
+            }
+
+            @Override
+            public void handleSettingsAdded(SettingsInfo settings) {
+                clear();
+            }
+
+            @Override
+            public void handleSettingsRemoved(SettingsInfo settings) {
+                clear();
+            }
+
+            @Override
+            public void handleSettingsModified(SettingsInfo settings, List<String> propertyNames,
+                    List<Object> oldValues, List<Object> newValues) {
+                clear();
+            }
+
+            @Override
+            public void handleServiceChange(ServiceInfo service, List<String> propertyNames,
+                    List<Object> oldValues, List<Object> newValues) {
+                if (service instanceof WFSInfo) {
+                    clear();
+                }
+            }
+
+            @Override
+            public void reloaded() {
+                clear();
+            }
+        });
+    }
+
+    private void handleChange(Object source) {
+        if (source instanceof FeatureTypeInfo) {
+            invalidate((FeatureTypeInfo) source);
+        } else if (source instanceof DataStoreInfo || source instanceof NamespaceInfo
+                || source instanceof WorkspaceInfo) {
+            clear();
+        }
+    }
+
+    /**
+     * Returns true if the cache is enabled in the WFS configuration
+     */
+    public boolean isEnabled() {
+        WFSInfo wfs = gs.getService(WFSInfo.class);
+        return wfs != null && wfs.getMetadata() != null
+                && Boolean.TRUE.equals(wfs.getMetadata().get(DESCRIBE_FEATURE_TYPE_CACHE,
+                        Boolean.class));
+    }
+
+    /**
+     * Builds the key of a schema. Besides the types and the encoding, the schema depends on the
+     * base URL used for the imports, on the workspace the request is local to, and on the user, as
+     * data security can hide attributes
+     *
+     * @param format identifies the schema flavour, e.g., the GML version
+     */
+    public List<Object> getKey(String format, FeatureTypeInfo[] featureTypeInfos, String baseUrl,
+            String encoding) {
+        List<String> ids = new ArrayList<>(featureTypeInfos.length);
+        for (FeatureTypeInfo info : featureTypeInfos) {
+            ids.add(info.getId());
+        }
+        WorkspaceInfo workspace = LocalWorkspace.get();
+        Authentication user = SecurityContextHolder.getContext().getAuthentication();
+        return Arrays.asList(ids, format, baseUrl, encoding,
+                workspace != null ? workspace.getName() : null,
+                user != null ? user.getName() : null);
+    }
+
+    /**
+     * Returns the encoded schema for the key, or null if not found
+     */
+    public byte[] get(List<Object> key) {
+        return schemas.get(key);
+    }
+
+    public void put(List<Object> key, byte[] schema) {
+        schemas.put(key, schema);
+    }
+
+    /**
+     * Drops all the schemas including the given feature type
+     */
+    public void invalidate(FeatureTypeInfo featureType) {
+        String id = featureType.getId();
+        synchronized (schemas) {
+            for (Iterator<List<Object>> it = schemas.keySet().iterator(); it.hasNext();) {
+                if (((List<?>) it.next().get(0)).contains(id)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops all the cached schemas
+     */
+    public void clear() {
+        schemas.clear();
+    }
+}
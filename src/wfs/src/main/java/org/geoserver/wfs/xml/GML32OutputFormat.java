@@ -52,6 +52,11 @@ public class GML32OutputFormat extends GML3OutputFormat {
     
     GeoServer geoServer;
 
+    /**
+     * Shared among requests, it caches the resolved GML elements and its xml configuration
+     */
+    FeatureTypeSchemaBuilder schemaBuilder;
+
     protected static DOMSource xslt;
 
     static {
@@ -71,6 +76,7 @@ public class GML32OutputFormat extends GML3OutputFormat {
     public GML32OutputFormat(GeoServer geoServer, WFSConfiguration configuration) {
         super(new HashSet(FORMATS), geoServer, configuration);
         this.geoServer = geoServer;
+        this.schemaBuilder = new FeatureTypeSchemaBuilder.GML32(geoServer);
     }
 
     @Override
@@ -81,8 +87,6 @@ public class GML32OutputFormat extends GML3OutputFormat {
     @Override
     protected Configuration customizeConfiguration(Configuration configuration, Map<String, Set<ResourceInfo>> resources, Object request) {
 
-        FeatureTypeSchemaBuilder schemaBuilder = new FeatureTypeSchemaBuilder.GML32(geoServer);
-
         ApplicationSchemaXSD2 xsd = new ApplicationSchemaXSD2(schemaBuilder);
         xsd.setBaseURL(GetFeatureRequest.adapt(request).getBaseURL());
         xsd.setResources(resources);
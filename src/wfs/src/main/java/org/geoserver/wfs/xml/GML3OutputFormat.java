@@ -71,7 +71,8 @@ import org.w3c.dom.Document;
 public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
     
     /**
-     * Enables the optimized encoders
+     * Enables the optimized encoders, simple features are then written out by hand-written
+     * delegates instead of going through the schema bindings element by element
      */
     public static final boolean OPTIMIZED_ENCODING = Boolean.parseBoolean(System.getProperty(
             "GML_OPTIMIZED_ENCODING", "true"));
@@ -9,6 +9,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.xml.transform.OutputKeys;
@@ -25,12 +26,14 @@ import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.ows.Dispatcher;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.WFSDescribeFeatureTypeOutputFormat;
 import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.request.DescribeFeatureTypeRequest;
+import org.geoserver.wfs.xml.DescribeFeatureTypeCache;
 import org.geoserver.wfs.xml.FeatureTypeSchemaBuilder;
 import org.geotools.xml.Schemas;
 
@@ -104,11 +107,32 @@ public class XmlSchemaEncoder extends WFSDescribeFeatureTypeOutputFormat {
         Object request = describeFeatureType.getParameters()[0];
         DescribeFeatureTypeRequest req = DescribeFeatureTypeRequest.adapt(request);
         
-        XSDSchema schema = schemaBuilder.build(featureTypeInfos, req.getBaseURL());
+        final String encoding = gs.getSettings().getCharset();
+
+        // use the cached schema if possible
+        DescribeFeatureTypeCache cache = GeoServerExtensions.bean(DescribeFeatureTypeCache.class);
+        if (cache != null && cache.isEnabled()) {
+            List<Object> key = cache.getKey(schemaBuilder.getClass().getName(), featureTypeInfos,
+                    req.getBaseURL(), encoding);
+            byte[] encoded = cache.get(key);
+            if (encoded == null) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                encode(featureTypeInfos, req.getBaseURL(), encoding, bos);
+                encoded = bos.toByteArray();
+                cache.put(key, encoded);
+            }
+            output.write(encoded);
+        } else {
+            encode(featureTypeInfos, req.getBaseURL(), encoding, output);
+        }
+    }
+
+    private void encode(FeatureTypeInfo[] featureTypeInfos, String baseUrl, String encoding,
+            OutputStream output) throws IOException {
+        XSDSchema schema = schemaBuilder.build(featureTypeInfos, baseUrl);
 
         //serialize
         schema.updateElement();
-        final String encoding = gs.getSettings().getCharset();
         XSDResourceImpl.serialize(output, schema.getElement(), encoding);
     }
     
@@ -0,0 +1,152 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+
+import javax.xml.namespace.QName;
+
+import net.opengis.wfs.TransactionType;
+import net.opengis.wfs.WfsFactory;
+
+import org.easymock.EasyMock;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.event.impl.CatalogPostModifyEventImpl;
+import org.geoserver.catalog.event.impl.CatalogRemoveEventImpl;
+import org.geoserver.wfs.request.TransactionRequest;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.Query;
+import org.geotools.data.collection.CollectionFeatureSource;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.FilterFactory2;
+
+public class CountCacheTest {
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    static final QName TYPE = new QName("http://www.geoserver.org", "test");
+
+    /** Counts the queries run against it */
+    static class CountingSource extends CollectionFeatureSource {
+        volatile int queries;
+
+        public CountingSource(SimpleFeatureCollection collection) {
+            super(collection);
+        }
+
+        @Override
+        public SimpleFeatureCollection getFeatures(Query query) {
+            queries++;
+            return super.getFeatures(query);
+        }
+    }
+
+    CountCache cache;
+
+    CountingSource source;
+
+    @Before
+    public void setup() throws Exception {
+        cache = new CountCache(1);
+        SimpleFeatureType type = DataUtilities.createType("test", "cat:Integer");
+        DefaultFeatureCollection fc = new DefaultFeatureCollection();
+        for (int i = 0; i < 5; i++) {
+            fc.add(SimpleFeatureBuilder.build(type, new Object[] { i % 2 }, "f" + i));
+        }
+        source = new CountingSource(fc);
+    }
+
+    @After
+    public void destroy() throws Exception {
+        cache.destroy();
+    }
+
+    Query query(int cat) {
+        return new Query("test", FF.equals(FF.property("cat"), FF.literal(cat)));
+    }
+
+    @Test
+    public void testCached() throws Exception {
+        assertEquals(3, cache.getCount(TYPE, source, query(0), false));
+        assertEquals(3, cache.getCount(TYPE, source, query(0), false));
+        assertEquals(1, source.queries);
+
+        // a different filter is a different count
+        assertEquals(2, cache.getCount(TYPE, source, query(1), false));
+        assertEquals(2, source.queries);
+    }
+
+    @Test
+    public void testTransactionInvalidates() throws Exception {
+        assertEquals(3, cache.getCount(TYPE, source, query(0), false));
+
+        TransactionType tx = WfsFactory.eINSTANCE.createTransactionType();
+        tx.setExtendedProperties(new HashMap());
+        TransactionRequest request = TransactionRequest.adapt(tx);
+        cache.dataStoreChange(
+                new TransactionEvent(TransactionEventType.PRE_INSERT, request, TYPE, null));
+        assertEquals(3, cache.getCount(TYPE, source, query(0), false));
+        assertEquals(2, source.queries);
+
+        // a count taken while the transaction is running does not survive its end
+        cache.afterTransaction(request, null, true);
+        assertEquals(3, cache.getCount(TYPE, source, query(0), false));
+        assertEquals(3, source.queries);
+
+        // other types are not affected
+        cache.invalidate(new QName("http://www.geoserver.org", "other"));
+        assertEquals(3, cache.getCount(TYPE, source, query(0), false));
+        assertEquals(3, source.queries);
+    }
+
+    @Test
+    public void testCatalogChangesInvalidate() throws Exception {
+        NamespaceInfo ns = EasyMock.createNiceMock(NamespaceInfo.class);
+        EasyMock.expect(ns.getURI()).andReturn(TYPE.getNamespaceURI()).anyTimes();
+        FeatureTypeInfo typeInfo = EasyMock.createNiceMock(FeatureTypeInfo.class);
+        EasyMock.expect(typeInfo.getName()).andReturn(TYPE.getLocalPart()).anyTimes();
+        EasyMock.expect(typeInfo.getNamespace()).andReturn(ns).anyTimes();
+        LayerInfo layer = EasyMock.createNiceMock(LayerInfo.class);
+        EasyMock.expect(layer.getResource()).andReturn(typeInfo).anyTimes();
+        EasyMock.replay(ns, typeInfo, layer);
+        assertEquals(3, cache.getCount(TYPE, source, query(0), false));
+
+        // e.g., the definition CQL filter got changed
+        CatalogPostModifyEventImpl modify = new CatalogPostModifyEventImpl();
+        modify.setSource(typeInfo);
+        cache.handlePostModifyEvent(modify);
+        assertEquals(3, cache.getCount(TYPE, source, query(0), false));
+        assertEquals(2, source.queries);
+
+        CatalogRemoveEventImpl remove = new CatalogRemoveEventImpl();
+        remove.setSource(layer);
+        cache.handleRemoveEvent(remove);
+        assertEquals(3, cache.getCount(TYPE, source, query(0), false));
+        assertEquals(3, source.queries);
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        assertEquals(-1, cache.getCount(TYPE, source, query(0), true));
+        int count = -1;
+        for (int i = 0; i < 100 && count == -1; i++) {
+            Thread.sleep(50);
+            count = cache.getCount(TYPE, source, query(0), true);
+        }
+        assertEquals(3, count);
+        assertEquals(1, source.queries);
+    }
+}
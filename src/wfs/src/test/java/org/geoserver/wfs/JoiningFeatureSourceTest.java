@@ -0,0 +1,192 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.Join;
+import org.geotools.data.Query;
+import org.geotools.data.collection.CollectionFeatureSource;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class JoiningFeatureSourceTest {
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    JoiningFeatureSource source;
+
+    SimpleFeatureCollection points;
+
+    @Before
+    public void setup() throws Exception {
+        SimpleFeatureType parcelType = DataUtilities.createType("parcels",
+                "geom:Polygon,code:Integer,name:String");
+        DefaultFeatureCollection parcels = new DefaultFeatureCollection();
+        parcels.add(feature(parcelType, "p1", "POLYGON((0 0, 10 0, 10 10, 0 10, 0 0))", 1, "a"));
+        parcels.add(feature(parcelType, "p2", "POLYGON((20 20, 30 20, 30 30, 20 30, 20 20))", 2,
+                "b"));
+        parcels.add(feature(parcelType, "p3", "POLYGON((40 40, 50 40, 50 50, 40 50, 40 40))", 3,
+                "c"));
+
+        SimpleFeatureType pointType = DataUtilities.createType("points",
+                "geom:Point,code:Long,label:String");
+        DefaultFeatureCollection points = new DefaultFeatureCollection();
+        points.add(feature(pointType, "s1", "POINT(5 5)", 1L, "x"));
+        points.add(feature(pointType, "s2", "POINT(25 25)", 1L, "y"));
+        points.add(feature(pointType, "s3", "POINT(6 6)", 2L, "z"));
+        this.points = points;
+
+        SimpleFeatureSource pointSource = new CollectionFeatureSource(points);
+        source = new JoiningFeatureSource(new CollectionFeatureSource(parcels),
+                Collections.singletonMap("b", pointSource));
+    }
+
+    @After
+    public void resetBudget() {
+        JoinFeatureBuffer.setMemoryBudget(JoinFeatureBuffer.DEFAULT_MEMORY_BUDGET);
+    }
+
+    SimpleFeature feature(SimpleFeatureType type, String id, String wkt, Object... values)
+            throws Exception {
+        List<Object> attributes = new ArrayList<>();
+        attributes.add(new WKTReader().read(wkt));
+        attributes.addAll(Arrays.asList(values));
+        return SimpleFeatureBuilder.build(type, attributes, id);
+    }
+
+    List<String> join(Filter joinFilter, Integer offset, int maxFeatures) throws Exception {
+        Join join = new Join("points", joinFilter);
+        join.setAlias("b");
+        Query query = new Query("parcels");
+        query.setAlias("a");
+        query.getJoins().add(join);
+        query.setStartIndex(offset);
+        query.setMaxFeatures(maxFeatures);
+
+        List<String> result = new ArrayList<>();
+        SimpleFeatureCollection fc = source.getFeatures(query);
+        try (SimpleFeatureIterator it = fc.features()) {
+            while (it.hasNext()) {
+                SimpleFeature f = it.next();
+                SimpleFeature joined = (SimpleFeature) f.getAttribute("b");
+                result.add(f.getAttribute("name") + "-" + joined.getAttribute("label"));
+            }
+        }
+        assertEquals(result.size(), fc.size());
+        return result;
+    }
+
+    List<String> join(Filter joinFilter) throws Exception {
+        return join(joinFilter, null, Query.DEFAULT_MAX);
+    }
+
+    @Test
+    public void testHashJoin() throws Exception {
+        // integer and long codes are matched
+        Filter filter = FF.equals(FF.property("a.code"), FF.property("b.code"));
+        assertEquals(Arrays.asList("a-x", "a-y", "b-z"), join(filter));
+    }
+
+    @Test
+    public void testSpatialJoin() throws Exception {
+        Filter filter = FF.intersects(FF.property("a.geom"), FF.property("b.geom"));
+        assertEquals(Arrays.asList("a-x", "a-z", "b-y"), join(filter));
+
+        // z is outside of the b envelope, but within distance
+        filter = FF.dwithin(FF.property("a.geom"), FF.property("b.geom"), 20, "m");
+        assertEquals(Arrays.asList("a-x", "a-z", "b-y", "b-z"), join(filter));
+    }
+
+    @Test
+    public void testResidualConditions() throws Exception {
+        Filter filter = FF.and(FF.equals(FF.property("a.code"), FF.property("b.code")),
+                FF.intersects(FF.property("a.geom"), FF.property("b.geom")));
+        assertEquals(Arrays.asList("a-x"), join(filter));
+
+        // no equality or spatial condition, scans the joined features
+        filter = FF.less(FF.property("a.code"), FF.property("b.code"));
+        assertEquals(Arrays.asList("a-z"), join(filter));
+    }
+
+    @Test
+    public void testPaging() throws Exception {
+        Filter filter = FF.equals(FF.property("a.code"), FF.property("b.code"));
+        assertEquals(Arrays.asList("a-y"), join(filter, 1, 1));
+        assertEquals(Arrays.asList("a-y", "b-z"), join(filter, 1, 5));
+    }
+
+    @Test
+    public void testJoinedProperties() throws Exception {
+        Join join = new Join("points", FF.equals(FF.property("a.code"), FF.property("b.code")));
+        join.setAlias("b");
+        join.setProperties(Arrays.asList(FF.property("label")));
+        Query query = new Query("parcels");
+        query.setAlias("a");
+        query.getJoins().add(join);
+
+        List<String> labels = new ArrayList<>();
+        try (SimpleFeatureIterator it = source.getFeatures(query).features()) {
+            while (it.hasNext()) {
+                SimpleFeature joined = (SimpleFeature) it.next().getAttribute("b");
+                // the requested property, plus the one used by the join condition
+                assertEquals(2, joined.getAttributeCount());
+                assertNull(joined.getDefaultGeometry());
+                labels.add((String) joined.getAttribute("label"));
+            }
+        }
+        assertEquals(Arrays.asList("x", "y", "z"), labels);
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        JoinFeatureBuffer.setMemoryBudget(0);
+        Filter filter = FF.intersects(FF.property("a.geom"), FF.property("b.geom"));
+        assertEquals(Arrays.asList("a-x", "a-z", "b-y"), join(filter));
+
+        try (JoinFeatureBuffer buffer = new JoinFeatureBuffer(points.getSchema())) {
+            List<SimpleFeature> features = new ArrayList<>();
+            try (SimpleFeatureIterator it = points.features()) {
+                while (it.hasNext()) {
+                    SimpleFeature f = it.next();
+                    features.add(f);
+                    buffer.add(f);
+                }
+            }
+            assertTrue(buffer.isSpilled());
+            for (int i = features.size() - 1; i >= 0; i--) {
+                SimpleFeature expected = features.get(i);
+                SimpleFeature actual = buffer.get(i);
+                assertEquals(expected.getID(), actual.getID());
+                assertEquals(expected.getAttribute("label"), actual.getAttribute("label"));
+                assertEquals(expected.getAttribute("code"), actual.getAttribute("code"));
+                assertTrue(((Geometry) expected.getDefaultGeometry())
+                        .equalsExact((Geometry) actual.getDefaultGeometry()));
+            }
+        }
+    }
+}
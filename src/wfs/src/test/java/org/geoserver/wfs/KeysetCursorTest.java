@@ -0,0 +1,173 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsNull;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+
+public class KeysetCursorTest {
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+        Timestamp timestamp = new Timestamp(1000);
+        timestamp.setNanos(123456);
+        KeysetCursor cursor = new KeysetCursor(1000000, 3,
+                Arrays.<Object> asList(12, "abc", 1.5, timestamp));
+        KeysetCursor decoded = KeysetCursor.decode(cursor.encode());
+        assertEquals(1000000, decoded.getIndex());
+        assertEquals(3, decoded.getSkip());
+        assertEquals(Arrays.<Object> asList(12l, "abc", 1.5, timestamp), decoded.getKey());
+    }
+
+    @Test
+    public void testEncodeLongString() throws Exception {
+        // beyond the 64KB limit of DataOutputStream.writeUTF, with multi byte characters
+        char[] chars = new char[70000];
+        Arrays.fill(chars, '\u00e8');
+        String text = new String(chars);
+        KeysetCursor cursor = new KeysetCursor(10, 1, Arrays.<Object> asList(text, 2));
+        KeysetCursor decoded = KeysetCursor.decode(cursor.encode());
+        assertEquals(Arrays.<Object> asList(text, 2l), decoded.getKey());
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        try {
+            KeysetCursor.decode("notACursor");
+            fail("Should have failed");
+        } catch (WFSException e) {
+            assertEquals("InvalidParameterValue", e.getCode());
+            assertEquals("cursor", e.getLocator());
+        }
+    }
+
+    @Test
+    public void testSupported() throws Exception {
+        assertEquals(false, KeysetCursor.isSupported(null));
+        assertEquals(false, KeysetCursor.isSupported(Collections.<SortBy> emptyList()));
+        assertEquals(false, KeysetCursor.isSupported(Arrays.asList(SortBy.NATURAL_ORDER)));
+        assertEquals(true, KeysetCursor.isSupported(
+                Arrays.asList(FF.sort("cat", SortOrder.ASCENDING))));
+    }
+
+    @Test
+    public void testFilter() throws Exception {
+        KeysetCursor cursor = new KeysetCursor(10, 1, Arrays.<Object> asList(1, "b"));
+        Filter filter = cursor.toFilter(FF, Arrays.asList(FF.sort("cat", SortOrder.ASCENDING),
+                FF.sort("name", SortOrder.DESCENDING)));
+        Filter expected = FF.and(FF.greaterOrEqual(FF.property("cat"), FF.literal(1)),
+                FF.or(FF.greater(FF.property("cat"), FF.literal(1)),
+                        FF.and(FF.equals(FF.property("cat"), FF.literal(1)),
+                                FF.lessOrEqual(FF.property("name"), FF.literal("b")))));
+        assertEquals(expected, filter);
+    }
+
+    @Test
+    public void testPagingWithTies() throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("test", "id:String,cat:Integer");
+        DefaultFeatureCollection fc = new DefaultFeatureCollection();
+        int[] cats = new int[] { 1, 3, 1, 2, 1, 3, 1, 2, 1, 3 };
+        for (int i = 0; i < cats.length; i++) {
+            fc.add(SimpleFeatureBuilder.build(type, new Object[] { "f" + i, cats[i] }, "f" + i));
+        }
+        SimpleFeatureSource source = DataUtilities.source(fc);
+        List<SortBy> sortBy = Arrays.asList(FF.sort("cat", SortOrder.ASCENDING));
+
+        // page in twos, the first two pages are all made of the same key
+        List<String> ids = new ArrayList<>();
+        List<Object> cursorCats = new ArrayList<>();
+        KeysetCursor cursor = null;
+        long index = 0;
+        do {
+            Query query = new Query("test",
+                    cursor == null ? Filter.INCLUDE : cursor.toFilter(FF, sortBy));
+            query.setSortBy(sortBy.toArray(new SortBy[1]));
+            query.setStartIndex(cursor == null ? 0 : cursor.getSkip());
+            query.setMaxFeatures(2);
+            try (SimpleFeatureIterator it = source.getFeatures(query).features()) {
+                while (it.hasNext()) {
+                    ids.add(it.next().getID());
+                }
+            }
+            cursor = KeysetCursor.after(source, query, sortBy, index, cursor);
+            if (cursor != null) {
+                assertEquals(Math.min(index + 2, cats.length), cursor.getIndex());
+                index = cursor.getIndex();
+                cursorCats.add(cursor.getKey().get(0));
+            }
+        } while (cursor != null && ids.size() < cats.length);
+
+        assertEquals(Arrays.asList("f0", "f2", "f4", "f6", "f8", "f3", "f7", "f1", "f5", "f9"),
+                ids);
+        assertEquals(Arrays.<Object> asList(1, 1, 2, 3, 3), cursorCats);
+    }
+
+    @Test
+    public void testNullKey() throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("test", "id:String,cat:Integer");
+        DefaultFeatureCollection fc = new DefaultFeatureCollection();
+        fc.add(SimpleFeatureBuilder.build(type, new Object[] { "f0", null }, "f0"));
+        SimpleFeatureSource source = DataUtilities.source(fc);
+        List<SortBy> sortBy = Arrays.asList(FF.sort("cat", SortOrder.ASCENDING));
+        assertNull(KeysetCursor.after(source, new Query("test"), sortBy, 0, null));
+    }
+
+    @Test
+    public void testNullKeyFilter() throws Exception {
+        List<SortBy> sortBy = Arrays.asList(FF.sort("cat", SortOrder.ASCENDING),
+                FF.sort("id", SortOrder.DESCENDING));
+
+        // nillable attributes need to be checked for nulls
+        SimpleFeatureType type = DataUtilities.createType("test", "id:String,cat:Integer");
+        Or or = (Or) KeysetCursor.getNullKeyFilter(FF, sortBy, type);
+        assertEquals(2, or.getChildren().size());
+        assertEquals("cat", getNullProperty(or.getChildren().get(0)));
+        assertEquals("id", getNullProperty(or.getChildren().get(1)));
+
+        // non nillable ones do not
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("test");
+        tb.nillable(false).add("id", String.class);
+        tb.nillable(true).add("cat", Integer.class);
+        assertEquals("cat", getNullProperty(
+                KeysetCursor.getNullKeyFilter(FF, sortBy, tb.buildFeatureType())));
+        tb = new SimpleFeatureTypeBuilder();
+        tb.setName("test");
+        tb.nillable(false).add("id", String.class);
+        tb.nillable(false).add("cat", Integer.class);
+        assertNull(KeysetCursor.getNullKeyFilter(FF, sortBy, tb.buildFeatureType()));
+    }
+
+    String getNullProperty(Filter filter) {
+        return ((PropertyName) ((PropertyIsNull) filter).getExpression()).getPropertyName();
+    }
+}
@@ -120,6 +120,45 @@ public class TransactionListenerTest extends WFSTestSupport {
         assertEquals(fid, inserted.getIdentifier().getID());
     }
 
+    @Test
+    public void testInsertBatches() throws Exception {
+        InsertElementHandler handler = applicationContext.getBean(InsertElementHandler.class);
+        handler.setBatchSize(2);
+        try {
+            StringBuilder sb = new StringBuilder("<wfs:Transaction service=\"WFS\" version=\"1.0.0\" "
+                    + "xmlns:cgf=\"http://www.opengis.net/cite/geometry\" "
+                    + "xmlns:ogc=\"http://www.opengis.net/ogc\" "
+                    + "xmlns:wfs=\"http://www.opengis.net/wfs\" "
+                    + "xmlns:gml=\"http://www.opengis.net/gml\"> "
+                    + "<wfs:Insert > ");
+            for (int i = 0; i < 3; i++) {
+                sb.append("<cgf:Lines>"
+                        + "<cgf:lineStringProperty>"
+                        + "<gml:LineString>"
+                        + "<gml:coordinates decimal=\".\" cs=\",\" ts=\" \">"
+                        + "494475.71056415,5433016.8189323 494982.70115662,5435041.95096618"
+                        + "</gml:coordinates>" + "</gml:LineString>"
+                        + "</cgf:lineStringProperty>" + "<cgf:id>b000" + i + "</cgf:id>"
+                        + "</cgf:Lines>");
+            }
+            sb.append("</wfs:Insert>" + "</wfs:Transaction>");
+
+            Document dom = postAsDOM("wfs", sb.toString());
+            assertEquals(3, dom.getElementsByTagName("ogc:FeatureId").getLength());
+
+            // two batches, each one with its pre and post insert events
+            assertEquals(4, listener.events.size());
+            assertEquals(TransactionEventType.PRE_INSERT, ((TransactionEvent) listener.events.get(0)).getType());
+            assertEquals(TransactionEventType.POST_INSERT, ((TransactionEvent) listener.events.get(1)).getType());
+            assertEquals(TransactionEventType.PRE_INSERT, ((TransactionEvent) listener.events.get(2)).getType());
+            assertEquals(TransactionEventType.POST_INSERT, ((TransactionEvent) listener.events.get(3)).getType());
+            assertEquals(6, listener.features.size());
+            assertEquals("b0002", ((Feature) listener.features.get(5)).getProperty("id").getValue());
+        } finally {
+            handler.setBatchSize(InsertElementHandler.DEFAULT_BATCH_SIZE);
+        }
+    }
+
     @Test
     public void testUpdate() throws Exception {
         // perform an update
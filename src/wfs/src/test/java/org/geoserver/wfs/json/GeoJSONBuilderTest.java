@@ -16,6 +16,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.PrecisionModel;
@@ -225,6 +226,43 @@ public class GeoJSONBuilderTest {
         assertEquals("{\"type\":\"Polygon\",\"coordinates\":[[[0,0,0],[0,10,1],[10,10,2],[10,0,3],[0,0,0]],[[1,1,4],[1,2,5],[2,2,6],[2,1,7],[1,1,4]]]}", writer.toString());
     }
 
+    @Test
+    public void testNumberOfDecimalsNegative() throws Exception {
+        builder.setNumberOfDecimals(3);
+        Geometry g = new WKTReader().read("POINT(-0.0051 -12.3456)");
+        builder.writeGeom(g);
+        assertEquals("{\"type\":\"Point\",\"coordinates\":[-0.005,-12.346]}", writer.toString());
+    }
+
+    @Test
+    public void testWriteLongLine() throws Exception {
+        // longer than the coordinate buffer
+        builder.setNumberOfDecimals(1);
+        StringBuilder wkt = new StringBuilder("LINESTRING(");
+        StringBuilder expected = new StringBuilder("{\"type\":\"LineString\",\"coordinates\":[");
+        for (int i = 0; i < 2000; i++) {
+            if (i > 0) {
+                wkt.append(",");
+                expected.append(",");
+            }
+            wkt.append(i + 0.54).append(" ").append(-i);
+            expected.append("[").append(i).append(".5,").append(i == 0 ? "0" : "-" + i).append("]");
+        }
+        wkt.append(")");
+        expected.append("]}");
+        builder.writeGeom(new WKTReader().read(wkt.toString()));
+        assertEquals(expected.toString(), writer.toString());
+    }
+
+    @Test
+    public void testWriteBoundingBox() throws Exception {
+        builder.object();
+        builder.writeBoundingBox(new Envelope(0.1234, 1.5, -2, 3));
+        builder.key("type").value("test");
+        builder.endObject();
+        assertEquals("{\"bbox\":[0.1234,-2,1.5,3],\"type\":\"test\"}", writer.toString());
+    }
+
     @Test
     public void testWriteStrList() throws Exception {
         final List<String> list = Arrays.asList("a", "b", "c", "d");
@@ -30,6 +30,7 @@ import org.opengis.feature.simple.SimpleFeatureType;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.StringWriter;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -140,6 +141,16 @@ public class CSVOutputFormatTest extends WFSTestSupport {
         assertEquals(f2.getAttribute("d"), Double.parseDouble(lines.get(2)[5]));
     }
     
+    @Test
+    public void testWriteCSVField() throws Exception {
+        StringWriter w = new StringWriter();
+        for (String field : new String[] { "plain", "a \"quoted\" value", "a,b", "\"", "two\r\nlines" }) {
+            CSVOutputFormat.writeCSVField(field, w);
+            w.write('|');
+        }
+        assertEquals("plain|\"a \"\"quoted\"\" value\"|\"a,b\"|\"\"\"\"|\"two\r\nlines\"|", w.toString());
+    }
+    
     /**
      * Convenience to read the csv content and 
      * @param csvContent
@@ -203,6 +203,30 @@ public class ShapeZipTest extends WFSTestSupport {
         checkShapefileIntegrity(expectedTypes, new ByteArrayInputStream(zip));
     }
 
+    @Test
+    public void testStreaming() throws Exception {
+        ShapeZipOutputFormat zip = new ShapeZipOutputFormat();
+        zip.setStreaming(true);
+        byte[] bytes = writeOut(zip, getFeatureSource(ALL_TYPES).getFeatures());
+
+        final String[] expectedTypes = new String[] { "AllTypesPoint", "AllTypesMPoint",
+                "AllTypesPolygon", "AllTypesLine" };
+        checkShapefileIntegrity(expectedTypes, new ByteArrayInputStream(bytes));
+        checkFieldsAreNotEmpty(new ByteArrayInputStream(bytes));
+    }
+
+    @Test
+    public void testStreamingSplitSize() throws Exception {
+        ShapeZipOutputFormat zip = new ShapeZipOutputFormat();
+        zip.setStreaming(true);
+        zip.setMaxDbfSize(500);
+        zip.setMaxShpSize(500);
+        byte[] bytes = writeOut(zip, getFeatureSource(SystemTestData.BASIC_POLYGONS).getFeatures());
+        String shapefileName = SystemTestData.BASIC_POLYGONS.getLocalPart();
+        final String[] expectedTypes = new String[] {shapefileName, shapefileName + "1", shapefileName + "2"};
+        checkShapefileIntegrity(expectedTypes, new ByteArrayInputStream(bytes));
+    }
+
     @Test
     public void testMultiTypeDots() throws Exception {
         byte[] zip = writeOut(getFeatureSource(ALL_DOTS).getFeatures());
@@ -508,7 +532,14 @@ public class ShapeZipTest extends WFSTestSupport {
      * Saves the feature source contents into a zipped shapefile, returns the output as a byte array
      */
     byte[] writeOut(FeatureCollection fc) throws IOException {
-        ShapeZipOutputFormat zip = new ShapeZipOutputFormat();
+        return writeOut(new ShapeZipOutputFormat(), fc);
+    }
+
+    /**
+     * Saves the feature source contents into a zipped shapefile using the given output format,
+     * returns the output as a byte array
+     */
+    byte[] writeOut(ShapeZipOutputFormat zip, FeatureCollection fc) throws IOException {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         FeatureCollectionResponse fct = 
             FeatureCollectionResponse.adapt(WfsFactory.eINSTANCE.createFeatureCollectionType());
@@ -11,6 +11,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.net.URLEncoder;
 
@@ -28,6 +29,7 @@ import org.geoserver.util.IOUtils;
 import org.geoserver.wfs.GMLInfo;
 import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.WFSTestSupport;
+import org.geoserver.wfs.xml.DescribeFeatureTypeCache;
 import org.geotools.gml3.GML;
 import org.geotools.wfs.v1_1.WFS;
 import org.junit.Test;
@@ -306,6 +308,28 @@ public class DescribeFeatureTypeTest extends WFSTestSupport {
 //        }
 //    }
 
+    @Test
+    public void testCachedSchema() throws Exception {
+        WFSInfo wfs = getWFS();
+        wfs.getMetadata().put(DescribeFeatureTypeCache.DESCRIBE_FEATURE_TYPE_CACHE, true);
+        getGeoServer().save(wfs);
+        try {
+            final String typeName = CiteTestData.POLYGONS.getLocalPart();
+            String path = "ows?service=WFS&version=1.1.0&request=DescribeFeatureType&typeName="
+                    + typeName;
+            String first = getAsString(path);
+            String second = getAsString(path);
+            assertEquals(first, second);
+
+            Document doc = dom(new ByteArrayInputStream(second.getBytes("UTF-8")));
+            assertXpathExists("//xsd:complexType[@name='" + typeName + "Type']", doc);
+        } finally {
+            wfs = getWFS();
+            wfs.getMetadata().remove(DescribeFeatureTypeCache.DESCRIBE_FEATURE_TYPE_CACHE);
+            getGeoServer().save(wfs);
+        }
+    }
+
     /**
      * Tests that WFS schema is not imported in a DescribeFeatureType response.
      */
@@ -331,6 +331,51 @@ public class GetFeatureJoinTest extends WFS20TestSupport {
            XMLAssert.assertXpathExists("//wfs:Tuple/wfs:member/gs:Lakes/gs:NAME[text() = 'Black Lake']", dom);
     }
     
+    @Test
+    public void testSpatialJoinPropertyStore() throws Exception {
+        // the property store cannot join, the join runs in GeoServer
+        String xml =
+            "<wfs:GetFeature xmlns:wfs='" + WFS.NAMESPACE + "' xmlns:fes='" + FES.NAMESPACE + "'" +
+              " xmlns:cite='" + SystemTestData.CITE_URI + "' version='2.0.0'>" +
+               "<wfs:Query typeNames='cite:Forests cite:Lakes' aliases='a b'>" +
+                "<fes:Filter> " +
+                  "<fes:Intersects> " +
+                    "<fes:ValueReference>a/the_geom</fes:ValueReference> " +
+                    "<fes:ValueReference>b/the_geom</fes:ValueReference>" +
+                  "</fes:Intersects> " +
+                "</fes:Filter> " +
+               "</wfs:Query>" +
+             "</wfs:GetFeature>";
+
+        Document dom = postAsDOM("wfs", xml);
+        XMLAssert.assertXpathEvaluatesTo("1", "count(//wfs:Tuple)", dom);
+        XMLAssert.assertXpathExists("//wfs:Tuple/wfs:member/cite:Forests/cite:NAME[text() = 'Green Forest']", dom);
+        XMLAssert.assertXpathExists("//wfs:Tuple/wfs:member/cite:Lakes/cite:NAME[text() = 'Blue Lake']", dom);
+    }
+
+    @Test
+    public void testSpatialJoinCrossStore() throws Exception {
+        // the lakes come from the property store, not from the H2 one holding the forests
+        String xml =
+            "<wfs:GetFeature xmlns:wfs='" + WFS.NAMESPACE + "' xmlns:fes='" + FES.NAMESPACE + "'" +
+              " xmlns:gs='" + SystemTestData.DEFAULT_URI + "'" +
+              " xmlns:cite='" + SystemTestData.CITE_URI + "' version='2.0.0'>" +
+               "<wfs:Query typeNames='gs:Forests cite:Lakes' aliases='a b'>" +
+                "<fes:Filter> " +
+                  "<fes:Intersects> " +
+                    "<fes:ValueReference>a/the_geom</fes:ValueReference> " +
+                    "<fes:ValueReference>b/the_geom</fes:ValueReference>" +
+                  "</fes:Intersects> " +
+                "</fes:Filter> " +
+               "</wfs:Query>" +
+             "</wfs:GetFeature>";
+
+        Document dom = postAsDOM("wfs", xml);
+        XMLAssert.assertXpathEvaluatesTo("1", "count(//wfs:Tuple)", dom);
+        XMLAssert.assertXpathExists("//wfs:Tuple/wfs:member/gs:Forests/gs:NAME[text() = 'Green Forest']", dom);
+        XMLAssert.assertXpathExists("//wfs:Tuple/wfs:member/cite:Lakes/cite:NAME[text() = 'Blue Lake']", dom);
+    }
+
     @Test
     public void testJoinAliasConflictProperty() throws Exception {
         String xml = 
@@ -9,9 +9,11 @@ import static org.junit.Assert.*;
 
 import java.io.ByteArrayInputStream;
 import java.net.URLDecoder;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -22,6 +24,7 @@ import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.ows.util.KvpMap;
+import org.geoserver.wfs.WFSInfo;
 import org.geotools.data.DataStore;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.FeatureStore;
@@ -41,6 +44,7 @@ import org.opengis.filter.FilterFactory;
 import org.opengis.filter.Id;
 import org.opengis.filter.identity.Identifier;
 import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
 
 public class GetFeaturePagingTest extends WFS20TestSupport {
 
@@ -538,6 +542,99 @@ public class GetFeaturePagingTest extends WFS20TestSupport {
         XMLAssert.assertXpathExists("//gs:Fifteen/gs:num[text() = '14']", dom);
     }
 
+    @Test
+    public void testKeysetPagingGET() throws Exception {
+        WFSInfo wfs = getWFS();
+        wfs.getMetadata().put("keysetPagination", true);
+        getGeoServer().save(wfs);
+        try {
+            String path = "wfs?request=GetFeature&version=2.0.0&service=wfs&typename=gs:Fifteen"
+                    + "&sortBy=num DESC&startIndex=0&count=4";
+            List<String> nums = new ArrayList<>();
+            int pages = 0;
+            while (path != null) {
+                Document doc = getAsDOM(path);
+                NodeList list = doc.getElementsByTagName("gs:num");
+                for (int i = 0; i < list.getLength(); i++) {
+                    nums.add(list.item(i).getTextContent());
+                }
+                if (pages > 0) {
+                    // the previous link still uses the start index
+                    assertStartIndexCount(doc, "previous", (pages - 1) * 4, 4);
+                    assertFalse(doc.getDocumentElement().getAttribute("previous")
+                            .toUpperCase().contains("CURSOR="));
+                }
+                XMLAssert.assertXpathEvaluatesTo("15", "/wfs:FeatureCollection/@numberMatched",
+                        doc);
+                if (doc.getDocumentElement().hasAttribute("next")) {
+                    String next = doc.getDocumentElement().getAttribute("next");
+                    KvpMap kvp = toKvpMap(next);
+                    assertTrue(kvp.containsKey("CURSOR"));
+                    assertFalse(kvp.containsKey("STARTINDEX"));
+                    path = next.substring(next.indexOf("wfs"));
+                } else {
+                    path = null;
+                }
+                pages++;
+            }
+            assertEquals(4, pages);
+            List<String> expected = new ArrayList<>();
+            for (int i = 14; i >= 0; i--) {
+                expected.add(String.valueOf(i));
+            }
+            assertEquals(expected, nums);
+        } finally {
+            wfs.getMetadata().remove("keysetPagination");
+            getGeoServer().save(wfs);
+        }
+    }
+
+    @Test
+    public void testParallelQueries() throws Exception {
+        WFSInfo wfs = getWFS();
+        wfs.getMetadata().put("parallelQueries", true);
+        getGeoServer().save(wfs);
+        try {
+            String typeNames = "gs:Fifteen,gs:Seven";
+            Document doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&"
+                    + "typename=" + typeNames);
+            XMLAssert.assertXpathEvaluatesTo("15", "count(//gs:Fifteen)", doc);
+            XMLAssert.assertXpathEvaluatesTo("7", "count(//gs:Seven)", doc);
+            XMLAssert.assertXpathEvaluatesTo("22", "/wfs:FeatureCollection/@numberMatched",
+                    doc);
+
+            // the limit is applied across the queries, in request order
+            doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&"
+                    + "typename=" + typeNames + "&startIndex=0&count=17");
+            XMLAssert.assertXpathEvaluatesTo("15", "count(//gs:Fifteen)", doc);
+            XMLAssert.assertXpathEvaluatesTo("2", "count(//gs:Seven)", doc);
+            XMLAssert.assertXpathEvaluatesTo("17", "/wfs:FeatureCollection/@numberReturned",
+                    doc);
+            XMLAssert.assertXpathEvaluatesTo("22", "/wfs:FeatureCollection/@numberMatched",
+                    doc);
+
+            doc = getAsDOM("/wfs?request=GetFeature&version=2.0.0&service=wfs&"
+                    + "typename=" + typeNames + "&startIndex=0&count=10");
+            XMLAssert.assertXpathEvaluatesTo("10", "count(//gs:Fifteen)", doc);
+            XMLAssert.assertXpathEvaluatesTo("0", "count(//gs:Seven)", doc);
+            XMLAssert.assertXpathEvaluatesTo("10", "/wfs:FeatureCollection/@numberReturned",
+                    doc);
+
+            // offsets are still handled
+            doTestStartIndexMultipleTypes("gs:Fifteen", "gs:Seven");
+        } finally {
+            wfs.getMetadata().remove("parallelQueries");
+            getGeoServer().save(wfs);
+        }
+    }
+
+    @Test
+    public void testKeysetCursorNotEnabled() throws Exception {
+        Document doc = getAsDOM("wfs?request=GetFeature&version=2.0.0&service=wfs"
+                + "&typename=gs:Fifteen&sortBy=num&count=4&cursor=abc");
+        checkOws11Exception(doc, "2.0.0", "InvalidParameterValue", "cursor");
+    }
+
     @Test
     public void testNextPreviousHitsGET() throws Exception {
         doTestNextPreviousHitsGET("gs:Fifteen");
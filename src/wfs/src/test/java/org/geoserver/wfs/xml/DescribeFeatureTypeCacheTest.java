@@ -0,0 +1,49 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.CiteTestData;
+import org.geoserver.wfs.WFSTestSupport;
+import org.junit.Test;
+
+public class DescribeFeatureTypeCacheTest extends WFSTestSupport {
+
+    @Test
+    public void testInvalidation() throws Exception {
+        Catalog catalog = getCatalog();
+        DescribeFeatureTypeCache cache = new DescribeFeatureTypeCache(getGeoServer());
+        FeatureTypeInfo polygons = catalog.getFeatureTypeByName(getLayerId(CiteTestData.POLYGONS));
+        FeatureTypeInfo lines = catalog.getFeatureTypeByName(getLayerId(CiteTestData.LINES));
+
+        List<Object> polygonsKey = cache.getKey("GML3", new FeatureTypeInfo[] { polygons },
+                "http://localhost/geoserver", "UTF-8");
+        List<Object> linesKey = cache.getKey("GML3", new FeatureTypeInfo[] { lines },
+                "http://localhost/geoserver", "UTF-8");
+        cache.put(polygonsKey, new byte[] { 1 });
+        cache.put(linesKey, new byte[] { 2 });
+
+        // changing a type only drops its own schemas
+        polygons.setTitle("Changed");
+        catalog.save(polygons);
+        assertNull(cache.get(polygonsKey));
+        assertNotNull(cache.get(linesKey));
+
+        // store changes drop everything
+        cache.put(polygonsKey, new byte[] { 1 });
+        DataStoreInfo store = catalog.getDataStoreByName(CiteTestData.CGF_PREFIX);
+        store.setDescription("Changed");
+        catalog.save(store);
+        assertNull(cache.get(polygonsKey));
+        assertNull(cache.get(linesKey));
+    }
+}
@@ -8,6 +8,7 @@ package org.geoserver.wms;
 import org.geoserver.ows.Response;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.legendgraphic.BufferedImageLegendGraphic;
+import org.geoserver.wms.legendgraphic.LegendGraphicCache;
 import org.geotools.filter.function.EnvFunction;
 
 /**
@@ -19,8 +20,15 @@ public class GetLegendGraphic {
 
     private final WMS wms;
 
+    private final LegendGraphicCache cache;
+
     public GetLegendGraphic(final WMS wms) {
+        this(wms, null);
+    }
+
+    public GetLegendGraphic(final WMS wms, final LegendGraphicCache cache) {
         this.wms = wms;
+        this.cache = cache;
     }
 
     /**
@@ -46,6 +54,9 @@ public class GetLegendGraphic {
             throw new ServiceException("There is no support for creating legends in "
                     + outputFormat + " format", "InvalidFormat");
         }
+        if (cache != null) {
+            return cache.getLegend(request, () -> format.produceLegendGraphic(request));
+        }
         Object legend = format.produceLegendGraphic(request);
         return legend;
     }
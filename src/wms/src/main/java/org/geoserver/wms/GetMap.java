@@ -87,6 +87,10 @@ public class GetMap {
     
     private List<GetMapCallback> callbacks;
 
+    private final WMSQueryPlanner queryPlanner = new WMSQueryPlanner();
+
+    private final RasterReadPlanner rasterReadPlanner = new RasterReadPlanner();
+
     public GetMap(final WMS wms) {
         this.wms = wms;
         this.ff = CommonFactoryFinder.getFilterFactory(GeoTools.getDefaultHints());
@@ -436,6 +440,9 @@ public class GetMap {
         
         fireMapContentInit(mapContent);
 
+        // scale used to pick the pre-compiled rendering plans, if they can be used
+        final double planScaleDenominator = getPlanScaleDenominator(mapContent, delegate);
+
         // track the external caching strategy for any map layers
         boolean cachingPossible = request.isGet();
         final String featureVersion = request.getFeatureVersion();
@@ -460,7 +467,8 @@ public class GetMap {
             if (layerType == MapLayerInfo.TYPE_REMOTE_VECTOR) {
 
                 final SimpleFeatureSource source = mapLayerInfo.getRemoteFeatureSource();
-                FeatureLayer featureLayer = new FeatureLayer(source, layerStyle);
+                FeatureLayer featureLayer = buildFeatureLayer(source, layerStyle,
+                        getRenderingPlan(layerStyle, planScaleDenominator));
                 featureLayer.setTitle(mapLayerInfo.getRemoteFeatureSource().getSchema().getTypeName());
 
                 final Query definitionQuery = new Query(source.getSchema().getTypeName());
@@ -513,10 +521,8 @@ public class GetMap {
 
                     throw new ServiceException("Internal error", exp);
                 }
-                FeatureLayer featureLayer = new FeatureLayer(source, layerStyle);
-                featureLayer.setTitle(mapLayerInfo.getFeature().prefixedName());
-                featureLayer.getUserData().put("abstract", mapLayerInfo.getDescription());
-                
+                RenderingPlan renderingPlan = getRenderingPlan(layerStyle, planScaleDenominator);
+
                 // mix the dimension related filter with the layer filter
                 Filter dimensionFilter = wms.getTimeElevationToFilter(times, elevations, mapLayerInfo.getFeature());
                 Filter filter = SimplifyingFilterVisitor.simplify(Filters.and(ff, layerFilter, dimensionFilter)); 
@@ -549,6 +555,15 @@ public class GetMap {
                         : Integer.MAX_VALUE;
                 definitionQuery.setMaxFeatures(maxFeatures);
 
+                // make the attribute projection and generalization explicit
+                if (planScaleDenominator > 0) {
+                    queryPlanner.plan(mapLayerInfo.getName(), source, definitionQuery,
+                            renderingPlan, mapContent);
+                }
+
+                FeatureLayer featureLayer = buildFeatureLayer(source, layerStyle, renderingPlan);
+                featureLayer.setTitle(mapLayerInfo.getFeature().prefixedName());
+                featureLayer.getUserData().put("abstract", mapLayerInfo.getDescription());
                 featureLayer.setQuery(definitionQuery);
                 mapContent.addLayer(featureLayer);
                 
@@ -567,6 +582,9 @@ public class GetMap {
                     // get the group of parameters tha this reader supports
                     GeneralParameterValue[] readParameters = wms.getWMSReadParameters(request,
                             mapLayerInfo, layerFilter, layerSort, times, elevations, reader, false);
+                    // predict the overview and amount of pixels read, enforcing the budget
+                    rasterReadPlanner.plan(mapLayerInfo.getName(), reader, readParameters,
+                            mapContent, wms.getMaxRasterReadPixels());
                     try {
 
                         try {
@@ -665,6 +683,53 @@ public class GetMap {
         return map;
     }
 
+    /**
+     * Returns the scale denominator to be used to look up the {@link RenderingPlan} of the layers,
+     * or a negative value if the plans cannot be used. The plans contain only the rules active
+     * at the current scale, so they are used only with the formats going through the
+     * StreamingRenderer, which will perform its own scale checks anyways
+     */
+    private double getPlanScaleDenominator(WMSMapContent mapContent,
+            GetMapOutputFormat delegate) {
+        if (!wms.getRenderingPlanCache().isEnabled() || mapContent.getRequest() == null
+                || !(delegate instanceof RenderedImageMapOutputFormat
+                        || delegate instanceof MetatileMapOutputFormat)) {
+            return -1;
+        }
+        try {
+            return mapContent.getScaleDenominator(true);
+        } catch (ServiceException e) {
+            // will be reported by the renderer as needed
+            LOGGER.log(Level.FINE, "Could not compute the scale denominator, "
+                    + "rendering plans won't be used", e);
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the pre-compiled rendering plan of the style, or null if it cannot be used
+     */
+    private RenderingPlan getRenderingPlan(Style style, double planScaleDenominator) {
+        if (planScaleDenominator <= 0) {
+            return null;
+        }
+        return wms.getRenderingPlanCache().getPlan(style, planScaleDenominator);
+    }
+
+    /**
+     * Builds a feature layer, using the pre-compiled rendering plan of the style if available
+     */
+    private FeatureLayer buildFeatureLayer(
+            FeatureSource<? extends FeatureType, ? extends Feature> source, Style style,
+            RenderingPlan plan) {
+        if (plan == null) {
+            return new FeatureLayer(source, style);
+        }
+        FeatureLayer layer = new FeatureLayer(source, plan.getStyle());
+        layer.getUserData().put(RenderingPlan.KEY, plan);
+        return layer;
+    }
+
     private void validateSort(FeatureSource<? extends FeatureType, ? extends Feature> source,
             SortBy[] sort, MapLayerInfo mapLayerInfo) {
         FeatureType ft = source.getSchema();
@@ -715,7 +780,14 @@ public class GetMap {
             for (int i = 0; i < layers.size(); i++) {
                 int layerBuffer = layerBuffers[i];
                 if (layerBuffer == 0) {
-                    layerBuffer = computeLayerBuffer(map.layers().get(i).getStyle(), scaleDenominator);
+                    final org.geotools.map.Layer layer = map.layers().get(i);
+                    final RenderingPlan plan = (RenderingPlan) layer.getUserData()
+                            .get(RenderingPlan.KEY);
+                    if (plan != null) {
+                        layerBuffer = plan.getBuffer();
+                    } else {
+                        layerBuffer = computeLayerBuffer(layer.getStyle(), scaleDenominator);
+                    }
                 }
                 if (layerBuffer > buffer) {
                     buffer = layerBuffer;
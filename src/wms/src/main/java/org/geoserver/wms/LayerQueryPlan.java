@@ -0,0 +1,85 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import org.geotools.data.Query;
+
+/**
+ * Summarizes the decisions taken by the {@link WMSQueryPlanner} for a single vector layer
+ */
+public class LayerQueryPlan {
+
+    private final String layerName;
+
+    private final String typeName;
+
+    private final Query query;
+
+    private final int totalAttributes;
+
+    private final int fetchedAttributes;
+
+    private final Double generalizationDistance;
+
+    LayerQueryPlan(String layerName, String typeName, Query query, int totalAttributes,
+            int fetchedAttributes, Double generalizationDistance) {
+        this.layerName = layerName;
+        this.typeName = typeName;
+        this.query = query;
+        this.totalAttributes = totalAttributes;
+        this.fetchedAttributes = fetchedAttributes;
+        this.generalizationDistance = generalizationDistance;
+    }
+
+    /**
+     * The name of the layer the plan refers to
+     */
+    public String getLayerName() {
+        return layerName;
+    }
+
+    /**
+     * The name of the feature type being queried
+     */
+    public String getTypeName() {
+        return typeName;
+    }
+
+    /**
+     * The definition query, including the property names and hints chosen by the planner
+     */
+    public Query getQuery() {
+        return query;
+    }
+
+    /**
+     * Number of attributes in the feature type
+     */
+    public int getTotalAttributes() {
+        return totalAttributes;
+    }
+
+    /**
+     * Number of attributes actually requested to the store
+     */
+    public int getFetchedAttributes() {
+        return fetchedAttributes;
+    }
+
+    /**
+     * The generalization distance handed to the store, in the native CRS units, or null if the
+     * store does not support geometry generalization
+     */
+    public Double getGeneralizationDistance() {
+        return generalizationDistance;
+    }
+
+    @Override
+    public String toString() {
+        return "LayerQueryPlan [layer=" + layerName + ", attributes=" + fetchedAttributes + "/"
+                + totalAttributes + ", generalizationDistance=" + generalizationDistance
+                + ", query=" + query + "]";
+    }
+}
@@ -11,7 +11,7 @@ import org.geoserver.platform.ServiceException;
  * 
  * @author Andrea Aime - GeoSolutions
  */
-class MaxAnimationTimeHelper {
+public class MaxAnimationTimeHelper {
 
     private int maxRenderingTime;
 
@@ -28,16 +28,23 @@ class MaxAnimationTimeHelper {
      * If the timeout has been reached, a {@link ServiceException} will be returned instead
      */
     public void checkTimeout() throws ServiceException {
-        if (maxRenderingTime <= 0) {
-            return;
-        }
-        final int elapsed = (int) (System.currentTimeMillis() - requestStart);
-        int residual = maxRenderingTime - elapsed;
-        if (residual <= 0) {
+        if (getResidualTime() <= 0) {
             throw new ServiceException(
                     "This animation request used more time than allowed and has been forcefully stopped. "
                             + "The max animation rendering time is " + (maxRenderingTime / 1000.0) + "s");
         }
     }
 
+    /**
+     * Returns the milliseconds left before the timeout, or {@link Long#MAX_VALUE} if there is no
+     * time limit
+     */
+    public long getResidualTime() {
+        if (maxRenderingTime <= 0) {
+            return Long.MAX_VALUE;
+        }
+        final long elapsed = System.currentTimeMillis() - requestStart;
+        return maxRenderingTime - elapsed;
+    }
+
 }
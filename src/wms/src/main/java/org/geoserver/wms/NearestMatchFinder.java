@@ -10,6 +10,7 @@ import org.geoserver.catalog.DimensionInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StructuredCoverageViewReader;
+import org.geoserver.catalog.util.DimensionIndex;
 import org.geoserver.catalog.util.ReaderDimensionsAccessor;
 import org.geoserver.platform.ServiceException;
 import org.geotools.coverage.grid.io.DimensionDescriptor;
@@ -343,16 +344,22 @@ public abstract class NearestMatchFinder {
 
         @Override
         public Object getNearest(Object value) throws IOException {
-            TreeSet<Object> domain = getDimensionDomain();
-            if (domain.isEmpty()) {
+            ReaderDimensionsAccessor accessor = getAccessor();
+            Range rangeFilter = this.acceptableRange != null ? this.acceptableRange.getSearchRange(value) : null;
+            
+            // mosaics with many time slices are usually made of instants, binary search them
+            DimensionIndex index = accessor.getTimeIndex();
+            if (index.isEmpty()) {
                 return null;
+            } else if (value instanceof Date && !index.hasRanges()) {
+                return getNearestInstant((Date) value, index, rangeFilter);
             }
+            
+            TreeSet<Object> domain = accessor.getTimeDomain();
 
             // find the two closest to the specified object
             Object maxOfSmallers = null;
             Object minOfGreater = null;
-            
-            Range rangeFilter = this.acceptableRange != null ? this.acceptableRange.getSearchRange(value) : null;
 
             for (Object d : domain) {
                 // skip undesired values
@@ -375,6 +382,35 @@ public abstract class NearestMatchFinder {
             return closest(value, maxOfSmallers, minOfGreater);
         }
 
+        private Object getNearestInstant(Date value, DimensionIndex index, Range rangeFilter) {
+            double time = value.getTime();
+            double low = Double.NEGATIVE_INFINITY;
+            double high = Double.POSITIVE_INFINITY;
+            if (rangeFilter != null) {
+                if (rangeFilter.getMinValue() != null) {
+                    low = ((Date) rangeFilter.getMinValue()).getTime();
+                }
+                if (rangeFilter.getMaxValue() != null) {
+                    high = ((Date) rangeFilter.getMaxValue()).getTime();
+                }
+            }
+
+            int idx = index.ceilingIndex(time);
+            if (idx < index.size() && index.getMin(idx) == time) {
+                // straight match, use the original value
+                return value;
+            }
+            Object maxOfSmallers = null;
+            Object minOfGreater = null;
+            if (idx > 0 && index.getMin(idx - 1) >= low) {
+                maxOfSmallers = new Date((long) index.getMin(idx - 1));
+            }
+            if (idx < index.size() && index.getMin(idx) <= high) {
+                minOfGreater = new Date((long) index.getMin(idx));
+            }
+            return closest(value, maxOfSmallers, minOfGreater);
+        }
+
         private boolean rangeFilterAccepts(Range rangeFilter, Object domainValue) {
             if (rangeFilter == null) {
                 return true;
@@ -435,10 +471,9 @@ public abstract class NearestMatchFinder {
             }
         }
 
-        private TreeSet<Object> getDimensionDomain() throws IOException {
-            ReaderDimensionsAccessor accessor = new ReaderDimensionsAccessor(reader);
+        private ReaderDimensionsAccessor getAccessor() throws IOException {
             if (ResourceInfo.TIME.equals(dimensionName)) {
-                return accessor.getTimeDomain();
+                return new ReaderDimensionsAccessor(reader);
             } else {
                 throw new IllegalArgumentException("Nearest match support on simple grid readers is supported only " +
                         "for time at the moment");
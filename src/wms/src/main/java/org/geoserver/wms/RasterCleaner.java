@@ -15,6 +15,7 @@ import javax.media.jai.RenderedImageList;
 
 import org.geoserver.ows.AbstractDispatcherCallback;
 import org.geoserver.ows.Request;
+import org.geoserver.wms.animate.StreamingFrameList;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.resources.image.ImageUtilities;
 
@@ -70,7 +71,10 @@ public class RasterCleaner extends AbstractDispatcherCallback {
         if (list != null) {
             images.remove();
             for (RenderedImage image : list) {
-                if (image instanceof RenderedImageList) {
+                if (image instanceof StreamingFrameList) {
+                    // frames have been disposed as they got encoded, just stop the rendering
+                    ((StreamingFrameList) image).dispose();
+                } else if (image instanceof RenderedImageList) {
                     RenderedImageList ril = (RenderedImageList) image;
                     for (int i = 0; i < ril.size(); i++) {
                         disposeImage((RenderedImage) ril.get(i));
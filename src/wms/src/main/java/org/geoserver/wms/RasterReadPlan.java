@@ -0,0 +1,83 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import java.util.Arrays;
+
+/**
+ * Summarizes the read planned by the {@link RasterReadPlanner} for a single coverage layer
+ */
+public class RasterReadPlan {
+
+    private final String layerName;
+
+    private final int overview;
+
+    private final double[] requestedResolution;
+
+    private final double[] readResolution;
+
+    private final long pixels;
+
+    RasterReadPlan(String layerName, int overview, double[] requestedResolution,
+            double[] readResolution, long pixels) {
+        this.layerName = layerName;
+        this.overview = overview;
+        this.requestedResolution = requestedResolution;
+        this.readResolution = readResolution;
+        this.pixels = pixels;
+    }
+
+    /**
+     * The name of the layer the plan refers to
+     */
+    public String getLayerName() {
+        return layerName;
+    }
+
+    /**
+     * The overview that is going to be read, 0 being the native resolution
+     */
+    public int getOverview() {
+        return overview;
+    }
+
+    /**
+     * The resolution of the output map, in the native CRS of the coverage
+     */
+    public double[] getRequestedResolution() {
+        return requestedResolution;
+    }
+
+    /**
+     * The resolution the reader is going to read at, according to the overview policy in use
+     */
+    public double[] getReadResolution() {
+        return readResolution;
+    }
+
+    /**
+     * Returns the read decimation factor, that is, how many source pixels are read for each output
+     * pixel along the horizontal axis
+     */
+    public double getDecimation() {
+        return requestedResolution[0] / readResolution[0];
+    }
+
+    /**
+     * The estimated number of source pixels read
+     */
+    public long getPixels() {
+        return pixels;
+    }
+
+    @Override
+    public String toString() {
+        return "RasterReadPlan [layer=" + layerName + ", overview=" + overview
+                + ", requestedResolution=" + Arrays.toString(requestedResolution)
+                + ", readResolution=" + Arrays.toString(readResolution) + ", pixels=" + pixels
+                + "]";
+    }
+}
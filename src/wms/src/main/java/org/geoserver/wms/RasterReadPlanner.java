@@ -0,0 +1,167 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.ServiceException;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.coverage.grid.io.OverviewPolicy;
+import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.util.logging.Logging;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Plans the reads of coverage layers in GetMap: computes the output resolution in the native CRS
+ * of the coverage, figures out which overview the reader is going to pick given the overview
+ * policy in use, estimates the number of source pixels read, and enforces the
+ * {@link WMS#getMaxRasterReadPixels()} budget before any data is actually read.
+ * <p>
+ * The resulting {@link RasterReadPlan} objects are logged and accumulated in the
+ * {@link WMSMapContent} metadata under the {@link #READ_PLANS} key.
+ * </p>
+ */
+public class RasterReadPlanner {
+
+    static final Logger LOGGER = Logging.getLogger(RasterReadPlanner.class);
+
+    /**
+     * Key under which the list of {@link RasterReadPlan} is stored in the
+     * {@link WMSMapContent#getMetadata()}
+     */
+    public static final String READ_PLANS = "org.geoserver.wms.rasterReadPlans";
+
+    /**
+     * Plans the read for the specified layer. Returns null if the plan could not be computed
+     *
+     * @param maxPixels the max number of source pixels the whole request can read, 0 or negative
+     *        means no limit
+     * @throws ServiceException if the planned reads exceed the max number of pixels
+     */
+    public RasterReadPlan plan(String layerName, GridCoverage2DReader reader,
+            GeneralParameterValue[] readParameters, WMSMapContent mapContent, long maxPixels)
+            throws ServiceException {
+        RasterReadPlan plan;
+        try {
+            plan = computePlan(layerName, reader, readParameters, mapContent);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not plan the read of layer " + layerName, e);
+            return null;
+        }
+        if (plan == null) {
+            return null;
+        }
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Planned GetMap raster read: " + plan);
+        }
+        List<RasterReadPlan> plans = getPlans(mapContent);
+        plans.add(plan);
+
+        if (maxPixels > 0) {
+            long total = 0;
+            synchronized (plans) {
+                for (RasterReadPlan p : plans) {
+                    total += p.getPixels();
+                }
+            }
+            if (total > maxPixels) {
+                throw new ServiceException("This request would read " + total
+                        + " source pixels from the coverages, exceeding the limit of " + maxPixels
+                        + " pixels (layer " + layerName + " alone reads " + plan.getPixels()
+                        + " pixels at overview " + plan.getOverview() + ")");
+            }
+        }
+
+        return plan;
+    }
+
+    RasterReadPlan computePlan(String layerName, GridCoverage2DReader reader,
+            GeneralParameterValue[] readParameters, WMSMapContent mapContent) throws Exception {
+        ReferencedEnvelope area = mapContent.getRenderingArea();
+        CoordinateReferenceSystem nativeCRS = reader.getCoordinateReferenceSystem();
+        if (area == null || area.getCoordinateReferenceSystem() == null || nativeCRS == null
+                || mapContent.getMapWidth() <= 0 || mapContent.getMapHeight() <= 0) {
+            return null;
+        }
+
+        // requested area and resolution in the native CRS
+        GeneralEnvelope requestedEnvelope = new GeneralEnvelope(area);
+        if (!CRS.equalsIgnoreMetadata(area.getCoordinateReferenceSystem(), nativeCRS)) {
+            requestedEnvelope = CRS.transform(requestedEnvelope, nativeCRS);
+        }
+        double[] requestedResolution = new double[] {
+                requestedEnvelope.getSpan(0) / mapContent.getMapWidth(),
+                requestedEnvelope.getSpan(1) / mapContent.getMapHeight() };
+
+        // figure out the overview
+        OverviewPolicy policy = getOverviewPolicy(readParameters);
+        double[] readResolution = reader.getReadingResolutions(policy, requestedResolution);
+        if (readResolution == null) {
+            return null;
+        }
+        int overview = 0;
+        double[][] levels = reader.getResolutionLevels();
+        if (levels != null) {
+            double bestDistance = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < levels.length; i++) {
+                double distance = Math.abs(levels[i][0] - readResolution[0]);
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    overview = i;
+                }
+            }
+        }
+
+        // we cannot read outside of the coverage
+        requestedEnvelope.intersect(reader.getOriginalEnvelope());
+        long pixels = 0;
+        if (!requestedEnvelope.isEmpty()) {
+            pixels = (long) Math.ceil(requestedEnvelope.getSpan(0) / readResolution[0])
+                    * (long) Math.ceil(requestedEnvelope.getSpan(1) / readResolution[1]);
+        }
+
+        return new RasterReadPlan(layerName, overview, requestedResolution, readResolution,
+                pixels);
+    }
+
+    private OverviewPolicy getOverviewPolicy(GeneralParameterValue[] readParameters) {
+        if (readParameters != null) {
+            for (GeneralParameterValue param : readParameters) {
+                if (param instanceof ParameterValue && AbstractGridFormat.OVERVIEW_POLICY
+                        .getName().equals(param.getDescriptor().getName())) {
+                    Object value = ((ParameterValue) param).getValue();
+                    if (value instanceof OverviewPolicy) {
+                        return (OverviewPolicy) value;
+                    }
+                }
+            }
+        }
+        return OverviewPolicy.getDefaultPolicy();
+    }
+
+    /**
+     * Returns the read plans accumulated in the map content so far
+     */
+    @SuppressWarnings("unchecked")
+    public static List<RasterReadPlan> getPlans(WMSMapContent mapContent) {
+        List<RasterReadPlan> plans = (List<RasterReadPlan>) mapContent.getMetadata()
+                .get(READ_PLANS);
+        if (plans == null) {
+            plans = Collections.synchronizedList(new ArrayList<>());
+            mapContent.getMetadata().put(READ_PLANS, plans);
+        }
+        return plans;
+    }
+}
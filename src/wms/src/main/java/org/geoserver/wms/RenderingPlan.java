@@ -0,0 +1,100 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.geotools.styling.Style;
+
+/**
+ * The result of compiling a {@link Style} for a given scale band: a copy of the style containing
+ * only the rules that can be active in the band (with simplified filters), the set of attributes
+ * they need, and the meta buffer estimate for them.
+ * <p>
+ * Plans are immutable and shared among requests, see {@link RenderingPlanCache}
+ * </p>
+ */
+public class RenderingPlan {
+
+    /**
+     * Key used to attach the plan to the user data of the map layer it has been used for
+     */
+    public static final String KEY = "org.geoserver.wms.renderingPlan";
+
+    private final Style style;
+
+    private final double minScaleDenominator;
+
+    private final double maxScaleDenominator;
+
+    private final Set<String> attributes;
+
+    private final int buffer;
+
+    private final boolean bufferAccurate;
+
+    RenderingPlan(Style style, double minScaleDenominator, double maxScaleDenominator,
+            Set<String> attributes, int buffer, boolean bufferAccurate) {
+        this.style = style;
+        this.minScaleDenominator = minScaleDenominator;
+        this.maxScaleDenominator = maxScaleDenominator;
+        this.attributes = Collections.unmodifiableSet(attributes);
+        this.buffer = buffer;
+        this.bufferAccurate = bufferAccurate;
+    }
+
+    /**
+     * The pre-filtered style, containing only the rules that can be active in the scale band.
+     * The renderer still applies its own scale checks, the style is just a (usually much smaller)
+     * superset of what it will actually use. Callers must not modify it.
+     */
+    public Style getStyle() {
+        return style;
+    }
+
+    /**
+     * The minimum scale denominator of the band this plan has been compiled for (inclusive)
+     */
+    public double getMinScaleDenominator() {
+        return minScaleDenominator;
+    }
+
+    /**
+     * The maximum scale denominator of the band this plan has been compiled for (exclusive)
+     */
+    public double getMaxScaleDenominator() {
+        return maxScaleDenominator;
+    }
+
+    /**
+     * The names of the attributes used by the rules in the plan (filters, symbolizers, labels)
+     */
+    public Set<String> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * The meta buffer estimate for the rules in the plan, in pixels
+     */
+    public int getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns true if the buffer estimate is accurate, false if some of the symbolizer sizes
+     * could not be statically determined
+     */
+    public boolean isBufferAccurate() {
+        return bufferAccurate;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderingPlan [style=" + style.getName() + ", minScaleDenominator="
+                + minScaleDenominator + ", maxScaleDenominator=" + maxScaleDenominator
+                + ", attributes=" + attributes + ", buffer=" + buffer + "]";
+    }
+}
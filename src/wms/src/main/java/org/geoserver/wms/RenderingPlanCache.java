@@ -0,0 +1,200 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.filter.visitor.SimplifyingFilterVisitor;
+import org.geotools.renderer.lite.MetaBufferEstimator;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleAttributeExtractor;
+import org.geotools.styling.visitor.DuplicatingStyleVisitor;
+import org.geotools.util.logging.Logging;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Caches {@link RenderingPlan} objects, compiled once per style and scale band.
+ * <p>
+ * The scale bands of a style are the intervals between the distinct min/max scale denominators
+ * found in its rules: inside a band the set of active rules does not change, so the plan can be
+ * shared by all requests falling in it. Styles are held with weak keys, compared by identity:
+ * the {@link org.geoserver.catalog.ResourcePool} creates a new {@link Style} object every time the
+ * style is modified, so the plans of old versions simply get garbage collected.
+ * </p>
+ * <p>
+ * The plans do not depend on the request environment variables, the simplified filters leave
+ * the <code>env</code> function alone as it's not a constant.
+ * </p>
+ * <p>
+ * The cache can be disabled by setting the <code>org.geoserver.wms.renderingPlan.disable</code>
+ * system variable to true.
+ * </p>
+ */
+public class RenderingPlanCache {
+
+    static final Logger LOGGER = Logging.getLogger(RenderingPlanCache.class);
+
+    static boolean DISABLED = Boolean.getBoolean("org.geoserver.wms.renderingPlan.disable");
+
+    /**
+     * Same tolerance used by the renderer when checking rule scale ranges
+     */
+    static final double TOLERANCE = 1e-6;
+
+    /**
+     * The scale denominator computed by GeoServer and the one computed by the renderer can differ
+     * slightly, no plan is returned for scales too close to a band boundary
+     */
+    static final double BAND_SLACK = 1e-3;
+
+    private final Cache<Style, CompiledStyle> cache = CacheBuilder.newBuilder().weakKeys()
+            .build();
+
+    /**
+     * Returns true if the plan cache is enabled
+     */
+    public boolean isEnabled() {
+        return !DISABLED;
+    }
+
+    /**
+     * Returns the rendering plan for the given style and scale denominator, compiling it on the
+     * first usage, or null if the scale is too close to a band boundary to safely pick a plan
+     */
+    public RenderingPlan getPlan(final Style style, double scaleDenominator) {
+        CompiledStyle compiled;
+        try {
+            compiled = cache.get(style, () -> new CompiledStyle(style));
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to compile the style scale bands", e.getCause());
+        }
+        return compiled.getPlan(scaleDenominator);
+    }
+
+    /**
+     * Drops all the cached plans
+     */
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * The scale bands of a style, and the plans compiled so far for them
+     */
+    static class CompiledStyle {
+
+        Style style;
+
+        double[] boundaries;
+
+        AtomicReferenceArray<RenderingPlan> plans;
+
+        CompiledStyle(Style style) {
+            this.style = style;
+            TreeSet<Double> scales = new TreeSet<>();
+            for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+                for (Rule rule : fts.rules()) {
+                    addBoundary(scales, rule.getMinScaleDenominator());
+                    addBoundary(scales, rule.getMaxScaleDenominator());
+                }
+            }
+            this.boundaries = new double[scales.size()];
+            int i = 0;
+            for (Double scale : scales) {
+                boundaries[i++] = scale;
+            }
+            this.plans = new AtomicReferenceArray<>(boundaries.length + 1);
+        }
+
+        private void addBoundary(TreeSet<Double> scales, double scale) {
+            if (scale > 0 && !Double.isInfinite(scale) && !Double.isNaN(scale)) {
+                scales.add(scale);
+            }
+        }
+
+        int getBand(double scaleDenominator) {
+            int idx = Arrays.binarySearch(boundaries, scaleDenominator);
+            // on exact match the scale belongs to the band starting at the boundary
+            return idx >= 0 ? idx + 1 : -idx - 1;
+        }
+
+        RenderingPlan getPlan(double scaleDenominator) {
+            int band = getBand(scaleDenominator);
+            double min = band == 0 ? 0 : boundaries[band - 1];
+            double max = band == boundaries.length ? Double.POSITIVE_INFINITY : boundaries[band];
+            if (scaleDenominator < min * (1 + BAND_SLACK)
+                    || scaleDenominator >= max * (1 - BAND_SLACK)) {
+                // too close to a band boundary, the renderer might end up in the other band
+                return null;
+            }
+
+            RenderingPlan plan = plans.get(band);
+            if (plan == null) {
+                // concurrent compilations of the same band would produce equivalent plans,
+                // no need to lock
+                plan = compile(min, max);
+                plans.compareAndSet(band, null, plan);
+                plan = plans.get(band);
+            }
+            return plan;
+        }
+
+        RenderingPlan compile(double minScale, double maxScale) {
+            DuplicatingStyleVisitor duplicator = new DuplicatingStyleVisitor();
+            style.accept(duplicator);
+            Style copy = (Style) duplicator.getCopy();
+
+            // the set of active rules is the same across the band, check against its start
+            MetaBufferEstimator estimator = new MetaBufferEstimator();
+            int totalRules = 0;
+            int activeRules = 0;
+            for (Iterator<FeatureTypeStyle> it = copy.featureTypeStyles().iterator(); it
+                    .hasNext();) {
+                FeatureTypeStyle fts = it.next();
+                for (Iterator<Rule> rit = fts.rules().iterator(); rit.hasNext();) {
+                    Rule rule = rit.next();
+                    totalRules++;
+                    if (((rule.getMinScaleDenominator() - TOLERANCE) <= minScale)
+                            && ((rule.getMaxScaleDenominator() + TOLERANCE) > minScale)) {
+                        if (rule.getFilter() != null) {
+                            rule.setFilter(SimplifyingFilterVisitor.simplify(rule.getFilter()));
+                        }
+                        estimator.visit(rule);
+                        activeRules++;
+                    } else {
+                        rit.remove();
+                    }
+                }
+                if (fts.rules().isEmpty()) {
+                    it.remove();
+                }
+            }
+
+            StyleAttributeExtractor extractor = new StyleAttributeExtractor();
+            copy.accept(extractor);
+
+            RenderingPlan plan = new RenderingPlan(copy, minScale, maxScale,
+                    new HashSet<>(extractor.getAttributeNameSet()), estimator.getBuffer(),
+                    estimator.isEstimateAccurate());
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Compiled rendering plan for style " + style.getName()
+                        + " in scale band [" + minScale + "," + maxScale + "), kept "
+                        + activeRules + " rules out of " + totalRules);
+            }
+            return plan;
+        }
+    }
+}
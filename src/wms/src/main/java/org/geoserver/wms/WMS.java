@@ -7,6 +7,7 @@ package org.geoserver.wms;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
+import org.geoserver.catalog.AcceptableRange;
 import org.geoserver.catalog.AttributeTypeInfo;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CoverageInfo;
@@ -34,8 +35,12 @@ import org.geoserver.wms.WMSInfo.WMSInterpolation;
 import org.geoserver.wms.WatermarkInfo.Position;
 import org.geoserver.wms.dimension.DimensionDefaultValueSelectionStrategy;
 import org.geoserver.wms.dimension.DimensionDefaultValueSelectionStrategyFactory;
+import org.geoserver.wms.dimension.DimensionDomain;
+import org.geoserver.wms.dimension.DimensionDomainCache;
 import org.geoserver.wms.dimension.DimensionFilterBuilder;
+import org.geoserver.wms.featureinfo.FeatureInfoIndexCache;
 import org.geoserver.wms.featureinfo.GetFeatureInfoOutputFormat;
+import org.geoserver.wms.legendgraphic.LegendGraphicCache;
 import org.geoserver.wms.map.RenderedImageMapOutputFormat;
 import org.geoserver.wms.map.RenderedImageMapResponse;
 import org.geotools.coverage.grid.io.GridCoverage2DReader;
@@ -82,6 +87,7 @@ import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -120,6 +126,30 @@ public class WMS implements ApplicationContextAware {
     public static final String MAX_ALLOWED_FRAMES = "maxAllowedFrames";
 
     public static final int MAX_ALLOWED_FRAMES_DEFAULT = Integer.MAX_VALUE;
+
+    public static final String MAX_RASTER_READ_PIXELS = "maxRasterReadPixels";
+
+    public static final long MAX_RASTER_READ_PIXELS_DEFAULT = 0;
+
+    public static final String MAX_LABEL_CANDIDATES = "maxLabelCandidates";
+
+    public static final int MAX_LABEL_CANDIDATES_DEFAULT = 0;
+
+    public static final String FEATURE_INFO_INDEX_MAX_FEATURES = "featureInfoIndexMaxFeatures";
+
+    public static final int FEATURE_INFO_INDEX_MAX_FEATURES_DEFAULT = 100000;
+
+    public static final String FEATURE_INFO_INDEX_MAX_CACHED_FEATURES = "featureInfoIndexMaxCachedFeatures";
+
+    public static final int FEATURE_INFO_INDEX_MAX_CACHED_FEATURES_DEFAULT = 1000000;
+
+    public static final String LEGEND_CACHE_MAX_SIZE = "legendCacheMaxSize";
+
+    public static final long LEGEND_CACHE_MAX_SIZE_DEFAULT = 0;
+
+    public static final String LEGEND_CACHE_MAX_AGE = "legendCacheMaxAge";
+
+    public static final int LEGEND_CACHE_MAX_AGE_DEFAULT = 0;
     
     public static final String MAX_RENDERING_TIME = "maxAnimatorRenderingTime";
     
@@ -252,6 +282,16 @@ public class WMS implements ApplicationContextAware {
 
     private DimensionDefaultValueSelectionStrategyFactory defaultDimensionValueFactory;
 
+    /**
+     * Caches the domains of vector time and elevation dimensions, may be null
+     */
+    private DimensionDomainCache dimensionDomainCache;
+
+    /**
+     * Caches the styles compiled for the various scale bands
+     */
+    private final RenderingPlanCache renderingPlanCache = new RenderingPlanCache();
+
     public WMS(GeoServer geoserver) {
         this.geoserver = geoserver;
     }
@@ -361,6 +401,13 @@ public class WMS implements ApplicationContextAware {
         return animatorExecutorService;
     }
 
+    /**
+     * @return the cache of rendering plans used by GetMap
+     */
+    public RenderingPlanCache getRenderingPlanCache() {
+        return renderingPlanCache;
+    }
+
     public WMSInterpolation getInterpolation() {
         return getServiceInfo().getInterpolation();
     }
@@ -575,6 +622,60 @@ public class WMS implements ApplicationContextAware {
     	return getMetadataValue(MAX_ALLOWED_FRAMES, MAX_ALLOWED_FRAMES_DEFAULT, Integer.class);
     }
     
+    /**
+     * Returns the max number of source pixels a single GetMap can read from coverage layers, as
+     * estimated by the {@link RasterReadPlanner}. Zero or negative means no limit.
+     */
+    public long getMaxRasterReadPixels() {
+        return getMetadataValue(MAX_RASTER_READ_PIXELS, MAX_RASTER_READ_PIXELS_DEFAULT,
+                Long.class);
+    }
+
+    /**
+     * Returns the max number of label candidates taking part in the conflict resolution of a
+     * single map (or meta-tile). Zero or negative means no limit, and the default GeoTools label
+     * cache is used.
+     */
+    public int getMaxLabelCandidates() {
+        return getMetadataValue(MAX_LABEL_CANDIDATES, MAX_LABEL_CANDIDATES_DEFAULT,
+                Integer.class);
+    }
+
+    /**
+     * Returns the max number of features a layer can have to be indexed in memory for
+     * GetFeatureInfo, see {@link FeatureInfoIndexCache}
+     */
+    public int getFeatureInfoIndexMaxFeatures() {
+        return getMetadataValue(FEATURE_INFO_INDEX_MAX_FEATURES,
+                FEATURE_INFO_INDEX_MAX_FEATURES_DEFAULT, Integer.class);
+    }
+
+    /**
+     * Returns the max number of features kept in memory, across all layers, by the
+     * {@link FeatureInfoIndexCache}
+     */
+    public int getFeatureInfoIndexMaxCachedFeatures() {
+        return getMetadataValue(FEATURE_INFO_INDEX_MAX_CACHED_FEATURES,
+                FEATURE_INFO_INDEX_MAX_CACHED_FEATURES_DEFAULT, Integer.class);
+    }
+
+    /**
+     * Returns the max amount of memory, in bytes, used by the {@link LegendGraphicCache} to hold
+     * encoded legends. Zero or negative disables the cache, which is the default
+     */
+    public long getLegendCacheMaxSize() {
+        return getMetadataValue(LEGEND_CACHE_MAX_SIZE, LEGEND_CACHE_MAX_SIZE_DEFAULT, Long.class);
+    }
+
+    /**
+     * Returns the max age, in seconds, advertised to clients in the cache headers of cached
+     * legends. Zero or negative means no cache headers, which is the default, as clients would
+     * otherwise keep showing the old legends after a style change
+     */
+    public int getLegendCacheMaxAge() {
+        return getMetadataValue(LEGEND_CACHE_MAX_AGE, LEGEND_CACHE_MAX_AGE_DEFAULT, Integer.class);
+    }
+
     public Long getMaxAnimatorRenderingTime() {
         return getMetadataValue(MAX_RENDERING_TIME, null, Long.class);
     }
@@ -830,6 +931,9 @@ public class WMS implements ApplicationContextAware {
         defaultDimensionValueFactory = GeoServerExtensions.extensions(
                 DimensionDefaultValueSelectionStrategyFactory.class).get(0);
 
+        dimensionDomainCache = GeoServerExtensions.bean(DimensionDomainCache.class,
+                applicationContext);
+
         // enable/disable map wrapping
         if (ENABLE_MAP_WRAPPING == null) {
             String wrapping = GeoServerExtensions.getProperty("ENABLE_MAP_WRAPPING",
@@ -1245,9 +1349,24 @@ public class WMS implements ApplicationContextAware {
                     + " does not have time support enabled");
         }
 
-        FeatureCollection collection = getDimensionCollection(typeInfo, time);
-
         TreeSet<Date> result = new TreeSet<Date>();
+        DimensionDomain domain = getDimensionDomain(typeInfo, time);
+        if (domain != null) {
+            if (time.getPresentation() == DimensionPresentation.LIST) {
+                if (domain.isEmpty()) {
+                    return null;
+                }
+                for (int i = 0; i < domain.size(); i++) {
+                    result.add(new Date((long) domain.get(i)));
+                }
+            } else if (!domain.isEmpty()) {
+                result.add(new Date((long) domain.getMin()));
+                result.add(new Date((long) domain.getMax()));
+            }
+            return result;
+        }
+
+        FeatureCollection collection = getDimensionCollection(typeInfo, time);
         if (time.getPresentation() == DimensionPresentation.LIST) {
             final UniqueVisitor visitor = new UniqueVisitor(time.getAttribute());
             collection.accepts(visitor, null);
@@ -1320,12 +1439,28 @@ public class WMS implements ApplicationContextAware {
                     + " does not have elevation support enabled");
         }
 
-        FeatureCollection collection = getDimensionCollection(typeInfo, elevation);
-
         TreeSet<Double> result = new TreeSet<Double>();
-        if (elevation.getPresentation() == DimensionPresentation.LIST
-                || (elevation.getPresentation() == DimensionPresentation.DISCRETE_INTERVAL && elevation
-                        .getResolution() == null)) {
+        boolean listValues = elevation.getPresentation() == DimensionPresentation.LIST
+                || (elevation.getPresentation() == DimensionPresentation.DISCRETE_INTERVAL
+                        && elevation.getResolution() == null);
+        DimensionDomain domain = getDimensionDomain(typeInfo, elevation);
+        if (domain != null) {
+            if (listValues) {
+                if (domain.isEmpty()) {
+                    return null;
+                }
+                for (int i = 0; i < domain.size(); i++) {
+                    result.add(domain.get(i));
+                }
+            } else if (!domain.isEmpty()) {
+                result.add(domain.getMin());
+                result.add(domain.getMax());
+            }
+            return result;
+        }
+
+        FeatureCollection collection = getDimensionCollection(typeInfo, elevation);
+        if (listValues) {
             final UniqueVisitor visitor = new UniqueVisitor(elevation.getAttribute());
             collection.accepts(visitor, null);
 
@@ -1469,6 +1604,18 @@ public class WMS implements ApplicationContextAware {
          }
     }
 
+    /**
+     * Returns the cached domain of a vector dimension, or null if the cache is not available or
+     * cannot handle the dimension values
+     */
+    DimensionDomain getDimensionDomain(FeatureTypeInfo typeInfo, DimensionInfo dimension)
+            throws IOException {
+        if (dimensionDomainCache == null) {
+            return null;
+        }
+        return dimensionDomainCache.getDomain(typeInfo, dimension);
+    }
+
     /**
      * Returns the collection of all values of the dimension attribute, eventually sorted if the
      * native capabilities allow for it
@@ -1566,10 +1713,34 @@ public class WMS implements ApplicationContextAware {
         // code go through a lot of nearest match queries
         int maxRenderingTime = getMaxRenderingTime();
         long maxTime = maxRenderingTime > 0 ? System.currentTimeMillis() + maxRenderingTime * 1000 : -1;
-        NearestMatchFinder finder = NearestMatchFinder.get(resourceInfo, dimension, dimensionName);
+        // simple instants against a cached time domain can be matched in memory
+        DimensionDomain domain = null;
+        AcceptableRange acceptableRange = null;
+        if (resourceInfo instanceof FeatureTypeInfo && dimension.getEndAttribute() == null
+                && ResourceInfo.TIME.equals(dimensionName)) {
+            domain = getDimensionDomain((FeatureTypeInfo) resourceInfo, dimension);
+            try {
+                acceptableRange = AcceptableRange
+                        .getAcceptableRange(dimension.getAcceptableInterval(), Date.class);
+            } catch (ParseException e) {
+                throw new ServiceException(
+                        "Failed to apply nearest match search on " + resourceInfo.prefixedName(),
+                        e);
+            }
+        }
+        NearestMatchFinder finder = null;
         List<Object> result = new ArrayList<>();
         for (Object value : values) {
-            Object nearest = finder.getNearest(value);
+            Object nearest;
+            Date instant = getInstant(value);
+            if (domain != null && instant != null) {
+                nearest = getNearest(domain, acceptableRange, value, instant);
+            } else {
+                if (finder == null) {
+                    finder = NearestMatchFinder.get(resourceInfo, dimension, dimensionName);
+                }
+                nearest = finder.getNearest(value);
+            }
             if (nearest == null) {
                 // no way to specify there is no match yet, so we'll use the original value, which will not match
                 NearestMatchWarningAppender.addWarning(resourceInfo.prefixedName(), dimensionName, null, dimension.getUnits(), NotFound);
@@ -1593,6 +1764,35 @@ public class WMS implements ApplicationContextAware {
     }
 
 
+    /**
+     * Returns the value as a date, if it's a time instant or a degenerate time range, null otherwise
+     */
+    private Date getInstant(Object value) {
+        if (value instanceof Date) {
+            return (Date) value;
+        } else if (value instanceof Range && ((Range) value).getMinValue() instanceof Date
+                && ((Range) value).getMinValue().equals(((Range) value).getMaxValue())) {
+            return (Date) ((Range) value).getMinValue();
+        }
+        return null;
+    }
+
+    /**
+     * Finds the nearest match in the cached domain, following the same conventions as
+     * {@link NearestMatchFinder#getNearest(Object)}
+     */
+    private Object getNearest(DimensionDomain domain, AcceptableRange acceptableRange,
+            Object value, Date instant) {
+        if (domain.isEmpty()) {
+            return null;
+        }
+        Date nearest = new Date((long) domain.getNearest(instant.getTime()));
+        if (acceptableRange != null && !acceptableRange.getSearchRange(instant).contains(nearest)) {
+            return null;
+        }
+        return nearest.equals(instant) ? value : nearest;
+    }
+
     /**
      * Returns the max rendering time taking into account the server limits and the request options
      * @param request
@@ -0,0 +1,203 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import java.awt.RenderingHints;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.factory.Hints;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.Feature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.FeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Plans the definition query of vector layers in GetMap, making explicit the attribute projection
+ * and geometry generalization the renderer would otherwise perform behind the scenes:
+ * <ul>
+ * <li>only the attributes used by the active rules (as found in the {@link RenderingPlan}), the
+ * default geometry and the sorting attributes are requested</li>
+ * <li>when the store supports {@link Hints#GEOMETRY_DISTANCE} or
+ * {@link Hints#GEOMETRY_SIMPLIFICATION}, the generalization distance matching the output pixel
+ * size is handed to it</li>
+ * </ul>
+ * Styles using rendering transformations are left alone, as the transformation can use any
+ * attribute, and needs the original geometries: the renderer will decide what to do about them.
+ * The same goes for the generalization of layers without a {@link RenderingPlan}, whose style is
+ * not known.
+ * The resulting {@link LayerQueryPlan} objects are logged and accumulated in the
+ * {@link WMSMapContent} metadata under the {@link #QUERY_PLANS} key. They are meant as
+ * diagnostics: the StreamingRenderer already restricts its own query to the attributes used by
+ * the style, and hands the same generalization hint to the store, so the plan does not read less
+ * data than the renderer would.
+ */
+public class WMSQueryPlanner {
+
+    static final Logger LOGGER = Logging.getLogger(WMSQueryPlanner.class);
+
+    /**
+     * Key under which the list of {@link LayerQueryPlan} is stored in the
+     * {@link WMSMapContent#getMetadata()}
+     */
+    public static final String QUERY_PLANS = "org.geoserver.wms.queryPlans";
+
+    /**
+     * Same default generalization distance used by the StreamingRenderer, in pixels
+     */
+    static final double GENERALIZATION_DISTANCE = 0.8;
+
+    /**
+     * Plans the query for the specified layer, modifying the definition query and returning the
+     * plan summary
+     */
+    public LayerQueryPlan plan(String layerName,
+            FeatureSource<? extends FeatureType, ? extends Feature> source, Query query,
+            RenderingPlan renderingPlan, WMSMapContent mapContent) {
+        FeatureType schema = source.getSchema();
+        int totalAttributes = schema.getDescriptors().size();
+
+        // attribute projection
+        int fetchedAttributes = totalAttributes;
+        List<String> properties = getProjection(schema, query, renderingPlan);
+        if (properties != null && properties.size() < totalAttributes) {
+            query.setPropertyNames(properties.toArray(new String[properties.size()]));
+            fetchedAttributes = properties.size();
+        }
+
+        // generalization push down, only if the style is known not to use transformations,
+        // otherwise the renderer picks the generalization
+        Double distance = null;
+        Set<RenderingHints.Key> supported = source.getSupportedHints();
+        Hints.Key generalizationKey = null;
+        if (supported != null && renderingPlan != null && !hasTransformation(renderingPlan)) {
+            if (supported.contains(Hints.GEOMETRY_DISTANCE)) {
+                generalizationKey = Hints.GEOMETRY_DISTANCE;
+            } else if (supported.contains(Hints.GEOMETRY_SIMPLIFICATION)) {
+                generalizationKey = Hints.GEOMETRY_SIMPLIFICATION;
+            }
+        }
+        if (generalizationKey != null) {
+            distance = getGeneralizationDistance(schema, mapContent);
+            if (distance != null) {
+                Hints hints = new Hints();
+                if (query.getHints() != null) {
+                    hints.putAll(query.getHints());
+                }
+                hints.put(generalizationKey, distance);
+                query.setHints(hints);
+            }
+        }
+
+        LayerQueryPlan plan = new LayerQueryPlan(layerName, schema.getName().getLocalPart(),
+                query, totalAttributes, fetchedAttributes, distance);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Planned GetMap query: " + plan);
+        }
+        getPlans(mapContent).add(plan);
+
+        return plan;
+    }
+
+    /**
+     * Returns the list of properties to be fetched, or null if the projection cannot be safely
+     * determined
+     */
+    List<String> getProjection(FeatureType schema, Query query, RenderingPlan renderingPlan) {
+        if (renderingPlan == null || !(schema instanceof SimpleFeatureType)) {
+            return null;
+        }
+        // rendering transformations can use any attribute
+        if (hasTransformation(renderingPlan)) {
+            return null;
+        }
+
+        Set<String> properties = new LinkedHashSet<>();
+        GeometryDescriptor geometry = schema.getGeometryDescriptor();
+        if (geometry != null) {
+            properties.add(geometry.getLocalName());
+        }
+        for (String attribute : renderingPlan.getAttributes()) {
+            // xpaths and the like, don't try to be smart
+            if (schema.getDescriptor(attribute) == null) {
+                return null;
+            }
+            properties.add(attribute);
+        }
+        SortBy[] sortBy = query.getSortBy();
+        if (sortBy != null) {
+            for (SortBy sb : sortBy) {
+                if (sb.getPropertyName() != null) {
+                    properties.add(sb.getPropertyName().getPropertyName());
+                }
+            }
+        }
+
+        return new ArrayList<>(properties);
+    }
+
+    /**
+     * Returns true if any of the feature type styles uses a rendering transformation
+     */
+    boolean hasTransformation(RenderingPlan renderingPlan) {
+        for (FeatureTypeStyle fts : renderingPlan.getStyle().featureTypeStyles()) {
+            if (fts.getTransformation() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the size of a pixel in the native CRS of the layer
+     */
+    Double getGeneralizationDistance(FeatureType schema, WMSMapContent mapContent) {
+        CoordinateReferenceSystem crs = schema.getCoordinateReferenceSystem();
+        ReferencedEnvelope area = mapContent.getRenderingArea();
+        if (crs == null || area == null || area.getCoordinateReferenceSystem() == null
+                || mapContent.getMapWidth() <= 0 || mapContent.getMapHeight() <= 0) {
+            return null;
+        }
+        try {
+            ReferencedEnvelope nativeArea = area.transform(crs, true);
+            double dx = nativeArea.getWidth() / mapContent.getMapWidth();
+            double dy = nativeArea.getHeight() / mapContent.getMapHeight();
+            double distance = Math.min(dx, dy) * GENERALIZATION_DISTANCE;
+            if (distance > 0 && !Double.isInfinite(distance) && !Double.isNaN(distance)) {
+                return distance;
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not compute the generalization distance for "
+                    + schema.getName() + ", will let the renderer deal with it", e);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the query plans accumulated in the map content so far
+     */
+    @SuppressWarnings("unchecked")
+    public static List<LayerQueryPlan> getPlans(WMSMapContent mapContent) {
+        List<LayerQueryPlan> plans = (List<LayerQueryPlan>) mapContent.getMetadata()
+                .get(QUERY_PLANS);
+        if (plans == null) {
+            plans = Collections.synchronizedList(new ArrayList<>());
+            mapContent.getMetadata().put(QUERY_PLANS, plans);
+        }
+        return plans;
+    }
+}
@@ -11,13 +11,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import javax.media.jai.RenderedImageList;
 
@@ -25,9 +23,11 @@ import org.apache.commons.beanutils.BeanUtils;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.util.CaseInsensitiveMap;
 import org.geoserver.ows.util.KvpUtils;
+import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapProducerCapabilities;
+import org.geoserver.wms.MaxAnimationTimeHelper;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WebMapService;
 import org.geoserver.wms.map.GetMapKvpRequestReader;
@@ -36,8 +36,9 @@ import org.geoserver.wms.map.RenderedImageMapResponse;
 
 /**
  * The Frame Visitor contains the logic to produce frame images.<br/>
- * The "visit" method initializes the runnables and the animatorExecutor service, while
- * the "produce" method runs the tasks and generated the frames images.
+ * The "visit" method collects the frame loaders, while the "produce" method returns a
+ * {@link StreamingFrameList} rendering them on the animatorExecutor service as the animation
+ * encoder asks for them, with at most as many frames in flight as the executor core threads.
  * @author Alessio Fabiani, GeoSolutions S.A.S., alessio.fabiani@geo-solutions.it
  * @author Andrea Aime, GeoSolutions S.A.S., andrea.aime@geo-solutions.it
  */
@@ -49,12 +50,17 @@ public class FrameCatalogVisitor {
     int framesNumber;
 
     /**
-     * the list of runnables to be executed
+     * the list of frame loaders to be executed
      */
-    List<Future<RenderedImage>> tasks;
+    List<Callable<RenderedImage>> tasks;
 
     /**
-     * Adds a new visitor to the runnables list and initializes the animatorExecutor service is not yet initialied. 
+     * the request originating the animation
+     */
+    GetMapRequest request;
+
+    /**
+     * Adds a new frame loader to the tasks list. Rendering is deferred to {@link #produce(WMS)}
      * @param request
      * @param wms
      * @param wmsConfiguration
@@ -63,65 +69,62 @@ public class FrameCatalogVisitor {
      */
     public void visit(final GetMapRequest request, WebMapService wms, WMS wmsConfiguration, String aparam, String avalue) {
         if (this.tasks == null) {
-            this.tasks = new LinkedList<Future<RenderedImage>>();
+            this.tasks = new ArrayList<Callable<RenderedImage>>();
+            this.request = request;
         }
 
-        FrameLoader loader = new FrameLoader(request, wms, wmsConfiguration, aparam, avalue);
-        
-        
-        final FutureTask<RenderedImage> task = new FutureTask<RenderedImage>(loader);
-        this.tasks.add(task);
+        this.tasks.add(new FrameLoader(request, wms, wmsConfiguration, aparam, avalue));
         this.framesNumber++;
-
-        // run the loading in this thread
-        wmsConfiguration.getAnimatorExecutorService().execute(task);
     }
 
     /**
-     * Invokes the Executor service and produces the frames images.
+     * Returns the animation frames. The first one is rendered before returning, to fail early
+     * in case of errors, the others are rendered in parallel while the list is being consumed.
+     * As the consumer is the response encoder, errors rendering them reach the client only as a
+     * truncated animation, the service exception cannot be sent anymore.
      * @param wmsConfiguration
      *
      * @throws IOException
      */
     public RenderedImageList produce(WMS wmsConfiguration) throws IOException {
-        List<RenderedImage> images = new ArrayList<RenderedImage>();
-
-        long gifAnimatedSize = 0;
-
-        for (Future<RenderedImage> future : tasks) {
-            RenderedImage image = null;
-            try {
-                image = future.get();
-            } catch (InterruptedException e) {
-                dispose();
-                throw new IOException(e);
-            } catch (ExecutionException e) {
-                dispose();
-                throw new IOException(e);
-            }
-
-            if (image == null) {
-                continue;
-            }
-
-            // collect the images
-            gifAnimatedSize += getImageSizeInBytes(image);
-            if (wmsConfiguration.getMaxRenderingSize() != null
-                    && gifAnimatedSize >= wmsConfiguration.getMaxRenderingSize()) {
-                dispose();
-                throw new IOException("Max rendering size exceed!");
-            }
+        if (tasks == null || tasks.isEmpty()) {
+            dispose();
+            throw new IOException("Empty list of frames.");
+        }
 
-            images.add(image);
+        ExecutorService executor = wmsConfiguration.getAnimatorExecutorService();
+        MaxAnimationTimeHelper timeHelper = new MaxAnimationTimeHelper(wmsConfiguration, request);
+        StreamingFrameList frames = new StreamingFrameList(tasks, executor, getMaxInFlight(executor),
+                timeHelper);
+        RenderedImage first;
+        try {
+            first = frames.getFirst();
+        } catch (ServiceException e) {
+            dispose();
+            throw new IOException(e);
         }
 
-        if (images == null || images.size() == 0) {
+        // frames are all of the same size, check the whole animation size upfront
+        long gifAnimatedSize = getImageSizeInBytes(first) * framesNumber;
+        if (wmsConfiguration.getMaxRenderingSize() != null
+                && gifAnimatedSize >= wmsConfiguration.getMaxRenderingSize()) {
+            frames.dispose();
             dispose();
-            throw new IOException("Empty list of frames.");
+            throw new IOException("Max rendering size exceed!");
         }
 
         dispose();
-        return new RenderedImageList(images);
+        return frames;
+    }
+
+    /**
+     * Allows as many frames in flight as the threads the executor is going to use, without queuing
+     */
+    private int getMaxInFlight(ExecutorService executor) {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getCorePoolSize();
+        }
+        return Runtime.getRuntime().availableProcessors();
     }
 
     private long getImageSizeInBytes(RenderedImage image) {
@@ -134,15 +137,12 @@ public class FrameCatalogVisitor {
     }
 
     /**
-     * Suddenly stops the Executor service and clear instantiated visitors.
+     * Clears the collected frame loaders, the frame list keeps its own reference to them.
      */
     private void dispose() {
         this.framesNumber = 0;
-
-        if (this.tasks != null)
-            this.tasks.clear();
-        
         this.tasks = null;
+        this.request = null;
     }
 
 }
@@ -0,0 +1,192 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.animate;
+
+import java.awt.image.RenderedImage;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.media.jai.RenderedImageList;
+
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.MaxAnimationTimeHelper;
+
+/**
+ * A {@link RenderedImageList} rendering its frames on demand. Frames are rendered in parallel,
+ * but at most <code>maxInFlight</code> of them are scheduled ahead of the one being consumed,
+ * and each frame is released as soon as the next one is requested, so that an encoder walking
+ * the list in order keeps only a handful of frames in memory, regardless of the animation length.
+ * <p>
+ * The first frame is kept for the whole life of the list, as {@link RenderedImageList} uses it to
+ * describe the animation as a whole.
+ * </p>
+ * <p>
+ * Frames that fail to render, or are not ready before the animation timeout, make the list throw a
+ * {@link ServiceException} when they are requested. When the list is being consumed by an encoder
+ * writing to the response, that happens after the output started, see
+ * {@link org.geoserver.wms.map.GIFMapResponse}.
+ * </p>
+ */
+public class StreamingFrameList extends RenderedImageList {
+
+    private final List<Callable<RenderedImage>> loaders;
+
+    private final Future<RenderedImage>[] futures;
+
+    private final ExecutorService executor;
+
+    private final int maxInFlight;
+
+    private final MaxAnimationTimeHelper timeHelper;
+
+    private RenderedImage first;
+
+    /** Index of the next frame to be returned, all frames before it have been let go */
+    private int next;
+
+    /** Index of the next frame to be scheduled */
+    private int scheduled;
+
+    private boolean disposed;
+
+    @SuppressWarnings("unchecked")
+    StreamingFrameList(List<Callable<RenderedImage>> loaders, ExecutorService executor,
+            int maxInFlight, MaxAnimationTimeHelper timeHelper) {
+        this.loaders = loaders;
+        this.futures = new Future[loaders.size()];
+        this.executor = executor;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.timeHelper = timeHelper;
+        // all the RenderedImageList methods go through the image collection
+        this.imageCollection = new Frames();
+    }
+
+    /**
+     * Returns the first frame, waiting for it to be rendered if necessary
+     */
+    RenderedImage getFirst() {
+        return (RenderedImage) get(0);
+    }
+
+    /**
+     * Cancels the frames still being rendered and releases the ones not yet consumed
+     */
+    public synchronized void dispose() {
+        disposed = true;
+        for (int i = 0; i < futures.length; i++) {
+            if (futures[i] != null) {
+                futures[i].cancel(true);
+                futures[i] = null;
+            }
+        }
+    }
+
+    private synchronized RenderedImage getFrame(int index) {
+        if (index == 0 && first != null) {
+            return first;
+        }
+        if (disposed) {
+            throw new IllegalStateException("The animation frames have already been disposed");
+        }
+        if (index < next) {
+            throw new IllegalStateException("Frame " + index
+                    + " has already been consumed, animation frames can only be read in order");
+        }
+
+        // frames being skipped are not needed anymore
+        while (next < index) {
+            release(next++);
+        }
+        schedule();
+        RenderedImage image = waitFor(index);
+        release(index);
+        next = index + 1;
+        schedule();
+
+        if (index == 0) {
+            first = image;
+        }
+        return image;
+    }
+
+    private void schedule() {
+        while (scheduled < futures.length && scheduled < next + maxInFlight) {
+            futures[scheduled] = executor.submit(loaders.get(scheduled));
+            scheduled++;
+        }
+    }
+
+    private void release(int index) {
+        if (futures[index] != null) {
+            futures[index].cancel(true);
+            futures[index] = null;
+        }
+    }
+
+    private RenderedImage waitFor(int index) {
+        Future<RenderedImage> future = futures[index];
+        try {
+            RenderedImage image = null;
+            while (image == null) {
+                timeHelper.checkTimeout();
+                long residual = timeHelper.getResidualTime();
+                try {
+                    if (residual == Long.MAX_VALUE) {
+                        image = future.get();
+                    } else {
+                        image = future.get(residual, TimeUnit.MILLISECONDS);
+                    }
+                    if (image == null) {
+                        throw new ServiceException("Animation frame " + index
+                                + " did not produce any image");
+                    }
+                } catch (TimeoutException e) {
+                    // loop back, the timeout check will stop the animation
+                }
+            }
+            return image;
+        } catch (ExecutionException e) {
+            dispose();
+            throw new ServiceException("Failed to render animation frame " + index, e.getCause());
+        } catch (InterruptedException e) {
+            dispose();
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Animation rendering interrupted", e);
+        } catch (CancellationException e) {
+            dispose();
+            throw new ServiceException("Animation frame " + index + " rendering was cancelled", e);
+        } catch (RuntimeException e) {
+            dispose();
+            throw e;
+        }
+    }
+
+    /**
+     * The list backing the {@link RenderedImageList}
+     */
+    class Frames extends AbstractList<RenderedImage> {
+
+        @Override
+        public RenderedImage get(int index) {
+            if (index < 0 || index >= futures.length) {
+                throw new IndexOutOfBoundsException("Frame " + index + " is out of range, there are "
+                        + futures.length + " frames");
+            }
+            return getFrame(index);
+        }
+
+        @Override
+        public int size() {
+            return futures.length;
+        }
+    }
+}
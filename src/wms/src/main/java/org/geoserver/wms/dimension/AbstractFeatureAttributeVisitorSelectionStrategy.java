@@ -7,17 +7,20 @@ package org.geoserver.wms.dimension;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geoserver.catalog.DimensionInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
 import org.geotools.factory.GeoTools;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.visitor.CalcResult;
+import org.geotools.util.Converters;
 import org.geotools.feature.visitor.FeatureCalc;
 import org.geotools.util.logging.Logging;
 
@@ -61,6 +64,33 @@ public abstract class AbstractFeatureAttributeVisitorSelectionStrategy extends A
         return retval;
     }
 
+    /**
+     * Returns the cached domain of the dimension, or null if the {@link DimensionDomainCache} is
+     * not available or cannot handle the dimension values
+     */
+    protected DimensionDomain getCachedDomain(FeatureTypeInfo typeInfo, DimensionInfo dimension) {
+        DimensionDomainCache cache = GeoServerExtensions.bean(DimensionDomainCache.class);
+        if (cache == null) {
+            return null;
+        }
+        try {
+            return cache.getDomain(typeInfo, dimension);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Converts a value out of a {@link DimensionDomain} to the target class
+     */
+    protected Object toDomainValue(double value, Class<?> clz) {
+        if (Date.class.isAssignableFrom(clz)) {
+            return new Date((long) value);
+        }
+        return Converters.convert(value, clz);
+    }
+
     private FeatureCollection<?, ?> getDimensionCollection(FeatureTypeInfo typeInfo,
             DimensionInfo dimension) throws IOException {
         // grab the feature source
@@ -0,0 +1,132 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.dimension;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * The immutable set of distinct values of a vector dimension, kept as a sorted array of doubles.
+ * Times are stored as milliseconds since the epoch, which doubles represent exactly.
+ */
+public class DimensionDomain {
+
+    static final DimensionDomain EMPTY = new DimensionDomain(new double[0]);
+
+    private final double[] values;
+
+    private DimensionDomain(double[] values) {
+        this.values = values;
+    }
+
+    /**
+     * Builds a domain out of the given values, skipping nulls
+     *
+     * @throws IllegalArgumentException if a value is neither a {@link Date} nor a {@link Number}
+     */
+    public static DimensionDomain build(Collection<?> values) {
+        return EMPTY.merge(values);
+    }
+
+    /**
+     * Converts a dimension value into the double stored in the domain
+     *
+     * @throws IllegalArgumentException if a value is neither a {@link Date} nor a {@link Number}
+     */
+    static double toDouble(Object value) {
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        throw new IllegalArgumentException("Unsupported dimension value " + value);
+    }
+
+    /**
+     * Returns a new domain containing both the values of this one and the given ones
+     */
+    public DimensionDomain merge(Collection<?> newValues) {
+        double[] added = new double[newValues.size()];
+        int count = 0;
+        for (Object value : newValues) {
+            if (value != null) {
+                added[count++] = toDouble(value);
+            }
+        }
+        if (count == 0) {
+            return this;
+        }
+        Arrays.sort(added, 0, count);
+
+        // merge the two sorted arrays, removing duplicates
+        double[] merged = new double[values.length + count];
+        int i = 0, j = 0, k = 0;
+        while (i < values.length || j < count) {
+            double next;
+            if (j >= count || (i < values.length && values[i] <= added[j])) {
+                next = values[i++];
+            } else {
+                next = added[j++];
+            }
+            if (k == 0 || merged[k - 1] != next) {
+                merged[k++] = next;
+            }
+        }
+        return new DimensionDomain(k == merged.length ? merged : Arrays.copyOf(merged, k));
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public boolean isEmpty() {
+        return values.length == 0;
+    }
+
+    /**
+     * The smallest value, or {@link Double#NaN} if the domain is empty
+     */
+    public double getMin() {
+        return values.length == 0 ? Double.NaN : values[0];
+    }
+
+    /**
+     * The largest value, or {@link Double#NaN} if the domain is empty
+     */
+    public double getMax() {
+        return values.length == 0 ? Double.NaN : values[values.length - 1];
+    }
+
+    /**
+     * Returns the value at the given position in the sorted domain
+     */
+    public double get(int i) {
+        return values[i];
+    }
+
+    /**
+     * Returns the domain value closest to the given one, or {@link Double#NaN} if the domain is
+     * empty. On ties the smaller value wins.
+     */
+    public double getNearest(double value) {
+        if (values.length == 0) {
+            return Double.NaN;
+        }
+        int idx = Arrays.binarySearch(values, value);
+        if (idx >= 0) {
+            return values[idx];
+        }
+        int insertion = -idx - 1;
+        if (insertion == 0) {
+            return values[0];
+        } else if (insertion == values.length) {
+            return values[values.length - 1];
+        }
+        double lower = values[insertion - 1];
+        double higher = values[insertion];
+        return (value - lower) <= (higher - value) ? lower : higher;
+    }
+}
@@ -0,0 +1,457 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.dimension;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.DimensionInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.Predicates;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.security.decorators.SecuredFeatureTypeInfo;
+import org.geoserver.wfs.TransactionCallback;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wfs.TransactionListener;
+import org.geoserver.wfs.WFSException;
+import org.geoserver.wfs.request.TransactionRequest;
+import org.geoserver.wfs.request.TransactionResponse;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.factory.GeoTools;
+import org.geotools.feature.visitor.UniqueVisitor;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Caches the domain of the vector time and elevation dimensions, so that capabilities documents,
+ * default value and nearest match lookups do not have to scan the whole feature type every time.
+ * <p>
+ * Each domain is loaded with a single unique scan the first time it's needed, and then kept up to
+ * date with the WFS-T inserts once committed. Updates and deletes, as well as changes to the
+ * feature type or its store, cause the domain to be reloaded on next use.
+ * </p>
+ * <p>
+ * Domains are stamped with a generation of their feature type, increased by every committed
+ * transaction and catalog change touching it, and are discarded when found stale. This covers the
+ * domains that were still being loaded while the change happened.
+ * </p>
+ * <p>
+ * The cache is used only for the feature types having the {@link #ENABLED_KEY} metadata set to
+ * true, that is, the ones whose data is modified only through GeoServer, and only for the users
+ * having unrestricted access to them, as the domains are shared.
+ * </p>
+ */
+public class DimensionDomainCache implements TransactionListener, TransactionCallback,
+        CatalogListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(DimensionDomainCache.class);
+
+    /**
+     * The feature type metadata key enabling the cache. It's off by default, as changes made to
+     * the data bypassing GeoServer cannot be noticed
+     */
+    public static final String ENABLED_KEY = "cacheDimensionDomains";
+
+    /**
+     * A cached domain, along with the information needed to match it against transactions and
+     * catalog events
+     */
+    static class Entry {
+        final String typeId;
+
+        final String storeId;
+
+        final QName typeName;
+
+        final String attribute;
+
+        /**
+         * Null if the attribute values cannot be stored in a {@link DimensionDomain}
+         */
+        final DimensionDomain domain;
+
+        /**
+         * The generation of the feature type the domain was loaded at
+         */
+        final long generation;
+
+        Entry(String typeId, String storeId, QName typeName, String attribute,
+                DimensionDomain domain, long generation) {
+            this.typeId = typeId;
+            this.storeId = storeId;
+            this.typeName = typeName;
+            this.attribute = attribute;
+            this.domain = domain;
+            this.generation = generation;
+        }
+
+        Entry withDomain(DimensionDomain domain, long generation) {
+            return new Entry(typeId, storeId, typeName, attribute, domain, generation);
+        }
+    }
+
+    /**
+     * Changes performed by the transaction running in the current thread, applied only on commit
+     */
+    static class PendingChanges {
+        /**
+         * The ids of the feature types touched by the transaction
+         */
+        Set<String> types = new HashSet<>();
+
+        /**
+         * The domains cached when the transaction first touched their type, only these can be
+         * updated on commit
+         */
+        Map<String, Entry> tracked = new HashMap<>();
+
+        Map<String, List<Object>> inserted = new HashMap<>();
+
+        Set<String> invalidated = new HashSet<>();
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<PendingChanges> pending = new ThreadLocal<>();
+
+    private final Catalog catalog;
+
+    public DimensionDomainCache(Catalog catalog) {
+        this.catalog = catalog;
+        catalog.addListener(this);
+    }
+
+    /**
+     * For testing only
+     */
+    DimensionDomainCache() {
+        this.catalog = null;
+    }
+
+    /**
+     * Returns the domain of the given dimension, loading it if necessary, or null if the cache is
+     * not enabled for the feature type, the current user has restricted access to it, or the
+     * dimension values are neither dates nor numbers
+     */
+    public DimensionDomain getDomain(FeatureTypeInfo typeInfo, DimensionInfo dimension)
+            throws IOException {
+        if (!isEnabled(typeInfo) || typeInfo instanceof SecuredFeatureTypeInfo) {
+            // the domains are shared among users, the ones whose access is secured might not be
+            // allowed to see all the values, let them compute the domain on their own
+            return null;
+        }
+        String key = getKey(typeInfo, dimension);
+        long generation = getGeneration(typeInfo.getId()).get();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.generation != generation) {
+            // loaded before a change, or while it was happening
+            entries.remove(key, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            try {
+                // the load happens under the map bin lock, concurrent requests for the same domain
+                // will wait for it instead of scanning the data again
+                entry = entries.computeIfAbsent(key, k -> {
+                    try {
+                        return load(typeInfo, dimension, generation);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        return entry.domain;
+    }
+
+    /**
+     * Returns true if the domains of the given feature type can be cached
+     */
+    public static boolean isEnabled(FeatureTypeInfo typeInfo) {
+        Boolean enabled = typeInfo.getMetadata().get(ENABLED_KEY, Boolean.class);
+        return Boolean.TRUE.equals(enabled);
+    }
+
+    Entry load(FeatureTypeInfo typeInfo, DimensionInfo dimension, long generation)
+            throws IOException {
+        FeatureSource source = typeInfo.getFeatureSource(null, GeoTools.getDefaultHints());
+        Query query = new Query(source.getSchema().getName().getLocalPart());
+        query.setPropertyNames(Arrays.asList(dimension.getAttribute()));
+        UniqueVisitor visitor = new UniqueVisitor(dimension.getAttribute());
+        source.getFeatures(query).accepts(visitor, null);
+
+        DimensionDomain domain;
+        try {
+            domain = DimensionDomain.build(visitor.getUnique());
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.FINE, "Cannot cache the domain of " + typeInfo.prefixedName() + "/"
+                    + dimension.getAttribute(), e);
+            domain = null;
+        }
+        QName typeName = new QName(typeInfo.getNamespace().getURI(), typeInfo.getName());
+        return new Entry(typeInfo.getId(), typeInfo.getStore().getId(), typeName,
+                dimension.getAttribute(), domain, generation);
+    }
+
+    String getKey(FeatureTypeInfo typeInfo, DimensionInfo dimension) {
+        return typeInfo.getId() + "/" + dimension.getAttribute();
+    }
+
+    private AtomicLong getGeneration(String typeId) {
+        return generations.computeIfAbsent(typeId, id -> new AtomicLong());
+    }
+
+    /**
+     * Drops all the cached domains
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    // ----------------------------------------------------------------------------------------
+    // WFS-T handling
+    // ----------------------------------------------------------------------------------------
+
+    @Override
+    public TransactionRequest beforeTransaction(TransactionRequest request) throws WFSException {
+        pending.set(new PendingChanges());
+        return request;
+    }
+
+    @Override
+    public void beforeCommit(TransactionRequest request) throws WFSException {
+        // nothing to do
+    }
+
+    @Override
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        QName layerName = event.getLayerName();
+        if (layerName == null) {
+            return;
+        }
+        Set<String> typeIds = getTypeIds(layerName);
+        PendingChanges changes = pending.get();
+        if (changes == null) {
+            // not inside a transaction we know about, play it safe
+            typeIds.forEach(this::invalidateType);
+            return;
+        }
+        for (String typeId : typeIds) {
+            if (changes.types.add(typeId)) {
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    if (e.getValue().typeId.equals(typeId)) {
+                        changes.tracked.put(e.getKey(), e.getValue());
+                    }
+                }
+            }
+        }
+        // the inserted values are merged only if we know for sure which type they went into
+        boolean merge = event.getType() == TransactionEventType.POST_INSERT
+                && typeIds.size() == 1;
+        for (Map.Entry<String, Entry> e : changes.tracked.entrySet()) {
+            Entry entry = e.getValue();
+            if (!typeIds.contains(entry.typeId)
+                    || event.getType() == TransactionEventType.PRE_INSERT) {
+                // the inserted values are collected after the insert, as stored
+                continue;
+            }
+            if (merge) {
+                List<Object> values = changes.inserted.computeIfAbsent(e.getKey(),
+                        k -> new ArrayList<>());
+                try (SimpleFeatureIterator it = event.getAffectedFeatures().features()) {
+                    while (it.hasNext()) {
+                        SimpleFeature feature = it.next();
+                        values.add(feature.getAttribute(entry.attribute));
+                    }
+                }
+            } else {
+                changes.invalidated.add(e.getKey());
+            }
+        }
+    }
+
+    /**
+     * Returns the ids of the feature types the transaction event refers to, resolving its name
+     * through the catalog. When the name is not qualified all the types sharing the same local
+     * name are returned, as they cannot be told apart
+     */
+    Set<String> getTypeIds(QName layerName) {
+        Set<String> ids = new HashSet<>();
+        String localName = layerName.getLocalPart();
+        String ns = layerName.getNamespaceURI();
+        boolean qualified = ns != null && !ns.isEmpty();
+        if (catalog != null) {
+            if (qualified) {
+                FeatureTypeInfo typeInfo = catalog.getFeatureTypeByName(ns, localName);
+                if (typeInfo != null) {
+                    ids.add(typeInfo.getId());
+                }
+            } else {
+                try (CloseableIterator<FeatureTypeInfo> it = catalog.list(FeatureTypeInfo.class,
+                        Predicates.equal("name", localName))) {
+                    while (it.hasNext()) {
+                        ids.add(it.next().getId());
+                    }
+                }
+            }
+        }
+        // the cached domains know their name too, in case the catalog cannot tell
+        for (Entry entry : entries.values()) {
+            if (entry.typeName.getLocalPart().equals(localName)
+                    && (!qualified || ns.equals(entry.typeName.getNamespaceURI()))) {
+                ids.add(entry.typeId);
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public void afterTransaction(TransactionRequest request, TransactionResponse result,
+            boolean committed) {
+        PendingChanges changes = pending.get();
+        pending.remove();
+        if (changes == null || !committed) {
+            // domains loaded during a rolled back transaction only saw the committed data
+            return;
+        }
+        for (String typeId : changes.types) {
+            // domains loaded up to this point might or might not have seen the changes, only the
+            // ones tracked since the first change can be updated, the others will be reloaded
+            long previous = getGeneration(typeId).getAndIncrement();
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                if (!e.getValue().typeId.equals(typeId)) {
+                    continue;
+                }
+                entries.computeIfPresent(e.getKey(), (key, entry) -> {
+                    Entry tracked = changes.tracked.get(key);
+                    if (tracked == null || tracked.generation != previous
+                            || entry.generation != previous
+                            || changes.invalidated.contains(key)) {
+                        return null;
+                    }
+                    List<Object> values = changes.inserted.get(key);
+                    if (entry.domain == null || values == null) {
+                        return entry.withDomain(entry.domain, previous + 1);
+                    }
+                    try {
+                        return entry.withDomain(entry.domain.merge(values), previous + 1);
+                    } catch (IllegalArgumentException ex) {
+                        // reload on next use
+                        return null;
+                    }
+                });
+            }
+        }
+    }
+
+    // ----------------------------------------------------------------------------------------
+    // Catalog and lifecycle handling
+    // ----------------------------------------------------------------------------------------
+
+    void invalidate(CatalogInfo info) {
+        if (info instanceof FeatureTypeInfo) {
+            invalidateType(info.getId());
+        } else if (info instanceof DataStoreInfo) {
+            String id = info.getId();
+            Set<String> typeIds = new HashSet<>();
+            if (catalog != null) {
+                // including the types whose domains are being loaded
+                for (FeatureTypeInfo typeInfo : catalog
+                        .getFeatureTypesByDataStore((DataStoreInfo) info)) {
+                    typeIds.add(typeInfo.getId());
+                }
+            }
+            for (Entry entry : entries.values()) {
+                if (entry.storeId.equals(id)) {
+                    typeIds.add(entry.typeId);
+                }
+            }
+            typeIds.forEach(this::invalidateType);
+        }
+    }
+
+    /**
+     * Drops the domains of the given feature type, including the ones being loaded
+     */
+    void invalidateType(String typeId) {
+        getGeneration(typeId).incrementAndGet();
+        entries.values().removeIf(e -> e.typeId.equals(typeId));
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) {
+        // nothing to do
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        invalidate(event.getSource());
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) {
+        // wait for the post modify
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        invalidate(event.getSource());
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+
+    @Override
+    public void onReset() {
+        // data might have changed in the meantime
+        clear();
+    }
+
+    @Override
+    public void onDispose() {
+        clear();
+    }
+
+    @Override
+    public void beforeReload() {
+        // nothing to do
+    }
+
+    @Override
+    public void onReload() {
+        clear();
+    }
+}
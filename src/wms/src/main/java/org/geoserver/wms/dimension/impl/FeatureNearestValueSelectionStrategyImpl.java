@@ -6,6 +6,7 @@
 package org.geoserver.wms.dimension.impl;
 
 import java.io.IOException;
+import java.util.Date;
 import java.util.List;
 
 import org.geoserver.catalog.AttributeTypeInfo;
@@ -13,6 +14,7 @@ import org.geoserver.catalog.DimensionInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.wms.dimension.AbstractFeatureAttributeVisitorSelectionStrategy;
+import org.geoserver.wms.dimension.DimensionDomain;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.visitor.CalcResult;
 import org.geotools.feature.visitor.FeatureCalc;
@@ -67,6 +69,16 @@ public class FeatureNearestValueSelectionStrategyImpl extends
             }                       
         }
 
+        if (toMatch instanceof Date || toMatch instanceof Number) {
+            DimensionDomain domain = getCachedDomain((FeatureTypeInfo) resource, dimension);
+            if (domain != null) {
+                double reference = toMatch instanceof Date ? ((Date) toMatch).getTime()
+                        : ((Number) toMatch).doubleValue();
+                return domain.isEmpty() ? null
+                        : toDomainValue(domain.getNearest(reference), clz);
+            }
+        }
+
         final FeatureCalc nearest = new NearestVisitor(ff.property(dimension.getAttribute()),
                 this.toMatch);
         
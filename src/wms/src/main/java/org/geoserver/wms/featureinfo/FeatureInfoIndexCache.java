@@ -0,0 +1,551 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.featureinfo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.Predicates;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.security.decorators.DecoratingFeatureSource;
+import org.geoserver.security.decorators.SecuredLayerInfo;
+import org.geoserver.wfs.TransactionCallback;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionListener;
+import org.geoserver.wfs.WFSException;
+import org.geoserver.wfs.request.TransactionRequest;
+import org.geoserver.wfs.request.TransactionResponse;
+import org.geoserver.wms.MapLayerInfo;
+import org.geoserver.wms.WMS;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.factory.GeoTools;
+import org.geotools.filter.visitor.ExtractBoundsFilterVisitor;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * Keeps an in memory, spatially indexed snapshot of small to medium sized layers, so that
+ * GetFeatureInfo hit testing and the dynamic buffer estimation do not have to hit a slow store
+ * for every click.
+ * <p>
+ * A snapshot is built the first time a layer is identified, and dropped when a WFS-T touches the
+ * layer, or when the layer, its feature type or its store are modified. Snapshots are stamped with
+ * a per type generation, increased by each of these changes and once more at the end of the
+ * transaction, so that a snapshot loaded while the data was changing is discarded instead of being
+ * kept around. Dropped snapshots are rebuilt at the next request. Layers with more than
+ * {@link WMS#getFeatureInfoIndexMaxFeatures()} or {@link WMS#getFeatureInfoIndexMaxCachedFeatures()}
+ * features are not indexed, an empty marker is cached instead so that they are queried straight
+ * from the store, and the least recently used snapshots are evicted once
+ * {@link WMS#getFeatureInfoIndexMaxCachedFeatures()} features are kept in memory overall.
+ * </p>
+ * <p>
+ * The cache is used only for the feature types having the {@link #ENABLED_KEY} metadata set to
+ * true, that is, the ones whose data is modified only through GeoServer, and only for users that
+ * are not subject to data access limits.
+ * </p>
+ */
+public class FeatureInfoIndexCache implements TransactionListener, TransactionCallback,
+        CatalogListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(FeatureInfoIndexCache.class);
+
+    /**
+     * The feature type metadata key enabling the in memory index. It's off by default, as changes
+     * made to the data bypassing GeoServer cannot be noticed
+     */
+    public static final String ENABLED_KEY = "featureInfoIndex";
+
+    /**
+     * The in memory copy of a layer. The index is null if the layer is too large to be indexed.
+     */
+    static class Snapshot {
+        final String typeId;
+
+        final String storeId;
+
+        final QName typeName;
+
+        final long generation;
+
+        final SimpleFeatureType schema;
+
+        final STRtree index;
+
+        /** All the features, including the ones without a geometry, in store order */
+        final List<IndexedFeature> all;
+
+        final int size;
+
+        volatile long lastAccess;
+
+        Snapshot(FeatureTypeInfo typeInfo, long generation, SimpleFeatureType schema,
+                STRtree index, List<IndexedFeature> all) {
+            this.typeId = typeInfo.getId();
+            this.storeId = typeInfo.getStore().getId();
+            this.typeName = new QName(typeInfo.getNamespace().getURI(), typeInfo.getName());
+            this.generation = generation;
+            this.schema = schema;
+            this.index = index;
+            this.all = all;
+            this.size = all.size();
+            this.lastAccess = System.currentTimeMillis();
+        }
+
+        /**
+         * Returns the features whose bounds intersect the given envelope, or all of them if the
+         * envelope is null, in the same order the store returned them
+         */
+        @SuppressWarnings("unchecked")
+        List<SimpleFeature> query(Envelope envelope) {
+            List<IndexedFeature> hits = envelope == null ? all : index.query(envelope);
+            List<SimpleFeature> result = new ArrayList<>(hits.size());
+            if (envelope != null) {
+                hits.sort(Comparator.comparingInt(f -> f.position));
+            }
+            for (IndexedFeature hit : hits) {
+                result.add(hit.feature);
+            }
+            return result;
+        }
+    }
+
+    static class IndexedFeature {
+        final int position;
+
+        final SimpleFeature feature;
+
+        IndexedFeature(int position, SimpleFeature feature) {
+            this.position = position;
+            this.feature = feature;
+        }
+    }
+
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<Set<String>> pending = new ThreadLocal<>();
+
+    private final Catalog catalog;
+
+    private final WMS wms;
+
+    private final int maxFeatures;
+
+    private final int maxCachedFeatures;
+
+    public FeatureInfoIndexCache(Catalog catalog, WMS wms) {
+        this.catalog = catalog;
+        this.wms = wms;
+        this.maxFeatures = 0;
+        this.maxCachedFeatures = 0;
+        catalog.addListener(this);
+    }
+
+    /**
+     * For testing only
+     */
+    FeatureInfoIndexCache(int maxFeatures, int maxCachedFeatures) {
+        this.catalog = null;
+        this.wms = null;
+        this.maxFeatures = maxFeatures;
+        this.maxCachedFeatures = maxCachedFeatures;
+    }
+
+    int getMaxFeatures() {
+        return wms != null ? wms.getFeatureInfoIndexMaxFeatures() : maxFeatures;
+    }
+
+    int getMaxCachedFeatures() {
+        return wms != null ? wms.getFeatureInfoIndexMaxCachedFeatures() : maxCachedFeatures;
+    }
+
+    /**
+     * Returns true if the layer can be served out of an in memory snapshot
+     */
+    public static boolean isEnabled(MapLayerInfo layer) {
+        LayerInfo layerInfo = layer.getLayerInfo();
+        if (layer.getType() != MapLayerInfo.TYPE_VECTOR || layerInfo == null) {
+            return false;
+        }
+        // the snapshot is not filtered, cannot be used if the user has data access limits
+        if (layerInfo instanceof SecuredLayerInfo
+                && ((SecuredLayerInfo) layerInfo).getWrapperPolicy().getLimits() != null) {
+            return false;
+        }
+        FeatureTypeInfo typeInfo = layer.getFeature();
+        Boolean enabled = typeInfo.getMetadata().get(ENABLED_KEY, Boolean.class);
+        return Boolean.TRUE.equals(enabled);
+    }
+
+    /**
+     * Wraps the given layer feature source so that the queries are answered out of the in memory
+     * snapshot, or returns the source as is if the layer cannot be indexed
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public FeatureSource getFeatureSource(MapLayerInfo layer, FeatureSource source)
+            throws IOException {
+        if (!isEnabled(layer) || !(source.getSchema() instanceof SimpleFeatureType)) {
+            return source;
+        }
+        Snapshot snapshot = getSnapshot(layer.getFeature());
+        if (snapshot == null || snapshot.index == null) {
+            return source;
+        }
+        return new SnapshotFeatureSource(source, snapshot);
+    }
+
+    Snapshot getSnapshot(FeatureTypeInfo typeInfo) throws IOException {
+        String key = typeInfo.getId();
+        AtomicLong generation = getGeneration(key);
+        long current = generation.get();
+        Snapshot snapshot = snapshots.get(key);
+        if (snapshot != null && snapshot.generation != current) {
+            // loaded before a change, or while it was happening
+            snapshots.remove(key, snapshot);
+            snapshot = null;
+        }
+        if (snapshot == null) {
+            try {
+                // concurrent requests for the same layer wait for the load to complete
+                snapshot = snapshots.computeIfAbsent(key, k -> {
+                    try {
+                        return load(typeInfo, current);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (generation.get() != snapshot.generation) {
+                // the layer got changed during the load, serve this request but don't keep it
+                snapshots.remove(key, snapshot);
+            }
+            evict();
+        }
+        snapshot.lastAccess = System.currentTimeMillis();
+        return snapshot;
+    }
+
+    Snapshot load(FeatureTypeInfo typeInfo, long generation) throws IOException {
+        FeatureSource source = typeInfo.getFeatureSource(null, GeoTools.getDefaultHints());
+        SimpleFeatureType schema = (SimpleFeatureType) source.getSchema();
+        // a snapshot larger than the whole cache would be evicted right away, and reloaded at
+        // every request
+        int max = getMaxFeatures();
+        int maxCached = getMaxCachedFeatures();
+        if (maxCached > 0 && (max <= 0 || maxCached < max)) {
+            max = maxCached;
+        }
+        STRtree index = new STRtree();
+        List<IndexedFeature> all = new ArrayList<>();
+        int count = 0;
+        SimpleFeatureCollection features = (SimpleFeatureCollection) source.getFeatures(Query.ALL);
+        try (SimpleFeatureIterator it = features.features()) {
+            while (it.hasNext()) {
+                if (max > 0 && count >= max) {
+                    LOGGER.log(Level.FINE, "Layer " + typeInfo.prefixedName()
+                            + " has too many features to be indexed for GetFeatureInfo");
+                    return new Snapshot(typeInfo, generation, schema, null,
+                            Collections.emptyList());
+                }
+                IndexedFeature indexed = new IndexedFeature(count++, it.next());
+                all.add(indexed);
+                Geometry geometry = (Geometry) indexed.feature.getDefaultGeometry();
+                if (geometry != null) {
+                    index.insert(geometry.getEnvelopeInternal(), indexed);
+                }
+            }
+        }
+        index.build();
+        return new Snapshot(typeInfo, generation, schema, index, all);
+    }
+
+    /**
+     * Drops the least recently used snapshots until the total number of cached features fits
+     * the configured limit
+     */
+    void evict() {
+        int maxCached = getMaxCachedFeatures();
+        if (maxCached <= 0) {
+            return;
+        }
+        synchronized (this) {
+            long total = 0;
+            for (Snapshot s : snapshots.values()) {
+                total += s.size;
+            }
+            while (total > maxCached && !snapshots.isEmpty()) {
+                // the too large markers hold no features, dropping them would only cause a reload
+                Snapshot oldest = null;
+                for (Snapshot s : snapshots.values()) {
+                    if (s.size > 0 && (oldest == null || s.lastAccess < oldest.lastAccess)) {
+                        oldest = s;
+                    }
+                }
+                snapshots.remove(oldest.typeId);
+                total -= oldest.size;
+            }
+        }
+    }
+
+    private AtomicLong getGeneration(String typeId) {
+        return generations.computeIfAbsent(typeId, id -> new AtomicLong());
+    }
+
+    /**
+     * Drops all the snapshots
+     */
+    public void clear() {
+        for (AtomicLong generation : generations.values()) {
+            generation.incrementAndGet();
+        }
+        snapshots.clear();
+    }
+
+    int size() {
+        return snapshots.size();
+    }
+
+    // ----------------------------------------------------------------------------------------
+    // WFS-T handling
+    // ----------------------------------------------------------------------------------------
+
+    @Override
+    public TransactionRequest beforeTransaction(TransactionRequest request) throws WFSException {
+        pending.set(new HashSet<>());
+        return request;
+    }
+
+    @Override
+    public void beforeCommit(TransactionRequest request) throws WFSException {
+        // nothing to do
+    }
+
+    @Override
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        QName layerName = event.getLayerName();
+        if (layerName == null) {
+            return;
+        }
+        // drop right away, and once more after the transaction, a snapshot might have been
+        // loaded in the meantime, before the changes got committed
+        Set<String> typeIds = getTypeIds(layerName);
+        typeIds.forEach(this::invalidateType);
+        Set<String> ids = pending.get();
+        if (ids != null) {
+            ids.addAll(typeIds);
+        }
+    }
+
+    @Override
+    public void afterTransaction(TransactionRequest request, TransactionResponse result,
+            boolean committed) {
+        Set<String> ids = pending.get();
+        pending.remove();
+        if (ids != null) {
+            ids.forEach(this::invalidateType);
+        }
+    }
+
+    /**
+     * Returns the ids of the feature types matching the transaction layer name, whose namespace
+     * might be missing in the request
+     */
+    Set<String> getTypeIds(QName layerName) {
+        Set<String> ids = new HashSet<>();
+        String localName = layerName.getLocalPart();
+        String ns = layerName.getNamespaceURI();
+        boolean qualified = ns != null && !ns.isEmpty();
+        if (catalog != null) {
+            if (qualified) {
+                FeatureTypeInfo typeInfo = catalog.getFeatureTypeByName(ns, localName);
+                if (typeInfo != null) {
+                    ids.add(typeInfo.getId());
+                }
+            } else {
+                try (CloseableIterator<FeatureTypeInfo> it = catalog.list(FeatureTypeInfo.class,
+                        Predicates.equal("name", localName))) {
+                    while (it.hasNext()) {
+                        ids.add(it.next().getId());
+                    }
+                }
+            }
+        }
+        // the snapshots know their name too, in case the catalog cannot tell
+        for (Snapshot snapshot : snapshots.values()) {
+            if (snapshot.typeName.getLocalPart().equals(localName)
+                    && (!qualified || ns.equals(snapshot.typeName.getNamespaceURI()))) {
+                ids.add(snapshot.typeId);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Drops the snapshot of the given feature type, along with any load in progress
+     */
+    void invalidateType(String typeId) {
+        getGeneration(typeId).incrementAndGet();
+        // does not wait for a load in progress, the generation takes care of it
+        snapshots.values().removeIf(s -> s.typeId.equals(typeId));
+    }
+
+    // ----------------------------------------------------------------------------------------
+    // Catalog and lifecycle handling
+    // ----------------------------------------------------------------------------------------
+
+    void invalidate(CatalogInfo info) {
+        if (info instanceof FeatureTypeInfo) {
+            invalidateType(info.getId());
+        } else if (info instanceof LayerInfo && ((LayerInfo) info).getResource() != null) {
+            invalidate(((LayerInfo) info).getResource());
+        } else if (info instanceof DataStoreInfo) {
+            String id = info.getId();
+            Set<String> typeIds = new HashSet<>();
+            if (catalog != null) {
+                for (FeatureTypeInfo typeInfo : catalog
+                        .getFeatureTypesByDataStore((DataStoreInfo) info)) {
+                    typeIds.add(typeInfo.getId());
+                }
+            }
+            for (Snapshot snapshot : snapshots.values()) {
+                if (snapshot.storeId.equals(id)) {
+                    typeIds.add(snapshot.typeId);
+                }
+            }
+            typeIds.forEach(this::invalidateType);
+        }
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) {
+        // nothing to do
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        invalidate(event.getSource());
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) {
+        // wait for the post modify
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        invalidate(event.getSource());
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+
+    @Override
+    public void onReset() {
+        // data might have changed in the meantime
+        clear();
+    }
+
+    @Override
+    public void onDispose() {
+        clear();
+    }
+
+    @Override
+    public void beforeReload() {
+        // nothing to do
+    }
+
+    @Override
+    public void onReload() {
+        clear();
+    }
+
+    /**
+     * Answers the queries out of the snapshot, while leaving the schema, bounds and capabilities to
+     * the original source
+     */
+    static class SnapshotFeatureSource
+            extends DecoratingFeatureSource<SimpleFeatureType, SimpleFeature> {
+
+        private final Snapshot snapshot;
+
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        SnapshotFeatureSource(FeatureSource delegate, Snapshot snapshot) {
+            super(delegate);
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public SimpleFeatureCollection getFeatures() throws IOException {
+            return getFeatures(Query.ALL);
+        }
+
+        @Override
+        public SimpleFeatureCollection getFeatures(Filter filter) throws IOException {
+            return getFeatures(new Query(snapshot.schema.getTypeName(), filter));
+        }
+
+        @Override
+        public SimpleFeatureCollection getFeatures(Query query) throws IOException {
+            Filter filter = query.getFilter() == null ? Filter.INCLUDE : query.getFilter();
+            Envelope bounds = (Envelope) filter.accept(ExtractBoundsFilterVisitor.BOUNDS_VISITOR,
+                    null);
+            List<SimpleFeature> candidates = snapshot.query(isInfinite(bounds) ? null : bounds);
+
+            // let the collection source handle filtering, sorting, paging and retyping
+            ListFeatureCollection collection = new ListFeatureCollection(snapshot.schema,
+                    candidates);
+            Query local = new Query(query);
+            local.setTypeName(snapshot.schema.getTypeName());
+            local.setHints(null);
+            return DataUtilities.source(collection).getFeatures(local);
+        }
+
+        private boolean isInfinite(Envelope bounds) {
+            return bounds == null || Double.isInfinite(bounds.getWidth())
+                    || Double.isInfinite(bounds.getHeight());
+        }
+    }
+}
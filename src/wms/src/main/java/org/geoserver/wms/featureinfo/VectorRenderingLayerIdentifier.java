@@ -102,6 +102,7 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
     
     private WMS wms;
     private VectorBasicLayerIdentifier fallback;
+    private FeatureInfoIndexCache indexCache;
     private static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
     
     static {
@@ -113,8 +114,14 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
     }
 
     public VectorRenderingLayerIdentifier(WMS wms, VectorBasicLayerIdentifier fallback) {
+        this(wms, fallback, null);
+    }
+
+    public VectorRenderingLayerIdentifier(WMS wms, VectorBasicLayerIdentifier fallback,
+            FeatureInfoIndexCache indexCache) {
         this.wms = wms;
         this.fallback = fallback;
+        this.indexCache = indexCache;
     }
     
     @Override
@@ -350,17 +357,22 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
         GetMapRequest getMap = params.getGetMapRequest();
         FeatureSource<? extends FeatureType, ? extends Feature> featureSource = layer
                 .getFeatureSource(true);
+        final Integer startIndex = getMap.getStartIndex();
+        Map<String, String> viewParams = params.getViewParams();
+        if (indexCache != null && viewParams == null && startIndex == null
+                && getMap.getFeatureVersion() == null) {
+            // serve the hit testing (and the dynamic buffer estimation) out of memory, if possible
+            featureSource = indexCache.getFeatureSource(layer, featureSource);
+        }
         final Query definitionQuery = new Query(featureSource.getSchema().getName().getLocalPart());
         definitionQuery.setVersion(getMap.getFeatureVersion());
         definitionQuery.setFilter(filter);
         definitionQuery.setSortBy(params.getSort());
-        Map<String, String> viewParams = params.getViewParams();
         if (viewParams != null) {
             definitionQuery.setHints(new Hints(Hints.VIRTUAL_TABLE_PARAMETERS, viewParams));
         }
 
         // check for startIndex + offset
-        final Integer startIndex = getMap.getStartIndex();
         if (startIndex != null) {
             QueryCapabilities queryCapabilities = featureSource.getQueryCapabilities();
             if (queryCapabilities.isOffsetSupported()) {
@@ -0,0 +1,43 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.legendgraphic;
+
+/**
+ * A legend graphic that has already been encoded in the requested output format, as stored in the
+ * {@link LegendGraphicCache}
+ */
+public class EncodedLegendGraphic {
+
+    private final byte[] bytes;
+
+    private final String mimeType;
+
+    private final int maxAge;
+
+    public EncodedLegendGraphic(byte[] bytes, String mimeType, int maxAge) {
+        this.bytes = bytes;
+        this.mimeType = mimeType;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * The encoded legend, callers should not modify it
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * The max age clients are allowed to cache the legend for, in seconds, or zero if no caching
+     * headers should be sent
+     */
+    public int getMaxAge() {
+        return maxAge;
+    }
+}
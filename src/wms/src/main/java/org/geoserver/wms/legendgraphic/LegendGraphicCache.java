@@ -0,0 +1,329 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.legendgraphic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.Response;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.GetLegendGraphicRequest;
+import org.geoserver.wms.GetLegendGraphicRequest.LegendRequest;
+import org.geoserver.wms.WMS;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.geotools.styling.Symbolizer;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Caches encoded legend graphics, so that the many GetLegendGraphic requests fired by web clients
+ * on each page load do not have to paint the sample shapes and labels over and over.
+ * <p>
+ * Legends are keyed by layer, style, rule, legend options, size, format and language. The scale
+ * denominator takes part in the key only as the set of rules active at that scale, unless the
+ * style uses real world units, so that all the scales showing the same rules share the same
+ * entry. Requests whose legends depend on anything else than the configuration (inline or
+ * remote SLDs, environment variables, feature counts) are not cached. A group legend request is
+ * cached as a single entry, keyed by all of its layers.
+ * </p>
+ * <p>
+ * Since legends depend on styles, layers, resources and stores alike, any catalog change clears
+ * the whole cache. The cache is bounded by {@link WMS#getLegendCacheMaxSize()}, the least
+ * recently used legends are evicted first.
+ * </p>
+ */
+public class LegendGraphicCache implements CatalogListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(LegendGraphicCache.class);
+
+    private final Map<String, EncodedLegendGraphic> legends = new LinkedHashMap<>(16, 0.75f,
+            true);
+
+    private long size;
+
+    private final WMS wms;
+
+    private final long maxSize;
+
+    private final int maxAge;
+
+    private final List<Response> responses;
+
+    public LegendGraphicCache(Catalog catalog, WMS wms) {
+        this.wms = wms;
+        this.maxSize = 0;
+        this.maxAge = 0;
+        this.responses = null;
+        catalog.addListener(this);
+    }
+
+    /**
+     * For testing only
+     */
+    LegendGraphicCache(long maxSize, int maxAge, List<Response> responses) {
+        this.wms = null;
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+        this.responses = responses;
+    }
+
+    long getMaxSize() {
+        return wms != null ? wms.getLegendCacheMaxSize() : maxSize;
+    }
+
+    int getMaxAge() {
+        return wms != null ? wms.getLegendCacheMaxAge() : maxAge;
+    }
+
+    /**
+     * Returns the encoded legend for the request, producing and encoding it if necessary. If the
+     * request cannot be cached, the legend produced by the supplier is returned as is.
+     */
+    public Object getLegend(GetLegendGraphicRequest request, Supplier<Object> producer) {
+        String key = getKey(request);
+        if (key == null) {
+            return producer.get();
+        }
+        synchronized (this) {
+            EncodedLegendGraphic cached = legends.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        // not holding the lock while painting, the same legend might get built twice under
+        // concurrent load, that's harmless
+        Object legend = producer.get();
+        EncodedLegendGraphic encoded = encode(legend, request);
+        if (encoded == null) {
+            return legend;
+        }
+        put(key, encoded);
+        return encoded;
+    }
+
+    synchronized void put(String key, EncodedLegendGraphic legend) {
+        long max = getMaxSize();
+        if (legend.getBytes().length > max) {
+            return;
+        }
+        EncodedLegendGraphic previous = legends.put(key, legend);
+        if (previous != null) {
+            size -= previous.getBytes().length;
+        }
+        size += legend.getBytes().length;
+        Iterator<EncodedLegendGraphic> it = legends.values().iterator();
+        while (size > max && it.hasNext()) {
+            size -= it.next().getBytes().length;
+            it.remove();
+        }
+    }
+
+    /**
+     * Encodes the legend using the same {@link Response} the dispatcher would pick for it, or
+     * returns null if none is found
+     */
+    EncodedLegendGraphic encode(Object legend, GetLegendGraphicRequest request) {
+        if (legend == null) {
+            return null;
+        }
+        Request dispatched = Dispatcher.REQUEST.get();
+        Operation operation = dispatched != null ? dispatched.getOperation() : null;
+        Response response = findResponse(legend, request.getFormat(), operation);
+        if (response == null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            response.write(legend, bos, operation);
+            return new EncodedLegendGraphic(bos.toByteArray(),
+                    response.getMimeType(legend, operation), getMaxAge());
+        } catch (IOException e) {
+            throw new ServiceException("Failed to encode the legend graphic", e);
+        }
+    }
+
+    Response findResponse(Object legend, String format, Operation operation) {
+        List<Response> candidates = responses != null ? responses
+                : GeoServerExtensions.extensions(Response.class);
+        for (Response response : candidates) {
+            if (!response.getBinding().isInstance(legend)
+                    || (operation != null && !response.canHandle(operation))) {
+                continue;
+            }
+            for (String of : response.getOutputFormats()) {
+                if (of.equalsIgnoreCase(format)) {
+                    return response;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Builds the cache key for the request, or returns null if the legend cannot be cached
+     */
+    String getKey(GetLegendGraphicRequest request) {
+        if (getMaxSize() <= 0 || request.getFormat() == null || request.getLegends().isEmpty()) {
+            return null;
+        }
+        Map<String, Object> kvp = request.getKvp();
+        if (kvp != null && (kvp.containsKey("SLD") || kvp.containsKey("SLD_BODY"))) {
+            return null;
+        }
+        if (request.getEnv() != null && !request.getEnv().isEmpty()) {
+            return null;
+        }
+        Map<String, Object> options = request.getLegendOptions();
+        if (Boolean.TRUE.equals(request.getLegendOption(
+                GetLegendGraphicRequest.COUNT_MATCHED_KEY, Boolean.class))) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(request.getFormat().toLowerCase()).append('|');
+        sb.append(request.getWidth()).append('x').append(request.getHeight()).append('|');
+        sb.append(request.isTransparent()).append('|').append(request.isStrict()).append('|');
+        Locale locale = request.getLocale();
+        sb.append(locale != null ? locale.toString() : "").append('|');
+        // sorted, for a stable key
+        sb.append(new TreeMap<>(options)).append('|');
+        for (LegendRequest legend : request.getLegends()) {
+            Style style = legend.getStyle();
+            if (style == null) {
+                return null;
+            }
+            sb.append('[').append(legend.getLayerName()).append('|');
+            sb.append(legend.getLayer()).append('|');
+            sb.append(legend.getStyleName()).append('|').append(style.getName()).append('|');
+            sb.append(legend.getRule()).append('|').append(legend.getTitle()).append('|');
+            appendScale(sb, style, legend.getRule(), request.getScale());
+            sb.append(']');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends the scale denominator band: the active rules, or the scale itself if the style
+     * symbols need to be rescaled
+     */
+    void appendScale(StringBuilder sb, Style style, String rule, double scale) {
+        if (scale <= 0) {
+            sb.append("all");
+            return;
+        }
+        if (usesUnitsOfMeasure(style)) {
+            sb.append(scale);
+            return;
+        }
+        if (rule != null) {
+            return;
+        }
+        int i = 0;
+        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+            for (Rule r : fts.rules()) {
+                if (LegendUtils.isWithInScale(r, scale)) {
+                    sb.append(i).append(',');
+                }
+                i++;
+            }
+        }
+    }
+
+    boolean usesUnitsOfMeasure(Style style) {
+        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+            for (Rule r : fts.rules()) {
+                for (Symbolizer s : r.symbolizers()) {
+                    if (s.getUnitOfMeasure() != null) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops all the cached legends
+     */
+    public synchronized void clear() {
+        legends.clear();
+        size = 0;
+    }
+
+    synchronized int size() {
+        return legends.size();
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) {
+        // a new layer or style cannot invalidate existing legends, unless it's replacing
+        // one that has been removed, and that already cleared the cache
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        clear();
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) {
+        // wait for the post modify
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Catalog change, clearing the legend cache");
+        }
+        clear();
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+
+    @Override
+    public void onReset() {
+        clear();
+    }
+
+    @Override
+    public void onDispose() {
+        clear();
+    }
+
+    @Override
+    public void beforeReload() {
+        // nothing to do
+    }
+
+    @Override
+    public void onReload() {
+        clear();
+    }
+}
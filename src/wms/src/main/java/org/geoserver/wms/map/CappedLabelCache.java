@@ -0,0 +1,110 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.geometry.jts.LiteShape2;
+import org.geotools.renderer.label.LabelCacheImpl;
+import org.geotools.renderer.label.LabelCacheItem;
+import org.geotools.styling.TextSymbolizer;
+import org.geotools.util.NumberRange;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.Feature;
+
+/**
+ * A {@link LabelCacheImpl} that bounds the work done resolving label conflicts on dense maps:
+ * <ul>
+ * <li>only the {@code maxCandidates} labels with the highest priority take part in the conflict
+ * resolution, the others are dropped</li>
+ * <li>the rendering deadline is checked every {@link #BATCH_SIZE} candidates, once it expires the
+ * cache stops accepting labels and skips the conflict resolution altogether, so that the
+ * {@link RenderingTimeoutEnforcer} does not have to wait for it to complete</li>
+ * </ul>
+ * A new instance is needed for each map being rendered.
+ */
+class CappedLabelCache extends LabelCacheImpl {
+
+    static final Logger LOGGER = Logging.getLogger(CappedLabelCache.class);
+
+    /**
+     * How many candidates are accepted between two checks of the rendering deadline
+     */
+    static final int BATCH_SIZE = 1000;
+
+    final int maxCandidates;
+
+    final long deadline;
+
+    int candidates;
+
+    volatile boolean cancelled;
+
+    /**
+     * @param maxCandidates max number of labels taking part in the conflict resolution, zero or
+     *        negative means no limit
+     * @param maxRenderingTime the max rendering time in milliseconds, zero or negative means no
+     *        limit
+     */
+    public CappedLabelCache(int maxCandidates, long maxRenderingTime) {
+        this.maxCandidates = maxCandidates;
+        this.deadline = maxRenderingTime > 0 ? System.currentTimeMillis() + maxRenderingTime
+                : Long.MAX_VALUE;
+    }
+
+    @Override
+    public void put(String layerId, TextSymbolizer symbolizer, Feature feature, LiteShape2 shape,
+            NumberRange<Double> scaleRange) {
+        if (cancelled) {
+            return;
+        }
+        candidates++;
+        if (candidates % BATCH_SIZE == 0 && isDeadlineExpired()) {
+            stop();
+            return;
+        }
+        super.put(layerId, symbolizer, feature, shape, scaleRange);
+    }
+
+    @Override
+    public List<LabelCacheItem> orderedLabels() {
+        List<LabelCacheItem> labels = super.orderedLabels();
+        if (maxCandidates > 0 && labels.size() > maxCandidates) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Dropping " + (labels.size() - maxCandidates)
+                        + " label candidates out of " + labels.size()
+                        + ", only the ones with the highest priority will be resolved");
+            }
+            // labels are sorted by decreasing priority
+            labels = new ArrayList<>(labels.subList(0, maxCandidates));
+        }
+        return labels;
+    }
+
+    @Override
+    public void end(Graphics2D graphics, Rectangle displayArea) {
+        if (cancelled || isDeadlineExpired()) {
+            stop();
+            return;
+        }
+        super.end(graphics, displayArea);
+    }
+
+    @Override
+    public void stop() {
+        cancelled = true;
+        super.stop();
+    }
+
+    boolean isDeadlineExpired() {
+        return System.currentTimeMillis() > deadline;
+    }
+
+}
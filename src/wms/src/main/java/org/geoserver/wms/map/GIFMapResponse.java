@@ -11,9 +11,7 @@ import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -113,6 +111,13 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
 
     /**
      * Transforms the rendered image into the appropriate format, streaming to the output stream.
+     * <p>
+     * Animation frames can be rendered while the GIF is being written, see
+     * {@link org.geoserver.wms.animate.StreamingFrameList}: only the first one is known to be
+     * valid upfront, a failure or timeout rendering one of the others happens after the response
+     * headers and part of the GIF have been sent, so the client gets a truncated animation
+     * instead of a service exception. The failure is logged, and the exception is propagated.
+     * </p>
      * 
      * @param image The image to be formatted.
      * @param outStream The stream to write to.
@@ -178,7 +183,6 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
         param.setCompressionQuality(0.75f);
 
         ImageOutputStream otStream = null;
-        List<RenderedImage> images = new ArrayList<RenderedImage>();
         try {
             otStream = ImageIO.createImageOutputStream(outStream);
             gifWriter.setOutput(otStream);
@@ -223,7 +227,15 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
                 if (LOGGER.isLoggable(Level.FINE))
                     LOGGER.fine("Writing image " + i);
                 // get the image
-                RenderedImage ri = (RenderedImage) ril.get(i);
+                RenderedImage ri;
+                try {
+                    ri = (RenderedImage) ril.get(i);
+                } catch (ServiceException e) {
+                    // part of the animation is already out, the client won't get the exception
+                    LOGGER.log(Level.WARNING, "Failed to render frame " + i + " of " + numfiles
+                            + ", the animated GIF sent to the client is truncated", e);
+                    throw e;
+                }
                 // convert it to gif compatible
                 ri = applyPalette(ri, mapContent, MIME_TYPE, false);
                 if (ri != null) {
@@ -232,9 +244,9 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
                     	new ImageTypeSpecifier(ri), param);
                     prepareMetadata(ri, imageMetadata, loopContinuosly, delay, disposalMethod);
 
-                    // write
+                    // write, and let go of the frame right away, animations can be long
                     gifWriter.writeToSequence(new IIOImage(ri, null, imageMetadata), param);
-                    images.add(ri);
+                    disposeFrame(ri);
                 }
             }
 
@@ -262,20 +274,23 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
                 // swallow
             }
 
-            // let go of the image chain as soon as possible to free memory
-            for (RenderedImage image : images) {
-                if (image instanceof PlanarImage) {
-                    ImageUtilities.disposePlanarImageChain((PlanarImage) image);
-                } else if (image instanceof BufferedImage) {
-                    ((BufferedImage) image).flush();
-                }
-            }
         }
 
         if (LOGGER.isLoggable(Level.FINE))
             LOGGER.fine("Done writing animated gif");
     }
 
+    /**
+     * Lets go of the image chain as soon as possible to free memory
+     */
+    private void disposeFrame(RenderedImage image) {
+        if (image instanceof PlanarImage) {
+            ImageUtilities.disposePlanarImageChain((PlanarImage) image);
+        } else if (image instanceof BufferedImage) {
+            ((BufferedImage) image).flush();
+        }
+    }
+
     public String getContentDisposition() {
         // can be null
         return null;
@@ -489,6 +489,10 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
             } catch (Exception e) {
                 throw new ServiceException(e);
             }
+        } else if (wms.getMaxLabelCandidates() > 0) {
+            // bounded, interruptible label conflict resolution
+            rendererParams.put(StreamingRenderer.LABEL_CACHE_KEY, new CappedLabelCache(
+                    wms.getMaxLabelCandidates(), wms.getMaxRenderingTime(request)));
         }
 
         boolean kmplacemark = false;
@@ -557,7 +561,7 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         final RenderExceptionStrategy nonIgnorableExceptionListener;
         nonIgnorableExceptionListener = new RenderExceptionStrategy(renderer);
         renderer.addRenderListener(nonIgnorableExceptionListener);
-        
+
         onBeforeRender(renderer);
         
         int maxRenderingTime = wms.getMaxRenderingTime(request);
@@ -4,7 +4,9 @@
  */
 package org.geoserver.wms.utfgrid;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.opengis.feature.Feature;
@@ -45,6 +47,9 @@ class UTFGridEntries {
 
     Map<String, UTFGridEntry> entryMap = new HashMap<>();
 
+    /** The entries in value order, the entry with value <code>n</code> is at <code>n - 1</code> */
+    List<UTFGridEntry> entries = new ArrayList<>();
+
     int value = 1;
 
     int getKeyForFeature(Feature feature) {
@@ -53,17 +58,19 @@ class UTFGridEntries {
         if (entry == null) {
             entry = new UTFGridEntry(value++, feature);
             entryMap.put(id, entry);
+            entries.add(entry);
         }
         return entry.getValue();
     }
 
-    Map<Integer, UTFGridEntry> getEntryMap() {
-        Map<Integer, UTFGridEntry> result = new HashMap<>();
-        for (UTFGridEntry entry : entryMap.values()) {
-            result.put(entry.getValue(), entry);
+    /**
+     * Returns the entry associated to the given value, or null if not found
+     */
+    UTFGridEntry getEntry(int value) {
+        if (value < 1 || value > entries.size()) {
+            return null;
         }
-
-        return result;
+        return entries.get(value - 1);
     }
 
 }
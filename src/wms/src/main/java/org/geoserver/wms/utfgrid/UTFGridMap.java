@@ -5,14 +5,20 @@
 package org.geoserver.wms.utfgrid;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import org.geoserver.wms.map.RawMap;
 import org.geoserver.wms.utfgrid.UTFGridEntries.UTFGridEntry;
@@ -40,7 +46,9 @@ public class UTFGridMap extends RawMap {
     public void writeTo(java.io.OutputStream out) throws java.io.IOException {
         UTFGridEntries entries = getEntries();
 
-        PrintWriter pw = new PrintWriter(out);
+        // the grid characters go beyond the ASCII range quickly, JSON requires UTF-8
+        PrintWriter pw = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(out, StandardCharsets.UTF_8)));
         pw.println("{");
         pw.println("\"grid\": [");
         List<UTFGridEntry> encodedEntries = writeGrid(pw, image, entries);
@@ -116,7 +124,8 @@ public class UTFGridMap extends RawMap {
 
     /**
      * Writes the grid, and maps the original values into a compact sequence of keys (the original values might be sparse due to features being fully
-     * overwritten by other features)
+     * overwritten by other features). The pixels are read straight out of the image int buffer
+     * when possible, and each row is written out in one shot.
      * 
      * @param pw
      * @param image
@@ -125,23 +134,30 @@ public class UTFGridMap extends RawMap {
      */
     private List<UTFGridEntry> writeGrid(PrintWriter pw, RenderedImage image,
             UTFGridEntries entries) {
-        Map<Integer, UTFGridEntry> keyToFeature = entries.getEntryMap();
         List<UTFGridEntry> result = new ArrayList<UTFGridEntry>();
 
         int key = 1;
         Raster data = getData(image);
         int width = data.getWidth();
-        int[] pixels = new int[width];
         int height = data.getHeight();
+        int[] buffer = getPixelBuffer(data);
+        int[] pixels = buffer != null ? buffer : new int[width];
+        char[] row = new char[width + 2];
+        row[0] = '"';
+        row[width + 1] = '"';
         for (int r = 0; r < height; r++) {
-            data.getDataElements(0, r, width, 1, pixels);
-            pw.print("\"");
-            for (int i = 0; i < pixels.length; i++) {
-                int pixel = pixels[i] & 0xFFFFFF;
+            int offset = 0;
+            if (buffer != null) {
+                offset = r * width;
+            } else {
+                data.getDataElements(0, r, width, 1, pixels);
+            }
+            for (int i = 0; i < width; i++) {
+                int pixel = pixels[offset + i] & 0xFFFFFF;
                 if (pixel == 0) {
-                    pw.print(" ");
+                    row[i + 1] = ' ';
                 } else {
-                    UTFGridEntry entry = keyToFeature.get(pixel);
+                    UTFGridEntry entry = entries.getEntry(pixel);
                     if (entry == null) {
                         throw new RuntimeException("Could not find entry for pixel value " + pixel
                                 + ". This normally means there is some color altering option at work "
@@ -153,13 +169,14 @@ public class UTFGridMap extends RawMap {
                         entry.setKey(entryKey);
                         result.add(entry);
                     }
-                    pw.print(getGridChar(entryKey));
+                    row[i + 1] = getGridChar(entryKey);
                 }
             }
+            pw.write(row);
             if (r < height - 1) {
-                pw.println("\",");
+                pw.println(",");
             } else {
-                pw.println("\"");
+                pw.println();
             }
         }
 
@@ -175,6 +192,24 @@ public class UTFGridMap extends RawMap {
         }
     }
 
+    /**
+     * Returns the backing int array of the raster, if it can be walked as a plain sequence of
+     * rows, or null otherwise
+     */
+    private int[] getPixelBuffer(Raster data) {
+        DataBuffer buffer = data.getDataBuffer();
+        SampleModel sm = data.getSampleModel();
+        if (buffer instanceof DataBufferInt && buffer.getNumBanks() == 1
+                && sm instanceof SinglePixelPackedSampleModel
+                && ((SinglePixelPackedSampleModel) sm).getScanlineStride() == data.getWidth()
+                && data.getMinX() == 0 && data.getMinY() == 0
+                && data.getSampleModelTranslateX() == 0 && data.getSampleModelTranslateY() == 0
+                && buffer.getOffset() == 0 && buffer.getSize() >= data.getWidth() * data.getHeight()) {
+            return ((DataBufferInt) buffer).getData();
+        }
+        return null;
+    }
+
     /**
      * From the spec, the encoding works as follows:
      * <ul>
@@ -0,0 +1,116 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.easymock.EasyMock;
+import org.geoserver.platform.ServiceException;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.coverage.grid.io.OverviewPolicy;
+import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+
+public class RasterReadPlannerTest {
+
+    WMSMapContent mapContent;
+
+    RasterReadPlanner planner = new RasterReadPlanner();
+
+    @Before
+    public void setup() {
+        mapContent = new WMSMapContent();
+        mapContent.getViewport()
+                .setBounds(new ReferencedEnvelope(0, 10, 0, 10, DefaultGeographicCRS.WGS84));
+        mapContent.setMapWidth(100);
+        mapContent.setMapHeight(100);
+    }
+
+    /**
+     * A reader covering 0,0,20,20 with native resolution 0.01 and two overviews
+     */
+    GridCoverage2DReader buildReader(OverviewPolicy policy, double[] readResolution)
+            throws IOException {
+        GridCoverage2DReader reader = EasyMock.createNiceMock(GridCoverage2DReader.class);
+        GeneralEnvelope envelope = new GeneralEnvelope(
+                new ReferencedEnvelope(0, 20, 0, 20, DefaultGeographicCRS.WGS84));
+        EasyMock.expect(reader.getOriginalEnvelope()).andReturn(envelope).anyTimes();
+        EasyMock.expect(reader.getCoordinateReferenceSystem())
+                .andReturn(DefaultGeographicCRS.WGS84).anyTimes();
+        EasyMock.expect(reader.getResolutionLevels())
+                .andReturn(new double[][] { { 0.01, 0.01 }, { 0.04, 0.04 }, { 0.16, 0.16 } })
+                .anyTimes();
+        EasyMock.expect(reader.getReadingResolutions(EasyMock.eq(policy),
+                EasyMock.aryEq(new double[] { 0.1, 0.1 }))).andReturn(readResolution).anyTimes();
+        EasyMock.replay(reader);
+        return reader;
+    }
+
+    @Test
+    public void testDefaultPolicy() throws Exception {
+        GridCoverage2DReader reader = buildReader(OverviewPolicy.getDefaultPolicy(),
+                new double[] { 0.04, 0.04 });
+
+        RasterReadPlan plan = planner.plan("dem", reader, null, mapContent, 0);
+        assertEquals(1, plan.getOverview());
+        assertArrayEquals(new double[] { 0.1, 0.1 }, plan.getRequestedResolution(), 1e-9);
+        assertEquals(2.5, plan.getDecimation(), 1e-9);
+        // 10 degrees at 0.04
+        assertEquals(250 * 250, plan.getPixels());
+        assertEquals(1, RasterReadPlanner.getPlans(mapContent).size());
+    }
+
+    @Test
+    public void testPolicyFromParameters() throws Exception {
+        GridCoverage2DReader reader = buildReader(OverviewPolicy.IGNORE,
+                new double[] { 0.01, 0.01 });
+        ParameterValue<OverviewPolicy> policy = AbstractGridFormat.OVERVIEW_POLICY.createValue();
+        policy.setValue(OverviewPolicy.IGNORE);
+
+        RasterReadPlan plan = planner.plan("dem", reader,
+                new GeneralParameterValue[] { policy }, mapContent, 0);
+        assertEquals(0, plan.getOverview());
+        assertEquals(1000 * 1000, plan.getPixels());
+    }
+
+    @Test
+    public void testPartialOverlap() throws Exception {
+        mapContent.getViewport()
+                .setBounds(new ReferencedEnvelope(15, 25, 15, 25, DefaultGeographicCRS.WGS84));
+        GridCoverage2DReader reader = buildReader(OverviewPolicy.getDefaultPolicy(),
+                new double[] { 0.04, 0.04 });
+
+        RasterReadPlan plan = planner.plan("dem", reader, null, mapContent, 0);
+        // only 5 degrees out of 10 overlap the coverage
+        assertEquals(125 * 125, plan.getPixels());
+    }
+
+    @Test
+    public void testBudget() throws Exception {
+        GridCoverage2DReader reader = buildReader(OverviewPolicy.getDefaultPolicy(),
+                new double[] { 0.04, 0.04 });
+
+        // the first layer fits, the second one goes over the budget
+        planner.plan("dem", reader, null, mapContent, 100000);
+        try {
+            planner.plan("hillshade", reader, null, mapContent, 100000);
+            fail("Should have gone beyond the budget");
+        } catch (ServiceException e) {
+            assertTrue(e.getMessage().contains("125000"));
+            assertTrue(e.getMessage().contains("hillshade"));
+        }
+    }
+}
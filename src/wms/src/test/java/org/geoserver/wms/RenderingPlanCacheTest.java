@@ -0,0 +1,109 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.LineSymbolizer;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.filter.FilterFactory;
+
+public class RenderingPlanCacheTest {
+
+    static final FilterFactory FF = CommonFactoryFinder.getFilterFactory(null);
+
+    StyleBuilder sb = new StyleBuilder();
+
+    Style style;
+
+    RenderingPlanCache cache;
+
+    @Before
+    public void setup() {
+        // three scale bands, with a different line width each
+        Rule small = buildRule("small", 0, 1000, 10, "a");
+        Rule medium = buildRule("medium", 1000, 5000, 5, "b");
+        Rule large = buildRule("large", 5000, Double.POSITIVE_INFINITY, 1, "c");
+        FeatureTypeStyle fts = sb.createFeatureTypeStyle("Feature",
+                new Rule[] { small, medium, large });
+        style = sb.createStyle();
+        style.featureTypeStyles().add(fts);
+
+        cache = new RenderingPlanCache();
+    }
+
+    Rule buildRule(String name, double minScale, double maxScale, double width,
+            String attribute) {
+        LineSymbolizer ls = sb.createLineSymbolizer(Color.BLACK, width);
+        Rule rule = sb.createRule(ls);
+        rule.setName(name);
+        rule.setMinScaleDenominator(minScale);
+        rule.setMaxScaleDenominator(maxScale);
+        // redundant filter, will be simplified
+        rule.setFilter(FF.and(FF.equals(FF.property(attribute), FF.literal(1)),
+                FF.equals(FF.property(attribute), FF.literal(1))));
+        return rule;
+    }
+
+    @Test
+    public void testPlanPerBand() {
+        RenderingPlan plan = cache.getPlan(style, 2000);
+        assertNotNull(plan);
+        assertEquals(1000, plan.getMinScaleDenominator(), 0d);
+        assertEquals(5000, plan.getMaxScaleDenominator(), 0d);
+        assertEquals(5, plan.getBuffer());
+        assertEquals(1, plan.getAttributes().size());
+        assertTrue(plan.getAttributes().contains("b"));
+
+        FeatureTypeStyle fts = plan.getStyle().featureTypeStyles().get(0);
+        assertEquals(1, fts.rules().size());
+        Rule rule = fts.rules().get(0);
+        assertEquals("medium", rule.getName());
+        assertEquals(FF.equals(FF.property("b"), FF.literal(1)), rule.getFilter());
+
+        // the original style has not been touched
+        assertEquals(3, style.featureTypeStyles().get(0).rules().size());
+    }
+
+    @Test
+    public void testPlanReused() {
+        RenderingPlan plan = cache.getPlan(style, 2000);
+        assertSame(plan, cache.getPlan(style, 4000));
+        assertEquals("small", cache.getPlan(style, 500).getStyle().featureTypeStyles().get(0)
+                .rules().get(0).getName());
+        assertEquals("large", cache.getPlan(style, 1e6).getStyle().featureTypeStyles().get(0)
+                .rules().get(0).getName());
+    }
+
+    @Test
+    public void testNoPlanCloseToBoundary() {
+        assertNull(cache.getPlan(style, 1000));
+        assertNull(cache.getPlan(style, 4999.99));
+    }
+
+    @Test
+    public void testNoActiveRule() {
+        Rule rule = buildRule("limited", 1000, 2000, 1, "a");
+        Style limited = sb.createStyle();
+        limited.featureTypeStyles().add(sb.createFeatureTypeStyle("Feature", rule));
+
+        RenderingPlan plan = cache.getPlan(limited, 10000);
+        assertTrue(plan.getStyle().featureTypeStyles().isEmpty());
+        assertTrue(plan.getAttributes().isEmpty());
+        assertEquals(0, plan.getBuffer());
+    }
+}
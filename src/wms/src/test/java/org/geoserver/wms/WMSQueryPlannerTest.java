@@ -0,0 +1,144 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.RenderingHints;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.easymock.EasyMock;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.factory.Hints;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.FilterFactory2;
+
+import com.vividsolutions.jts.geom.Point;
+
+public class WMSQueryPlannerTest {
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    SimpleFeatureType schema;
+
+    WMSMapContent mapContent;
+
+    RenderingPlan renderingPlan;
+
+    WMSQueryPlanner planner = new WMSQueryPlanner();
+
+    @Before
+    public void setup() {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("poi");
+        tb.add("geom", Point.class, DefaultGeographicCRS.WGS84);
+        tb.add("name", String.class);
+        tb.add("population", Integer.class);
+        tb.add("area", Double.class);
+        schema = tb.buildFeatureType();
+
+        mapContent = new WMSMapContent();
+        mapContent.getViewport()
+                .setBounds(new ReferencedEnvelope(0, 10, 0, 10, DefaultGeographicCRS.WGS84));
+        mapContent.setMapWidth(100);
+        mapContent.setMapHeight(100);
+
+        // a style labelling by name only
+        StyleBuilder sb = new StyleBuilder();
+        Rule rule = sb.createRule(sb.createTextSymbolizer(Color.BLACK, sb.createFont("Serif", 10),
+                "name"));
+        Style style = sb.createStyle();
+        style.featureTypeStyles().add(sb.createFeatureTypeStyle("poi", rule));
+        renderingPlan = new RenderingPlanCache().getPlan(style, 1000);
+    }
+
+    SimpleFeatureSource buildSource(Set<RenderingHints.Key> hints) {
+        SimpleFeatureSource source = EasyMock.createNiceMock(SimpleFeatureSource.class);
+        EasyMock.expect(source.getSchema()).andReturn(schema).anyTimes();
+        EasyMock.expect(source.getSupportedHints()).andReturn(hints).anyTimes();
+        EasyMock.replay(source);
+        return source;
+    }
+
+    @Test
+    public void testProjection() {
+        SimpleFeatureSource source = buildSource(Collections.emptySet());
+        Query query = new Query("poi");
+
+        LayerQueryPlan plan = planner.plan("poi", source, query, renderingPlan, mapContent);
+        assertArrayEquals(new String[] { "geom", "name" }, query.getPropertyNames());
+        assertEquals(4, plan.getTotalAttributes());
+        assertEquals(2, plan.getFetchedAttributes());
+        assertNull(plan.getGeneralizationDistance());
+        assertEquals(1, WMSQueryPlanner.getPlans(mapContent).size());
+    }
+
+    @Test
+    public void testNoRenderingPlan() {
+        SimpleFeatureSource source = buildSource(Collections.emptySet());
+        Query query = new Query("poi");
+
+        LayerQueryPlan plan = planner.plan("poi", source, query, null, mapContent);
+        assertTrue(query.retrieveAllProperties());
+        assertEquals(4, plan.getFetchedAttributes());
+    }
+
+    @Test
+    public void testGeneralization() {
+        Set<RenderingHints.Key> hints = new HashSet<>();
+        hints.add(Hints.GEOMETRY_SIMPLIFICATION);
+        SimpleFeatureSource source = buildSource(hints);
+        Query query = new Query("poi");
+
+        LayerQueryPlan plan = planner.plan("poi", source, query, renderingPlan, mapContent);
+        // 10 degrees over 100 pixels
+        assertEquals(0.08, plan.getGeneralizationDistance(), 1e-9);
+        assertEquals(0.08, (Double) query.getHints().get(Hints.GEOMETRY_SIMPLIFICATION), 1e-9);
+    }
+
+    @Test
+    public void testTransformation() {
+        Set<RenderingHints.Key> hints = new HashSet<>();
+        hints.add(Hints.GEOMETRY_SIMPLIFICATION);
+        SimpleFeatureSource source = buildSource(hints);
+        StyleBuilder sb = new StyleBuilder();
+        FeatureTypeStyle fts = sb.createFeatureTypeStyle("poi",
+                sb.createRule(sb.createPointSymbolizer()));
+        fts.setTransformation(FF.literal("transformation"));
+        Style style = sb.createStyle();
+        style.featureTypeStyles().add(fts);
+        RenderingPlan transforming = new RenderingPlanCache().getPlan(style, 1000);
+
+        // the transformation gets all the attributes and the original geometries
+        Query query = new Query("poi");
+        LayerQueryPlan plan = planner.plan("poi", source, query, transforming, mapContent);
+        assertTrue(query.retrieveAllProperties());
+        assertNull(plan.getGeneralizationDistance());
+        assertTrue(query.getHints() == null
+                || !query.getHints().containsKey(Hints.GEOMETRY_SIMPLIFICATION));
+
+        // same without a rendering plan, the style is not known
+        query = new Query("poi");
+        plan = planner.plan("poi", source, query, null, mapContent);
+        assertNull(plan.getGeneralizationDistance());
+    }
+}
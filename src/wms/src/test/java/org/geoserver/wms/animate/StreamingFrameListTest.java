@@ -0,0 +1,147 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.animate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.easymock.EasyMock;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MaxAnimationTimeHelper;
+import org.geoserver.wms.WMS;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamingFrameListTest {
+
+    ExecutorService executor;
+
+    AtomicInteger running = new AtomicInteger();
+
+    AtomicInteger maxRunning = new AtomicInteger();
+
+    AtomicInteger started = new AtomicInteger();
+
+    @Before
+    public void setup() {
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void cleanup() {
+        executor.shutdownNow();
+    }
+
+    MaxAnimationTimeHelper timeHelper(int maxTime) {
+        WMS wms = EasyMock.createNiceMock(WMS.class);
+        EasyMock.expect(wms.getMaxAnimationRenderingTime(EasyMock.anyObject(GetMapRequest.class)))
+                .andReturn(maxTime).anyTimes();
+        EasyMock.replay(wms);
+        return new MaxAnimationTimeHelper(wms, new GetMapRequest());
+    }
+
+    List<Callable<RenderedImage>> frames(int count) {
+        List<Callable<RenderedImage>> loaders = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            loaders.add(() -> {
+                started.incrementAndGet();
+                int current = running.incrementAndGet();
+                maxRunning.accumulateAndGet(current, Math::max);
+                try {
+                    Thread.sleep(5);
+                    return new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_GRAY);
+                } finally {
+                    running.decrementAndGet();
+                }
+            });
+        }
+        return loaders;
+    }
+
+    @Test
+    public void testReadInOrder() throws Exception {
+        StreamingFrameList list = new StreamingFrameList(frames(20), executor, 2, timeHelper(0));
+        assertEquals(20, list.size());
+        RenderedImage first = list.getFirst();
+        for (int i = 0; i < list.size(); i++) {
+            assertTrue(list.get(i) instanceof BufferedImage);
+        }
+        // the first frame is retained, the list uses it to describe the animation
+        assertSame(first, list.get(0));
+        assertEquals(10, list.getWidth());
+        assertEquals(20, started.get());
+        assertTrue(maxRunning.get() <= 2);
+    }
+
+    @Test
+    public void testLazyScheduling() throws Exception {
+        StreamingFrameList list = new StreamingFrameList(frames(20), executor, 3, timeHelper(0));
+        list.getFirst();
+        // the first frame plus the ones scheduled ahead of the consumer
+        assertTrue(started.get() <= 4);
+        list.dispose();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNoGoingBack() throws Exception {
+        StreamingFrameList list = new StreamingFrameList(frames(5), executor, 2, timeHelper(0));
+        list.get(2);
+        list.get(1);
+    }
+
+    @Test
+    public void testFailingFrame() throws Exception {
+        List<Callable<RenderedImage>> loaders = frames(5);
+        loaders.set(1, () -> {
+            throw new RuntimeException("boom");
+        });
+        StreamingFrameList list = new StreamingFrameList(loaders, executor, 2, timeHelper(0));
+        list.get(0);
+        try {
+            list.get(1);
+            fail("Should have failed");
+        } catch (ServiceException e) {
+            assertEquals("boom", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        List<Callable<RenderedImage>> loaders = frames(5);
+        loaders.set(1, () -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                // cancelled, as expected
+            }
+            return null;
+        });
+        StreamingFrameList list = new StreamingFrameList(loaders, executor, 2, timeHelper(100));
+        list.get(0);
+        try {
+            list.get(1);
+            fail("Should have timed out");
+        } catch (ServiceException e) {
+            assertTrue(e.getMessage().contains("more time than allowed"));
+        } finally {
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.dimension;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import javax.xml.namespace.QName;
+
+import org.easymock.EasyMock;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.DimensionInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.MetadataMap;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.impl.DimensionInfoImpl;
+import org.geoserver.security.WrapperPolicy;
+import org.geoserver.security.decorators.SecuredFeatureTypeInfo;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+public class DimensionDomainCacheTest {
+
+    static final String NS = "http://www.geoserver.org/test";
+
+    static final String NS2 = "http://www.geoserver.org/test2";
+
+    SimpleFeatureType schema;
+
+    FeatureTypeInfo typeInfo;
+
+    DimensionInfo elevation;
+
+    DimensionDomainCache cache;
+
+    int loads;
+
+    @Before
+    public void setup() throws Exception {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("soundings");
+        tb.setNamespaceURI(NS);
+        tb.add("depth", Double.class);
+        schema = tb.buildFeatureType();
+        typeInfo = typeInfo("ft1", NS);
+
+        elevation = new DimensionInfoImpl();
+        elevation.setEnabled(true);
+        elevation.setAttribute("depth");
+
+        cache = new DimensionDomainCache();
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    FeatureTypeInfo typeInfo(String id, String namespaceURI) throws Exception {
+        FeatureSource source = DataUtilities.source(
+                DataUtilities.collection(new SimpleFeature[] { feature(1, 10d), feature(2, 20d),
+                        feature(3, 10d) }));
+
+        NamespaceInfo ns = EasyMock.createNiceMock(NamespaceInfo.class);
+        EasyMock.expect(ns.getURI()).andReturn(namespaceURI).anyTimes();
+        DataStoreInfo store = EasyMock.createNiceMock(DataStoreInfo.class);
+        EasyMock.expect(store.getId()).andReturn("store1").anyTimes();
+        MetadataMap metadata = new MetadataMap();
+        metadata.put(DimensionDomainCache.ENABLED_KEY, true);
+        FeatureTypeInfo typeInfo = EasyMock.createNiceMock(FeatureTypeInfo.class);
+        EasyMock.expect(typeInfo.getId()).andReturn(id).anyTimes();
+        EasyMock.expect(typeInfo.getName()).andReturn("soundings").anyTimes();
+        EasyMock.expect(typeInfo.getNamespace()).andReturn(ns).anyTimes();
+        EasyMock.expect(typeInfo.getStore()).andReturn(store).anyTimes();
+        EasyMock.expect(typeInfo.getMetadata()).andReturn(metadata).anyTimes();
+        EasyMock.expect(typeInfo.getFeatureSource(EasyMock.anyObject(), EasyMock.anyObject()))
+                .andAnswer(() -> {
+                    loads++;
+                    return source;
+                }).anyTimes();
+        EasyMock.replay(ns, store, typeInfo);
+        return typeInfo;
+    }
+
+    SimpleFeature feature(int id, Double depth) {
+        return SimpleFeatureBuilder.build(schema, new Object[] { depth }, "soundings." + id);
+    }
+
+    SimpleFeatureCollection collection(SimpleFeature... features) {
+        return DataUtilities.collection(features);
+    }
+
+    @Test
+    public void testLoadOnce() throws Exception {
+        DimensionDomain domain = cache.getDomain(typeInfo, elevation);
+        assertEquals(2, domain.size());
+        assertSame(domain, cache.getDomain(typeInfo, elevation));
+        assertEquals(1, loads);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        typeInfo.getMetadata().put(DimensionDomainCache.ENABLED_KEY, false);
+        assertNull(cache.getDomain(typeInfo, elevation));
+        assertEquals(0, loads);
+    }
+
+    @Test
+    public void testSecured() throws Exception {
+        // users with restricted access might not see all the values
+        FeatureTypeInfo secured = new SecuredFeatureTypeInfo(typeInfo,
+                WrapperPolicy.readOnlyHide(null));
+        assertNull(cache.getDomain(secured, elevation));
+        assertEquals(0, loads);
+    }
+
+    @Test
+    public void testCommittedInsert() throws Exception {
+        cache.getDomain(typeInfo, elevation);
+
+        cache.beforeTransaction(null);
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.POST_INSERT, null,
+                new QName(NS, "soundings"), collection(feature(4, 30d), feature(5, 5d))));
+        // not visible until commit
+        assertEquals(2, cache.getDomain(typeInfo, elevation).size());
+        cache.afterTransaction(null, null, true);
+
+        DimensionDomain domain = cache.getDomain(typeInfo, elevation);
+        assertEquals(4, domain.size());
+        assertEquals(5, domain.getMin(), 0d);
+        assertEquals(30, domain.getMax(), 0d);
+        // updated incrementally, no reload
+        assertEquals(1, loads);
+    }
+
+    @Test
+    public void testPreInsertIgnored() throws Exception {
+        cache.getDomain(typeInfo, elevation);
+
+        // the values are collected once, after the insert
+        cache.beforeTransaction(null);
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_INSERT, null,
+                new QName(NS, "soundings"), collection(feature(4, 30d))));
+        cache.afterTransaction(null, null, true);
+
+        assertEquals(2, cache.getDomain(typeInfo, elevation).size());
+        assertEquals(1, loads);
+    }
+
+    @Test
+    public void testLoadedDuringTransaction() throws Exception {
+        cache.beforeTransaction(null);
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.POST_INSERT, null,
+                new QName(NS, "soundings"), collection(feature(4, 30d))));
+        // loaded after the insert, but before the commit, without the new value
+        assertEquals(2, cache.getDomain(typeInfo, elevation).size());
+        cache.afterTransaction(null, null, true);
+
+        // the domain is stale, and gets reloaded
+        cache.getDomain(typeInfo, elevation);
+        assertEquals(2, loads);
+    }
+
+    @Test
+    public void testUnqualifiedInsert() throws Exception {
+        FeatureTypeInfo other = typeInfo("ft2", NS2);
+        cache.getDomain(typeInfo, elevation);
+        cache.getDomain(other, elevation);
+        assertEquals(2, loads);
+
+        // cannot tell which of the two types got the insert, both get reloaded
+        cache.beforeTransaction(null);
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.POST_INSERT, null,
+                new QName("soundings"), collection(feature(4, 30d))));
+        cache.afterTransaction(null, null, true);
+
+        assertEquals(2, cache.getDomain(typeInfo, elevation).size());
+        assertEquals(2, cache.getDomain(other, elevation).size());
+        assertEquals(4, loads);
+    }
+
+    @Test
+    public void testOtherNamespaceIgnored() throws Exception {
+        FeatureTypeInfo other = typeInfo("ft2", NS2);
+        cache.getDomain(typeInfo, elevation);
+        cache.getDomain(other, elevation);
+
+        cache.beforeTransaction(null);
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.POST_INSERT, null,
+                new QName(NS2, "soundings"), collection(feature(4, 30d))));
+        cache.afterTransaction(null, null, true);
+
+        assertEquals(2, cache.getDomain(typeInfo, elevation).size());
+        assertEquals(3, cache.getDomain(other, elevation).size());
+        assertEquals(2, loads);
+    }
+
+    @Test
+    public void testRolledBackInsert() throws Exception {
+        cache.getDomain(typeInfo, elevation);
+
+        cache.beforeTransaction(null);
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.POST_INSERT, null,
+                new QName(NS, "soundings"), collection(feature(4, 30d))));
+        cache.afterTransaction(null, null, false);
+
+        assertEquals(2, cache.getDomain(typeInfo, elevation).size());
+        assertEquals(1, loads);
+    }
+
+    @Test
+    public void testDeleteInvalidates() throws Exception {
+        cache.getDomain(typeInfo, elevation);
+
+        cache.beforeTransaction(null);
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_DELETE, null,
+                new QName(NS, "soundings"), collection(feature(1, 10d))));
+        cache.afterTransaction(null, null, true);
+
+        cache.getDomain(typeInfo, elevation);
+        assertEquals(2, loads);
+    }
+
+    @Test
+    public void testOtherLayerIgnored() throws Exception {
+        cache.getDomain(typeInfo, elevation);
+
+        cache.beforeTransaction(null);
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_DELETE, null,
+                new QName(NS, "roads"), collection()));
+        cache.afterTransaction(null, null, true);
+
+        cache.getDomain(typeInfo, elevation);
+        assertEquals(1, loads);
+    }
+
+    @Test
+    public void testStoreChangeInvalidates() throws Exception {
+        cache.getDomain(typeInfo, elevation);
+        cache.invalidate(typeInfo.getStore());
+        cache.getDomain(typeInfo, elevation);
+        assertEquals(2, loads);
+    }
+}
@@ -0,0 +1,73 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.dimension;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.Test;
+
+public class DimensionDomainTest {
+
+    @Test
+    public void testBuildSortsAndRemovesDuplicates() {
+        DimensionDomain domain = DimensionDomain.build(Arrays.asList(5, 1d, null, 3f, 1, 5L));
+        assertEquals(3, domain.size());
+        assertEquals(1, domain.get(0), 0d);
+        assertEquals(3, domain.get(1), 0d);
+        assertEquals(5, domain.get(2), 0d);
+        assertEquals(1, domain.getMin(), 0d);
+        assertEquals(5, domain.getMax(), 0d);
+    }
+
+    @Test
+    public void testEmpty() {
+        DimensionDomain domain = DimensionDomain.build(Collections.emptyList());
+        assertTrue(domain.isEmpty());
+        assertTrue(Double.isNaN(domain.getMin()));
+        assertTrue(Double.isNaN(domain.getNearest(10)));
+    }
+
+    @Test
+    public void testMerge() {
+        DimensionDomain domain = DimensionDomain.build(Arrays.asList(1, 5, 9));
+        DimensionDomain merged = domain.merge(Arrays.asList(9, 0, 6));
+        assertEquals(3, domain.size());
+        assertEquals(5, merged.size());
+        assertEquals(0, merged.getMin(), 0d);
+        assertEquals(6, merged.get(3), 0d);
+        assertEquals(9, merged.getMax(), 0d);
+    }
+
+    @Test
+    public void testNearest() {
+        DimensionDomain domain = DimensionDomain.build(Arrays.asList(10, 20, 30));
+        assertEquals(10, domain.getNearest(-5), 0d);
+        assertEquals(20, domain.getNearest(20), 0d);
+        assertEquals(20, domain.getNearest(24), 0d);
+        assertEquals(30, domain.getNearest(26), 0d);
+        // ties pick the lower value
+        assertEquals(10, domain.getNearest(15), 0d);
+        assertEquals(30, domain.getNearest(100), 0d);
+    }
+
+    @Test
+    public void testDates() {
+        Date d1 = new Date(1000000000000L);
+        Date d2 = new Date(1500000000000L);
+        DimensionDomain domain = DimensionDomain.build(Arrays.asList(d2, d1));
+        assertEquals(d1, new Date((long) domain.getMin()));
+        assertEquals(d2, new Date((long) domain.getMax()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedValue() {
+        DimensionDomain.build(Arrays.asList("abc"));
+    }
+}
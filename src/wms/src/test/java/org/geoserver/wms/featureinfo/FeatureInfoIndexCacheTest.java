@@ -0,0 +1,237 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.featureinfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+
+import javax.xml.namespace.QName;
+
+import org.easymock.EasyMock;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.MetadataMap;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wms.featureinfo.FeatureInfoIndexCache.Snapshot;
+import org.geoserver.wms.featureinfo.FeatureInfoIndexCache.SnapshotFeatureSource;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+public class FeatureInfoIndexCacheTest {
+
+    static final String NS = "http://www.geoserver.org/test";
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    SimpleFeatureType schema;
+
+    FeatureTypeInfo typeInfo;
+
+    FeatureSource<SimpleFeatureType, SimpleFeature> source;
+
+    int loads;
+
+    @Before
+    public void setup() throws Exception {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("sites");
+        tb.setNamespaceURI(NS);
+        tb.add("geom", Point.class);
+        tb.add("name", String.class);
+        schema = tb.buildFeatureType();
+        source = DataUtilities.source(DataUtilities.collection(new SimpleFeature[] {
+                feature(1, 10, 10), feature(2, 0, 0), feature(3, 10.5, 10.5),
+                feature(4, 50, 50) }));
+        typeInfo = typeInfo("ft1", "store1");
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    FeatureTypeInfo typeInfo(String id, String storeId) throws Exception {
+        NamespaceInfo ns = EasyMock.createNiceMock(NamespaceInfo.class);
+        EasyMock.expect(ns.getURI()).andReturn(NS).anyTimes();
+        DataStoreInfo store = EasyMock.createNiceMock(DataStoreInfo.class);
+        EasyMock.expect(store.getId()).andReturn(storeId).anyTimes();
+        MetadataMap metadata = new MetadataMap();
+        metadata.put(FeatureInfoIndexCache.ENABLED_KEY, true);
+        FeatureTypeInfo info = EasyMock.createNiceMock(FeatureTypeInfo.class);
+        EasyMock.expect(info.getId()).andReturn(id).anyTimes();
+        EasyMock.expect(info.getName()).andReturn("sites").anyTimes();
+        EasyMock.expect(info.getNamespace()).andReturn(ns).anyTimes();
+        EasyMock.expect(info.getStore()).andReturn(store).anyTimes();
+        EasyMock.expect(info.getMetadata()).andReturn(metadata).anyTimes();
+        EasyMock.expect(info.getFeatureSource(EasyMock.anyObject(), EasyMock.anyObject()))
+                .andAnswer(() -> {
+                    loads++;
+                    return (FeatureSource) source;
+                }).anyTimes();
+        EasyMock.replay(ns, store, info);
+        return info;
+    }
+
+    SimpleFeature feature(int id, double x, double y) {
+        Point point = new GeometryFactory().createPoint(new Coordinate(x, y));
+        return SimpleFeatureBuilder.build(schema, new Object[] { point, "site" + id },
+                "sites." + id);
+    }
+
+    String ids(SimpleFeatureCollection fc) {
+        StringBuilder sb = new StringBuilder();
+        try (SimpleFeatureIterator it = fc.features()) {
+            while (it.hasNext()) {
+                sb.append(it.next().getID().substring("sites.".length()));
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testLoadOnce() throws Exception {
+        FeatureInfoIndexCache cache = new FeatureInfoIndexCache(100, 1000);
+        Snapshot snapshot = cache.getSnapshot(typeInfo);
+        assertEquals(4, snapshot.size);
+        assertSame(snapshot, cache.getSnapshot(typeInfo));
+        assertEquals(1, loads);
+    }
+
+    @Test
+    public void testSpatialQuery() throws Exception {
+        FeatureInfoIndexCache cache = new FeatureInfoIndexCache(100, 1000);
+        SnapshotFeatureSource indexed = new SnapshotFeatureSource(source,
+                cache.getSnapshot(typeInfo));
+
+        Filter bbox = FF.bbox("geom", 9, 9, 11, 11, null);
+        assertEquals("13", ids(indexed.getFeatures(bbox)));
+        // the non spatial part of the filter is still applied
+        Filter and = FF.and(bbox, FF.equals(FF.property("name"), FF.literal("site3")));
+        assertEquals("3", ids(indexed.getFeatures(and)));
+        // no spatial constraint, all features in store order
+        assertEquals("1234", ids(indexed.getFeatures()));
+        // paging is delegated as well
+        Query query = new Query("sites", bbox);
+        query.setMaxFeatures(1);
+        assertEquals("1", ids(indexed.getFeatures(query)));
+    }
+
+    @Test
+    public void testTooLarge() throws Exception {
+        FeatureInfoIndexCache cache = new FeatureInfoIndexCache(3, 1000);
+        assertNull(cache.getSnapshot(typeInfo).index);
+        // not loaded again
+        cache.getSnapshot(typeInfo);
+        assertEquals(1, loads);
+    }
+
+    @Test
+    public void testLargerThanCache() throws Exception {
+        FeatureInfoIndexCache cache = new FeatureInfoIndexCache(100, 3);
+        Snapshot snapshot = cache.getSnapshot(typeInfo);
+        assertNull(snapshot.index);
+        // the marker is kept, the store is not scanned again
+        assertSame(snapshot, cache.getSnapshot(typeInfo));
+        assertEquals(1, cache.size());
+        assertEquals(1, loads);
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        FeatureInfoIndexCache cache = new FeatureInfoIndexCache(100, 6);
+        cache.getSnapshot(typeInfo);
+        Thread.sleep(5);
+        cache.getSnapshot(typeInfo("ft2", "store1"));
+        // the least recently used one went away
+        assertEquals(1, cache.size());
+        cache.getSnapshot(typeInfo);
+        assertEquals(3, loads);
+    }
+
+    @Test
+    public void testTransactionInvalidates() throws Exception {
+        FeatureInfoIndexCache cache = new FeatureInfoIndexCache(100, 1000);
+        cache.getSnapshot(typeInfo);
+
+        cache.beforeTransaction(null);
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.POST_INSERT, null,
+                new QName(NS, "sites"), DataUtilities.collection(feature(5, 1, 1))));
+        cache.afterTransaction(null, null, true);
+
+        cache.getSnapshot(typeInfo);
+        assertEquals(2, loads);
+    }
+
+    @Test
+    public void testLoadedDuringTransaction() throws Exception {
+        FeatureInfoIndexCache cache = new FeatureInfoIndexCache(100, 1000);
+        cache.getSnapshot(typeInfo);
+        cache.beforeTransaction(null);
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_DELETE, null,
+                new QName(NS, "sites"), DataUtilities.collection(new SimpleFeature[0])));
+        // loaded while the transaction is still running
+        cache.getSnapshot(typeInfo);
+        assertEquals(2, loads);
+        cache.afterTransaction(null, null, true);
+
+        cache.getSnapshot(typeInfo);
+        assertEquals(3, loads);
+    }
+
+    @Test
+    public void testChangedDuringLoad() throws Exception {
+        FeatureInfoIndexCache cache = new FeatureInfoIndexCache(100, 1000) {
+            @Override
+            Snapshot load(FeatureTypeInfo typeInfo, long generation) throws IOException {
+                Snapshot snapshot = super.load(typeInfo, generation);
+                // the feature type gets modified before the load completes
+                invalidate(typeInfo);
+                return snapshot;
+            }
+        };
+        assertEquals(4, cache.getSnapshot(typeInfo).size);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testOtherLayerIgnored() throws Exception {
+        FeatureInfoIndexCache cache = new FeatureInfoIndexCache(100, 1000);
+        cache.getSnapshot(typeInfo);
+
+        cache.beforeTransaction(null);
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_DELETE, null,
+                new QName(NS, "roads"), DataUtilities.collection(new SimpleFeature[0])));
+        cache.afterTransaction(null, null, true);
+
+        cache.getSnapshot(typeInfo);
+        assertEquals(1, loads);
+    }
+
+    @Test
+    public void testStoreChangeInvalidates() throws Exception {
+        FeatureInfoIndexCache cache = new FeatureInfoIndexCache(100, 1000);
+        cache.getSnapshot(typeInfo);
+        cache.invalidate(typeInfo.getStore());
+        cache.getSnapshot(typeInfo);
+        assertEquals(2, loads);
+    }
+}
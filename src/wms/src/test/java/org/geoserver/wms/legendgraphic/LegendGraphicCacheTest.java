@@ -0,0 +1,144 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.legendgraphic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geoserver.ows.Response;
+import org.geoserver.wms.GetLegendGraphicRequest;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Point;
+
+public class LegendGraphicCacheTest {
+
+    SimpleFeatureType schema;
+
+    Style style;
+
+    LegendGraphicCache cache;
+
+    int produced;
+
+    @Before
+    public void setup() {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("sites");
+        tb.add("geom", Point.class);
+        schema = tb.buildFeatureType();
+
+        // two rules, one for small scales and one for large ones
+        StyleBuilder sb = new StyleBuilder();
+        Rule small = sb.createRule(sb.createPointSymbolizer());
+        small.setMaxScaleDenominator(10000);
+        Rule large = sb.createRule(sb.createPointSymbolizer());
+        large.setMinScaleDenominator(10000);
+        style = sb.createStyle();
+        style.featureTypeStyles().add(sb.createFeatureTypeStyle("sites", small));
+        style.featureTypeStyles().get(0).rules().add(large);
+        style.setName("sites");
+
+        cache = new LegendGraphicCache(1024 * 1024, 60,
+                Collections.<Response> singletonList(new PNGLegendGraphicResponse()));
+    }
+
+    GetLegendGraphicRequest request(double scale) {
+        GetLegendGraphicRequest request = new GetLegendGraphicRequest();
+        request.setLayer(schema);
+        request.setStyle(style);
+        request.setFormat(PNGLegendOutputFormat.MIME_TYPE);
+        request.setScale(scale);
+        request.setKvp(new HashMap<>());
+        return request;
+    }
+
+    Object getLegend(GetLegendGraphicRequest request) {
+        return cache.getLegend(request, () -> {
+            produced++;
+            return new BufferedImageLegendGraphic(
+                    new BufferedImage(20, 20, BufferedImage.TYPE_INT_ARGB));
+        });
+    }
+
+    @Test
+    public void testCached() {
+        Object legend = getLegend(request(-1));
+        assertTrue(legend instanceof EncodedLegendGraphic);
+        EncodedLegendGraphic encoded = (EncodedLegendGraphic) legend;
+        assertEquals("image/png", encoded.getMimeType());
+        assertEquals(60, encoded.getMaxAge());
+        assertSame(legend, getLegend(request(-1)));
+        assertEquals(1, produced);
+    }
+
+    @Test
+    public void testScaleBands() {
+        // same active rules, same legend
+        getLegend(request(1000));
+        getLegend(request(5000));
+        assertEquals(1, produced);
+        // different rule set
+        getLegend(request(50000));
+        assertEquals(2, produced);
+    }
+
+    @Test
+    public void testLegendOptionsInKey() {
+        GetLegendGraphicRequest r1 = request(-1);
+        Map<String, Object> options = new HashMap<>();
+        options.put("fontSize", "14");
+        r1.setLegendOptions(options);
+        assertNotEquals(cache.getKey(r1), cache.getKey(request(-1)));
+    }
+
+    @Test
+    public void testNotCacheable() {
+        GetLegendGraphicRequest sld = request(-1);
+        sld.getKvp().put("SLD_BODY", "<StyledLayerDescriptor/>");
+        assertNull(cache.getKey(sld));
+
+        GetLegendGraphicRequest env = request(-1);
+        env.setEnv(Collections.singletonMap("color", "red"));
+        assertNull(cache.getKey(env));
+
+        GetLegendGraphicRequest counts = request(-1);
+        counts.setLegendOptions(
+                Collections.singletonMap(GetLegendGraphicRequest.COUNT_MATCHED_KEY, "true"));
+        assertNull(cache.getKey(counts));
+        assertTrue(getLegend(counts) instanceof BufferedImageLegendGraphic);
+    }
+
+    @Test
+    public void testEviction() {
+        cache = new LegendGraphicCache(1, 60,
+                Collections.<Response> singletonList(new PNGLegendGraphicResponse()));
+        // too large to be cached, returned anyways
+        assertTrue(getLegend(request(-1)) instanceof EncodedLegendGraphic);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testClear() {
+        getLegend(request(-1));
+        cache.handlePostModifyEvent(null);
+        getLegend(request(-1));
+        assertEquals(2, produced);
+    }
+}
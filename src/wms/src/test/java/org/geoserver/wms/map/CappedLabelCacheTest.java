@@ -0,0 +1,87 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.LiteShape2;
+import org.geotools.styling.StyleBuilder;
+import org.geotools.styling.TextSymbolizer;
+import org.geotools.util.NumberRange;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+public class CappedLabelCacheTest {
+
+    static final NumberRange<Double> ALL_SCALES = NumberRange.create(0d, Double.MAX_VALUE);
+
+    GeometryFactory gf = new GeometryFactory();
+
+    void putLabels(CappedLabelCache cache, int count) throws Exception {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("poi");
+        tb.add("geom", Point.class);
+        tb.add("name", String.class);
+        SimpleFeatureType schema = tb.buildFeatureType();
+
+        StyleBuilder sb = new StyleBuilder();
+        TextSymbolizer ts = sb.createTextSymbolizer(Color.BLACK, sb.createFont("Serif", 10),
+                "name");
+
+        cache.start();
+        cache.startLayer("poi");
+        for (int i = 0; i < count; i++) {
+            Point point = gf.createPoint(new Coordinate(i * 10, i * 10));
+            SimpleFeature feature = SimpleFeatureBuilder.build(schema,
+                    new Object[] { point, "label" + i }, "poi." + i);
+            cache.put("poi", ts, feature, new LiteShape2(point, null, null, false), ALL_SCALES);
+        }
+    }
+
+    @Test
+    public void testCandidatesCap() throws Exception {
+        CappedLabelCache cache = new CappedLabelCache(5, 0);
+        putLabels(cache, 20);
+        assertEquals(5, cache.orderedLabels().size());
+    }
+
+    @Test
+    public void testNoCap() throws Exception {
+        CappedLabelCache cache = new CappedLabelCache(0, 0);
+        putLabels(cache, 20);
+        assertEquals(20, cache.orderedLabels().size());
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        CappedLabelCache cache = new CappedLabelCache(0, 1);
+        Thread.sleep(10);
+        // enough candidates to trigger a deadline check
+        putLabels(cache, CappedLabelCache.BATCH_SIZE + 10);
+        assertTrue(cache.cancelled);
+
+        // the conflict resolution is skipped
+        BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            cache.end(graphics, new Rectangle(0, 0, 100, 100));
+        } finally {
+            graphics.dispose();
+        }
+    }
+}
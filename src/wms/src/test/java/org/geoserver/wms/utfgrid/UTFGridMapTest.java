@@ -0,0 +1,91 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.utfgrid;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.WMSMapContent;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+public class UTFGridMapTest {
+
+    static final int FEATURES = 200;
+
+    UTFGridEntries entries() {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("test");
+        tb.add("name", String.class);
+        SimpleFeatureType schema = tb.buildFeatureType();
+        UTFGridEntries entries = new UTFGridEntries();
+        for (int i = 0; i < FEATURES; i++) {
+            entries.getKeyForFeature(
+                    SimpleFeatureBuilder.build(schema, new Object[] { "f" + i }, "test." + i));
+        }
+        return entries;
+    }
+
+    BufferedImage image() {
+        // one row per feature, plus an empty one
+        BufferedImage image = new BufferedImage(FEATURES + 1, 2, BufferedImage.TYPE_INT_RGB);
+        for (int i = 0; i < FEATURES; i++) {
+            image.setRGB(i + 1, 0, i + 1);
+        }
+        return image;
+    }
+
+    JSONObject encode(RenderedImage image) throws Exception {
+        UTFGridMapContent content = new UTFGridMapContent(
+                new WMSMapContent(new GetMapRequest()), entries(), 4);
+        UTFGridMap map = new UTFGridMap(content, image);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        map.writeTo(bos);
+        return JSONObject.fromObject(new String(bos.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    void assertGrid(JSONObject json) {
+        JSONArray grid = json.getJSONArray("grid");
+        assertEquals(2, grid.size());
+        String first = grid.getString(0);
+        assertEquals(FEATURES + 1, first.length());
+        assertEquals(' ', first.charAt(0));
+        // keys are assigned in order of appearance, and go well beyond the ASCII range
+        for (int i = 1; i <= FEATURES; i++) {
+            int c = first.charAt(i);
+            int expected = i + 32;
+            expected += expected >= 34 ? 1 : 0;
+            expected += expected >= 92 ? 1 : 0;
+            assertEquals(expected, c);
+        }
+        assertEquals(FEATURES + 1, grid.getString(1).length());
+        assertEquals(FEATURES + 1, json.getJSONArray("keys").size());
+        assertEquals("test.199",
+                json.getJSONObject("data").getJSONObject(String.valueOf(FEATURES)).get("id"));
+    }
+
+    @Test
+    public void testDirectBuffer() throws Exception {
+        assertGrid(encode(image()));
+    }
+
+    @Test
+    public void testTranslatedRaster() throws Exception {
+        // a sub image shares a larger buffer, and has to be read row by row
+        BufferedImage larger = new BufferedImage(FEATURES + 11, 12, BufferedImage.TYPE_INT_RGB);
+        larger.getRaster().setDataElements(5, 5, image().getRaster());
+        assertGrid(encode(larger.getSubimage(5, 5, FEATURES + 1, 2)));
+    }
+}